@@ -0,0 +1,309 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.EnvOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.SstFileWriter;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * load a whole Map or Set without going through the WAL, memtables and compaction:
+ * input is sorted (spilling sorted runs to disk when it does not fit in memory),
+ * written as SST files in the key encoding of Database together with its meta info,
+ * and ingested into RocksDB at once, so the key appears with all its rows or not at all;
+ * the key must not exist or must be empty, the database lock is only held while the files are ingested
+ */
+public class BulkLoader {
+    /**
+     * estimated heap bytes of one buffered row besides its field and value
+     */
+    protected static final long ROW_OVERHEAD = 64;
+
+    protected final Database db;
+    protected final long memoryBytes;
+    protected final long fileBytes;
+
+    /**
+     * create loader
+     *
+     * @param db          target database, must be backed by RocksDB and not use the hot key tier
+     * @param memoryBytes rows buffered in memory before a sorted run is written to disk
+     * @param fileBytes   size at which a new SST file is started
+     */
+    public BulkLoader(final Database db, final long memoryBytes, final long fileBytes) {
+        if (db.getDb() == null) {
+            throw new IllegalStateException("bulk load requires a database backed by RocksDB");
+        }
+        if (db.getHotKeyTier() != null) {
+            throw new IllegalStateException("bulk load can not be used with Options.hotKeyTier");
+        }
+        this.db = db;
+        this.memoryBytes = memoryBytes;
+        this.fileBytes = fileBytes;
+    }
+
+    /**
+     * create loader buffering 64 MB of rows and writing 256 MB SST files
+     *
+     * @param db target database
+     * @return BulkLoader
+     */
+    public static BulkLoader of(final Database db) {
+        return new BulkLoader(db, 64 * 1024 * 1024, 256 * 1024 * 1024);
+    }
+
+    /**
+     * load fields of a Map, the last value of a repeated field wins
+     *
+     * @param key   key
+     * @param items items in any order
+     * @return number of fields
+     */
+    public long loadMap(final byte[] key, final Iterator<MapItem> items) {
+        return load(key, KeyType.Map, items);
+    }
+
+    /**
+     * load members of a Set, repeated members are added once
+     *
+     * @param key     key
+     * @param members members in any order
+     * @return number of members
+     */
+    public long loadSet(final byte[] key, final Iterator<byte[]> members) {
+        final byte[] empty = new byte[]{};
+        return load(key, KeyType.Set, new Iterator<MapItem>() {
+            @Override
+            public boolean hasNext() {
+                return members.hasNext();
+            }
+
+            @Override
+            public MapItem next() {
+                return MapItem.of(members.next(), empty);
+            }
+        });
+    }
+
+    protected long load(final byte[] key, final KeyType type, final Iterator<MapItem> rows) {
+        // fail before sorting hours of input, it is checked again when the files are ingested
+        db.checkBulkLoadTarget(key, type);
+        final long keyId = db.allocateKeyId();
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory(Paths.get(db.getPath()), "bulk-load-");
+            final long count;
+            final List<String> files;
+            try (final ExternalSorter sorter = new ExternalSorter(dir, memoryBytes)) {
+                while (rows.hasNext()) {
+                    sorter.add(rows.next());
+                }
+                final Iterator<MapItem> sorted = sorter.sorted();
+                if (!sorted.hasNext()) {
+                    return 0;
+                }
+                files = new ArrayList<>();
+                count = writeFiles(dir, keyId, sorted, files);
+                final MetaInfo meta = new MetaInfo(keyId, type, count, null);
+                // the meta row sorts after every data row, it goes into the last file
+                try (final EnvOptions env = new EnvOptions();
+                     final SstFileWriter writer = new SstFileWriter(env, db.options.getRocksDBOptions())) {
+                    final String file = dir.resolve(files.size() + ".sst").toString();
+                    writer.open(file);
+                    writer.put(Encoding.encodeMetaKey(key), meta.toBytes());
+                    writer.finish();
+                    files.add(file);
+                }
+                db.ingestKey(key, meta, files);
+            }
+            return count;
+        } catch (IOException | RocksDBException e) {
+            throw new IllegalStateException("bulk load failed: " + e.getMessage(), e);
+        } finally {
+            if (dir != null) {
+                Database.deleteDirectory(dir);
+            }
+        }
+    }
+
+    /**
+     * write data rows into SST files of about fileBytes each
+     *
+     * @return number of rows
+     */
+    protected long writeFiles(final Path dir, final long keyId, final Iterator<MapItem> sorted, final List<String> files) throws RocksDBException {
+        long count = 0;
+        try (final EnvOptions env = new EnvOptions()) {
+            while (sorted.hasNext()) {
+                try (final SstFileWriter writer = new SstFileWriter(env, db.options.getRocksDBOptions())) {
+                    final String file = dir.resolve(files.size() + ".sst").toString();
+                    writer.open(file);
+                    long fileRows = 0;
+                    while (sorted.hasNext()) {
+                        final MapItem row = sorted.next();
+                        writer.put(Encoding.encodeDataMapFieldKey(keyId, row.field), row.value);
+                        count++;
+                        // fileSize() crosses JNI, do not ask on every row
+                        if (++fileRows % 1024 == 0 && writer.fileSize() >= fileBytes) {
+                            break;
+                        }
+                    }
+                    writer.finish();
+                    files.add(file);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * sort rows by field in unsigned byte order keeping the last row of each field,
+     * rows beyond memoryBytes are written to sorted run files which are merged at the end
+     */
+    protected static class ExternalSorter implements Closeable {
+        protected static final Comparator<MapItem> ORDER = (a, b) -> Encoding.compareKeyBytes(a.field, b.field);
+
+        protected final Path dir;
+        protected final long memoryBytes;
+        protected final List<MapItem> buffer = new ArrayList<>();
+        protected long bufferBytes;
+        protected final List<Path> runs = new ArrayList<>();
+        protected final List<DataInputStream> readers = new ArrayList<>();
+
+        protected ExternalSorter(final Path dir, final long memoryBytes) {
+            this.dir = dir;
+            this.memoryBytes = memoryBytes;
+        }
+
+        protected void add(final MapItem row) throws IOException {
+            buffer.add(row);
+            bufferBytes += row.field.length + row.value.length + ROW_OVERHEAD;
+            if (bufferBytes >= memoryBytes) {
+                spill();
+            }
+        }
+
+        /**
+         * sort the buffer, the sort is stable so the last of equal rows is the latest one added
+         *
+         * @return sorted rows without repeated fields
+         */
+        protected List<MapItem> sortBuffer() {
+            buffer.sort(ORDER);
+            final List<MapItem> rows = new ArrayList<>(buffer.size());
+            for (final MapItem row : buffer) {
+                if (!rows.isEmpty() && Encoding.compareKeyBytes(rows.get(rows.size() - 1).field, row.field) == 0) {
+                    rows.set(rows.size() - 1, row);
+                } else {
+                    rows.add(row);
+                }
+            }
+            buffer.clear();
+            bufferBytes = 0;
+            return rows;
+        }
+
+        protected void spill() throws IOException {
+            final Path run = dir.resolve("run-" + runs.size());
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (final MapItem row : sortBuffer()) {
+                    out.writeInt(row.field.length);
+                    out.write(row.field);
+                    out.writeInt(row.value.length);
+                    out.write(row.value);
+                }
+            }
+            runs.add(run);
+        }
+
+        /**
+         * returns all rows added in order, must be called once after the last add()
+         *
+         * @return iterator
+         */
+        protected Iterator<MapItem> sorted() throws IOException {
+            if (runs.isEmpty()) {
+                return sortBuffer().iterator();
+            }
+            if (!buffer.isEmpty()) {
+                spill();
+            }
+            // heads of runs ordered by field, then by run so the latest of equal rows comes last
+            final PriorityQueue<RunHead> heads = new PriorityQueue<>((a, b) -> {
+                final int c = ORDER.compare(a.row, b.row);
+                return c != 0 ? c : Integer.compare(a.run, b.run);
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i))));
+                readers.add(in);
+                final MapItem row = readRow(in);
+                if (row != null) {
+                    heads.add(new RunHead(row, i));
+                }
+            }
+            return new Iterator<MapItem>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public MapItem next() {
+                    MapItem latest = null;
+                    do {
+                        final RunHead head = heads.poll();
+                        latest = head.row;
+                        advance(heads, head);
+                    } while (!heads.isEmpty() && ORDER.compare(heads.peek().row, latest) == 0);
+                    return latest;
+                }
+            };
+        }
+
+        protected void advance(final PriorityQueue<RunHead> heads, final RunHead head) {
+            try {
+                final MapItem row = readRow(readers.get(head.run));
+                if (row != null) {
+                    heads.add(new RunHead(row, head.run));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to read sorted run: " + e.getMessage(), e);
+            }
+        }
+
+        protected static MapItem readRow(final DataInputStream in) throws IOException {
+            final int fieldLength;
+            try {
+                fieldLength = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            final byte[] field = new byte[fieldLength];
+            in.readFully(field);
+            final byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            return MapItem.of(field, value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (final DataInputStream in : readers) {
+                in.close();
+            }
+        }
+    }
+
+    protected static class RunHead {
+        protected final MapItem row;
+        protected final int run;
+
+        protected RunHead(final MapItem row, final int run) {
+            this.row = row;
+            this.run = run;
+        }
+    }
+}
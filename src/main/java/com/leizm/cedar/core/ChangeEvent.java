@@ -0,0 +1,102 @@
+package com.leizm.cedar.core;
+
+/**
+ * a logical change decoded from a RocksDB write batch, see ChangeFeed
+ */
+public class ChangeEvent {
+    public enum Type {
+        /**
+         * field set to value
+         */
+        MapPut,
+        /**
+         * field removed
+         */
+        MapRemove,
+        /**
+         * counter of field changed, value is the delta as written by mapIncrBy
+         */
+        MapIncrBy,
+        SetAdd,
+        SetRemove,
+        /**
+         * value written at position, by a push
+         */
+        ListPut,
+        /**
+         * value at position removed, by a pop or trim
+         */
+        ListRemove,
+        /**
+         * values from position to end (exclusive) removed, by a trim
+         */
+        ListRemoveRange,
+        /**
+         * item added to a SortedList or AscSortedList, position is its sequence
+         */
+        SortedListAdd,
+        /**
+         * item removed from a SortedList or AscSortedList, value is null
+         */
+        SortedListRemove,
+        /**
+         * items before score and sequence in position removed, by ascSortedListPrune
+         */
+        SortedListRemoveRange,
+        SortedSetPut,
+        SortedSetRemove,
+        /**
+         * all rows of the key id removed at once
+         */
+        KeyClear,
+        /**
+         * meta info of the key removed, the key is empty
+         */
+        KeyDelete
+    }
+
+    /**
+     * sequence number of the write batch, events of one batch were written atomically
+     */
+    public final long sequence;
+    public final Type type;
+    public final KeyType keyType;
+    public final long keyId;
+    public final byte[] key;
+    /**
+     * Map field, Set or SortedSet member, or SortedList score
+     */
+    public final byte[] field;
+    public final byte[] value;
+    /**
+     * List position or SortedList sequence
+     */
+    public final long position;
+    /**
+     * exclusive end position of ListRemoveRange
+     */
+    public final long end;
+    /**
+     * SortedSet score
+     */
+    public final double score;
+
+    public ChangeEvent(final long sequence, final Type type, final KeyType keyType, final long keyId, final byte[] key,
+                       final byte[] field, final byte[] value, final long position, final long end, final double score) {
+        this.sequence = sequence;
+        this.type = type;
+        this.keyType = keyType;
+        this.keyId = keyId;
+        this.key = key;
+        this.field = field;
+        this.value = value;
+        this.position = position;
+        this.end = end;
+        this.score = score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ChangeEvent(%d, %s, %s, %s)", sequence, type, new String(key), field == null ? position : new String(field));
+    }
+}
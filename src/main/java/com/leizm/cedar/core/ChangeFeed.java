@@ -0,0 +1,334 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.RocksDBException;
+import org.rocksdb.TransactionLogIterator;
+import org.rocksdb.WriteBatch;
+
+import java.util.*;
+
+/**
+ * change data capture by tailing the RocksDB write-ahead log: every write batch after a sequence number
+ * is decoded back into ChangeEvent using the row layout of Encoding;
+ * the consumer pulls events with poll(), so it is never sent more than it asks for,
+ * and resumes after a restart from getSequence() of the last batch it has processed;
+ * WAL files must be kept long enough, see Options.walTtlSeconds;
+ * rows of a key id are mapped to its key through meta info rows, seeded from the current keys,
+ * rows of keys deleted before the feed was created are skipped;
+ * rows held by the hot key tier appear when they are flushed, and BulkLoader ingestion bypasses the WAL;
+ * a feed is used by one thread at a time
+ */
+public class ChangeFeed implements AutoCloseable {
+    protected final Database db;
+
+    /**
+     * sequence number of the next batch to read
+     */
+    protected long sequence;
+
+    protected TransactionLogIterator iterator;
+
+    protected final Map<Long, KeyInfo> keysById = new HashMap<>();
+    protected final Map<String, KeyInfo> keysByName = new HashMap<>();
+
+    /**
+     * create feed
+     *
+     * @param db       database, must be backed by RocksDB
+     * @param sequence first sequence number to read, usually getSequence() saved by a previous feed
+     */
+    public ChangeFeed(final Database db, final long sequence) {
+        if (db.getDb() == null) {
+            throw new IllegalStateException("change feed requires a database backed by RocksDB");
+        }
+        this.db = db;
+        this.sequence = sequence;
+        db.forEachKeys((key, meta) -> addKey(key, meta));
+    }
+
+    /**
+     * returns the sequence number to resume from, all batches before it have been returned by poll()
+     *
+     * @return sequence
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * read events of whole write batches until at least maxEvents are collected or the WAL end is reached
+     *
+     * @param maxEvents events wanted, a batch is never split so more may be returned
+     * @return events, empty if no batch was written since the last poll
+     * @throws IllegalStateException if the WAL can not be read, e.g. the file holding the next sequence has been deleted
+     */
+    public List<ChangeEvent> poll(final int maxEvents) {
+        final List<ChangeEvent> events = new ArrayList<>();
+        try {
+            if (iterator == null || !iterator.isValid()) {
+                closeIterator();
+                if (sequence > db.getDb().getLatestSequenceNumber()) {
+                    return events;
+                }
+                iterator = db.getDb().getUpdatesSince(sequence);
+            }
+            while (iterator.isValid() && events.size() < maxEvents) {
+                final TransactionLogIterator.BatchResult result = iterator.getBatch();
+                try (final WriteBatch batch = result.writeBatch()) {
+                    // the iterator starts at the batch containing sequence, which has been read already
+                    if (result.sequenceNumber() >= sequence) {
+                        decode(result.sequenceNumber(), batch, events);
+                    }
+                    sequence = Math.max(sequence, result.sequenceNumber() + batch.count());
+                }
+                iterator.next();
+            }
+            iterator.status();
+        } catch (RocksDBException e) {
+            closeIterator();
+            throw new IllegalStateException("failed to read WAL: " + e.getMessage(), e);
+        }
+        return events;
+    }
+
+    protected void decode(final long batchSequence, final WriteBatch batch, final List<ChangeEvent> events) throws RocksDBException {
+        final List<Row> rows = new ArrayList<>();
+        try (final RowCollector collector = new RowCollector(rows)) {
+            batch.iterate(collector);
+        }
+        // meta info of a key created in this batch may come after its rows
+        for (final Row row : rows) {
+            if (row.kind == Row.PUT && Encoding.hasPrefix(Encoding.KEY_PREFIX_META, row.key)) {
+                addKey(Encoding.decodeMetaKey(row.key), MetaInfo.fromBytes(row.value));
+            }
+        }
+        for (final Row row : rows) {
+            if (Encoding.hasPrefix(Encoding.KEY_PREFIX_DATA, row.key)) {
+                final KeyInfo info = keysById.get(Encoding.readLong(row.key, Encoding.KEY_PREFIX_DATA.length));
+                if (info != null) {
+                    final ChangeEvent event = row.kind == Row.DELETE_RANGE
+                            ? decodeRange(batchSequence, info, row.key, row.value) : decodeRow(batchSequence, info, row);
+                    if (event != null) {
+                        events.add(event);
+                    }
+                }
+            } else if (row.kind == Row.DELETE && Encoding.hasPrefix(Encoding.KEY_PREFIX_META, row.key)) {
+                final KeyInfo info = keysByName.remove(new String(Encoding.decodeMetaKey(row.key)));
+                if (info != null) {
+                    keysById.remove(info.id);
+                    events.add(new ChangeEvent(batchSequence, ChangeEvent.Type.KeyDelete, info.type, info.id, info.key, null, null, 0, 0, 0));
+                }
+            }
+        }
+    }
+
+    protected ChangeEvent decodeRow(final long batchSequence, final KeyInfo info, final Row row) {
+        final int offset = Encoding.KEY_PREFIX_DATA.length + 8;
+        final byte[] suffix = Arrays.copyOfRange(row.key, offset, row.key.length);
+        final boolean put = row.kind == Row.PUT;
+        ChangeEvent.Type type;
+        byte[] field = null;
+        byte[] value = put ? row.value : null;
+        long position = 0;
+        double score = 0;
+        switch (info.type) {
+            case Map:
+                type = row.kind == Row.MERGE ? ChangeEvent.Type.MapIncrBy : put ? ChangeEvent.Type.MapPut : ChangeEvent.Type.MapRemove;
+                field = suffix;
+                if (row.kind == Row.MERGE) {
+                    value = row.value;
+                }
+                break;
+            case Set:
+                type = put ? ChangeEvent.Type.SetAdd : ChangeEvent.Type.SetRemove;
+                field = suffix;
+                value = null;
+                break;
+            case List:
+                type = put ? ChangeEvent.Type.ListPut : ChangeEvent.Type.ListRemove;
+                position = Encoding.comparableLongFromBytes(suffix);
+                break;
+            case SortedList:
+            case AscSortedList:
+                type = put ? ChangeEvent.Type.SortedListAdd : ChangeEvent.Type.SortedListRemove;
+                field = Encoding.decodeDataSortedListKey(row.key);
+                position = Encoding.readLong(row.key, row.key.length - 8);
+                break;
+            case SortedSet:
+                // score rows and rank buckets only index member rows
+                if (suffix.length == 0 || suffix[0] != Encoding.SORTED_SET_MEMBER_TAG[0] || row.kind == Row.MERGE) {
+                    return null;
+                }
+                type = put ? ChangeEvent.Type.SortedSetPut : ChangeEvent.Type.SortedSetRemove;
+                field = Arrays.copyOfRange(suffix, 1, suffix.length);
+                if (put) {
+                    score = Encoding.sortableDoubleFromBytes(row.value, 0);
+                }
+                value = null;
+                break;
+            default:
+                return null;
+        }
+        return new ChangeEvent(batchSequence, type, info.type, info.id, info.key, field, value, position, 0, score);
+    }
+
+    protected ChangeEvent decodeRange(final long batchSequence, final KeyInfo info, final byte[] begin, final byte[] end) {
+        if (Arrays.equals(begin, Encoding.encodeDataMapPrefixKey(info.id)) && Arrays.equals(end, Encoding.encodeDataMapPrefixKey(info.id + 1))) {
+            return new ChangeEvent(batchSequence, ChangeEvent.Type.KeyClear, info.type, info.id, info.key, null, null, 0, 0, 0);
+        }
+        final int offset = Encoding.KEY_PREFIX_DATA.length + 8;
+        switch (info.type) {
+            case List:
+                return new ChangeEvent(batchSequence, ChangeEvent.Type.ListRemoveRange, info.type, info.id, info.key, null, null,
+                        Encoding.comparableLongFromBytes(Arrays.copyOfRange(begin, offset, begin.length)),
+                        Encoding.comparableLongFromBytes(Arrays.copyOfRange(end, offset, end.length)), 0);
+            case SortedList:
+            case AscSortedList:
+                return new ChangeEvent(batchSequence, ChangeEvent.Type.SortedListRemoveRange, info.type, info.id, info.key,
+                        Encoding.decodeDataSortedListKey(end), null, Encoding.readLong(end, end.length - 8), 0, 0);
+            default:
+                return null;
+        }
+    }
+
+    protected void addKey(final byte[] key, final MetaInfo meta) {
+        final KeyInfo info = new KeyInfo(key, meta.id, meta.type);
+        final KeyInfo old = keysByName.put(new String(key), info);
+        if (old != null && old.id != meta.id) {
+            keysById.remove(old.id);
+        }
+        keysById.put(meta.id, info);
+    }
+
+    protected void closeIterator() {
+        if (iterator != null) {
+            iterator.close();
+            iterator = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeIterator();
+    }
+
+    protected static class KeyInfo {
+        protected final byte[] key;
+        protected final long id;
+        protected final KeyType type;
+
+        protected KeyInfo(final byte[] key, final long id, final KeyType type) {
+            this.key = key;
+            this.id = id;
+            this.type = type;
+        }
+    }
+
+    protected static class Row {
+        protected static final int PUT = 1;
+        protected static final int DELETE = 2;
+        protected static final int MERGE = 3;
+        /**
+         * key is the begin and value the end of the range
+         */
+        protected static final int DELETE_RANGE = 4;
+
+        protected final int kind;
+        protected final byte[] key;
+        protected final byte[] value;
+
+        protected Row(final int kind, final byte[] key, final byte[] value) {
+            this.kind = kind;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * collects rows of the default column family, the only one used by Database
+     */
+    protected static class RowCollector extends WriteBatch.Handler {
+        protected final List<Row> rows;
+
+        protected RowCollector(final List<Row> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void put(final int columnFamilyId, final byte[] key, final byte[] value) {
+            put(key, value);
+        }
+
+        @Override
+        public void put(final byte[] key, final byte[] value) {
+            rows.add(new Row(Row.PUT, key, value));
+        }
+
+        @Override
+        public void merge(final int columnFamilyId, final byte[] key, final byte[] value) {
+            merge(key, value);
+        }
+
+        @Override
+        public void merge(final byte[] key, final byte[] value) {
+            rows.add(new Row(Row.MERGE, key, value));
+        }
+
+        @Override
+        public void delete(final int columnFamilyId, final byte[] key) {
+            delete(key);
+        }
+
+        @Override
+        public void delete(final byte[] key) {
+            rows.add(new Row(Row.DELETE, key, null));
+        }
+
+        @Override
+        public void singleDelete(final int columnFamilyId, final byte[] key) {
+            delete(key);
+        }
+
+        @Override
+        public void singleDelete(final byte[] key) {
+            delete(key);
+        }
+
+        @Override
+        public void deleteRange(final int columnFamilyId, final byte[] beginKey, final byte[] endKey) {
+            deleteRange(beginKey, endKey);
+        }
+
+        @Override
+        public void deleteRange(final byte[] beginKey, final byte[] endKey) {
+            rows.add(new Row(Row.DELETE_RANGE, beginKey, endKey));
+        }
+
+        @Override
+        public void logData(final byte[] blob) {
+        }
+
+        @Override
+        public void putBlobIndex(final int columnFamilyId, final byte[] key, final byte[] value) {
+        }
+
+        @Override
+        public void markBeginPrepare() {
+        }
+
+        @Override
+        public void markEndPrepare(final byte[] xid) {
+        }
+
+        @Override
+        public void markNoop(final boolean emptyBatch) {
+        }
+
+        @Override
+        public void markRollback(final byte[] xid) {
+        }
+
+        @Override
+        public void markCommit(final byte[] xid) {
+        }
+    }
+}
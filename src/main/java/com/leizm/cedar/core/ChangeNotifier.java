@@ -0,0 +1,310 @@
+package com.leizm.cedar.core;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * delivers KeyChange of committed operations to in-process subscribers, created by the first Database.subscribe();
+ * every subscription has a bounded ring buffer written by the operation and read by a dispatcher thread,
+ * publish() is called while holding the database lock, so each ring has one producer at a time
+ * and neither side takes a lock; a slow listener only fills its own ring, what happens then is
+ * decided by its OverflowPolicy
+ */
+public class ChangeNotifier implements AutoCloseable {
+    public enum OverflowPolicy {
+        /**
+         * discard the change and count it in Subscription.getDropped()
+         */
+        Drop,
+        /**
+         * the writer waits for the listener, use only with listeners which never block on the database
+         */
+        Block,
+        /**
+         * keep only the latest change of each key until the listener catches up, changes of one key stay in order
+         */
+        Coalesce
+    }
+
+    /**
+     * max changes a dispatcher delivers from one subscription before moving to the next
+     */
+    protected static final int DISPATCH_BATCH = 256;
+
+    /**
+     * dispatchers sleep at most this long, in case an unpark was missed
+     */
+    protected static final long IDLE_PARK_NANOS = 10_000_000;
+
+    protected final int bufferSize;
+    protected final Dispatcher[] dispatchers;
+    protected final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    protected long nextSubscription;
+
+    /**
+     * create notifier
+     *
+     * @param bufferSize  capacity of each ring buffer
+     * @param dispatchers number of dispatcher threads, subscriptions are spread over them
+     */
+    public ChangeNotifier(final int bufferSize, final int dispatchers) {
+        if (bufferSize < 1 || dispatchers < 1) {
+            throw new IllegalArgumentException("bufferSize and dispatchers must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.dispatchers = new Dispatcher[dispatchers];
+        for (int i = 0; i < dispatchers; i++) {
+            this.dispatchers[i] = new Dispatcher("cedar-change-dispatcher-" + i);
+            this.dispatchers[i].start();
+        }
+    }
+
+    /**
+     * receive changes of keys starting with prefix
+     *
+     * @param prefix   key prefix, empty for all keys
+     * @param policy   what to do when the listener falls behind by bufferSize changes
+     * @param listener called on a dispatcher thread, in commit order
+     * @return Subscription, close it to unsubscribe
+     */
+    public synchronized Subscription subscribe(final byte[] prefix, final OverflowPolicy policy, final Consumer<KeyChange> listener) {
+        final Dispatcher dispatcher = dispatchers[(int) (nextSubscription++ % dispatchers.length)];
+        final Subscription subscription = new Subscription(this, dispatcher, prefix, policy, listener, bufferSize);
+        dispatcher.subscriptions.add(subscription);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    protected void unsubscribe(final Subscription subscription) {
+        subscriptions.remove(subscription);
+        subscription.dispatcher.subscriptions.remove(subscription);
+    }
+
+    public boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * hand a committed change to matching subscriptions, must be called while holding the database lock
+     *
+     * @param type operation
+     * @param key  key
+     */
+    public void publish(final OperationType type, final byte[] key) {
+        KeyChange change = null;
+        for (final Subscription subscription : subscriptions) {
+            if (Encoding.hasPrefix(subscription.prefix, key)) {
+                if (change == null) {
+                    change = KeyChange.of(type, key);
+                }
+                subscription.offer(change);
+            }
+        }
+    }
+
+    /**
+     * deliver what is buffered and stop the dispatcher threads
+     */
+    @Override
+    public void close() {
+        for (final Dispatcher dispatcher : dispatchers) {
+            dispatcher.running = false;
+            LockSupport.unpark(dispatcher);
+        }
+        for (final Dispatcher dispatcher : dispatchers) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        subscriptions.clear();
+    }
+
+    public static class Subscription implements AutoCloseable {
+        protected final ChangeNotifier notifier;
+        protected final Dispatcher dispatcher;
+        protected final byte[] prefix;
+        protected final OverflowPolicy policy;
+        protected final Consumer<KeyChange> listener;
+
+        protected final KeyChange[] ring;
+        /**
+         * next slot the producer writes, set after the slot is written
+         */
+        protected final AtomicLong tail = new AtomicLong();
+        /**
+         * next slot the dispatcher reads
+         */
+        protected final AtomicLong head = new AtomicLong();
+        /**
+         * latest change of each key while the ring overflows, used by OverflowPolicy.Coalesce
+         */
+        protected final Map<String, KeyChange> overflow = new ConcurrentHashMap<>();
+        protected final AtomicLong dropped = new AtomicLong();
+        protected final AtomicLong delivered = new AtomicLong();
+
+        protected Subscription(final ChangeNotifier notifier, final Dispatcher dispatcher, final byte[] prefix,
+                               final OverflowPolicy policy, final Consumer<KeyChange> listener, final int bufferSize) {
+            this.notifier = notifier;
+            this.dispatcher = dispatcher;
+            this.prefix = prefix;
+            this.policy = policy;
+            this.listener = listener;
+            this.ring = new KeyChange[bufferSize];
+        }
+
+        /**
+         * returns number of changes discarded under OverflowPolicy.Drop
+         *
+         * @return count
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * returns number of changes passed to the listener
+         *
+         * @return count
+         */
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        protected void offer(final KeyChange change) {
+            // once a change is coalesced, later ones follow it so changes of one key stay in order
+            if (policy == OverflowPolicy.Coalesce && !overflow.isEmpty()) {
+                overflow.put(new String(change.key), change);
+                dispatcher.wake();
+                return;
+            }
+            final long t = tail.get();
+            while (t - head.get() >= ring.length) {
+                if (policy == OverflowPolicy.Drop) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                if (policy == OverflowPolicy.Coalesce) {
+                    overflow.put(new String(change.key), change);
+                    dispatcher.wake();
+                    return;
+                }
+                dispatcher.wake();
+                LockSupport.parkNanos(1000);
+            }
+            ring[(int) (t % ring.length)] = change;
+            tail.set(t + 1);
+            dispatcher.wake();
+        }
+
+        protected boolean hasPending() {
+            return head.get() != tail.get() || !overflow.isEmpty();
+        }
+
+        /**
+         * deliver up to DISPATCH_BATCH changes, called by the dispatcher thread only
+         *
+         * @return true if something was delivered
+         */
+        protected boolean drain() {
+            int n = 0;
+            long h = head.get();
+            final long t = tail.get();
+            while (h != t && n < DISPATCH_BATCH) {
+                final int slot = (int) (h % ring.length);
+                final KeyChange change = ring[slot];
+                ring[slot] = null;
+                head.lazySet(++h);
+                deliver(change);
+                n++;
+            }
+            // coalesced changes are newer than everything in the ring
+            if (n < DISPATCH_BATCH && h == tail.get() && !overflow.isEmpty()) {
+                final Iterator<Map.Entry<String, KeyChange>> it = overflow.entrySet().iterator();
+                while (it.hasNext() && n < DISPATCH_BATCH) {
+                    final Map.Entry<String, KeyChange> entry = it.next();
+                    final KeyChange change = entry.getValue();
+                    // a newer change of the key may replace this one meanwhile, it stays for the next round
+                    if (!overflow.remove(entry.getKey(), change)) {
+                        continue;
+                    }
+                    deliver(change);
+                    n++;
+                }
+            }
+            return n > 0;
+        }
+
+        protected void deliver(final KeyChange change) {
+            try {
+                listener.accept(change);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            delivered.incrementAndGet();
+        }
+
+        /**
+         * stop receiving changes, buffered ones are discarded
+         */
+        @Override
+        public void close() {
+            notifier.unsubscribe(this);
+        }
+    }
+
+    protected static class Dispatcher extends Thread {
+        protected final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        protected volatile boolean running = true;
+        protected volatile boolean sleeping;
+
+        protected Dispatcher(final String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        protected void wake() {
+            if (sleeping) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        protected boolean hasPending() {
+            for (final Subscription subscription : subscriptions) {
+                if (subscription.hasPending()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean delivered = false;
+                for (final Subscription subscription : subscriptions) {
+                    delivered |= subscription.drain();
+                }
+                if (delivered) {
+                    continue;
+                }
+                if (!running) {
+                    return;
+                }
+                sleeping = true;
+                // a producer checks sleeping after publishing, so a change published before this check is seen here
+                if (!hasPending() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+}
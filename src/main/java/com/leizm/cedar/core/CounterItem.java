@@ -0,0 +1,15 @@
+package com.leizm.cedar.core;
+
+public class CounterItem {
+    public final byte[] field;
+    public final long delta;
+
+    public CounterItem(final byte[] field, final long delta) {
+        this.field = field;
+        this.delta = delta;
+    }
+
+    public static CounterItem of(final byte[] field, final long delta) {
+        return new CounterItem(field, delta);
+    }
+}
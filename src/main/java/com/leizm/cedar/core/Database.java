@@ -2,11 +2,34 @@ package com.leizm.cedar.core;
 
 import org.rocksdb.*;
 
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 public class Database implements IDatabase {
+    /**
+     * SortedSet keeps member counters for score prefixes of 1 to this many bytes, used by sortedSetRank
+     */
+    protected static final int SORTED_SET_BUCKET_LEVELS = 3;
+
+    /**
+     * unchecked count increments a key may take in approximate count mode before it is recounted,
+     * for keys whose count is smaller than this
+     */
+    protected static final long APPROXIMATE_COUNT_RECONCILE_MIN = 1024;
+
     /**
      * LevelDB database instance
      */
@@ -17,13 +40,53 @@ public class Database implements IDatabase {
      */
     protected String path;
 
+    /**
+     * options used to open the database
+     */
+    protected Options options;
+
     /**
      * next key id
      */
     protected long nextKeyId = 0;
 
+    /**
+     * whether map and set count is maintained exactly, see Options.exactCount
+     */
+    protected boolean exactCount = true;
+
+    /**
+     * meta info by key, changed in place by exclusive operations while they hold the database lock and
+     * cleared when a write batch fails; operations without the lock only read its final id and type,
+     * and MetaInfo handed to callers, e.g. by forEachKeys, is always decoded fresh
+     */
     protected LRUCache<String, MetaInfo> metaInfoCache;
 
+    /**
+     * pending write batch of the calling thread, see dbWriteBatch()
+     */
+    protected final ThreadLocal<WriteBatch> writeBatch = new ThreadLocal<>();
+
+    /**
+     * write-behind tier of hot keys, null if disabled
+     */
+    protected HotKeyTier hotKeyTier;
+
+    /**
+     * operation metrics, null if disabled
+     */
+    protected DatabaseMetrics metrics;
+
+    /**
+     * slow operations log, null if disabled
+     */
+    protected SlowLog slowLog;
+
+    /**
+     * in-process change notifications, null until the first subscribe()
+     */
+    protected volatile ChangeNotifier changeNotifier;
+
     /**
      * open database
      *
@@ -32,11 +95,27 @@ public class Database implements IDatabase {
      * @throws RocksDBException
      */
     public Database(String path, Options options) throws RocksDBException {
-        options = options == null ? new Options() : options;
-        this.db = RocksDB.open(options.getRocksDBOptions(), path);
+        this(options);
+        if (this.options.enableTransactions) {
+            this.db = OptimisticTransactionDB.open(this.options.getRocksDBOptions(), path);
+        } else {
+            this.db = RocksDB.open(this.options.getRocksDBOptions(), path);
+        }
         this.path = path;
-        this.metaInfoCache = new LRUCache<>(options.metaInfoCacheCount);
+        if (metrics != null) {
+            metrics.attach(db, this.options.getRocksDBOptions().statistics());
+            if (this.options.registerMBeans) {
+                metrics.registerMBeans(path);
+            }
+        }
+        HotKeyTier.replayLog(db, path);
+        if (this.options.hotKeyTier) {
+            this.hotKeyTier = new HotKeyTier(db, path, this.options);
+        }
         initAfterOpen();
+        if (this.options.memoryBudget != null) {
+            this.options.memoryBudget.attach(this);
+        }
     }
 
     /**
@@ -50,397 +129,2010 @@ public class Database implements IDatabase {
     }
 
     /**
-     * returns LevelDB instance
+     * open a read-only instance of a database used by another process, it catches up with the primary
+     * every Options.secondaryCatchUpIntervalMillis, see SecondaryDatabase
      *
-     * @return RocksDB
+     * @param primaryPath   path of the primary database
+     * @param secondaryPath directory for files of the secondary instance
+     * @param options       options
+     * @return SecondaryDatabase
+     * @throws RocksDBException
      */
-    public RocksDB getDb() {
-        return db;
+    public static SecondaryDatabase openSecondary(final String primaryPath, final String secondaryPath, final Options options) throws RocksDBException {
+        return new SecondaryDatabase(primaryPath, secondaryPath, options);
     }
 
     /**
-     * returns database path
+     * create a database without storage, used by engines which override the db* storage methods,
+     * they should call initAfterOpen() once their storage is ready
      *
-     * @return path
+     * @param options options
      */
-    public String getPath() {
-        return path;
+    protected Database(final Options options) {
+        this.options = options == null ? new Options() : options;
+        this.metaInfoCache = new LRUCache<>(this.options.memoryBudget != null
+                ? this.options.memoryBudget.metaInfoCacheCount() : this.options.metaInfoCacheCount);
+        this.exactCount = this.options.exactCount;
+        if (this.options.enableMetrics) {
+            this.metrics = new DatabaseMetrics();
+        }
+        if (this.options.slowLogThresholdMicros >= 0) {
+            this.slowLog = new SlowLog(this.options.slowLogMaxLen, this.options.slowLogThresholdMicros);
+        }
     }
 
     /**
-     * close database
+     * create a view sharing the RocksDB instance, metrics and slow log of parent,
+     * with its own meta info cache
      *
+     * @param parent parent database
      */
-    public void close() {
-        db.close();
+    protected Database(final Database parent) {
+        this.db = parent.db;
+        this.path = parent.path;
+        this.options = parent.options;
+        this.exactCount = parent.exactCount;
+        this.metrics = parent.metrics;
+        this.slowLog = parent.slowLog;
+        this.metaInfoCache = new LRUCache<>(parent.metaInfoCache.capacity());
     }
 
-    protected void initAfterOpen() {
-        final Box<Long> maxKeyId = Box.of(1L);
-        prefixForEach(Encoding.KEY_PREFIX_META, (entry -> {
-            final MetaInfo meta = MetaInfo.fromBytes(entry.value());
-            if (meta.id > maxKeyId.value) {
-                maxKeyId.value = meta.id;
-            }
-        }));
-        nextKeyId = maxKeyId.value + 1;
+    /**
+     * returns LevelDB instance
+     *
+     * @return RocksDB, null if the database is not backed by RocksDB
+     */
+    public RocksDB getDb() {
+        return db;
     }
 
-    protected long prefixForEach(final byte[] prefix, final Consumer<RocksIterator> onItem) {
-        long count = 0;
-        try (final ReadOptions readOptions = dbReadOptions(o -> {
-            o.setPrefixSameAsStart(true);
-            o.setTotalOrderSeek(false);
-        })) {
-            try (final RocksIterator it = dbIterator(readOptions)) {
-                it.seek(prefix);
-                while (it.isValid()) {
-                    if (!Encoding.hasPrefix(prefix, it.key())) {
-                        break;
-                    }
-                    onItem.accept(it);
-                    count++;
-                    it.next();
-                }
-            }
-        }
-        return count;
+    /**
+     * returns write-behind tier of hot keys
+     *
+     * @return HotKeyTier, null if Options.hotKeyTier is disabled
+     */
+    public HotKeyTier getHotKeyTier() {
+        return hotKeyTier;
     }
 
-    protected Slice toDBSlice(final byte[] key) {
-        return new Slice(key);
+    /**
+     * write rows held by the hot key tier to RocksDB, returns immediately if the tier is disabled
+     */
+    public void flush() {
+        if (hotKeyTier != null) {
+            hotKeyTier.flush();
+        }
     }
 
-    protected ReadOptions dbReadOptions(Consumer<ReadOptions> setup) {
-        final ReadOptions readOptions = new ReadOptions();
-        if (setup != null) {
-            setup.accept(readOptions);
+    /**
+     * returns sequence number of the last write, a ChangeFeed started after it sees only later writes
+     *
+     * @return sequence
+     */
+    public long getLatestSequenceNumber() {
+        if (db == null) {
+            throw new IllegalStateException("sequence numbers require a database backed by RocksDB");
         }
-        return readOptions;
+        return db.getLatestSequenceNumber();
     }
 
-    protected RocksIterator dbIterator(ReadOptions readOptions) {
-        return readOptions == null ? db.newIterator() : db.newIterator(readOptions);
+    /**
+     * follow writes from a sequence number, see ChangeFeed
+     *
+     * @param sequence first sequence number to read
+     * @return ChangeFeed
+     */
+    public ChangeFeed changeFeed(final long sequence) {
+        return new ChangeFeed(this, sequence);
     }
 
-    protected byte[] dbGet(byte[] key) {
-        // System.out.printf("GET %s\n", new String(key));
-        try {
-            return db.get(key);
-        } catch (RocksDBException e) {
-            return null;
+    /**
+     * create an openable copy of the database in dir with RocksDB Checkpoint, SST files are hard-linked
+     * when dir is on the same file system; writes are blocked only while the checkpoint is taken,
+     * rows held by the hot key tier are flushed into it first
+     *
+     * @param dir target directory, must not exist
+     */
+    public void checkpoint(final String dir) {
+        if (db == null) {
+            throw new IllegalStateException("checkpoint requires a database backed by RocksDB");
+        }
+        // no operation is half written while the database lock is held
+        synchronized (this) {
+            flush();
+            try (final Checkpoint checkpoint = Checkpoint.create(db)) {
+                checkpoint.createCheckpoint(dir);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException("failed to create checkpoint: " + e.getMessage(), e);
+            }
         }
     }
 
-    protected void dbPut(byte[] key, byte[] value) {
-        // System.out.printf("PUT %s = %s\n", new String(key), new String(value));
+    /**
+     * create an incremental backup in backupDir with RocksDB BackupEngine and keep the latest ones;
+     * the backup is copied from a checkpoint, so the lock is held only while it is taken,
+     * copying is limited to Options.backupRateLimitBytesPerSec.
+     * the checkpoint is taken next to backupDir, as backupDir.checkpoint-*, and removed afterwards;
+     * ones left by an interrupted backup are removed by the next one
+     *
+     * @param backupDir backup directory, SST files are shared by all backups in it
+     * @param keep      number of latest backups to keep, 0 keeps all
+     * @return info of the new backup
+     */
+    public BackupInfo backup(final String backupDir, final int keep) {
+        final Path backupPath = Paths.get(backupDir).toAbsolutePath();
+        final String checkpointPrefix = backupPath.getFileName() + ".checkpoint-";
+        final Path checkpointDir = backupPath.resolveSibling(checkpointPrefix + System.nanoTime());
         try {
-            db.put(key, value);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+            Files.createDirectories(backupPath);
+            deleteDirectories(backupPath.getParent(), checkpointPrefix);
+            checkpoint(checkpointDir.toString());
+            // earlier versions took the checkpoint inside the database directory
+            deleteDirectories(Paths.get(path), "backup-checkpoint-");
+            try (final RocksDB snapshot = RocksDB.openReadOnly(options.getRocksDBOptions(), checkpointDir.toString());
+                 final BackupableDBOptions backupOptions = new BackupableDBOptions(backupDir)
+                         .setShareFilesWithChecksum(true)
+                         .setBackupRateLimit(options.backupRateLimitBytesPerSec);
+                 final BackupEngine engine = BackupEngine.open(Env.getDefault(), backupOptions)) {
+                engine.createNewBackup(snapshot, false);
+                if (keep > 0) {
+                    engine.purgeOldBackups(keep);
+                }
+                final List<BackupInfo> backups = engine.getBackupInfo();
+                return backups.get(backups.size() - 1);
+            }
+        } catch (RocksDBException | IOException e) {
+            throw new IllegalStateException("failed to create backup: " + e.getMessage(), e);
+        } finally {
+            deleteDirectory(checkpointDir);
         }
     }
 
-    protected void dbDelete(byte[] key) {
-        // System.out.printf("DELETE %s\n", new String(key));
-        try {
-            db.delete(key);
+    /**
+     * returns backups in backupDir, oldest first
+     *
+     * @param backupDir backup directory
+     * @return list of BackupInfo
+     */
+    public static List<BackupInfo> listBackups(final String backupDir) {
+        try (final BackupableDBOptions backupOptions = new BackupableDBOptions(backupDir);
+             final BackupEngine engine = BackupEngine.open(Env.getDefault(), backupOptions)) {
+            return engine.getBackupInfo();
         } catch (RocksDBException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("failed to read backups: " + e.getMessage(), e);
         }
     }
 
-    protected MetaInfo getKeyMeta(byte[] key) {
-        final byte[] fullKey = Encoding.encodeMetaKey(key);
-        return MetaInfo.fromBytes(dbGet(fullKey));
+    /**
+     * restore a backup into path, which must not be open; existing files of a database in path are replaced
+     * and a hot key log left there is dropped, since its rows are older than the backup
+     *
+     * @param backupDir backup directory
+     * @param backupId  backup id, 0 restores the latest one
+     * @param path      database path
+     * @param options   options, restore is limited to Options.restoreRateLimitBytesPerSec
+     */
+    public static void restoreBackup(final String backupDir, final int backupId, final String path, Options options) {
+        options = options == null ? new Options() : options;
+        try (final BackupableDBOptions backupOptions = new BackupableDBOptions(backupDir)
+                .setRestoreRateLimit(options.restoreRateLimitBytesPerSec);
+             final BackupEngine engine = BackupEngine.open(Env.getDefault(), backupOptions);
+             final RestoreOptions restoreOptions = new RestoreOptions(false)) {
+            if (backupId == 0) {
+                engine.restoreDbFromLatestBackup(path, path, restoreOptions);
+            } else {
+                engine.restoreDbFromBackup(backupId, path, path, restoreOptions);
+            }
+            Files.deleteIfExists(Paths.get(path, HotKeyTier.LOG_FILE));
+            Files.deleteIfExists(Paths.get(path, HotKeyTier.OLD_LOG_FILE));
+        } catch (RocksDBException | IOException e) {
+            throw new IllegalStateException("failed to restore backup: " + e.getMessage(), e);
+        }
     }
 
-    protected MetaInfo getOrCreateKeyMeta(byte[] key, KeyType type) {
-        final String cacheKey = new String(key);
-        MetaInfo meta = metaInfoCache.get(cacheKey);
-        if (meta != null) {
-            return meta;
-        }
-        final byte[] fullKey = Encoding.encodeMetaKey(key);
-        meta = MetaInfo.fromBytes(dbGet(fullKey));
-        if (meta == null) {
-            meta = new MetaInfo(nextKeyId++, type, 0, null);
-            dbPut(fullKey, meta.toBytes());
-        } else if (!meta.type.equals(type)) {
-            throw new IllegalArgumentException(String.format("expected type %s but actually %s", type.name(), meta.type.name()));
+    protected static void deleteDirectories(final Path parent, final String prefix) throws IOException {
+        try (final Stream<Path> dirs = Files.list(parent)) {
+            dirs.filter(dir -> dir.getFileName().toString().startsWith(prefix)).forEach(Database::deleteDirectory);
         }
-        metaInfoCache.put(cacheKey, meta);
-        return meta;
     }
 
-    protected void updateMetaInfo(byte[] key, MetaInfo meta) {
-        if (meta.count > 0) {
-            metaInfoCache.put(new String(key), meta);
-            dbPut(Encoding.encodeMetaKey(key), meta.toBytes());
-        } else {
-            metaInfoCache.remove(new String(key));
-            dbDelete(Encoding.encodeMetaKey(key));
+    protected static void deleteDirectory(final Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    protected long getCount(final byte[] key) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta != null) {
-            return meta.count;
-        }
-        return 0;
+    /**
+     * returns database path
+     *
+     * @return path
+     */
+    public String getPath() {
+        return path;
     }
 
-    @Override
-    public Optional<byte[]> mapGet(final byte[] key, final byte[] field) {
-        final byte[] fullKey = Encoding.encodeDataMapFieldKey(getOrCreateKeyMeta(key, KeyType.Map).id, field);
-        return Optional.ofNullable(dbGet(fullKey));
+    /**
+     * returns operation metrics
+     *
+     * @return DatabaseMetrics, null if metrics is disabled
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
     }
 
-    @Override
-    public synchronized long mapPut(final byte[] key, final MapItem... items) {
-        if (items.length > 0) {
-            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
-            long newRows = 0;
-            for (final MapItem item : items) {
-                final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, item.field);
-                if (dbGet(fullKey) == null) {
-                    newRows++;
+    /**
+     * returns memory used by this database, see MemoryBudget
+     *
+     * @return usage
+     */
+    public MemoryBudget.Usage getMemoryUsage() {
+        return MemoryBudget.Usage.of(this);
+    }
+
+    /**
+     * run fn in an optimistic transaction, every IDatabase operation on the DatabaseTransaction
+     * sees its own writes and all writes are committed atomically when fn returns;
+     * when commit fails because of a conflicting write, fn is run again in a new transaction
+     * with exponential backoff, up to Options.transactionMaxRetries times
+     *
+     * @param fn transaction body
+     * @return result of fn
+     * @throws TransactionConflictException if all retries conflicted
+     */
+    public <T> T transaction(final Function<DatabaseTransaction, T> fn) {
+        if (!(db instanceof OptimisticTransactionDB)) {
+            throw new IllegalStateException("transactions are not enabled, set Options.enableTransactions");
+        }
+        if (hotKeyTier != null) {
+            throw new IllegalStateException("transactions can not be used with Options.hotKeyTier");
+        }
+        long backoffMicros = options.transactionRetryBackoffMicros;
+        for (int attempt = 0; ; attempt++) {
+            try (final DatabaseTransaction tx = new DatabaseTransaction(this, (OptimisticTransactionDB) db)) {
+                final T ret = fn.apply(tx);
+                if (tx.tryCommit()) {
+                    return ret;
                 }
-                dbPut(fullKey, item.value);
             }
-            if (newRows > 0) {
-                meta.count += newRows;
-                updateMetaInfo(key, meta);
+            if (attempt >= options.transactionMaxRetries) {
+                throw new TransactionConflictException(String.format("transaction conflicted after %d attempts", attempt + 1));
+            }
+            final long sleepMicros = ThreadLocalRandom.current().nextLong(backoffMicros / 2, backoffMicros + 1);
+            try {
+                Thread.sleep(sleepMicros / 1000, (int) (sleepMicros % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionConflictException("interrupted while waiting to retry transaction");
             }
+            backoffMicros = Math.min(backoffMicros * 2, options.transactionRetryBackoffMicros * 1024);
         }
-        return items.length;
     }
 
-    @Override
-    public synchronized Optional<byte[]> mapRemove(final byte[] key, final byte[] field) {
-        final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
-        final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, field);
-        final byte[] oldValue = dbGet(fullKey);
-        if (oldValue != null) {
-            meta.count--;
-            dbDelete(fullKey);
-            updateMetaInfo(key, meta);
-        }
-        return Optional.ofNullable(oldValue);
+    /**
+     * returns the newest slow log entries, newest first
+     *
+     * @param n max entries
+     * @return List
+     */
+    public List<SlowLog.Entry> slowLog(final int n) {
+        return slowLog == null ? new ArrayList<>() : slowLog.get(n);
     }
 
-    @Override
-    public long mapForEach(final byte[] key, final Consumer<MapItem> onItem) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return 0;
-        }
-        return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(MapItem.of(Encoding.stripDataKeyPrefix(entry.key()), entry.value())));
+    /**
+     * returns the number of entries in slow log
+     *
+     * @return size
+     */
+    public int slowLogLength() {
+        return slowLog == null ? 0 : slowLog.size();
     }
 
-    @Override
-    public long mapCount(final byte[] key) {
-        return getCount(key);
+    /**
+     * remove all slow log entries
+     */
+    public void slowLogReset() {
+        if (slowLog != null) {
+            slowLog.reset();
+        }
     }
 
-    @Override
-    public synchronized long listLeftPush(final byte[] key, final byte[]... values) {
-        if (values.length > 0) {
-            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.List);
-            final MetaInfo.ListExtra extra = MetaInfo.ListExtra.fromBytes(meta.extra);
-            for (final byte[] value : values) {
-                final byte[] fullKey = Encoding.encodeDataListKey(meta.id, extra.left--);
-                dbPut(fullKey, value);
-            }
-            meta.count += values.length;
-            meta.extra = extra.toBytes();
-            updateMetaInfo(key, meta);
+    /**
+     * close database
+     *
+     */
+    public void close() {
+        if (options.memoryBudget != null) {
+            options.memoryBudget.detach(this);
+        }
+        if (metrics != null) {
+            metrics.unregisterMBeans();
+            metrics.attach(null, null);
+        }
+        if (hotKeyTier != null) {
+            hotKeyTier.close();
+        }
+        if (changeNotifier != null) {
+            changeNotifier.close();
+        }
+        if (db != null) {
+            db.close();
         }
-        return values.length;
     }
 
-    @Override
-    public synchronized long listRightPush(final byte[] key, final byte[]... values) {
-        if (values.length > 0) {
-            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.List);
-            final MetaInfo.ListExtra extra = MetaInfo.ListExtra.fromBytes(meta.extra);
-            for (final byte[] value : values) {
-                final byte[] fullKey = Encoding.encodeDataListKey(meta.id, extra.right++);
-                dbPut(fullKey, value);
+    protected void initAfterOpen() {
+        final Box<Long> maxKeyId = Box.of(1L);
+        prefixForEach(Encoding.KEY_PREFIX_META, (entry -> {
+            final MetaInfo meta = MetaInfo.fromBytes(entry.value());
+            if (meta.id > maxKeyId.value) {
+                maxKeyId.value = meta.id;
             }
-            meta.count += values.length;
-            meta.extra = extra.toBytes();
-            updateMetaInfo(key, meta);
+        }));
+        // ids of deleted keys may still own rows, e.g. after a restore, they must not be reused
+        for (final byte[] prefix : new byte[][]{Encoding.KEY_PREFIX_DATA, Encoding.KEY_PREFIX_COUNT, Encoding.KEY_PREFIX_LEASE}) {
+            maxKeyId.value = Math.max(maxKeyId.value, lastKeyId(prefix));
+        }
+        nextKeyId = maxKeyId.value + 1;
+        if (exactCount) {
+            reconcileApproximateCounts();
         }
-        return values.length;
-    }
-
-    @Override
-    public long listCount(final byte[] key) {
-        return getCount(key);
     }
 
-    @Override
-    public synchronized Optional<byte[]> listLeftPop(final byte[] key) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return Optional.empty();
-        }
-        final MetaInfo.ListExtra extra = MetaInfo.ListExtra.fromBytes(meta.extra);
-        final byte[] fullKey = Encoding.encodeDataListKey(meta.id, ++extra.left);
-        final byte[] value = dbGet(fullKey);
-        if (value != null) {
-            meta.count--;
-            meta.extra = extra.toBytes();
-            updateMetaInfo(key, meta);
-            dbDelete(fullKey);
+    /**
+     * returns the largest key id of rows with prefix, the id follows the prefix in every row kind
+     *
+     * @param prefix row prefix
+     * @return key id, 0 if there is no row
+     */
+    protected long lastKeyId(final byte[] prefix) {
+        try (final StoreIterator it = dbIterator(null)) {
+            it.seekForPrev(Encoding.prefixUpperBound(prefix));
+            if (it.isValid() && Encoding.hasPrefix(prefix, it.key()) && it.key().length >= prefix.length + 8) {
+                return Encoding.readLong(it.key(), prefix.length);
+            }
         }
-        return Optional.ofNullable(value);
+        return 0;
     }
 
-    @Override
-    public synchronized Optional<byte[]> listRightPop(final byte[] key) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return Optional.empty();
-        }
-        final MetaInfo.ListExtra extra = MetaInfo.ListExtra.fromBytes(meta.extra);
-        final byte[] fullKey = Encoding.encodeDataListKey(meta.id, --extra.right);
-        final byte[] value = dbGet(fullKey);
-        if (value != null) {
-            meta.count--;
-            meta.extra = extra.toBytes();
-            updateMetaInfo(key, meta);
-            dbDelete(fullKey);
+    /**
+     * recount every key which still has a count delta row written in approximate count mode
+     */
+    protected void reconcileApproximateCounts() {
+        final Set<Long> keyIds = new HashSet<>();
+        prefixForEach(Encoding.KEY_PREFIX_COUNT, entry -> keyIds.add(Encoding.decodeCountKey(entry.key())));
+        if (keyIds.isEmpty()) {
+            return;
+        }
+        prefixForEach(Encoding.KEY_PREFIX_META, entry -> {
+            final MetaInfo meta = MetaInfo.fromBytes(entry.value());
+            if (keyIds.remove(meta.id)) {
+                reconcileCount(Arrays.copyOfRange(entry.key(), Encoding.KEY_PREFIX_META.length, entry.key().length), meta);
+            }
+        });
+        // delta rows without meta
+        for (final long id : keyIds) {
+            dbDelete(Encoding.encodeCountKey(id));
         }
-        return Optional.ofNullable(value);
+    }
+
+    /**
+     * run an operation and record metrics, take the database lock if exclusive
+     *
+     * @param type      operation type
+     * @param key       key or key prefix of the operation
+     * @param exclusive whether to hold the database lock
+     * @param fn        operation body
+     * @return result of fn
+     */
+    protected long executeLong(final OperationType type, final byte[] key, final boolean exclusive, final LongSupplier fn) {
+        final FlightRecorderEvents.OperationEvent event = FlightRecorderEvents.OPERATION.isEnabled()
+                ? new FlightRecorderEvents.OperationEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        final long start = System.nanoTime();
+        long ret = 0;
+        boolean error = true;
+        try {
+            if (exclusive) {
+                final FlightRecorderEvents.LockWaitEvent lockEvent = FlightRecorderEvents.LOCK_WAIT.isEnabled()
+                        ? new FlightRecorderEvents.LockWaitEvent() : null;
+                if (lockEvent != null) {
+                    lockEvent.begin();
+                }
+                synchronized (this) {
+                    onLockAcquired(type, key, start, lockEvent);
+                    ret = fn.getAsLong();
+                    publishChange(type, key);
+                }
+            } else {
+                ret = fn.getAsLong();
+            }
+            error = false;
+            return ret;
+        } finally {
+            onOperationFinished(type, key, ret, start, error, event);
+        }
+    }
+
+    /**
+     * run an operation and record metrics, take the database lock if exclusive
+     *
+     * @param type      operation type
+     * @param key       key or key prefix of the operation
+     * @param exclusive whether to hold the database lock
+     * @param fn        operation body
+     * @return result of fn
+     */
+    protected <T> T execute(final OperationType type, final byte[] key, final boolean exclusive, final Supplier<T> fn) {
+        final FlightRecorderEvents.OperationEvent event = FlightRecorderEvents.OPERATION.isEnabled()
+                ? new FlightRecorderEvents.OperationEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        final long start = System.nanoTime();
+        T ret = null;
+        boolean error = true;
+        try {
+            if (exclusive) {
+                final FlightRecorderEvents.LockWaitEvent lockEvent = FlightRecorderEvents.LOCK_WAIT.isEnabled()
+                        ? new FlightRecorderEvents.LockWaitEvent() : null;
+                if (lockEvent != null) {
+                    lockEvent.begin();
+                }
+                synchronized (this) {
+                    onLockAcquired(type, key, start, lockEvent);
+                    ret = fn.get();
+                    publishChange(type, key);
+                }
+            } else {
+                ret = fn.get();
+            }
+            error = false;
+            return ret;
+        } finally {
+            onOperationFinished(type, key, resultCount(ret), start, error, event);
+        }
+    }
+
+    /**
+     * number of elements returned by an operation, recorded in the slow log and in Flight Recorder events
+     *
+     * @param ret result of the operation
+     * @return size of a collection or map, 1 for a present optional, true or any other value, otherwise 0
+     */
+    protected static long resultCount(final Object ret) {
+        if (ret == null) {
+            return 0;
+        }
+        if (ret instanceof Collection) {
+            return ((Collection<?>) ret).size();
+        }
+        if (ret instanceof Map) {
+            return ((Map<?, ?>) ret).size();
+        }
+        if (ret instanceof Optional) {
+            return ((Optional<?>) ret).isPresent() ? 1 : 0;
+        }
+        if (ret instanceof OptionalLong) {
+            return ((OptionalLong) ret).isPresent() ? 1 : 0;
+        }
+        if (ret instanceof OptionalDouble) {
+            return ((OptionalDouble) ret).isPresent() ? 1 : 0;
+        }
+        if (ret instanceof Boolean) {
+            return (Boolean) ret ? 1 : 0;
+        }
+        return 1;
+    }
+
+    /**
+     * notify subscribers of a committed operation, called while holding the database lock;
+     * costs one volatile read until something subscribes
+     *
+     * @param type operation type
+     * @param key  key changed by the operation
+     */
+    protected void publishChange(final OperationType type, final byte[] key) {
+        final ChangeNotifier notifier = changeNotifier;
+        if (notifier != null) {
+            notifier.publish(type, key);
+        }
+    }
+
+    /**
+     * receive changes of keys starting with prefix, later changes of a key are coalesced while the listener is behind
+     *
+     * @param prefix   key prefix, empty for all keys
+     * @param listener called on a dispatcher thread after each operation on a matching key, in commit order
+     * @return Subscription, close it to unsubscribe
+     */
+    public ChangeNotifier.Subscription subscribe(final byte[] prefix, final Consumer<KeyChange> listener) {
+        return subscribe(prefix, ChangeNotifier.OverflowPolicy.Coalesce, listener);
+    }
+
+    /**
+     * receive changes of keys starting with prefix, see ChangeNotifier
+     *
+     * @param prefix   key prefix, empty for all keys
+     * @param policy   what to do when the listener falls Options.changeBufferSize changes behind
+     * @param listener called on a dispatcher thread after each operation on a matching key, in commit order
+     * @return Subscription, close it to unsubscribe
+     */
+    public ChangeNotifier.Subscription subscribe(final byte[] prefix, final ChangeNotifier.OverflowPolicy policy, final Consumer<KeyChange> listener) {
+        synchronized (this) {
+            if (changeNotifier == null) {
+                changeNotifier = new ChangeNotifier(options.changeBufferSize, options.changeDispatcherThreads);
+            }
+        }
+        return changeNotifier.subscribe(prefix, policy, listener);
+    }
+
+    protected void onLockAcquired(final OperationType type, final byte[] key, final long start, final FlightRecorderEvents.LockWaitEvent lockEvent) {
+        if (hotKeyTier != null) {
+            hotKeyTier.onMutation(key);
+        }
+        if (metrics != null) {
+            metrics.recordLockWait(System.nanoTime() - start);
+        }
+        if (lockEvent == null) {
+            return;
+        }
+        lockEvent.end();
+        if (lockEvent.shouldCommit()) {
+            lockEvent.operation = type.methodName;
+            lockEvent.key = FlightRecorderEvents.keyToString(key);
+            lockEvent.commit();
+        }
+    }
+
+    protected void onOperationFinished(final OperationType type, final byte[] key, final long count, final long start, final boolean error, final FlightRecorderEvents.OperationEvent event) {
+        final long nanos = System.nanoTime() - start;
+        if (metrics != null) {
+            metrics.recordOperation(type, nanos, error);
+        }
+        if (slowLog != null) {
+            slowLog.record(type, key, count, nanos);
+        }
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = type.methodName;
+            event.key = FlightRecorderEvents.keyToString(key);
+            event.count = count;
+            event.error = error;
+            event.keyId = -1;
+            if (type != OperationType.ForEachKeys) {
+                MetaInfo meta = metaInfoCache.get(new String(key));
+                if (meta == null) {
+                    meta = getKeyMeta(key);
+                }
+                if (meta != null) {
+                    event.keyId = meta.id;
+                    event.keyType = meta.type.name();
+                }
+            }
+            event.commit();
+        }
+    }
+
+    protected long prefixForEach(final byte[] prefix, final Consumer<StoreIterator> onItem) {
+        final FlightRecorderEvents.IteratorEvent event = FlightRecorderEvents.ITERATOR.isEnabled()
+                ? new FlightRecorderEvents.IteratorEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long count = 0;
+        try (final StoreIterator it = dbIterator(null)) {
+            it.seek(prefix);
+            while (it.isValid()) {
+                if (!Encoding.hasPrefix(prefix, it.key())) {
+                    break;
+                }
+                onItem.accept(it);
+                count++;
+                it.next();
+            }
+        } finally {
+            if (event != null) {
+                event.end();
+            }
+            if (event != null && event.shouldCommit()) {
+                event.prefix = FlightRecorderEvents.keyToString(prefix);
+                event.entries = count;
+                event.commit();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * create an iterator, it does not see writes in the pending write batch
+     *
+     * @param upperBound exclusive upper bound, null means none
+     * @return StoreIterator
+     */
+    protected StoreIterator dbIterator(final byte[] upperBound) {
+        final StoreIterator it = new RocksStoreIterator(db::newIterator, upperBound, false);
+        return hotKeyTier == null ? it : hotKeyTier.iterator(it, upperBound);
+    }
+
+    protected byte[] dbGet(byte[] key) {
+        // System.out.printf("GET %s\n", new String(key));
+        if (hotKeyTier != null) {
+            final byte[] value = hotKeyTier.get(key);
+            if (value != null) {
+                return value == HotKeyTier.TOMBSTONE ? null : value;
+            }
+        }
+        try {
+            return db.get(key);
+        } catch (RocksDBException e) {
+            return null;
+        }
+    }
+
+    protected void dbPut(byte[] key, byte[] value) {
+        // System.out.printf("PUT %s = %s\n", new String(key), new String(value));
+        if (hotKeyTier != null) {
+            if (!Thread.holdsLock(this)) {
+                // the tier's pending rows and hot flag belong to the lock holder
+                synchronized (this) {
+                    dbPut(key, value);
+                }
+                return;
+            }
+            if (hotKeyTier.put(key, value)) {
+                return;
+            }
+        }
+        try {
+            final WriteBatch batch = writeBatch.get();
+            if (batch != null) {
+                batch.put(key, value);
+            } else {
+                db.put(key, value);
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected void dbDelete(byte[] key) {
+        // System.out.printf("DELETE %s\n", new String(key));
+        if (hotKeyTier != null) {
+            if (!Thread.holdsLock(this)) {
+                synchronized (this) {
+                    dbDelete(key);
+                }
+                return;
+            }
+            if (hotKeyTier.put(key, HotKeyTier.TOMBSTONE)) {
+                return;
+            }
+        }
+        try {
+            final WriteBatch batch = writeBatch.get();
+            if (batch != null) {
+                batch.delete(key);
+            } else {
+                db.delete(key);
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected void dbMerge(byte[] key, byte[] value) {
+        // System.out.printf("MERGE %s = %s\n", new String(key), new String(value));
+        if (hotKeyTier != null) {
+            if (!Thread.holdsLock(this)) {
+                synchronized (this) {
+                    dbMerge(key, value);
+                }
+                return;
+            }
+            if (hotKeyTier.merge(key, value)) {
+                return;
+            }
+        }
+        try {
+            final WriteBatch batch = writeBatch.get();
+            if (batch != null) {
+                batch.merge(key, value);
+            } else {
+                db.merge(key, value);
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * run fn with all dbPut, dbDelete, dbMerge and dbDeleteRange calls collected into one WriteBatch,
+     * the batch is written atomically when fn returns and discarded if fn throws,
+     * must be called while holding the database lock
+     *
+     * @param fn operation body
+     */
+    protected void dbWriteBatch(final Runnable fn) {
+        if (inWriteBatch()) {
+            fn.run();
+            return;
+        }
+        if (hotKeyTier != null) {
+            // rows belonging to the hot key tier are applied to it after the RocksDB part is written
+            hotKeyTier.runBatch(() -> dbWriteRocksBatch(fn));
+        } else {
+            dbWriteRocksBatch(fn);
+        }
+    }
+
+    /**
+     * whether dbWriteBatch is collecting writes on this thread, reads do not see them until it returns
+     */
+    protected boolean inWriteBatch() {
+        return writeBatch.get() != null;
+    }
+
+    protected void dbWriteRocksBatch(final Runnable fn) {
+        try (final WriteBatch batch = new WriteBatch(); final WriteOptions writeOptions = new WriteOptions()) {
+            writeBatch.set(batch);
+            try {
+                fn.run();
+            } catch (RuntimeException e) {
+                // meta info in cache may have been changed by fn
+                metaInfoCache.clear();
+                throw e;
+            } finally {
+                writeBatch.remove();
+            }
+            if (batch.count() > 0) {
+                db.write(writeOptions, batch);
+            }
+        } catch (RocksDBException e) {
+            metaInfoCache.clear();
+            e.printStackTrace();
+        }
+    }
+
+    protected void dbDeleteRange(final long keyId, final byte[] begin, final byte[] end) {
+        if (hotKeyTier != null && !Thread.holdsLock(this)) {
+            synchronized (this) {
+                dbDeleteRange(keyId, begin, end);
+            }
+            return;
+        }
+        final FlightRecorderEvents.DeleteRangeEvent event = FlightRecorderEvents.DELETE_RANGE.isEnabled()
+                ? new FlightRecorderEvents.DeleteRangeEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        if (hotKeyTier != null) {
+            hotKeyTier.deleteRange(begin, end);
+        }
+        try {
+            final WriteBatch batch = writeBatch.get();
+            if (batch != null) {
+                batch.deleteRange(begin, end);
+            } else {
+                db.deleteRange(begin, end);
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        } finally {
+            if (event != null) {
+                event.end();
+            }
+            if (event != null && event.shouldCommit()) {
+                event.keyId = keyId;
+                event.beginKey = FlightRecorderEvents.keyToString(begin);
+                event.endKey = FlightRecorderEvents.keyToString(end);
+                event.commit();
+            }
+        }
+    }
+
+    protected void dbCompactRange(final long keyId, final String reason) {
+        final FlightRecorderEvents.CompactionEvent event = FlightRecorderEvents.COMPACTION.isEnabled()
+                ? new FlightRecorderEvents.CompactionEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        try {
+            db.compactRange();
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        } finally {
+            if (event != null) {
+                event.end();
+            }
+            if (event != null && event.shouldCommit()) {
+                event.keyId = keyId;
+                event.reason = reason;
+                event.commit();
+            }
+        }
+    }
+
+    protected MetaInfo getKeyMeta(byte[] key) {
+        final byte[] fullKey = Encoding.encodeMetaKey(key);
+        return MetaInfo.fromBytes(dbGet(fullKey));
+    }
+
+    /**
+     * meta info of an existing key for an exclusive operation, served from and kept in the meta info cache
+     * so its decoded extra is reused, the caller must only change it for writes it makes
+     *
+     * @param key key
+     * @return meta info, null if key does not exist
+     */
+    protected MetaInfo getKeyMetaForUpdate(final byte[] key) {
+        final String cacheKey = new String(key);
+        MetaInfo meta = metaInfoCache.get(cacheKey);
+        if (meta != null) {
+            if (metrics != null) {
+                metrics.recordMetaCacheHit();
+            }
+            return meta;
+        }
+        if (metrics != null) {
+            metrics.recordMetaCacheMiss();
+        }
+        meta = getKeyMeta(key);
+        if (meta != null) {
+            metaInfoCache.put(cacheKey, meta);
+        }
+        return meta;
+    }
+
+    protected MetaInfo getOrCreateKeyMeta(byte[] key, KeyType type) {
+        final String cacheKey = new String(key);
+        MetaInfo meta = metaInfoCache.get(cacheKey);
+        if (meta != null) {
+            if (metrics != null) {
+                metrics.recordMetaCacheHit();
+            }
+            checkKeyType(meta, type);
+            return meta;
+        }
+        if (metrics != null) {
+            metrics.recordMetaCacheMiss();
+        }
+        final byte[] fullKey = Encoding.encodeMetaKey(key);
+        meta = MetaInfo.fromBytes(dbGet(fullKey));
+        if (meta == null) {
+            meta = new MetaInfo(allocateKeyId(), type, 0, null);
+            dbPut(fullKey, meta.toBytes());
+        } else {
+            checkKeyType(meta, type);
+        }
+        metaInfoCache.put(cacheKey, meta);
+        return meta;
+    }
+
+    /**
+     * meta info for a read-only operation, which may run without the database lock and so must not write;
+     * a missing key reads as empty, id 0 is never allocated so it owns no rows
+     *
+     * @param key  key
+     * @param type expected type
+     * @return meta info, a transient one with id 0 if key does not exist
+     */
+    protected MetaInfo getKeyMetaForRead(final byte[] key, final KeyType type) {
+        final String cacheKey = new String(key);
+        MetaInfo meta = metaInfoCache.get(cacheKey);
+        if (meta != null) {
+            if (metrics != null) {
+                metrics.recordMetaCacheHit();
+            }
+            checkKeyType(meta, type);
+            return meta;
+        }
+        if (metrics != null) {
+            metrics.recordMetaCacheMiss();
+        }
+        meta = getKeyMeta(key);
+        if (meta == null) {
+            return new MetaInfo(0, type, 0, null);
+        }
+        checkKeyType(meta, type);
+        metaInfoCache.put(cacheKey, meta);
+        return meta;
+    }
+
+    protected void checkKeyType(final MetaInfo meta, final KeyType type) {
+        if (!meta.type.equals(type)) {
+            throw new IllegalArgumentException(String.format("expected type %s but actually %s", type.name(), meta.type.name()));
+        }
+    }
+
+    protected synchronized long allocateKeyId() {
+        return nextKeyId++;
+    }
+
+    protected void updateMetaInfo(byte[] key, MetaInfo meta) {
+        if (meta.count > 0) {
+            putMetaInfo(key, meta);
+        } else {
+            metaInfoCache.remove(new String(key));
+            dbDelete(Encoding.encodeMetaKey(key));
+        }
+    }
+
+    protected void putMetaInfo(final byte[] key, final MetaInfo meta) {
+        metaInfoCache.put(new String(key), meta);
+        dbPut(Encoding.encodeMetaKey(key), meta.toBytes());
+    }
+
+    protected long getCount(final byte[] key) {
+        final MetaInfo meta = getKeyMeta(key);
+        if (meta != null) {
+            return getCount(meta);
+        }
+        return 0;
+    }
+
+    protected long getCount(final MetaInfo meta) {
+        if (exactCount) {
+            return meta.count;
+        }
+        final byte[] delta = dbGet(Encoding.encodeCountKey(meta.id));
+        return Math.max(0, meta.count + (delta == null ? 0 : Encoding.counterFromBytes(delta)));
+    }
+
+    /**
+     * change count of a map or set key, in approximate count mode the change is written as a merge operand
+     * to the count delta row so the meta info is not rewritten
+     *
+     * @param key   key
+     * @param meta  meta info
+     * @param delta count change
+     */
+    protected void addCount(final byte[] key, final MetaInfo meta, final long delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (exactCount) {
+            meta.count += delta;
+            updateMetaInfo(key, meta);
+        } else {
+            dbMerge(Encoding.encodeCountKey(meta.id), Encoding.counterToBytes(delta));
+        }
+    }
+
+    /**
+     * charge count increments which were not checked against existing rows in approximate count mode,
+     * e.g. overwritten fields; once they exceed the count at the last reconcile, or
+     * APPROXIMATE_COUNT_RECONCILE_MIN for small keys, the key is recounted,
+     * so the estimate stays within about twice the real count and recounting costs O(1) amortized per write.
+     * must be called after the write batch holding the rows, it is skipped inside a pending batch
+     *
+     * @param key   key
+     * @param meta  meta info, the tally is kept on the cached instance
+     * @param delta unchecked count increments
+     */
+    protected void addUncheckedCount(final byte[] key, final MetaInfo meta, final long delta) {
+        meta.uncheckedCount += delta;
+        if (meta.uncheckedCount > Math.max(APPROXIMATE_COUNT_RECONCILE_MIN, meta.count) && !inWriteBatch()) {
+            reconcileCount(key, meta);
+        }
+    }
+
+    /**
+     * count the rows of a key and store the exact count, removing its count delta row
+     *
+     * @param key  key
+     * @param meta meta info
+     * @return exact count
+     */
+    protected long reconcileCount(final byte[] key, final MetaInfo meta) {
+        final long count = prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> {
+        });
+        dbWriteBatch(() -> {
+            dbDelete(Encoding.encodeCountKey(meta.id));
+            meta.count = count;
+            meta.uncheckedCount = 0;
+            updateMetaInfo(key, meta);
+        });
+        return count;
+    }
+
+    /**
+     * in approximate count mode a key emptied by removals keeps its meta info while the estimate is above zero,
+     * so once the estimate is no more than the unchecked increments, which may all be overwrites,
+     * the key is checked for remaining rows and recounted if it has none.
+     * must be called after the write batch holding the removals, it is skipped inside a pending batch
+     *
+     * @param key  key
+     * @param meta meta info
+     */
+    protected void reconcileIfEmpty(final byte[] key, final MetaInfo meta) {
+        if (exactCount || inWriteBatch() || getCount(meta) > meta.uncheckedCount) {
+            return;
+        }
+        try (final StoreIterator it = dbIterator(null)) {
+            final byte[] prefix = Encoding.encodeDataMapPrefixKey(meta.id);
+            it.seek(prefix);
+            if (it.isValid() && Encoding.hasPrefix(prefix, it.key())) {
+                return;
+            }
+        }
+        reconcileCount(key, meta);
+    }
+
+    /**
+     * recount a map or set key which is maintained in approximate count mode
+     *
+     * @param key key
+     * @return exact count
+     * @throws IllegalArgumentException if key is not a map or set
+     */
+    public long reconcileCount(final byte[] key) {
+        return executeLong(OperationType.ReconcileCount, key, true, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            if (!meta.type.equals(KeyType.Map) && !meta.type.equals(KeyType.Set)) {
+                throw new IllegalArgumentException(String.format("expected type Map or Set but actually %s", meta.type.name()));
+            }
+            return reconcileCount(key, meta);
+        });
+    }
+
+    /**
+     * check that a key can be bulk loaded, it must not exist or have no rows
+     *
+     * @param key  key
+     * @param type type of the loaded key
+     * @return meta info of the existing empty key, null if key does not exist
+     * @throws IllegalStateException if key has rows
+     */
+    protected MetaInfo checkBulkLoadTarget(final byte[] key, final KeyType type) {
+        final MetaInfo meta = getKeyMeta(key);
+        if (meta == null) {
+            return null;
+        }
+        checkKeyType(meta, type);
+        try (final StoreIterator it = dbIterator(null)) {
+            final byte[] prefix = Encoding.encodeDataMapPrefixKey(meta.id);
+            it.seek(prefix);
+            if (it.isValid() && Encoding.hasPrefix(prefix, it.key())) {
+                throw new IllegalStateException("bulk load requires a missing or empty key");
+            }
+        }
+        return meta;
+    }
+
+    /**
+     * ingest SST files written by BulkLoader, they hold all rows of key and its new meta info,
+     * an existing empty key is replaced
+     *
+     * @param key   key
+     * @param meta  meta info written in the files
+     * @param files SST files, moved into the database
+     */
+    protected void ingestKey(final byte[] key, final MetaInfo meta, final List<String> files) {
+        execute(OperationType.BulkLoad, key, true, () -> {
+            final MetaInfo old = checkBulkLoadTarget(key, meta.type);
+            try (final IngestExternalFileOptions ingestOptions = new IngestExternalFileOptions()) {
+                ingestOptions.setMoveFiles(true);
+                db.ingestExternalFile(files, ingestOptions);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException("failed to ingest files: " + e.getMessage(), e);
+            }
+            if (old != null) {
+                // count delta rows written in approximate count mode
+                dbDelete(Encoding.encodeCountKey(old.id));
+            }
+            metaInfoCache.put(new String(key), meta);
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<byte[]> mapGet(final byte[] key, final byte[] field) {
+        return execute(OperationType.MapGet, key, false, () -> {
+            final byte[] fullKey = Encoding.encodeDataMapFieldKey(getKeyMetaForRead(key, KeyType.Map).id, field);
+            return Optional.ofNullable(dbGet(fullKey));
+        });
+    }
+
+    /**
+     * put fields of a map
+     *
+     * @param key   key
+     * @param items fields and values
+     * @return number of items, including fields which already existed
+     */
+    @Override
+    public long mapPut(final byte[] key, final MapItem... items) {
+        return executeLong(OperationType.MapPut, key, true, () -> putMapItems(key, items));
+    }
+
+    protected long putMapItems(final byte[] key, final MapItem... items) {
+        if (items.length > 0) {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
+            if (!exactCount) {
+                dbWriteBatch(() -> {
+                    for (final MapItem item : items) {
+                        dbPut(Encoding.encodeDataMapFieldKey(meta.id, item.field), item.value);
+                    }
+                    addCount(key, meta, items.length);
+                });
+                addUncheckedCount(key, meta, items.length);
+                return items.length;
+            }
+            // callers may run this inside a write batch whose puts dbGet does not see, so a repeated field counts once
+            final Set<ByteBuffer> seen = new HashSet<>();
+            long newRows = 0;
+            for (final MapItem item : items) {
+                final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, item.field);
+                if (seen.add(ByteBuffer.wrap(item.field)) && dbGet(fullKey) == null) {
+                    newRows++;
+                }
+                dbPut(fullKey, item.value);
+            }
+            if (newRows > 0) {
+                meta.count += newRows;
+                updateMetaInfo(key, meta);
+            }
+        }
+        return items.length;
+    }
+
+    @Override
+    public Optional<byte[]> mapRemove(final byte[] key, final byte[] field) {
+        return execute(OperationType.MapRemove, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
+            final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, field);
+            final byte[] oldValue = dbGet(fullKey);
+            if (oldValue != null) {
+                dbWriteBatch(() -> {
+                    dbDelete(fullKey);
+                    addCount(key, meta, -1);
+                });
+                reconcileIfEmpty(key, meta);
+            }
+            return Optional.ofNullable(oldValue);
+        });
+    }
+
+    /**
+     * add deltas to counter fields as merge operands, the counter values are never read or rewritten.
+     * in the default exact count mode every field is still read under the database lock to detect new fields,
+     * so this costs as many point lookups as a read-modify-write and only saves decoding and rewriting values;
+     * with Options.exactCount false it writes blindly and takes no read
+     *
+     * @param key   key
+     * @param items fields and deltas
+     * @return number of items
+     */
+    @Override
+    public long mapIncrBy(final byte[] key, final CounterItem... items) {
+        return executeLong(OperationType.MapIncrBy, key, true, () -> {
+            if (items.length > 0) {
+                final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
+                final Set<ByteBuffer> newFields = new HashSet<>();
+                dbWriteBatch(() -> {
+                    for (final CounterItem item : items) {
+                        final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, item.field);
+                        // approximate count mode charges every field like mapPut, existing ones are reconciled later
+                        if (!exactCount || dbGet(fullKey) == null) {
+                            newFields.add(ByteBuffer.wrap(item.field));
+                        }
+                        dbMerge(fullKey, Encoding.counterToBytes(item.delta));
+                    }
+                    addCount(key, meta, newFields.size());
+                });
+                if (!exactCount) {
+                    addUncheckedCount(key, meta, newFields.size());
+                }
+            }
+            return items.length;
+        });
     }
 
     @Override
-    public long listForEach(final byte[] key, final Consumer<ListItem> onItem) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return 0;
-        }
-        final Box<Long> index = Box.of(0L);
-        return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(ListItem.of(index.value++, entry.value())));
+    public double mapIncrByFloat(final byte[] key, final byte[] field, final double delta) {
+        return execute(OperationType.MapIncrByFloat, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
+            final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, field);
+            final byte[] oldValue = dbGet(fullKey);
+            final double value = (oldValue == null ? 0 : Encoding.doubleFromBytes(oldValue)) + delta;
+            dbWriteBatch(() -> {
+                dbPut(fullKey, Encoding.doubleToBytes(value));
+                if (oldValue == null) {
+                    addCount(key, meta, 1);
+                }
+            });
+            return value;
+        });
+    }
+
+    /**
+     * replace a field with fn applied to its current value while holding the database lock,
+     * nothing is written if fn throws
+     *
+     * @param key   key
+     * @param field field
+     * @param fn    receives the current value, null if the field does not exist, returns the new value
+     * @return new value
+     */
+    @Override
+    public byte[] mapCompute(final byte[] key, final byte[] field, final UnaryOperator<byte[]> fn) {
+        return execute(OperationType.MapCompute, key, true, () -> {
+            final Box<byte[]> ret = Box.of(null);
+            dbWriteBatch(() -> {
+                final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Map);
+                final byte[] fullKey = Encoding.encodeDataMapFieldKey(meta.id, field);
+                final byte[] oldValue = dbGet(fullKey);
+                final byte[] value = fn.apply(oldValue);
+                if (value == null) {
+                    throw new IllegalArgumentException("mapCompute function must not return null");
+                }
+                dbPut(fullKey, value);
+                if (oldValue == null) {
+                    addCount(key, meta, 1);
+                }
+                ret.value = value;
+            });
+            return ret.value;
+        });
+    }
+
+    @Override
+    public long mapForEach(final byte[] key, final Consumer<MapItem> onItem) {
+        return executeLong(OperationType.MapForEach, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(MapItem.of(Encoding.stripDataKeyPrefix(entry.key()), entry.value())));
+        });
+    }
+
+    @Override
+    public long mapCount(final byte[] key) {
+        return executeLong(OperationType.MapCount, key, false, () -> getCount(key));
+    }
+
+    @Override
+    public long listLeftPush(final byte[] key, final byte[]... values) {
+        return executeLong(OperationType.ListLeftPush, key, true, () -> {
+            if (values.length > 0) {
+                dbWriteBatch(() -> {
+                    final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.List);
+                    final MetaInfo.ListExtra extra = meta.listExtra();
+                    for (final byte[] value : values) {
+                        final byte[] fullKey = Encoding.encodeDataListKey(meta.id, extra.left--);
+                        dbPut(fullKey, value);
+                    }
+                    meta.count += values.length;
+                    evictListOverflow(meta, extra, ListSide.Left);
+                    updateListMeta(key, meta, extra);
+                });
+            }
+            return values.length;
+        });
+    }
+
+    @Override
+    public long listRightPush(final byte[] key, final byte[]... values) {
+        return executeLong(OperationType.ListRightPush, key, true, () -> {
+            if (values.length > 0) {
+                dbWriteBatch(() -> {
+                    final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.List);
+                    final MetaInfo.ListExtra extra = meta.listExtra();
+                    for (final byte[] value : values) {
+                        final byte[] fullKey = Encoding.encodeDataListKey(meta.id, extra.right++);
+                        dbPut(fullKey, value);
+                    }
+                    meta.count += values.length;
+                    evictListOverflow(meta, extra, ListSide.Right);
+                    updateListMeta(key, meta, extra);
+                });
+            }
+            return values.length;
+        });
+    }
+
+    @Override
+    public long listCount(final byte[] key) {
+        return executeLong(OperationType.ListCount, key, false, () -> getCount(key));
+    }
+
+    @Override
+    public Optional<byte[]> listLeftPop(final byte[] key) {
+        return execute(OperationType.ListLeftPop, key, true, () -> {
+            final MetaInfo meta = getKeyMetaForUpdate(key);
+            if (meta == null) {
+                return Optional.empty();
+            }
+            final MetaInfo.ListExtra extra = meta.listExtra();
+            final byte[] fullKey = Encoding.encodeDataListKey(meta.id, extra.left + 1);
+            final byte[] value = dbGet(fullKey);
+            if (value != null) {
+                extra.left++;
+                meta.count--;
+                updateListMeta(key, meta, extra);
+                dbDelete(fullKey);
+            }
+            return Optional.ofNullable(value);
+        });
+    }
+
+    @Override
+    public Optional<byte[]> listRightPop(final byte[] key) {
+        return execute(OperationType.ListRightPop, key, true, () -> {
+            final MetaInfo meta = getKeyMetaForUpdate(key);
+            if (meta == null) {
+                return Optional.empty();
+            }
+            final MetaInfo.ListExtra extra = meta.listExtra();
+            final byte[] fullKey = Encoding.encodeDataListKey(meta.id, extra.right - 1);
+            final byte[] value = dbGet(fullKey);
+            if (value != null) {
+                extra.right--;
+                meta.count--;
+                updateListMeta(key, meta, extra);
+                dbDelete(fullKey);
+            }
+            return Optional.ofNullable(value);
+        });
+    }
+
+    /**
+     * pop up to count elements from one side of src and push each to one side of dst in one write batch,
+     * moving within one list rotates it at most once; with the same list and side nothing changes
+     * and only the element at that side is returned
+     *
+     * @param src   source list
+     * @param dst   destination list, may be src
+     * @param from  side of src to pop from
+     * @param to    side of dst to push to
+     * @param count max elements to move
+     * @return moved elements in move order
+     */
+    @Override
+    public List<byte[]> listMove(final byte[] src, final byte[] dst, final ListSide from, final ListSide to, final int count) {
+        return execute(OperationType.ListMove, src, true, () -> {
+            final List<byte[]> values = new ArrayList<>();
+            final MetaInfo srcMeta = getKeyMeta(src);
+            if (srcMeta == null || count < 1) {
+                return values;
+            }
+            checkKeyType(srcMeta, KeyType.List);
+            final MetaInfo.ListExtra srcExtra = srcMeta.listExtra();
+            if (from == to && Arrays.equals(src, dst)) {
+                // moving an element back to the side it was taken from leaves the list unchanged
+                final long position = from == ListSide.Left ? srcExtra.left + 1 : srcExtra.right - 1;
+                final byte[] value = dbGet(Encoding.encodeDataListKey(srcMeta.id, position));
+                if (value != null) {
+                    values.add(value);
+                }
+                return values;
+            }
+            dbWriteBatch(() -> {
+                final boolean sameKey = Arrays.equals(src, dst);
+                final MetaInfo dstMeta = sameKey ? srcMeta : getOrCreateKeyMeta(dst, KeyType.List);
+                final MetaInfo.ListExtra dstExtra = sameKey ? srcExtra : dstMeta.listExtra();
+                while (values.size() < count) {
+                    final long position = from == ListSide.Left ? srcExtra.left + 1 : srcExtra.right - 1;
+                    final byte[] fullKey = Encoding.encodeDataListKey(srcMeta.id, position);
+                    final byte[] value = dbGet(fullKey);
+                    if (value == null) {
+                        break;
+                    }
+                    if (from == ListSide.Left) {
+                        srcExtra.left++;
+                    } else {
+                        srcExtra.right--;
+                    }
+                    dbDelete(fullKey);
+                    srcMeta.count--;
+                    final long dstPosition = to == ListSide.Left ? dstExtra.left-- : dstExtra.right++;
+                    dbPut(Encoding.encodeDataListKey(dstMeta.id, dstPosition), value);
+                    dstMeta.count++;
+                    values.add(value);
+                }
+                if (values.isEmpty()) {
+                    return;
+                }
+                updateListMeta(src, srcMeta, srcExtra);
+                if (!sameKey) {
+                    evictListOverflow(dstMeta, dstExtra, to);
+                    updateListMeta(dst, dstMeta, dstExtra);
+                }
+            });
+            if (!values.isEmpty() && !Arrays.equals(src, dst)) {
+                publishChange(OperationType.ListMove, dst);
+            }
+            return values;
+        });
     }
 
     @Override
-    public synchronized long setAdd(final byte[] key, final byte[]... values) {
-        final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Set);
-        long newRows = 0;
-        for (final byte[] value : values) {
-            final byte[] fullKey = Encoding.encodeDataSetKey(meta.id, value);
-            if (dbGet(fullKey) == null) {
-                newRows++;
+    public long listTrim(final byte[] key, final long start, final long stop) {
+        return executeLong(OperationType.ListTrim, key, true, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            checkKeyType(meta, KeyType.List);
+            final MetaInfo.ListExtra extra = meta.listExtra();
+            final long count = extra.right - extra.left - 1;
+            final long first = Math.max(start < 0 ? count + start : start, 0);
+            final long last = Math.min(stop < 0 ? count + stop : stop, count - 1);
+            final long keep = first > last ? 0 : last - first + 1;
+            if (keep == count) {
+                return 0;
+            }
+            dbWriteBatch(() -> {
+                if (keep == 0) {
+                    deleteListRange(meta.id, extra.left + 1, extra.right);
+                    extra.right = extra.left + 1;
+                } else {
+                    deleteListRange(meta.id, extra.left + 1, extra.left + 1 + first);
+                    deleteListRange(meta.id, extra.left + 2 + last, extra.right);
+                    extra.right = extra.left + 2 + last;
+                    extra.left = extra.left + first;
+                }
+                meta.count = keep;
+                updateListMeta(key, meta, extra);
+            });
+            return count - keep;
+        });
+    }
+
+    @Override
+    public long listSetCap(final byte[] key, final long cap) {
+        if (cap < 0) {
+            throw new IllegalArgumentException("cap must not be negative");
+        }
+        return executeLong(OperationType.ListSetCap, key, true, () -> {
+            final Box<Long> evicted = Box.of(0L);
+            dbWriteBatch(() -> {
+                final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.List);
+                final MetaInfo.ListExtra extra = meta.listExtra();
+                extra.cap = cap;
+                final long count = meta.count;
+                evictListOverflow(meta, extra, ListSide.Right);
+                evicted.value = count - meta.count;
+                updateListMeta(key, meta, extra);
+            });
+            return evicted.value;
+        });
+    }
+
+    /**
+     * evict items beyond cap from the side opposite to where they were pushed
+     *
+     * @param meta   meta info of key
+     * @param extra  list extra of key
+     * @param pushed side items were pushed to
+     */
+    protected void evictListOverflow(final MetaInfo meta, final MetaInfo.ListExtra extra, final ListSide pushed) {
+        if (extra.cap < 1 || meta.count <= extra.cap) {
+            return;
+        }
+        final long n = meta.count - extra.cap;
+        if (pushed == ListSide.Right) {
+            deleteListRange(meta.id, extra.left + 1, extra.left + 1 + n);
+            extra.left += n;
+        } else {
+            deleteListRange(meta.id, extra.right - n, extra.right);
+            extra.right -= n;
+        }
+        meta.count = extra.cap;
+    }
+
+    /**
+     * delete list items in positions [begin, end), small ranges use point deletes
+     * since every range tombstone slows down later reads until it is compacted
+     *
+     * @param keyId key id
+     * @param begin first position
+     * @param end   position after the last one
+     */
+    protected void deleteListRange(final long keyId, final long begin, final long end) {
+        if (end - begin <= 32) {
+            for (long position = begin; position < end; position++) {
+                dbDelete(Encoding.encodeDataListKey(keyId, position));
             }
-            dbPut(fullKey, new byte[]{});
+        } else {
+            dbDeleteRange(keyId, Encoding.encodeDataListKey(keyId, begin), Encoding.encodeDataListKey(keyId, end));
         }
-        if (newRows > 0) {
-            meta.count += newRows;
+    }
+
+    /**
+     * update meta info of List, an empty key is kept while it has a cap
+     *
+     * @param key   key
+     * @param meta  meta info of key
+     * @param extra list extra of key
+     */
+    protected void updateListMeta(final byte[] key, final MetaInfo meta, final MetaInfo.ListExtra extra) {
+        if (meta.count < 1 && extra.cap > 0) {
+            putMetaInfo(key, meta);
+        } else {
             updateMetaInfo(key, meta);
         }
-        return newRows;
+    }
+
+    @Override
+    public long listForEach(final byte[] key, final Consumer<ListItem> onItem) {
+        return executeLong(OperationType.ListForEach, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            final Box<Long> index = Box.of(0L);
+            return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(ListItem.of(index.value++, entry.value())));
+        });
+    }
+
+    /**
+     * items from start to stop inclusive, negative positions count from the tail as in Redis LRANGE;
+     * seeks to start instead of iterating the whole list
+     *
+     * @param key   key
+     * @param start first position
+     * @param stop  last position
+     * @return items, ListItem.index is the position
+     */
+    @Override
+    public List<ListItem> listRange(final byte[] key, final long start, final long stop) {
+        return execute(OperationType.ListRange, key, false, () -> {
+            final List<ListItem> list = new ArrayList<>();
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return list;
+            }
+            checkKeyType(meta, KeyType.List);
+            final MetaInfo.ListExtra extra = meta.listExtra();
+            final long[] range = normalizeRange(start, stop, extra.right - extra.left - 1);
+            if (range[0] >= range[1]) {
+                return list;
+            }
+            final long first = extra.left + 1;
+            try (final StoreIterator it = dbIterator(Encoding.encodeDataListKey(meta.id, first + range[1]))) {
+                it.seek(Encoding.encodeDataListKey(meta.id, first + range[0]));
+                for (long index = range[0]; it.isValid(); index++, it.next()) {
+                    list.add(ListItem.of(index, it.value()));
+                }
+            }
+            return list;
+        });
+    }
+
+    /**
+     * convert an inclusive range with negative positions counting from the tail into [from, to) within count
+     */
+    protected static long[] normalizeRange(long start, long stop, final long count) {
+        if (start < 0) {
+            start = Math.max(0, count + start);
+        }
+        if (stop < 0) {
+            stop = count + stop;
+        }
+        stop = Math.min(stop, count - 1);
+        if (start > stop) {
+            return new long[]{0, 0};
+        }
+        return new long[]{start, stop + 1};
+    }
+
+    @Override
+    public long setAdd(final byte[] key, final byte[]... values) {
+        return executeLong(OperationType.SetAdd, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.Set);
+            if (!exactCount) {
+                dbWriteBatch(() -> {
+                    for (final byte[] value : values) {
+                        dbPut(Encoding.encodeDataSetKey(meta.id, value), new byte[]{});
+                    }
+                    addCount(key, meta, values.length);
+                });
+                addUncheckedCount(key, meta, values.length);
+                return values.length;
+            }
+            long newRows = 0;
+            for (final byte[] value : values) {
+                final byte[] fullKey = Encoding.encodeDataSetKey(meta.id, value);
+                if (dbGet(fullKey) == null) {
+                    newRows++;
+                }
+                dbPut(fullKey, new byte[]{});
+            }
+            if (newRows > 0) {
+                meta.count += newRows;
+                updateMetaInfo(key, meta);
+            }
+            return newRows;
+        });
     }
 
     @Override
     public boolean setIsMember(final byte[] key, final byte[]... values) {
-        if (values.length < 1) {
-            return false;
+        return execute(OperationType.SetIsMember, key, false, () -> {
+            if (values.length < 1) {
+                return false;
+            }
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return false;
+            }
+            boolean yes = true;
+            for (final byte[] value : values) {
+                final byte[] fullKey = Encoding.encodeDataSetKey(meta.id, value);
+                yes &= dbGet(fullKey) != null;
+            }
+            return yes;
+        });
+    }
+
+    @Override
+    public long setRemove(final byte[] key, final byte[]... values) {
+        return executeLong(OperationType.SetRemove, key, true, () -> {
+            // the cached instance keeps the unchecked tally of approximate count mode
+            final MetaInfo meta = getKeyMetaForUpdate(key);
+            if (meta == null) {
+                return 0;
+            }
+            final Box<Long> deleteRows = Box.of(0L);
+            dbWriteBatch(() -> {
+                // reads do not see deletes pending in the batch, so a repeated member is removed once
+                final Set<ByteBuffer> seen = new HashSet<>();
+                for (final byte[] value : values) {
+                    final byte[] fullKey = Encoding.encodeDataSetKey(meta.id, value);
+                    if (seen.add(ByteBuffer.wrap(value)) && dbGet(fullKey) != null) {
+                        deleteRows.value++;
+                        dbDelete(fullKey);
+                    }
+                }
+                addCount(key, meta, -deleteRows.value);
+            });
+            if (deleteRows.value > 0) {
+                reconcileIfEmpty(key, meta);
+            }
+            return deleteRows.value;
+        });
+    }
+
+    @Override
+    public long setCount(final byte[] key) {
+        return executeLong(OperationType.SetCount, key, false, () -> getCount(key));
+    }
+
+    @Override
+    public long setForEach(final byte[] key, final Consumer<byte[]> onItem) {
+        return executeLong(OperationType.SetForEach, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(Encoding.decodeDataSetKey(entry.key())));
+        });
+    }
+
+    @Override
+    public long setIntersect(final Consumer<byte[]> onItem, final byte[]... keys) {
+        return executeLong(OperationType.SetIntersect, keys.length > 0 ? keys[0] : new byte[]{}, false, () -> intersectSets(onItem, keys));
+    }
+
+    @Override
+    public long setUnion(final Consumer<byte[]> onItem, final byte[]... keys) {
+        return executeLong(OperationType.SetUnion, keys.length > 0 ? keys[0] : new byte[]{}, false, () -> unionSets(onItem, keys));
+    }
+
+    @Override
+    public long setDiff(final Consumer<byte[]> onItem, final byte[]... keys) {
+        return executeLong(OperationType.SetDiff, keys.length > 0 ? keys[0] : new byte[]{}, false, () -> diffSets(onItem, keys));
+    }
+
+    @Override
+    public long setIntersectStore(final byte[] dst, final byte[]... keys) {
+        return executeLong(OperationType.SetIntersectStore, dst, true, () -> storeSet(dst, onItem -> intersectSets(onItem, keys)));
+    }
+
+    @Override
+    public long setUnionStore(final byte[] dst, final byte[]... keys) {
+        return executeLong(OperationType.SetUnionStore, dst, true, () -> storeSet(dst, onItem -> unionSets(onItem, keys)));
+    }
+
+    @Override
+    public long setDiffStore(final byte[] dst, final byte[]... keys) {
+        return executeLong(OperationType.SetDiffStore, dst, true, () -> storeSet(dst, onItem -> diffSets(onItem, keys)));
+    }
+
+    /**
+     * leapfrog join, the smallest set leads and every other cursor seeks forward to its member
+     *
+     * @param onItem on member
+     * @param keys   keys
+     * @return members count
+     */
+    protected long intersectSets(final Consumer<byte[]> onItem, final byte[][] keys) {
+        final List<MetaInfo> metas = new ArrayList<>();
+        for (final byte[] key : keys) {
+            final MetaInfo meta = getSetMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            metas.add(meta);
+        }
+        if (metas.isEmpty()) {
+            return 0;
+        }
+        metas.sort(Comparator.comparingLong(this::getCount));
+        final List<SetCursor> cursors = openSetCursors(metas);
+        try {
+            final SetCursor lead = cursors.get(0);
+            long count = 0;
+            while (lead.valid) {
+                boolean matched = true;
+                for (int i = 1; i < cursors.size(); i++) {
+                    final SetCursor cursor = cursors.get(i);
+                    cursor.seekTo(lead.member);
+                    if (!cursor.valid) {
+                        return count;
+                    }
+                    if (Encoding.compareKeyBytes(cursor.member, lead.member) > 0) {
+                        lead.seekTo(cursor.member);
+                        matched = false;
+                        break;
+                    }
+                }
+                if (matched) {
+                    onItem.accept(lead.member);
+                    count++;
+                    lead.next();
+                }
+            }
+            return count;
+        } finally {
+            cursors.forEach(SetCursor::close);
+        }
+    }
+
+    /**
+     * N-way merge, memory is one cursor per key
+     *
+     * @param onItem on member
+     * @param keys   keys
+     * @return members count
+     */
+    protected long unionSets(final Consumer<byte[]> onItem, final byte[][] keys) {
+        final List<MetaInfo> metas = new ArrayList<>();
+        for (final byte[] key : keys) {
+            final MetaInfo meta = getSetMeta(key);
+            if (meta != null) {
+                metas.add(meta);
+            }
+        }
+        final List<SetCursor> cursors = openSetCursors(metas);
+        try {
+            final PriorityQueue<SetCursor> queue = new PriorityQueue<>(Math.max(cursors.size(), 1), (a, b) -> Encoding.compareKeyBytes(a.member, b.member));
+            for (final SetCursor cursor : cursors) {
+                if (cursor.valid) {
+                    queue.add(cursor);
+                }
+            }
+            long count = 0;
+            while (!queue.isEmpty()) {
+                final byte[] member = queue.peek().member;
+                onItem.accept(member);
+                count++;
+                while (!queue.isEmpty() && Arrays.equals(member, queue.peek().member)) {
+                    final SetCursor cursor = queue.poll();
+                    cursor.next();
+                    if (cursor.valid) {
+                        queue.add(cursor);
+                    }
+                }
+            }
+            return count;
+        } finally {
+            cursors.forEach(SetCursor::close);
+        }
+    }
+
+    /**
+     * members of the first set which are in none of the others, other cursors only seek forward
+     *
+     * @param onItem on member
+     * @param keys   keys
+     * @return members count
+     */
+    protected long diffSets(final Consumer<byte[]> onItem, final byte[][] keys) {
+        if (keys.length < 1) {
+            return 0;
+        }
+        final MetaInfo first = getSetMeta(keys[0]);
+        if (first == null) {
+            return 0;
+        }
+        final List<MetaInfo> metas = new ArrayList<>();
+        metas.add(first);
+        for (int i = 1; i < keys.length; i++) {
+            final MetaInfo meta = getSetMeta(keys[i]);
+            if (meta != null) {
+                metas.add(meta);
+            }
+        }
+        final List<SetCursor> cursors = openSetCursors(metas);
+        try {
+            final SetCursor lead = cursors.get(0);
+            long count = 0;
+            for (; lead.valid; lead.next()) {
+                boolean found = false;
+                for (int i = 1; i < cursors.size() && !found; i++) {
+                    final SetCursor cursor = cursors.get(i);
+                    cursor.seekTo(lead.member);
+                    found = cursor.valid && Arrays.equals(cursor.member, lead.member);
+                }
+                if (!found) {
+                    onItem.accept(lead.member);
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            cursors.forEach(SetCursor::close);
         }
+    }
+
+    /**
+     * replace dst with members produced by fn in one write batch, sources are read before the batch is written
+     *
+     * @param dst destination key
+     * @param fn  producer of members, returns members count
+     * @return members count
+     */
+    protected long storeSet(final byte[] dst, final ToLongFunction<Consumer<byte[]>> fn) {
+        final Box<Long> count = Box.of(0L);
+        dbWriteBatch(() -> {
+            final MetaInfo old = getKeyMeta(dst);
+            if (old != null) {
+                checkKeyType(old, KeyType.Set);
+                dbDeleteRange(old.id, Encoding.encodeDataMapPrefixKey(old.id), Encoding.encodeDataMapPrefixKey(old.id + 1));
+                if (!exactCount) {
+                    dbDelete(Encoding.encodeCountKey(old.id));
+                }
+            }
+            final MetaInfo meta = new MetaInfo(allocateKeyId(), KeyType.Set, 0, null);
+            count.value = fn.applyAsLong(member -> dbPut(Encoding.encodeDataSetKey(meta.id, member), new byte[]{}));
+            meta.count = count.value;
+            updateMetaInfo(dst, meta);
+        });
+        return count.value;
+    }
+
+    protected MetaInfo getSetMeta(final byte[] key) {
         final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return false;
+        if (meta != null) {
+            checkKeyType(meta, KeyType.Set);
         }
-        boolean yes = true;
-        for (final byte[] value : values) {
-            final byte[] fullKey = Encoding.encodeDataSetKey(meta.id, value);
-            yes &= dbGet(fullKey) != null;
+        return meta;
+    }
+
+    protected List<SetCursor> openSetCursors(final List<MetaInfo> metas) {
+        final List<SetCursor> cursors = new ArrayList<>(metas.size());
+        try {
+            for (final MetaInfo meta : metas) {
+                cursors.add(new SetCursor(meta.id));
+            }
+        } catch (RuntimeException e) {
+            cursors.forEach(SetCursor::close);
+            throw e;
         }
-        return yes;
+        return cursors;
     }
 
-    @Override
-    public synchronized long setRemove(final byte[] key, final byte[]... values) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return 0;
+    /**
+     * forward-only cursor over members of a set
+     */
+    protected class SetCursor implements AutoCloseable {
+        protected final byte[] prefix;
+        protected final StoreIterator iterator;
+        protected boolean valid;
+        protected byte[] member;
+
+        protected SetCursor(final long keyId) {
+            prefix = Encoding.encodeDataMapPrefixKey(keyId);
+            iterator = dbIterator(Encoding.encodeDataMapPrefixKey(keyId + 1));
+            iterator.seek(prefix);
+            update();
         }
-        long deleteRows = 0;
-        for (final byte[] value : values) {
-            final byte[] fullKey = Encoding.encodeDataSetKey(meta.id, value);
-            if (dbGet(fullKey) != null) {
-                deleteRows++;
-                dbDelete(fullKey);
+
+        protected void update() {
+            valid = iterator.isValid();
+            if (valid) {
+                final byte[] key = iterator.key();
+                valid = Encoding.hasPrefix(prefix, key);
+                member = valid ? Encoding.decodeDataSetKey(key) : null;
+            } else {
+                member = null;
             }
         }
-        if (deleteRows > 0) {
-            meta.count -= deleteRows;
-            updateMetaInfo(key, meta);
+
+        protected void next() {
+            iterator.next();
+            update();
         }
-        return deleteRows;
-    }
 
-    @Override
-    public long setCount(final byte[] key) {
-        return getCount(key);
-    }
+        /**
+         * move to the first member not less than target, never moves backward
+         *
+         * @param target member
+         */
+        protected void seekTo(final byte[] target) {
+            // nearby targets are cheaper to reach by stepping than by a fresh seek
+            for (int i = 0; i < 4; i++) {
+                if (!valid || Encoding.compareKeyBytes(member, target) >= 0) {
+                    return;
+                }
+                next();
+            }
+            if (!valid || Encoding.compareKeyBytes(member, target) >= 0) {
+                return;
+            }
+            iterator.seek(Encoding.combineMultipleBytes(prefix, target));
+            update();
+        }
 
-    @Override
-    public long setForEach(final byte[] key, final Consumer<byte[]> onItem) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return 0;
+        @Override
+        public void close() {
+            iterator.close();
         }
-        return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(Encoding.decodeDataSetKey(entry.key())));
     }
 
     @Override
-    public synchronized long sortedListAdd(final byte[] key, final SortedListItem... items) {
-        final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedList);
-        final MetaInfo.SortedListExtra extra = MetaInfo.SortedListExtra.fromBytes(meta.extra);
-        for (final SortedListItem item : items) {
-            final byte[] fullKey = Encoding.encodeDataSortedListKey(meta.id, extra.sequence++, item.score);
-            dbPut(fullKey, item.value);
-        }
-        meta.extra = extra.toBytes();
-        meta.count += items.length;
-        updateMetaInfo(key, meta);
-        return items.length;
+    public long sortedListAdd(final byte[] key, final SortedListItem... items) {
+        return executeLong(OperationType.SortedListAdd, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedList);
+            final MetaInfo.SortedListExtra extra = meta.sortedListExtra();
+            for (final SortedListItem item : items) {
+                final byte[] fullKey = Encoding.encodeDataSortedListKey(meta.id, extra.sequence++, item.score);
+                dbPut(fullKey, item.value);
+            }
+            meta.count += items.length;
+            updateMetaInfo(key, meta);
+            return items.length;
+        });
     }
 
     @Override
     public long sortedListCount(final byte[] key) {
-        return getCount(key);
+        return executeLong(OperationType.SortedListCount, key, false, () -> getCount(key));
     }
 
-    protected void checkSortedListCompact(final MetaInfo.SortedListExtra extra) {
-        try {
-            if (extra.leftDeletesCount >= 300) {
-                db.compactRange();
-                extra.leftDeletesCount = 0;
-            }
-            if (extra.rightDeletesCount >= 300) {
-                db.compactRange();
-                extra.rightDeletesCount = 0;
-            }
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+    protected void checkSortedListCompact(final MetaInfo meta, final MetaInfo.SortedListExtra extra) {
+        if (extra.leftDeletesCount >= 300) {
+            dbCompactRange(meta.id, "sortedListLeftDeletes");
+            extra.leftDeletesCount = 0;
+        }
+        if (extra.rightDeletesCount >= 300) {
+            dbCompactRange(meta.id, "sortedListRightDeletes");
+            extra.rightDeletesCount = 0;
         }
     }
 
     @Override
-    public synchronized Optional<SortedListItem> sortedListLeftPop(final byte[] key, final byte[] maxScore) {
-        final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedList);
-        final MetaInfo.SortedListExtra extra = MetaInfo.SortedListExtra.fromBytes(meta.extra);
-        final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
-        try (final ReadOptions readOptions = dbReadOptions(o -> {
-            o.setPrefixSameAsStart(true);
-            o.setTotalOrderSeek(false);
-        })) {
-            try (final RocksIterator it = dbIterator(readOptions)) {
+    public Optional<SortedListItem> sortedListLeftPop(final byte[] key, final byte[] maxScore) {
+        return execute(OperationType.SortedListLeftPop, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedList);
+            final MetaInfo.SortedListExtra extra = meta.sortedListExtra();
+            final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
+            try (final StoreIterator it = dbIterator(null)) {
                 it.seek(prefix);
                 if (!it.isValid()) {
                     return Optional.empty();
@@ -453,27 +2145,23 @@ public class Database implements IDatabase {
                     dbDelete(it.key());
                     meta.count--;
                     extra.leftDeletesCount++;
-                    checkSortedListCompact(extra);
-                    meta.extra = extra.toBytes();
+                    checkSortedListCompact(meta, extra);
                     updateMetaInfo(key, meta);
                     return Optional.of(SortedListItem.of(score, it.value()));
                 } else {
                     return Optional.empty();
                 }
             }
-        }
+        });
     }
 
     @Override
-    public synchronized Optional<SortedListItem> sortedListRightPop(final byte[] key, final byte[] minScore) {
-        final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedList);
-        final MetaInfo.SortedListExtra extra = MetaInfo.SortedListExtra.fromBytes(meta.extra);
-        final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
-        try (final ReadOptions readOptions = dbReadOptions(o -> {
-            o.setPrefixSameAsStart(true);
-            o.setTotalOrderSeek(false);
-        })) {
-            try (final RocksIterator it = dbIterator(readOptions)) {
+    public Optional<SortedListItem> sortedListRightPop(final byte[] key, final byte[] minScore) {
+        return execute(OperationType.SortedListRightPop, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedList);
+            final MetaInfo.SortedListExtra extra = meta.sortedListExtra();
+            final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
+            try (final StoreIterator it = dbIterator(null)) {
                 it.seekForPrev(Encoding.encodeDataSortedListPrefixKey(meta.id + 1));
                 if (!it.isValid()) {
                     return Optional.empty();
@@ -486,110 +2174,296 @@ public class Database implements IDatabase {
                     dbDelete(it.key());
                     meta.count--;
                     extra.rightDeletesCount++;
-                    checkSortedListCompact(extra);
-                    meta.extra = extra.toBytes();
+                    checkSortedListCompact(meta, extra);
                     updateMetaInfo(key, meta);
                     return Optional.of(SortedListItem.of(score, it.value()));
                 } else {
                     return Optional.empty();
                 }
             }
-        }
+        });
     }
 
     @Override
     public long sortedListForEach(final byte[] key, final Consumer<SortedListItem> onItem) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return 0;
-        }
-        return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(SortedListItem.of(Encoding.decodeDataSortedListKey(entry.key()), entry.value())));
+        return executeLong(OperationType.SortedListForEach, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> onItem.accept(SortedListItem.of(Encoding.decodeDataSortedListKey(entry.key()), entry.value())));
+        });
     }
 
     @Override
-    public synchronized long ascSortedListAdd(final byte[] key, final SortedListItem... items) {
-        final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.AscSortedList);
-        final MetaInfo.AscSortedListExtra extra = MetaInfo.AscSortedListExtra.fromBytes(meta.extra);
-        long addCount = 0;
-        for (final SortedListItem item : items) {
-            final byte[] fullKey = Encoding.encodeDataSortedListKey(meta.id, extra.sequence++, item.score);
-            if (extra.minKey == null || Encoding.compareScoreBytes(fullKey, extra.minKey) >= 0) {
-                addCount++;
-                dbPut(fullKey, item.value);
+    public long ascSortedListAdd(final byte[] key, final SortedListItem... items) {
+        return executeLong(OperationType.AscSortedListAdd, key, true, () -> {
+            final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.AscSortedList);
+            final MetaInfo.AscSortedListExtra extra = meta.ascSortedListExtra();
+            long addCount = 0;
+            for (final SortedListItem item : items) {
+                final byte[] fullKey = Encoding.encodeDataSortedListKey(meta.id, extra.sequence++, item.score);
+                if (extra.minKey == null || Encoding.compareScoreBytes(fullKey, extra.minKey) >= 0) {
+                    addCount++;
+                    dbPut(fullKey, item.value);
+                }
             }
-        }
-        meta.extra = extra.toBytes();
-        meta.count += addCount;
-        updateMetaInfo(key, meta);
-        return addCount;
+            meta.count += addCount;
+            updateMetaInfo(key, meta);
+            return addCount;
+        });
     }
 
     @Override
     public long ascSortedListCount(final byte[] key) {
-        return getCount(key);
+        return executeLong(OperationType.AscSortedListCount, key, false, () -> getCount(key));
     }
 
     @Override
-    public synchronized Optional<SortedListItem> ascSortedListPop(final byte[] key, final byte[] maxScore) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return Optional.empty();
+    public Optional<SortedListItem> ascSortedListPop(final byte[] key, final byte[] maxScore) {
+        return execute(OperationType.AscSortedListPop, key, true, () -> {
+            final MetaInfo meta = getKeyMetaForUpdate(key);
+            if (meta == null) {
+                return Optional.empty();
+            }
+            final List<SortedListItem> items = popAscSortedListItems(key, meta, maxScore, 1);
+            if (items.isEmpty()) {
+                return Optional.empty();
+            }
+            updateAscSortedListMeta(key, meta, false);
+            return Optional.of(items.get(0));
+        });
+    }
+
+    @Override
+    public List<SortedListItem> ascSortedListPopTo(final byte[] src, final byte[] dstMap, final byte[] maxScore, final int count) {
+        return execute(OperationType.AscSortedListPopTo, src, true, () -> {
+            final MetaInfo meta = getKeyMeta(src);
+            if (meta == null || count < 1) {
+                return new ArrayList<>();
+            }
+            checkKeyType(meta, KeyType.AscSortedList);
+            final Box<List<SortedListItem>> items = Box.of(null);
+            dbWriteBatch(() -> {
+                items.value = popAscSortedListItems(src, meta, maxScore, count);
+                if (!items.value.isEmpty()) {
+                    updateAscSortedListMeta(src, meta, false);
+                    final MapItem[] mapItems = new MapItem[items.value.size()];
+                    for (int i = 0; i < mapItems.length; i++) {
+                        mapItems[i] = MapItem.of(items.value.get(i).value, items.value.get(i).score);
+                    }
+                    putMapItems(dstMap, mapItems);
+                }
+            });
+            if (!items.value.isEmpty()) {
+                publishChange(OperationType.AscSortedListPopTo, dstMap);
+            }
+            return items.value;
+        });
+    }
+
+    @Override
+    public List<LeasedItem> ascSortedListLease(final byte[] key, final byte[] maxScore, final int count, final long leaseMillis) {
+        if (leaseMillis < 1) {
+            throw new IllegalArgumentException("leaseMillis must be positive");
         }
-        final MetaInfo.AscSortedListExtra extra = MetaInfo.AscSortedListExtra.fromBytes(meta.extra);
-        final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
-        final byte[] minKey = extra.minKey != null ? extra.minKey : prefix;
-        try (final ReadOptions readOptions = dbReadOptions(null)) {
-            try (final RocksIterator it = dbIterator(readOptions)) {
-                it.seek(minKey);
-                if (!it.isValid()) {
-                    return Optional.empty();
+        return execute(OperationType.AscSortedListLease, key, true, () -> {
+            final List<LeasedItem> leased = new ArrayList<>();
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null || count < 1) {
+                return leased;
+            }
+            checkKeyType(meta, KeyType.AscSortedList);
+            final long now = System.currentTimeMillis();
+            final long deadline = now + leaseMillis;
+            dbWriteBatch(() -> {
+                final List<LeasedItem> expired = takeExpiredLeases(meta.id, now, count);
+                final List<SortedListItem> items = expired.size() < count
+                        ? popAscSortedListItems(key, meta, maxScore, count - expired.size())
+                        : new ArrayList<>();
+                if (expired.isEmpty() && items.isEmpty()) {
+                    return;
                 }
-                if (!Encoding.hasPrefix(prefix, it.key())) {
-                    return Optional.empty();
+                final MetaInfo.AscSortedListExtra extra = meta.ascSortedListExtra();
+                for (final LeasedItem item : expired) {
+                    leased.add(putLease(meta.id, deadline, extra.sequence++, item.deliveries + 1, item.score, item.value));
                 }
-                final byte[] score = Encoding.decodeDataSortedListKey(it.key());
-                if (maxScore == null || Encoding.compareScoreBytes(score, maxScore) < 1) {
-                    meta.count--;
-                    extra.deletesCount++;
-                    extra.minKey = Encoding.prefixUpperBound(it.key());
-                    if (meta.count < 1) {
-                        pruneAscSortedListRange(meta, extra);
-                    } else if (extra.deletesCount >= 300) {
-                        pruneAscSortedListRange(meta, extra);
-                        extra.deletesCount = 0;
+                for (final SortedListItem item : items) {
+                    leased.add(putLease(meta.id, deadline, extra.sequence++, 1, item.score, item.value));
+                }
+                updateAscSortedListMeta(key, meta, true);
+            });
+            return leased;
+        });
+    }
+
+    @Override
+    public long ascSortedListAck(final byte[] key, final byte[]... leaseIds) {
+        return executeLong(OperationType.AscSortedListAck, key, true, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            checkKeyType(meta, KeyType.AscSortedList);
+            final Set<byte[]> keys = new TreeSet<>(Encoding::compareKeyBytes);
+            for (final byte[] leaseId : leaseIds) {
+                keys.add(Encoding.encodeLeaseKey(meta.id, leaseId));
+            }
+            final Set<byte[]> acked = new TreeSet<>(Encoding::compareKeyBytes);
+            dbWriteBatch(() -> {
+                // one iterator seeking in key order instead of a get per lease,
+                // every point lookup has to rebuild range tombstones left by pruneAscSortedListRange
+                try (final StoreIterator it = dbIterator(null)) {
+                    for (final byte[] fullKey : keys) {
+                        it.seek(fullKey);
+                        if (it.isValid() && Arrays.equals(fullKey, it.key())) {
+                            dbDelete(fullKey);
+                            acked.add(fullKey);
+                        }
                     }
-                    meta.extra = extra.toBytes();
+                }
+                if (!acked.isEmpty() && meta.count < 1 && !hasLeases(meta.id, acked)) {
                     updateMetaInfo(key, meta);
-                    return Optional.of(SortedListItem.of(score, it.value()));
-                } else {
-                    return Optional.empty();
                 }
+            });
+            return acked.size();
+        });
+    }
+
+    /**
+     * remove up to limit expired leases from lease index
+     *
+     * @param keyId key id
+     * @param now   current time in milliseconds
+     * @param limit max items
+     * @return expired leases in expiry order
+     */
+    protected List<LeasedItem> takeExpiredLeases(final long keyId, final long now, final int limit) {
+        final List<LeasedItem> items = new ArrayList<>();
+        final byte[] prefix = Encoding.encodeLeasePrefixKey(keyId);
+        // acked leases leave tombstones after now, the upper bound keeps the seek from scanning them
+        try (final StoreIterator it = dbIterator(Encoding.encodeLeaseKey(keyId, Encoding.encodeLeaseId(now + 1, 0)))) {
+            it.seek(prefix);
+            while (items.size() < limit && it.isValid() && Encoding.hasPrefix(prefix, it.key())) {
+                final LeasedItem item = LeasedItem.fromBytes(Encoding.decodeLeaseKey(it.key()), it.value());
+                if (item.deadline > now) {
+                    break;
+                }
+                dbDelete(it.key());
+                items.add(item);
+                it.next();
+            }
+        }
+        return items;
+    }
+
+    protected LeasedItem putLease(final long keyId, final long deadline, final long seq, final int deliveries, final byte[] score, final byte[] value) {
+        final LeasedItem item = LeasedItem.of(Encoding.encodeLeaseId(deadline, seq), deadline, deliveries, score, value);
+        dbPut(Encoding.encodeLeaseKey(keyId, item.leaseId), item.toValueBytes());
+        return item;
+    }
+
+    /**
+     * check whether lease index of key has any lease not in excluded
+     *
+     * @param keyId    key id
+     * @param excluded full lease keys to skip, they are deleted in the pending write batch
+     * @return boolean
+     */
+    protected boolean hasLeases(final long keyId, final Set<byte[]> excluded) {
+        final byte[] prefix = Encoding.encodeLeasePrefixKey(keyId);
+        try (final StoreIterator it = dbIterator(null)) {
+            for (it.seek(prefix); it.isValid() && Encoding.hasPrefix(prefix, it.key()); it.next()) {
+                if (!excluded.contains(it.key())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * update meta info of AscSortedList, an empty key is kept while it still has outstanding leases
+     *
+     * @param key    key
+     * @param meta   meta info of key
+     * @param leased leases are being written in the pending write batch
+     */
+    protected void updateAscSortedListMeta(final byte[] key, final MetaInfo meta, final boolean leased) {
+        if (meta.count < 1 && (leased || hasLeases(meta.id, Collections.emptySet()))) {
+            putMetaInfo(key, meta);
+        } else {
+            updateMetaInfo(key, meta);
+        }
+    }
+
+    /**
+     * pop up to limit items with score not greater than maxScore, caller should update meta info
+     *
+     * @param key      key
+     * @param meta     meta info of key
+     * @param maxScore max score, null means no limit
+     * @param limit    max items
+     * @return popped items in score order
+     */
+    protected List<SortedListItem> popAscSortedListItems(final byte[] key, final MetaInfo meta, final byte[] maxScore, final int limit) {
+        final List<SortedListItem> items = new ArrayList<>();
+        final MetaInfo.AscSortedListExtra extra = meta.ascSortedListExtra();
+        final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
+        final byte[] minKey = extra.minKey != null ? extra.minKey : prefix;
+        try (final StoreIterator it = dbIterator(null)) {
+            it.seek(minKey);
+            while (items.size() < limit && it.isValid() && Encoding.hasPrefix(prefix, it.key())) {
+                final byte[] score = Encoding.decodeDataSortedListKey(it.key());
+                if (maxScore != null && Encoding.compareScoreBytes(score, maxScore) >= 1) {
+                    break;
+                }
+                meta.count--;
+                extra.deletesCount++;
+                extra.minKey = Encoding.prefixUpperBound(it.key());
+                items.add(SortedListItem.of(score, it.value()));
+                it.next();
             }
         }
+        if (items.isEmpty()) {
+            return items;
+        }
+        if (meta.count < 1) {
+            pruneAscSortedListRange(meta, extra);
+        } else if (extra.deletesCount >= 300) {
+            pruneAscSortedListRange(meta, extra);
+            extra.deletesCount = 0;
+        }
+        return items;
     }
 
     @Override
     public long ascSortedListForEach(final byte[] key, final Consumer<SortedListItem> onItem) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return 0;
-        }
-        final MetaInfo.AscSortedListExtra extra = MetaInfo.AscSortedListExtra.fromBytes(meta.extra);
-        return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> {
-            if (extra.minKey == null || Encoding.compareScoreBytes(entry.key(), extra.minKey) >= 0) {
-                onItem.accept(SortedListItem.of(Encoding.decodeDataSortedListKey(entry.key()), entry.value()));
+        return executeLong(OperationType.AscSortedListForEach, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
             }
+            final MetaInfo.AscSortedListExtra extra = meta.ascSortedListExtra();
+            return prefixForEach(Encoding.encodeDataMapPrefixKey(meta.id), entry -> {
+                if (extra.minKey == null || Encoding.compareScoreBytes(entry.key(), extra.minKey) >= 0) {
+                    onItem.accept(SortedListItem.of(Encoding.decodeDataSortedListKey(entry.key()), entry.value()));
+                }
+            });
         });
     }
 
     @Override
-    public synchronized void ascSortedListPrune(byte[] key) {
-        final MetaInfo meta = getKeyMeta(key);
-        if (meta == null) {
-            return;
-        }
-        final MetaInfo.AscSortedListExtra extra = MetaInfo.AscSortedListExtra.fromBytes(meta.extra);
-        pruneAscSortedListRange(meta, extra);
+    public void ascSortedListPrune(byte[] key) {
+        execute(OperationType.AscSortedListPrune, key, true, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return null;
+            }
+            final MetaInfo.AscSortedListExtra extra = meta.ascSortedListExtra();
+            pruneAscSortedListRange(meta, extra);
+            return null;
+        });
     }
 
     protected void pruneAscSortedListRange(final MetaInfo meta, final MetaInfo.AscSortedListExtra extra) {
@@ -597,18 +2471,344 @@ public class Database implements IDatabase {
             return;
         }
         final byte[] prefix = Encoding.encodeDataSortedListPrefixKey(meta.id);
-        try {
-            db.deleteRange(prefix, extra.minKey);
-        } catch (RocksDBException e) {
-            e.printStackTrace();
+        dbDeleteRange(meta.id, prefix, extra.minKey);
+    }
+
+    @Override
+    public long sortedSetAdd(final byte[] key, final SortedSetItem... items) {
+        return executeLong(OperationType.SortedSetAdd, key, true, () -> {
+            if (items.length < 1) {
+                return 0;
+            }
+            // reads do not see the pending write batch, so a repeated member keeps only its last score
+            final Map<ByteBuffer, SortedSetItem> members = new LinkedHashMap<>();
+            for (final SortedSetItem item : items) {
+                checkSortedSetScore(item.score);
+                members.put(ByteBuffer.wrap(item.member), item);
+            }
+            final Box<Long> added = Box.of(0L);
+            dbWriteBatch(() -> {
+                final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedSet);
+                final Map<ByteBuffer, Long> buckets = new HashMap<>();
+                for (final SortedSetItem item : members.values()) {
+                    if (putSortedSetScore(meta, item.member, item.score, buckets)) {
+                        added.value++;
+                    }
+                }
+                writeSortedSetBuckets(buckets);
+                meta.count += added.value;
+                updateMetaInfo(key, meta);
+            });
+            return added.value;
+        });
+    }
+
+    @Override
+    public OptionalDouble sortedSetScore(final byte[] key, final byte[] member) {
+        return execute(OperationType.SortedSetScore, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return OptionalDouble.empty();
+            }
+            checkKeyType(meta, KeyType.SortedSet);
+            final byte[] score = dbGet(Encoding.encodeDataSortedSetMemberKey(meta.id, member));
+            return score == null ? OptionalDouble.empty() : OptionalDouble.of(Encoding.sortableDoubleFromBytes(score, 0));
+        });
+    }
+
+    @Override
+    public long sortedSetRemove(final byte[] key, final byte[]... members) {
+        return executeLong(OperationType.SortedSetRemove, key, true, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            checkKeyType(meta, KeyType.SortedSet);
+            final Box<Long> removed = Box.of(0L);
+            dbWriteBatch(() -> {
+                final Set<ByteBuffer> seen = new HashSet<>();
+                final Map<ByteBuffer, Long> buckets = new HashMap<>();
+                for (final byte[] member : members) {
+                    final byte[] memberKey = Encoding.encodeDataSortedSetMemberKey(meta.id, member);
+                    final byte[] score = seen.add(ByteBuffer.wrap(member)) ? dbGet(memberKey) : null;
+                    if (score != null) {
+                        dbDelete(memberKey);
+                        dbDelete(Encoding.encodeDataSortedSetScoreKey(meta.id, score, member));
+                        updateSortedSetBuckets(buckets, meta.id, score, null);
+                        removed.value++;
+                    }
+                }
+                writeSortedSetBuckets(buckets);
+                if (removed.value > 0) {
+                    meta.count -= removed.value;
+                    if (meta.count < 1) {
+                        // drop bucket counters along with the key
+                        dbDeleteRange(meta.id, Encoding.encodeDataMapPrefixKey(meta.id), Encoding.encodeDataMapPrefixKey(meta.id + 1));
+                    }
+                    updateMetaInfo(key, meta);
+                }
+            });
+            return removed.value;
+        });
+    }
+
+    @Override
+    public double sortedSetIncrBy(final byte[] key, final byte[] member, final double delta) {
+        return execute(OperationType.SortedSetIncrBy, key, true, () -> {
+            final Box<Double> score = Box.of(delta);
+            dbWriteBatch(() -> {
+                final MetaInfo meta = getOrCreateKeyMeta(key, KeyType.SortedSet);
+                final byte[] oldScore = dbGet(Encoding.encodeDataSortedSetMemberKey(meta.id, member));
+                if (oldScore != null) {
+                    score.value += Encoding.sortableDoubleFromBytes(oldScore, 0);
+                }
+                checkSortedSetScore(score.value);
+                final Map<ByteBuffer, Long> buckets = new HashMap<>();
+                final boolean added = putSortedSetScore(meta, member, score.value, buckets);
+                writeSortedSetBuckets(buckets);
+                if (added) {
+                    meta.count++;
+                    updateMetaInfo(key, meta);
+                }
+            });
+            return score.value;
+        });
+    }
+
+    @Override
+    public List<SortedSetItem> sortedSetPopMin(final byte[] key, final int count) {
+        return execute(OperationType.SortedSetPopMin, key, true, () -> {
+            final List<SortedSetItem> items = new ArrayList<>();
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null || count < 1) {
+                return items;
+            }
+            checkKeyType(meta, KeyType.SortedSet);
+            final byte[] prefix = Encoding.encodeDataSortedSetScorePrefixKey(meta.id);
+            dbWriteBatch(() -> {
+                final Map<ByteBuffer, Long> buckets = new HashMap<>();
+                try (final StoreIterator it = dbIterator(Encoding.prefixUpperBound(prefix))) {
+                    for (it.seek(prefix); it.isValid() && Encoding.hasPrefix(prefix, it.key()) && items.size() < count; it.next()) {
+                        final byte[] member = Encoding.decodeDataSortedSetMember(it.key());
+                        final byte[] score = Arrays.copyOfRange(it.key(), prefix.length, prefix.length + 8);
+                        dbDelete(it.key());
+                        dbDelete(Encoding.encodeDataSortedSetMemberKey(meta.id, member));
+                        updateSortedSetBuckets(buckets, meta.id, score, null);
+                        items.add(SortedSetItem.of(member, Encoding.decodeDataSortedSetScore(it.key())));
+                    }
+                }
+                writeSortedSetBuckets(buckets);
+                if (!items.isEmpty()) {
+                    meta.count -= items.size();
+                    if (meta.count < 1) {
+                        dbDeleteRange(meta.id, Encoding.encodeDataMapPrefixKey(meta.id), Encoding.encodeDataMapPrefixKey(meta.id + 1));
+                    }
+                    updateMetaInfo(key, meta);
+                }
+            });
+            return items;
+        });
+    }
+
+    /**
+     * 0-based position of member in score order. members before its bucket, the first 3 bytes of the sortable
+     * score (sign, exponent and 12 mantissa bits), are summed from at most 256 counters per level,
+     * then the bucket is walked from both ends, so the cost is O(3 * 256 + min(i, b - i)) for position i in a
+     * bucket of b members. a bucket spans 1/4096 of a power of two, e.g. 256 consecutive integers around
+     * one million, so b stays small for scores spread over a range, but members with equal or densely packed
+     * scores share one bucket and make the walk O(n) in the worst case
+     *
+     * @param key    key
+     * @param member member
+     * @return rank, empty if member does not exist
+     */
+    @Override
+    public OptionalLong sortedSetRank(final byte[] key, final byte[] member) {
+        return execute(OperationType.SortedSetRank, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return OptionalLong.empty();
+            }
+            checkKeyType(meta, KeyType.SortedSet);
+            final byte[] score = dbGet(Encoding.encodeDataSortedSetMemberKey(meta.id, member));
+            if (score == null) {
+                return OptionalLong.empty();
+            }
+            // members before the bucket of score are summed from bucket counters level by level,
+            // then the bucket itself is walked from both its first member and the member
+            final byte[] scoreKey = Encoding.encodeDataSortedSetScoreKey(meta.id, score, member);
+            long rank = 0;
+            try (final StoreIterator it = dbIterator(null)) {
+                for (int level = 1; level <= SORTED_SET_BUCKET_LEVELS; level++) {
+                    final byte[] end = Encoding.encodeDataSortedSetBucketKey(meta.id, level, Arrays.copyOf(score, level));
+                    for (it.seek(Encoding.encodeDataSortedSetBucketKey(meta.id, level, Arrays.copyOf(score, level - 1)));
+                         it.isValid() && Encoding.compareKeyBytes(it.key(), end) < 0; it.next()) {
+                        rank += Encoding.counterFromBytes(it.value());
+                    }
+                }
+            }
+            final byte[] bucketCount = dbGet(Encoding.encodeDataSortedSetBucketKey(meta.id, SORTED_SET_BUCKET_LEVELS, Arrays.copyOf(score, SORTED_SET_BUCKET_LEVELS)));
+            final long bucketSize = bucketCount == null ? 0 : Encoding.counterFromBytes(bucketCount);
+            final byte[] bucket = Encoding.encodeDataSortedSetScoreKey(meta.id, Arrays.copyOf(score, SORTED_SET_BUCKET_LEVELS), new byte[]{});
+            final byte[] bucketEnd = Encoding.prefixUpperBound(bucket);
+            try (final StoreIterator head = dbIterator(bucketEnd);
+                 final StoreIterator tail = dbIterator(bucketEnd)) {
+                head.seek(bucket);
+                tail.seek(scoreKey);
+                for (long steps = 0; ; steps++) {
+                    if (!head.isValid() || Arrays.equals(scoreKey, head.key())) {
+                        return OptionalLong.of(rank + steps);
+                    }
+                    tail.next();
+                    if (!tail.isValid()) {
+                        return OptionalLong.of(rank + bucketSize - 1 - steps);
+                    }
+                    head.next();
+                }
+            }
+        });
+    }
+
+    @Override
+    public long sortedSetCount(final byte[] key) {
+        return executeLong(OperationType.SortedSetCount, key, false, () -> getCount(key));
+    }
+
+    @Override
+    public long sortedSetForEach(final byte[] key, final Consumer<SortedSetItem> onItem) {
+        return executeLong(OperationType.SortedSetForEach, key, false, () -> {
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return 0;
+            }
+            return prefixForEach(Encoding.encodeDataSortedSetScorePrefixKey(meta.id), entry -> onItem.accept(
+                    SortedSetItem.of(Encoding.decodeDataSortedSetMember(entry.key()), Encoding.decodeDataSortedSetScore(entry.key()))));
+        });
+    }
+
+    /**
+     * members ranked from start to stop inclusive by ascending score, negative ranks count from the highest;
+     * iterates from the lowest score and stops after stop, so the cost is O(stop) rather than O(count)
+     *
+     * @param key   key
+     * @param start first rank
+     * @param stop  last rank
+     * @return items
+     */
+    @Override
+    public List<SortedSetItem> sortedSetRange(final byte[] key, final long start, final long stop) {
+        return execute(OperationType.SortedSetRange, key, false, () -> {
+            final List<SortedSetItem> list = new ArrayList<>();
+            final MetaInfo meta = getKeyMeta(key);
+            if (meta == null) {
+                return list;
+            }
+            checkKeyType(meta, KeyType.SortedSet);
+            final long[] range = normalizeRange(start, stop, getCount(meta));
+            if (range[0] >= range[1]) {
+                return list;
+            }
+            final byte[] prefix = Encoding.encodeDataSortedSetScorePrefixKey(meta.id);
+            try (final StoreIterator it = dbIterator(Encoding.prefixUpperBound(prefix))) {
+                it.seek(prefix);
+                for (long rank = 0; it.isValid() && rank < range[1]; rank++, it.next()) {
+                    if (rank >= range[0]) {
+                        list.add(SortedSetItem.of(Encoding.decodeDataSortedSetMember(it.key()), Encoding.decodeDataSortedSetScore(it.key())));
+                    }
+                }
+            }
+            return list;
+        });
+    }
+
+    /**
+     * write member and score rows, the old score row is deleted if score changed
+     *
+     * @param meta    meta info of key
+     * @param member  member
+     * @param score   score
+     * @param buckets bucket counter changes, written by writeSortedSetBuckets
+     * @return true if member is new
+     */
+    protected boolean putSortedSetScore(final MetaInfo meta, final byte[] member, final double score, final Map<ByteBuffer, Long> buckets) {
+        final byte[] memberKey = Encoding.encodeDataSortedSetMemberKey(meta.id, member);
+        final byte[] newScore = Encoding.sortableDoubleToBytes(score);
+        final byte[] oldScore = dbGet(memberKey);
+        if (oldScore != null) {
+            if (Arrays.equals(oldScore, newScore)) {
+                return false;
+            }
+            dbDelete(Encoding.encodeDataSortedSetScoreKey(meta.id, oldScore, member));
+        }
+        dbPut(memberKey, newScore);
+        dbPut(Encoding.encodeDataSortedSetScoreKey(meta.id, newScore, member), new byte[]{});
+        updateSortedSetBuckets(buckets, meta.id, oldScore, newScore);
+        return oldScore == null;
+    }
+
+    /**
+     * move one member between bucket counters, levels where both scores share the prefix are skipped
+     *
+     * @param buckets  bucket counter changes of the operation, written by writeSortedSetBuckets
+     * @param keyId    key id
+     * @param oldScore sortable old score, null if member is new
+     * @param newScore sortable new score, null if member is removed
+     */
+    protected void updateSortedSetBuckets(final Map<ByteBuffer, Long> buckets, final long keyId, final byte[] oldScore, final byte[] newScore) {
+        for (int level = 1; level <= SORTED_SET_BUCKET_LEVELS; level++) {
+            final byte[] oldPrefix = oldScore == null ? null : Arrays.copyOf(oldScore, level);
+            final byte[] newPrefix = newScore == null ? null : Arrays.copyOf(newScore, level);
+            if (Arrays.equals(oldPrefix, newPrefix)) {
+                continue;
+            }
+            if (oldPrefix != null) {
+                buckets.merge(ByteBuffer.wrap(Encoding.encodeDataSortedSetBucketKey(keyId, level, oldPrefix)), -1L, Long::sum);
+            }
+            if (newPrefix != null) {
+                buckets.merge(ByteBuffer.wrap(Encoding.encodeDataSortedSetBucketKey(keyId, level, newPrefix)), 1L, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * write bucket counter changes of an operation as merge operands, a counter that drops to zero is deleted;
+     * all changes of the operation must be collected first, since reads do not see the pending write batch
+     *
+     * @param buckets changes by bucket counter key
+     */
+    protected void writeSortedSetBuckets(final Map<ByteBuffer, Long> buckets) {
+        for (final Map.Entry<ByteBuffer, Long> entry : buckets.entrySet()) {
+            final byte[] bucketKey = entry.getKey().array();
+            final long delta = entry.getValue();
+            if (delta > 0) {
+                dbMerge(bucketKey, Encoding.counterToBytes(delta));
+            } else if (delta < 0) {
+                final byte[] current = dbGet(bucketKey);
+                if (current == null || Encoding.counterFromBytes(current) + delta <= 0) {
+                    dbDelete(bucketKey);
+                } else {
+                    dbMerge(bucketKey, Encoding.counterToBytes(delta));
+                }
+            }
+        }
+    }
+
+    protected void checkSortedSetScore(final double score) {
+        if (Double.isNaN(score)) {
+            throw new IllegalArgumentException("score is NaN");
         }
     }
 
     @Override
     public long forEachKeys(final byte[] prefix, BiConsumer<byte[], MetaInfo> onItem) {
-        return prefixForEach(Encoding.combineMultipleBytes(Encoding.KEY_PREFIX_META, prefix), (entry -> {
-            final MetaInfo meta = MetaInfo.fromBytes(entry.value());
-            onItem.accept(Encoding.stripDataKeyPrefix(entry.key()), meta);
-        }));
+        return executeLong(OperationType.ForEachKeys, prefix, false, () -> {
+            return prefixForEach(Encoding.combineMultipleBytes(Encoding.KEY_PREFIX_META, prefix), (entry -> {
+                final MetaInfo meta = MetaInfo.fromBytes(entry.value());
+                if (!exactCount) {
+                    meta.count = getCount(meta);
+                }
+                onItem.accept(Encoding.decodeMetaKey(entry.key()), meta);
+            }));
+        });
     }
 }
@@ -0,0 +1,569 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * logical dump of a whole database into part files, written in parallel over key ranges of a snapshot
+ * and imported in parallel into any IDatabase;
+ * a part file is a version-tagged header followed by deflate-compressed chunks with a CRC32 each,
+ * chunks hold length-prefixed records: a key record, its item records and an end record per key;
+ * records hold keys and items as the IDatabase operations see them, not RocksDB rows,
+ * so dumps do not depend on the internal key encoding;
+ * outstanding leases of AscSortedList are not exported
+ */
+public class DatabaseDump {
+    public static final byte[] MAGIC = "CEDARDMP".getBytes();
+    public static final int FORMAT_VERSION = 1;
+
+    protected static final byte RECORD_KEY = 1;
+    protected static final byte RECORD_ITEM = 2;
+    protected static final byte RECORD_END = 3;
+
+    /**
+     * records are gathered into chunks of about this size before compression
+     */
+    protected static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * items sent to the target in one operation when importing
+     */
+    protected static final int IMPORT_BATCH = 1000;
+
+    protected static final String PART_PREFIX = "part-";
+    protected static final String PART_SUFFIX = ".cdump";
+
+    /**
+     * export every key of db into part files in dir, all parts read one RocksDB snapshot;
+     * rows held by the hot key tier are flushed before the snapshot is taken
+     *
+     * @param db    database, must be backed by RocksDB
+     * @param dir   target directory, created if missing
+     * @param parts max number of part files written in parallel, each covers a range of keys
+     * @return number of keys
+     */
+    public static long exportTo(final Database db, final String dir, final int parts) {
+        if (db.getDb() == null) {
+            throw new IllegalStateException("export requires a database backed by RocksDB");
+        }
+        if (parts < 1) {
+            throw new IllegalArgumentException("parts must be positive");
+        }
+        final Snapshot snapshot;
+        synchronized (db) {
+            db.flush();
+            snapshot = db.getDb().getSnapshot();
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try {
+            Files.createDirectories(Paths.get(dir));
+            final SnapshotView view = new SnapshotView(db, snapshot);
+            final List<byte[]> bounds = splitKeyRange(view, parts);
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < bounds.size() - 1; i++) {
+                final Path file = Paths.get(dir, String.format("%s%05d%s", PART_PREFIX, i, PART_SUFFIX));
+                final byte[] begin = bounds.get(i);
+                final byte[] end = bounds.get(i + 1);
+                futures.add(executor.submit(() -> exportRange(view, begin, end, file)));
+            }
+            return sum(futures);
+        } catch (IOException e) {
+            throw new IllegalStateException("export failed: " + e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+            db.getDb().releaseSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * import all part files in dir into target, one thread per file; target should be empty,
+     * items of an existing key are added to it
+     *
+     * @param dir           directory of part files
+     * @param target        target database
+     * @param threads       max parts imported at once
+     * @param bulkLoadCount Map and Set keys with at least this many items go through BulkLoader
+     *                      when target is a Database it can be used with, 0 never uses it
+     * @return number of keys
+     */
+    public static long importFrom(final String dir, final IDatabase target, final int threads, final long bulkLoadCount) {
+        final List<Path> files;
+        try (final Stream<Path> list = Files.list(Paths.get(dir))) {
+            files = list.filter(path -> path.getFileName().toString().startsWith(PART_PREFIX)
+                    && path.getFileName().toString().endsWith(PART_SUFFIX)).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new IllegalStateException("import failed: " + e.getMessage(), e);
+        }
+        final BulkLoader loader = bulkLoadCount > 0 && target instanceof Database
+                && ((Database) target).getDb() != null && ((Database) target).getHotKeyTier() == null
+                ? BulkLoader.of((Database) target) : null;
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        try {
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (final Path file : files) {
+                futures.add(executor.submit(() -> importPart(file, target, loader, bulkLoadCount)));
+            }
+            return sum(futures);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected static long sum(final List<Future<Long>> futures) {
+        long total = 0;
+        try {
+            for (final Future<Long> future : futures) {
+                total += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+        return total;
+    }
+
+    /**
+     * split meta rows into at most parts ranges of about the same number of keys
+     *
+     * @return bounds of ranges, first and last are null
+     */
+    protected static List<byte[]> splitKeyRange(final SnapshotView view, final int parts) {
+        final long count = view.forEachKeys((key, meta) -> {
+        });
+        final List<byte[]> bounds = new ArrayList<>();
+        bounds.add(null);
+        final Box<Long> index = Box.of(0L);
+        view.forEachKeys((key, meta) -> {
+            final long split = count * bounds.size() / parts;
+            if (bounds.size() < parts && split > 0 && index.value == split) {
+                bounds.add(key);
+            }
+            index.value++;
+        });
+        bounds.add(null);
+        return bounds;
+    }
+
+    protected static long exportRange(final SnapshotView view, final byte[] begin, final byte[] end, final Path file) throws IOException {
+        final byte[] upperBound = end != null ? Encoding.encodeMetaKey(end) : Encoding.prefixUpperBound(Encoding.KEY_PREFIX_META);
+        long keys = 0;
+        try (final Writer writer = new Writer(new BufferedOutputStream(Files.newOutputStream(file)));
+             final StoreIterator it = view.dbIterator(upperBound)) {
+            for (it.seek(begin != null ? Encoding.encodeMetaKey(begin) : Encoding.KEY_PREFIX_META);
+                 it.isValid() && Encoding.hasPrefix(Encoding.KEY_PREFIX_META, it.key()); it.next()) {
+                final byte[] key = Encoding.decodeMetaKey(it.key());
+                final MetaInfo meta = MetaInfo.fromBytes(it.value());
+                meta.count = view.getCount(meta);
+                writer.writeKey(key, meta);
+                exportItems(view, writer, key, meta);
+                writer.writeEnd();
+                keys++;
+            }
+        }
+        return keys;
+    }
+
+    protected static void exportItems(final Database view, final Writer writer, final byte[] key, final MetaInfo meta) {
+        final byte[] empty = new byte[0];
+        switch (meta.type) {
+            case Map:
+                view.mapForEach(key, item -> writer.writeItem(item.field, item.value));
+                break;
+            case Set:
+                view.setForEach(key, member -> writer.writeItem(member, empty));
+                break;
+            case List:
+                view.listForEach(key, item -> writer.writeItem(item.value, empty));
+                break;
+            case SortedList:
+                view.sortedListForEach(key, item -> writer.writeItem(item.score, item.value));
+                break;
+            case AscSortedList:
+                view.ascSortedListForEach(key, item -> writer.writeItem(item.score, item.value));
+                break;
+            case SortedSet:
+                view.sortedSetForEach(key, item -> writer.writeItem(item.member, Encoding.longToBytes(Double.doubleToLongBits(item.score))));
+                break;
+            default:
+                throw new IllegalStateException("unsupported key type " + meta.type);
+        }
+    }
+
+    protected static long importPart(final Path file, final IDatabase target, final BulkLoader loader, final long bulkLoadCount) throws IOException {
+        long keys = 0;
+        try (final Reader reader = new Reader(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (reader.next()) {
+                if (reader.kind != RECORD_KEY) {
+                    throw new IllegalStateException("corrupted dump " + file + ": expected a key record");
+                }
+                final byte[] key = reader.a;
+                final KeyType type = reader.type;
+                final Iterator<MapItem> items = reader.items();
+                if (type == KeyType.List && reader.cap > 0) {
+                    target.listSetCap(key, reader.cap);
+                }
+                if (loader != null && reader.count >= bulkLoadCount && type == KeyType.Map) {
+                    loader.loadMap(key, items);
+                } else if (loader != null && reader.count >= bulkLoadCount && type == KeyType.Set) {
+                    loader.loadSet(key, new Iterator<byte[]>() {
+                        @Override
+                        public boolean hasNext() {
+                            return items.hasNext();
+                        }
+
+                        @Override
+                        public byte[] next() {
+                            return items.next().field;
+                        }
+                    });
+                } else {
+                    importItems(target, key, type, items);
+                }
+                // drain items a loader may have left
+                while (items.hasNext()) {
+                    items.next();
+                }
+                keys++;
+            }
+        }
+        return keys;
+    }
+
+    protected static void importItems(final IDatabase target, final byte[] key, final KeyType type, final Iterator<MapItem> items) {
+        final List<MapItem> batch = new ArrayList<>(IMPORT_BATCH);
+        final Consumer<List<MapItem>> write;
+        switch (type) {
+            case Map:
+                write = rows -> target.mapPut(key, rows.toArray(new MapItem[0]));
+                break;
+            case Set:
+                write = rows -> target.setAdd(key, rows.stream().map(row -> row.field).toArray(byte[][]::new));
+                break;
+            case List:
+                write = rows -> target.listRightPush(key, rows.stream().map(row -> row.field).toArray(byte[][]::new));
+                break;
+            case SortedList:
+                write = rows -> target.sortedListAdd(key, rows.stream().map(row -> SortedListItem.of(row.field, row.value)).toArray(SortedListItem[]::new));
+                break;
+            case AscSortedList:
+                write = rows -> target.ascSortedListAdd(key, rows.stream().map(row -> SortedListItem.of(row.field, row.value)).toArray(SortedListItem[]::new));
+                break;
+            case SortedSet:
+                write = rows -> target.sortedSetAdd(key, rows.stream().map(row -> SortedSetItem.of(row.field,
+                        Double.longBitsToDouble(Encoding.longFromBytes(row.value)))).toArray(SortedSetItem[]::new));
+                break;
+            default:
+                throw new IllegalStateException("unsupported key type " + type);
+        }
+        while (items.hasNext()) {
+            batch.add(items.next());
+            if (batch.size() >= IMPORT_BATCH) {
+                write.accept(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write.accept(batch);
+        }
+    }
+
+    /**
+     * writes records of one part file
+     */
+    protected static class Writer implements Closeable {
+        protected final DataOutputStream out;
+        protected final ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+        protected final DataOutputStream record = new DataOutputStream(chunk);
+        protected final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        protected byte[] compressed = new byte[CHUNK_SIZE];
+
+        protected Writer(final OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+            this.out.writeInt(FORMAT_VERSION);
+        }
+
+        /**
+         * key record: type, key, item count hint, list cap
+         */
+        protected void writeKey(final byte[] key, final MetaInfo meta) {
+            writeRecord(RECORD_KEY, new byte[]{meta.type.toByte()}, key, Encoding.longToBytes(meta.count),
+                    Encoding.longToBytes(meta.type == KeyType.List ? meta.listExtra().cap : 0));
+        }
+
+        protected void writeItem(final byte[] a, final byte[] b) {
+            writeRecord(RECORD_ITEM, a, b);
+        }
+
+        protected void writeEnd() {
+            writeRecord(RECORD_END);
+        }
+
+        /**
+         * record: length of the rest, kind, then every field with its length
+         */
+        protected void writeRecord(final byte kind, final byte[]... fields) {
+            try {
+                int length = 1;
+                for (final byte[] field : fields) {
+                    length += 4 + field.length;
+                }
+                record.writeInt(length);
+                record.writeByte(kind);
+                for (final byte[] field : fields) {
+                    record.writeInt(field.length);
+                    record.write(field);
+                }
+                if (chunk.size() >= CHUNK_SIZE) {
+                    flushChunk();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * chunk: raw length, compressed length, CRC32 of raw bytes, compressed bytes
+         */
+        protected void flushChunk() throws IOException {
+            final byte[] raw = chunk.toByteArray();
+            chunk.reset();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                size += deflater.deflate(compressed, size, compressed.length - size);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(raw);
+            out.writeInt(raw.length);
+            out.writeInt(size);
+            out.writeInt((int) crc.getValue());
+            out.write(compressed, 0, size);
+        }
+
+        /**
+         * write the last chunk and an empty chunk marking the end, so a truncated file is detected
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (chunk.size() > 0) {
+                    flushChunk();
+                }
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * reads records of one part file, fields of the current record are kept in public fields
+     */
+    protected static class Reader implements Closeable {
+        protected final DataInputStream in;
+        protected final Inflater inflater = new Inflater();
+        protected ByteBuffer chunk = ByteBuffer.allocate(0);
+        protected boolean ended;
+
+        protected byte kind;
+        protected KeyType type;
+        protected byte[] a;
+        protected byte[] b;
+        protected long count;
+        protected long cap;
+
+        protected Reader(final InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            final byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IllegalStateException("not a cedar dump");
+            }
+            final int version = this.in.readInt();
+            if (version > FORMAT_VERSION) {
+                throw new IllegalStateException("unsupported dump version " + version);
+            }
+        }
+
+        /**
+         * read next record, records of unknown kinds written by newer versions are skipped
+         *
+         * @return false at the end of the file
+         */
+        protected boolean next() throws IOException {
+            while (true) {
+                if (!chunk.hasRemaining() && !readChunk()) {
+                    return false;
+                }
+                final int length = chunk.getInt();
+                final int end = chunk.position() + length;
+                kind = chunk.get();
+                switch (kind) {
+                    case RECORD_KEY:
+                        type = KeyType.fromByte(readField()[0]);
+                        a = readField();
+                        count = Encoding.longFromBytes(readField());
+                        cap = Encoding.longFromBytes(readField());
+                        break;
+                    case RECORD_ITEM:
+                        a = readField();
+                        b = readField();
+                        break;
+                    case RECORD_END:
+                        break;
+                    default:
+                        chunk.position(end);
+                        continue;
+                }
+                chunk.position(end);
+                return true;
+            }
+        }
+
+        protected byte[] readField() {
+            final byte[] field = new byte[chunk.getInt()];
+            chunk.get(field);
+            return field;
+        }
+
+        protected boolean readChunk() throws IOException {
+            if (ended) {
+                return false;
+            }
+            final int rawLength;
+            try {
+                rawLength = in.readInt();
+            } catch (EOFException e) {
+                throw new IllegalStateException("truncated dump");
+            }
+            final int compressedLength = in.readInt();
+            final int crc = in.readInt();
+            if (rawLength == 0) {
+                ended = true;
+                return false;
+            }
+            final byte[] compressed = new byte[compressedLength];
+            in.readFully(compressed);
+            final byte[] raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                if (inflater.inflate(raw) != rawLength) {
+                    throw new IllegalStateException("corrupted dump chunk");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("corrupted dump chunk: " + e.getMessage(), e);
+            }
+            final CRC32 check = new CRC32();
+            check.update(raw);
+            if ((int) check.getValue() != crc) {
+                throw new IllegalStateException("dump chunk checksum mismatch");
+            }
+            chunk = ByteBuffer.wrap(raw);
+            return true;
+        }
+
+        /**
+         * items of the current key as field and value, ends at the end record of the key
+         *
+         * @return iterator
+         */
+        protected Iterator<MapItem> items() {
+            return new Iterator<MapItem>() {
+                protected boolean done;
+                protected MapItem item;
+
+                @Override
+                public boolean hasNext() {
+                    if (item == null && !done) {
+                        try {
+                            if (!Reader.this.next()) {
+                                throw new IllegalStateException("truncated dump: missing end of key");
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        if (kind == RECORD_END) {
+                            done = true;
+                        } else {
+                            item = MapItem.of(a, b);
+                        }
+                    }
+                    return item != null;
+                }
+
+                @Override
+                public MapItem next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final MapItem current = item;
+                    item = null;
+                    return current;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            in.close();
+        }
+    }
+
+    /**
+     * read-only view of a database at a RocksDB snapshot, it must only be used for reads
+     */
+    protected static class SnapshotView extends Database {
+        protected final Snapshot snapshot;
+
+        protected SnapshotView(final Database parent, final Snapshot snapshot) {
+            super(parent);
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        protected StoreIterator dbIterator(final byte[] upperBound) {
+            return new RocksStoreIterator(readOptions -> {
+                readOptions.setSnapshot(snapshot);
+                return db.newIterator(readOptions);
+            }, upperBound, false);
+        }
+
+        @Override
+        protected byte[] dbGet(final byte[] key) {
+            try (final org.rocksdb.ReadOptions readOptions = new org.rocksdb.ReadOptions().setSnapshot(snapshot)) {
+                return db.get(readOptions, key);
+            } catch (org.rocksdb.RocksDBException e) {
+                throw new IllegalStateException("snapshot read failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.leizm.cedar.core;
+
+import java.util.Map;
+
+public interface DatabaseMXBean {
+    long getMetaCacheHits();
+
+    long getMetaCacheMisses();
+
+    double getMetaCacheHitRate();
+
+    long getLockWaitCount();
+
+    double getLockWaitMeanNanos();
+
+    long getLockWaitP99Nanos();
+
+    long getLockWaitMaxNanos();
+
+    Map<String, Long> getRocksDBProperties();
+
+    Map<String, Long> getRocksDBTickers();
+
+    void reset();
+}
@@ -0,0 +1,414 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DatabaseMetrics {
+    /**
+     * RocksDB properties included in snapshots
+     */
+    public static final String[] ROCKSDB_PROPERTIES = new String[]{
+            "rocksdb.cur-size-all-mem-tables",
+            "rocksdb.size-all-mem-tables",
+            "rocksdb.estimate-pending-compaction-bytes",
+            "rocksdb.block-cache-usage",
+            "rocksdb.block-cache-pinned-usage",
+            "rocksdb.estimate-num-keys",
+            "rocksdb.estimate-live-data-size",
+            "rocksdb.num-running-compactions",
+            "rocksdb.num-running-flushes",
+    };
+
+    protected final OperationMetrics[] operations;
+    protected final LatencyHistogram lockWait = new LatencyHistogram();
+    protected final LongAdder metaCacheHits = new LongAdder();
+    protected final LongAdder metaCacheMisses = new LongAdder();
+
+    protected RocksDB db;
+    protected Statistics statistics;
+    protected final List<ObjectName> registeredMBeans = new ArrayList<>();
+
+    public DatabaseMetrics() {
+        final OperationType[] types = OperationType.values();
+        operations = new OperationMetrics[types.length];
+        for (final OperationType type : types) {
+            operations[type.ordinal()] = new OperationMetrics(type);
+        }
+    }
+
+    /**
+     * attach RocksDB instance, used to read properties and statistics in snapshots
+     *
+     * @param db         RocksDB instance
+     * @param statistics RocksDB statistics, null if not enabled
+     */
+    public void attach(final RocksDB db, final Statistics statistics) {
+        this.db = db;
+        this.statistics = statistics;
+    }
+
+    public void recordOperation(final OperationType type, final long nanos, final boolean error) {
+        operations[type.ordinal()].record(nanos, error);
+    }
+
+    public void recordLockWait(final long nanos) {
+        lockWait.record(nanos);
+    }
+
+    public void recordMetaCacheHit() {
+        metaCacheHits.increment();
+    }
+
+    public void recordMetaCacheMiss() {
+        metaCacheMisses.increment();
+    }
+
+    public OperationMetrics getOperation(final OperationType type) {
+        return operations[type.ordinal()];
+    }
+
+    public LatencyHistogram getLockWait() {
+        return lockWait;
+    }
+
+    public long getMetaCacheHits() {
+        return metaCacheHits.sum();
+    }
+
+    public long getMetaCacheMisses() {
+        return metaCacheMisses.sum();
+    }
+
+    public double getMetaCacheHitRate() {
+        final long hits = metaCacheHits.sum();
+        final long total = hits + metaCacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * returns current RocksDB properties, missing properties are skipped
+     *
+     * @return property name to value
+     */
+    public Map<String, Long> getRocksDBProperties() {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        if (db == null) {
+            return map;
+        }
+        for (final String name : ROCKSDB_PROPERTIES) {
+            try {
+                map.put(name, db.getLongProperty(name));
+            } catch (RocksDBException ignored) {
+            }
+        }
+        return map;
+    }
+
+    /**
+     * returns non-zero RocksDB statistics tickers, empty if statistics is not enabled
+     *
+     * @return ticker name to value
+     */
+    public Map<String, Long> getRocksDBTickers() {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        if (statistics == null) {
+            return map;
+        }
+        for (final TickerType ticker : TickerType.values()) {
+            if (ticker == TickerType.TICKER_ENUM_MAX) {
+                continue;
+            }
+            final long value = statistics.getTickerCount(ticker);
+            if (value != 0) {
+                map.put(ticker.name(), value);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * take a point-in-time snapshot of all metrics
+     *
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        final Map<OperationType, OperationSnapshot> ops = new EnumMap<>(OperationType.class);
+        for (final OperationMetrics op : operations) {
+            ops.put(op.type, op.snapshot());
+        }
+        return new Snapshot(ops, LatencySnapshot.of(lockWait), getMetaCacheHits(), getMetaCacheMisses(),
+                getRocksDBProperties(), getRocksDBTickers());
+    }
+
+    /**
+     * reset all counters and histograms, RocksDB statistics are not affected
+     */
+    public void reset() {
+        for (final OperationMetrics op : operations) {
+            op.reset();
+        }
+        lockWait.reset();
+        metaCacheHits.reset();
+        metaCacheMisses.reset();
+    }
+
+    /**
+     * register JMX MBeans for the database and every operation
+     *
+     * @param name database name used in ObjectName
+     */
+    public synchronized void registerMBeans(final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final String quoted = ObjectName.quote(name);
+        try {
+            final ObjectName dbName = new ObjectName("com.leizm.cedar:type=Database,name=" + quoted);
+            server.registerMBean(new DatabaseMBeanImpl(this), dbName);
+            registeredMBeans.add(dbName);
+            for (final OperationMetrics op : operations) {
+                final ObjectName opName = new ObjectName(String.format("com.leizm.cedar:type=Operation,database=%s,name=%s", quoted, op.type.methodName));
+                server.registerMBean(new OperationMBeanImpl(op), opName);
+                registeredMBeans.add(opName);
+            }
+        } catch (Exception e) {
+            unregisterMBeans();
+            throw new IllegalStateException("failed to register MBeans: " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : registeredMBeans) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception ignored) {
+            }
+        }
+        registeredMBeans.clear();
+    }
+
+    public static class OperationMetrics {
+        public final OperationType type;
+        protected final LongAdder count = new LongAdder();
+        protected final LongAdder errors = new LongAdder();
+        protected final LatencyHistogram latency = new LatencyHistogram();
+
+        public OperationMetrics(final OperationType type) {
+            this.type = type;
+        }
+
+        public void record(final long nanos, final boolean error) {
+            count.increment();
+            if (error) {
+                errors.increment();
+            }
+            latency.record(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public OperationSnapshot snapshot() {
+            return new OperationSnapshot(type, count.sum(), errors.sum(), LatencySnapshot.of(latency));
+        }
+
+        public void reset() {
+            count.reset();
+            errors.reset();
+            latency.reset();
+        }
+    }
+
+    public static class LatencySnapshot {
+        public final long count;
+        public final double mean;
+        public final long max;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long p999;
+
+        public LatencySnapshot(final long count, final double mean, final long max, final long p50, final long p90, final long p99, final long p999) {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        public static LatencySnapshot of(final LatencyHistogram h) {
+            return new LatencySnapshot(h.getCount(), h.getMean(), h.getMax(),
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(90),
+                    h.getValueAtPercentile(99), h.getValueAtPercentile(99.9));
+        }
+    }
+
+    public static class OperationSnapshot {
+        public final OperationType type;
+        public final long count;
+        public final long errors;
+        /**
+         * latency in nanoseconds
+         */
+        public final LatencySnapshot latency;
+
+        public OperationSnapshot(final OperationType type, final long count, final long errors, final LatencySnapshot latency) {
+            this.type = type;
+            this.count = count;
+            this.errors = errors;
+            this.latency = latency;
+        }
+    }
+
+    public static class Snapshot {
+        public final Map<OperationType, OperationSnapshot> operations;
+        /**
+         * lock wait time in nanoseconds
+         */
+        public final LatencySnapshot lockWait;
+        public final long metaCacheHits;
+        public final long metaCacheMisses;
+        public final Map<String, Long> rocksDBProperties;
+        public final Map<String, Long> rocksDBTickers;
+
+        public Snapshot(final Map<OperationType, OperationSnapshot> operations, final LatencySnapshot lockWait,
+                        final long metaCacheHits, final long metaCacheMisses,
+                        final Map<String, Long> rocksDBProperties, final Map<String, Long> rocksDBTickers) {
+            this.operations = Collections.unmodifiableMap(operations);
+            this.lockWait = lockWait;
+            this.metaCacheHits = metaCacheHits;
+            this.metaCacheMisses = metaCacheMisses;
+            this.rocksDBProperties = Collections.unmodifiableMap(rocksDBProperties);
+            this.rocksDBTickers = Collections.unmodifiableMap(rocksDBTickers);
+        }
+
+        public double metaCacheHitRate() {
+            final long total = metaCacheHits + metaCacheMisses;
+            return total == 0 ? 0 : (double) metaCacheHits / total;
+        }
+    }
+
+    protected static class DatabaseMBeanImpl implements DatabaseMXBean {
+        protected final DatabaseMetrics metrics;
+
+        protected DatabaseMBeanImpl(final DatabaseMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public long getMetaCacheHits() {
+            return metrics.getMetaCacheHits();
+        }
+
+        @Override
+        public long getMetaCacheMisses() {
+            return metrics.getMetaCacheMisses();
+        }
+
+        @Override
+        public double getMetaCacheHitRate() {
+            return metrics.getMetaCacheHitRate();
+        }
+
+        @Override
+        public long getLockWaitCount() {
+            return metrics.lockWait.getCount();
+        }
+
+        @Override
+        public double getLockWaitMeanNanos() {
+            return metrics.lockWait.getMean();
+        }
+
+        @Override
+        public long getLockWaitP99Nanos() {
+            return metrics.lockWait.getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getLockWaitMaxNanos() {
+            return metrics.lockWait.getMax();
+        }
+
+        @Override
+        public Map<String, Long> getRocksDBProperties() {
+            return metrics.getRocksDBProperties();
+        }
+
+        @Override
+        public Map<String, Long> getRocksDBTickers() {
+            return metrics.getRocksDBTickers();
+        }
+
+        @Override
+        public void reset() {
+            metrics.reset();
+        }
+    }
+
+    protected static class OperationMBeanImpl implements OperationMXBean {
+        protected final OperationMetrics op;
+
+        protected OperationMBeanImpl(final OperationMetrics op) {
+            this.op = op;
+        }
+
+        @Override
+        public long getCount() {
+            return op.getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            return op.getErrors();
+        }
+
+        @Override
+        public double getMeanNanos() {
+            return op.latency.getMean();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return op.latency.getMax();
+        }
+
+        @Override
+        public long getP50Nanos() {
+            return op.latency.getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getP90Nanos() {
+            return op.latency.getValueAtPercentile(90);
+        }
+
+        @Override
+        public long getP99Nanos() {
+            return op.latency.getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getP999Nanos() {
+            return op.latency.getValueAtPercentile(99.9);
+        }
+    }
+}
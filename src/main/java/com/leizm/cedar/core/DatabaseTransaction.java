@@ -0,0 +1,212 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * IDatabase view bound to a RocksDB optimistic transaction, created by Database.transaction(),
+ * an instance must not be used after the transaction body returns
+ */
+public class DatabaseTransaction extends Database implements AutoCloseable {
+    protected final Database parent;
+    protected final Transaction txn;
+    protected final WriteOptions writeOptions;
+    protected final ReadOptions readOptions;
+
+    /**
+     * keys whose meta info is read or written in this transaction, invalidated in parent cache on commit
+     */
+    protected final Set<String> touchedKeys = new HashSet<>();
+
+    /**
+     * changes of this transaction, published to subscribers of parent after commit
+     */
+    protected final List<KeyChange> changes = new ArrayList<>();
+    protected boolean finished = false;
+
+    protected DatabaseTransaction(final Database parent, final OptimisticTransactionDB txnDb) {
+        super(parent);
+        this.parent = parent;
+        this.writeOptions = new WriteOptions();
+        this.readOptions = new ReadOptions();
+        this.txn = txnDb.beginTransaction(writeOptions);
+    }
+
+    /**
+     * returns the underlying RocksDB transaction
+     *
+     * @return Transaction
+     */
+    public Transaction getTransaction() {
+        return txn;
+    }
+
+    /**
+     * commit the transaction
+     *
+     * @return false if the transaction conflicted with another write and has been rolled back
+     */
+    protected boolean tryCommit() {
+        // commit and invalidation must not interleave with operations of parent, which trust its meta info cache
+        synchronized (parent) {
+            try {
+                txn.commit();
+                finished = true;
+                for (final KeyChange change : changes) {
+                    parent.publishChange(change.type, change.key);
+                }
+            } catch (RocksDBException e) {
+                final Status.Code code = e.getStatus() == null ? null : e.getStatus().getCode();
+                if (code == Status.Code.Busy || code == Status.Code.TryAgain) {
+                    return false;
+                }
+                throw new IllegalStateException("failed to commit transaction: " + e.getMessage(), e);
+            } finally {
+                for (final String key : touchedKeys) {
+                    parent.metaInfoCache.remove(key);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * roll back the transaction if it has not been committed, the RocksDB instance is not closed
+     */
+    @Override
+    public void close() {
+        try {
+            if (!finished) {
+                txn.rollback();
+            }
+        } catch (RocksDBException e) {
+            e.printStackTrace();
+        } finally {
+            finished = true;
+            txn.close();
+            readOptions.close();
+            writeOptions.close();
+        }
+    }
+
+    @Override
+    public <T> T transaction(final Function<DatabaseTransaction, T> fn) {
+        throw new IllegalStateException("nested transactions are not supported");
+    }
+
+    @Override
+    protected void publishChange(final OperationType type, final byte[] key) {
+        changes.add(KeyChange.of(type, key));
+    }
+
+    @Override
+    protected long allocateKeyId() {
+        return parent.allocateKeyId();
+    }
+
+    @Override
+    protected MetaInfo getOrCreateKeyMeta(final byte[] key, final KeyType type) {
+        touchedKeys.add(new String(key));
+        return super.getOrCreateKeyMeta(key, type);
+    }
+
+    @Override
+    protected MetaInfo getKeyMetaForUpdate(final byte[] key) {
+        touchedKeys.add(new String(key));
+        return super.getKeyMetaForUpdate(key);
+    }
+
+    @Override
+    protected void updateMetaInfo(final byte[] key, final MetaInfo meta) {
+        touchedKeys.add(new String(key));
+        super.updateMetaInfo(key, meta);
+    }
+
+    /**
+     * also reached without updateMetaInfo, e.g. by an emptied leased queue or a capped list
+     */
+    @Override
+    protected void putMetaInfo(final byte[] key, final MetaInfo meta) {
+        touchedKeys.add(new String(key));
+        super.putMetaInfo(key, meta);
+    }
+
+    @Override
+    protected MetaInfo getKeyMeta(final byte[] key) {
+        touchedKeys.add(new String(key));
+        return super.getKeyMeta(key);
+    }
+
+    /**
+     * iterator merging writes of the transaction over the database, the upper bound is checked by the wrapper
+     * because the write batch part of a transaction iterator does not honor it
+     */
+    @Override
+    protected StoreIterator dbIterator(final byte[] upperBound) {
+        return new RocksStoreIterator(txn::getIterator, upperBound, true);
+    }
+
+    @Override
+    protected byte[] dbGet(final byte[] key) {
+        try {
+            // track every read so a concurrent write to it fails the commit
+            return txn.getForUpdate(readOptions, key, true);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("transaction read failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void dbPut(final byte[] key, final byte[] value) {
+        try {
+            txn.put(key, value);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("transaction write failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void dbDelete(final byte[] key) {
+        try {
+            txn.delete(key);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("transaction write failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void dbMerge(final byte[] key, final byte[] value) {
+        try {
+            txn.merge(key, value);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("transaction write failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * transactions have no range deletion, delete every key in range instead
+     */
+    @Override
+    protected void dbDeleteRange(final long keyId, final byte[] begin, final byte[] end) {
+        try (final StoreIterator it = dbIterator(end)) {
+            it.seek(begin);
+            while (it.isValid()) {
+                dbDelete(it.key());
+                it.next();
+            }
+        }
+    }
+
+    /**
+     * writes are already atomic in a transaction
+     */
+    @Override
+    protected void dbWriteBatch(final Runnable fn) {
+        fn.run();
+    }
+}
@@ -1,11 +1,17 @@
 package com.leizm.cedar.core;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class Encoding {
     public static final byte[] KEY_PREFIX_META = "m".getBytes();
     public static final byte[] KEY_PREFIX_DATA = "d".getBytes();
+    public static final byte[] KEY_PREFIX_COUNT = "c".getBytes();
+    public static final byte[] KEY_PREFIX_LEASE = "l".getBytes();
+    public static final byte[] SORTED_SET_MEMBER_TAG = "m".getBytes();
+    public static final byte[] SORTED_SET_SCORE_TAG = "s".getBytes();
+    public static final byte[] SORTED_SET_BUCKET_TAG = "c".getBytes();
 
     public static boolean hasPrefix(final byte[] prefix, final byte[] key) {
         return Arrays.equals(prefix, Arrays.copyOfRange(key, 0, prefix.length));
@@ -19,6 +25,28 @@ public class Encoding {
         return ByteBuffer.wrap(bytes).getLong();
     }
 
+    /**
+     * encode counter as 8 bytes little-endian, the layout used by RocksDB UInt64AddOperator
+     *
+     * @param v value
+     * @return bytes
+     */
+    public static byte[] counterToBytes(final long v) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(v).array();
+    }
+
+    public static long counterFromBytes(final byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    public static byte[] doubleToBytes(final double v) {
+        return ByteBuffer.allocate(8).putDouble(v).array();
+    }
+
+    public static double doubleFromBytes(final byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getDouble();
+    }
+
     public static byte[] intToBytes(final int v) {
         return ByteBuffer.allocate(4).putInt(v).array();
     }
@@ -51,6 +79,41 @@ public class Encoding {
         return combineMultipleBytes(KEY_PREFIX_META, key);
     }
 
+    public static byte[] decodeMetaKey(final byte[] fullKey) {
+        return Arrays.copyOfRange(fullKey, KEY_PREFIX_META.length, fullKey.length);
+    }
+
+    public static byte[] encodeCountKey(final long keyId) {
+        return combineMultipleBytes(KEY_PREFIX_COUNT, longToBytes(keyId));
+    }
+
+    public static long decodeCountKey(final byte[] fullKey) {
+        return ByteBuffer.wrap(fullKey, KEY_PREFIX_COUNT.length, 8).getLong();
+    }
+
+    /**
+     * lease id is deadline(8) + seq(8), so lease index of a key is ordered by expiry
+     *
+     * @param deadline lease expiry time in milliseconds
+     * @param seq      sequence of the key
+     * @return bytes
+     */
+    public static byte[] encodeLeaseId(final long deadline, final long seq) {
+        return combineMultipleBytes(longToBytes(deadline), longToBytes(seq));
+    }
+
+    public static byte[] encodeLeaseKey(final long keyId, final byte[] leaseId) {
+        return combineMultipleBytes(KEY_PREFIX_LEASE, longToBytes(keyId), leaseId);
+    }
+
+    public static byte[] encodeLeasePrefixKey(final long keyId) {
+        return combineMultipleBytes(KEY_PREFIX_LEASE, longToBytes(keyId));
+    }
+
+    public static byte[] decodeLeaseKey(final byte[] fullKey) {
+        return Arrays.copyOfRange(fullKey, 9, fullKey.length);
+    }
+
     public static byte[] encodeDataMapFieldKey(final long keyId, final byte[] field) {
         return combineMultipleBytes(KEY_PREFIX_DATA, longToBytes(keyId), field);
     }
@@ -75,24 +138,163 @@ public class Encoding {
         return combineMultipleBytes(KEY_PREFIX_DATA, longToBytes(keyId));
     }
 
+    /**
+     * decode score from d + id + score + seq, score can be of any length
+     *
+     * @param fullKey full key
+     * @return score
+     */
     public static byte[] decodeDataSortedListKey(final byte[] fullKey) {
-        return Arrays.copyOfRange(fullKey, 9, 17);
+        return Arrays.copyOfRange(fullKey, 9, fullKey.length - 8);
     }
 
+    /**
+     * compare keys in the order of RocksDB BytewiseComparator, bytes are unsigned
+     *
+     * @param key1 key
+     * @param key2 key
+     * @return negative, zero or positive
+     */
+    public static int compareKeyBytes(final byte[] key1, final byte[] key2) {
+        final int length = Math.min(key1.length, key2.length);
+        for (int i = 0; i < length; i++) {
+            final int ret = Integer.compare(Byte.toUnsignedInt(key1[i]), Byte.toUnsignedInt(key2[i]));
+            if (ret != 0) {
+                return ret;
+            }
+        }
+        return Integer.compare(key1.length, key2.length);
+    }
+
+    /**
+     * compare scores in the order they are stored, that is unsigned bytewise with shorter prefix first
+     *
+     * @param score1 score
+     * @param score2 score
+     * @return negative, zero or positive, zero if any of them is null
+     */
     public static int compareScoreBytes(final byte[] score1, final byte[] score2) {
         if (score1 == null || score2 == null) {
             return 0;
         }
-        if (score1.length != score2.length) {
-            return 0;
+        return compareKeyBytes(score1, score2);
+    }
+
+    /**
+     * encode long so that unsigned bytewise order is numeric order, it is big-endian with sign bit flipped
+     *
+     * @param v value
+     * @return 8 bytes
+     */
+    public static byte[] sortableLongToBytes(final long v) {
+        return longToBytes(v ^ Long.MIN_VALUE);
+    }
+
+    public static long sortableLongFromBytes(final byte[] bytes, final int offset) {
+        return readLong(bytes, offset) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * read big-endian long without allocating a ByteBuffer
+     *
+     * @param bytes  bytes
+     * @param offset offset
+     * @return long
+     */
+    public static long readLong(final byte[] bytes, final int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (bytes[offset + i] & 0xFF);
         }
-        for (int i = 0; i < score1.length; i++) {
-            int ret = Byte.compare(score1[i], score2[i]);
-            if (ret != 0) {
-                return ret;
-            }
+        return v;
+    }
+
+    /**
+     * write big-endian long without allocating a ByteBuffer
+     *
+     * @param bytes  target
+     * @param offset offset
+     * @param v      value
+     */
+    public static void writeLong(final byte[] bytes, final int offset, final long v) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + 7 - i] = (byte) (v >>> (i * 8));
         }
-        return 0;
+    }
+
+    public static int readInt(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    public static void writeInt(final byte[] bytes, final int offset, final int v) {
+        bytes[offset] = (byte) (v >>> 24);
+        bytes[offset + 1] = (byte) (v >>> 16);
+        bytes[offset + 2] = (byte) (v >>> 8);
+        bytes[offset + 3] = (byte) v;
+    }
+
+    /**
+     * encode double so that unsigned bytewise order is numeric order, -0.0 is treated as 0.0
+     *
+     * @param v value, must not be NaN
+     * @return 8 bytes
+     */
+    public static byte[] sortableDoubleToBytes(final double v) {
+        final long bits = Double.doubleToLongBits(v == 0 ? 0.0 : v);
+        return longToBytes(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+    }
+
+    public static double sortableDoubleFromBytes(final byte[] bytes, final int offset) {
+        final long bits = readLong(bytes, offset);
+        return Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+    }
+
+    /**
+     * member row of SortedSet: d + id + 'm' + member, value is the sortable score
+     *
+     * @param keyId  key id
+     * @param member member
+     * @return bytes
+     */
+    public static byte[] encodeDataSortedSetMemberKey(final long keyId, final byte[] member) {
+        return combineMultipleBytes(KEY_PREFIX_DATA, longToBytes(keyId), SORTED_SET_MEMBER_TAG, member);
+    }
+
+    /**
+     * score row of SortedSet: d + id + 's' + sortable score + member, value is empty
+     *
+     * @param keyId  key id
+     * @param score  sortable score bytes
+     * @param member member
+     * @return bytes
+     */
+    public static byte[] encodeDataSortedSetScoreKey(final long keyId, final byte[] score, final byte[] member) {
+        return combineMultipleBytes(KEY_PREFIX_DATA, longToBytes(keyId), SORTED_SET_SCORE_TAG, score, member);
+    }
+
+    /**
+     * bucket counter of SortedSet: d + id + 'c' + level + score prefix, value is a merge counter
+     *
+     * @param keyId  key id
+     * @param level  length of score prefix of this bucket level
+     * @param prefix score prefix, shorter than level when used as the seek start of a level
+     * @return bytes
+     */
+    public static byte[] encodeDataSortedSetBucketKey(final long keyId, final int level, final byte[] prefix) {
+        return combineMultipleBytes(KEY_PREFIX_DATA, longToBytes(keyId), SORTED_SET_BUCKET_TAG, new byte[]{(byte) level}, prefix);
+    }
+
+    public static byte[] encodeDataSortedSetScorePrefixKey(final long keyId) {
+        return combineMultipleBytes(KEY_PREFIX_DATA, longToBytes(keyId), SORTED_SET_SCORE_TAG);
+    }
+
+    public static double decodeDataSortedSetScore(final byte[] fullKey) {
+        return sortableDoubleFromBytes(fullKey, 10);
+    }
+
+    public static byte[] decodeDataSortedSetMember(final byte[] fullKey) {
+        return Arrays.copyOfRange(fullKey, 18, fullKey.length);
     }
 
     public static byte[] encodeDataListKey(final long keyId, final long position) {
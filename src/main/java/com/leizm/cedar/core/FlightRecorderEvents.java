@@ -0,0 +1,130 @@
+package com.leizm.cedar.core;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder events emitted by Database, they are only allocated while a recording enables them
+ */
+public class FlightRecorderEvents {
+    /**
+     * max bytes of a key rendered into an event
+     */
+    protected static final int MAX_KEY_LENGTH = 64;
+
+    /**
+     * event types checked before allocating an event, isEnabled() is a field read
+     */
+    protected static final EventType OPERATION = EventType.getEventType(OperationEvent.class);
+    protected static final EventType LOCK_WAIT = EventType.getEventType(LockWaitEvent.class);
+    protected static final EventType ITERATOR = EventType.getEventType(IteratorEvent.class);
+    protected static final EventType COMPACTION = EventType.getEventType(CompactionEvent.class);
+    protected static final EventType DELETE_RANGE = EventType.getEventType(DeleteRangeEvent.class);
+
+    @Name("com.leizm.cedar.Operation")
+    @Label("Cedar Operation")
+    @Description("An IDatabase method call that took longer than the threshold")
+    @Category({"Cedar", "Database"})
+    @StackTrace(false)
+    @Threshold("10 ms")
+    public static class OperationEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Key")
+        public String key;
+
+        @Label("Key Id")
+        public long keyId;
+
+        @Label("Key Type")
+        public String keyType;
+
+        @Label("Count")
+        @Description("Number of elements returned or touched")
+        public long count;
+
+        @Label("Error")
+        public boolean error;
+    }
+
+    @Name("com.leizm.cedar.LockWait")
+    @Label("Cedar Lock Wait")
+    @Description("Time spent waiting for the database lock")
+    @Category({"Cedar", "Database"})
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static class LockWaitEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Key")
+        public String key;
+    }
+
+    @Name("com.leizm.cedar.Iterator")
+    @Label("Cedar Iterator")
+    @Description("Lifetime of a RocksDB iterator opened by Database")
+    @Category({"Cedar", "RocksDB"})
+    @StackTrace(false)
+    @Threshold("10 ms")
+    public static class IteratorEvent extends Event {
+        @Label("Prefix")
+        public String prefix;
+
+        @Label("Entries")
+        public long entries;
+    }
+
+    @Name("com.leizm.cedar.Compaction")
+    @Label("Cedar Compaction")
+    @Description("Manual compaction triggered by Database")
+    @Category({"Cedar", "RocksDB"})
+    public static class CompactionEvent extends Event {
+        @Label("Key Id")
+        public long keyId;
+
+        @Label("Reason")
+        public String reason;
+    }
+
+    @Name("com.leizm.cedar.DeleteRange")
+    @Label("Cedar Delete Range")
+    @Description("Range deletion issued by Database")
+    @Category({"Cedar", "RocksDB"})
+    public static class DeleteRangeEvent extends Event {
+        @Label("Key Id")
+        public long keyId;
+
+        @Label("Begin Key")
+        public String beginKey;
+
+        @Label("End Key")
+        public String endKey;
+    }
+
+    /**
+     * render key as printable string, non-printable bytes are escaped as \xNN
+     *
+     * @param key key
+     * @return String
+     */
+    public static String keyToString(final byte[] key) {
+        if (key == null) {
+            return null;
+        }
+        final int length = Math.min(key.length, MAX_KEY_LENGTH);
+        final StringBuilder s = new StringBuilder(length + 8);
+        for (int i = 0; i < length; i++) {
+            final int b = key[i] & 0xFF;
+            if (b >= 0x20 && b < 0x7F) {
+                s.append((char) b);
+            } else {
+                s.append(String.format("\\x%02X", b));
+            }
+        }
+        if (key.length > length) {
+            s.append("...");
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,679 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * write-behind tier in front of RocksDB, see Options.hotKeyTier
+ * <p>
+ * keys mutated at least Options.hotKeyThreshold times in one flush interval become hot,
+ * rows written by operations on a hot key (meta info, list items, counters) are kept in memory
+ * and written to RocksDB in batches by a background thread, so repeated rewrites of the same row
+ * and items popped soon after being pushed never reach RocksDB;
+ * rows of cold keys go straight to RocksDB unless an older version of the row is still held here
+ */
+public class HotKeyTier implements AutoCloseable {
+    /**
+     * value of a row deleted in this tier but maybe still present in RocksDB
+     */
+    public static final byte[] TOMBSTONE = new byte[0];
+
+    /**
+     * estimated memory used by a row besides its key and value
+     */
+    protected static final int ROW_OVERHEAD = 64;
+
+    protected static final String LOG_FILE = "hot-keys.log";
+    protected static final String OLD_LOG_FILE = "hot-keys.log.old";
+
+    protected final RocksDB db;
+    protected final int threshold;
+    protected final long maxBytes;
+
+    /**
+     * rows not yet flushed, newer than RocksDB
+     */
+    protected final ConcurrentSkipListMap<byte[], Row> rows = new ConcurrentSkipListMap<>(Encoding::compareKeyBytes);
+    protected final AtomicLong rowBytes = new AtomicLong();
+
+    /**
+     * hot keys in access order, least recently used ones are demoted when there are too many,
+     * only accessed while holding the database lock
+     */
+    protected final LinkedHashMap<String, Boolean> hotKeys;
+
+    /**
+     * mutation count of cold keys in current flush interval, only accessed while holding the database lock
+     */
+    protected final Map<String, Integer> candidates = new HashMap<>();
+    protected long candidatesInterval = 0;
+    protected volatile long interval = 0;
+
+    /**
+     * whether the operation holding the database lock works on a hot key
+     */
+    protected boolean hot = false;
+
+    /**
+     * rows written in the pending write batch, applied after the batch is written, null if no batch is pending
+     */
+    protected TreeMap<byte[], byte[]> pendingRows;
+
+    /**
+     * flushed rows stay in memory while iterators are open, an iterator may have missed them in RocksDB
+     */
+    protected final AtomicInteger openIterators = new AtomicInteger();
+
+    protected final Object flushLock = new Object();
+    protected final Object logLock = new Object();
+    protected final Path logPath;
+    protected final Path oldLogPath;
+    protected DataOutputStream log;
+
+    /**
+     * incremented when the log is rotated, a row can leave memory once the log it was written to is deleted
+     */
+    protected long logGeneration = 0;
+
+    protected final ScheduledExecutorService flusher;
+    protected final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    protected final AtomicLong flushes = new AtomicLong();
+    protected final AtomicLong flushedRows = new AtomicLong();
+    protected long promotions = 0;
+    protected long demotions = 0;
+
+    /**
+     * create the tier, replayLog() should have been called on the database
+     *
+     * @param db      RocksDB instance
+     * @param path    database path, where the log is kept
+     * @param options options
+     */
+    public HotKeyTier(final RocksDB db, final String path, final Options options) {
+        this.db = db;
+        this.threshold = options.hotKeyThreshold;
+        this.maxBytes = options.hotKeyMaxBytes;
+        final int maxKeys = options.hotKeyMaxKeys;
+        this.hotKeys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                if (size() > maxKeys) {
+                    demotions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (options.hotKeyLog) {
+            logPath = Paths.get(path, LOG_FILE);
+            oldLogPath = Paths.get(path, OLD_LOG_FILE);
+            log = openLog();
+        } else {
+            logPath = null;
+            oldLogPath = null;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "cedar-hot-key-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long intervalMillis = options.hotKeyFlushIntervalMillis;
+        flusher.scheduleWithFixedDelay(() -> {
+            interval++;
+            flushQuietly();
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * called while holding the database lock before every mutating operation
+     *
+     * @param key key of the operation
+     */
+    public void onMutation(final byte[] key) {
+        final String name = new String(key);
+        if (hotKeys.get(name) != null) {
+            hot = !isFull();
+            return;
+        }
+        if (candidatesInterval != interval) {
+            candidatesInterval = interval;
+            candidates.clear();
+        }
+        final int count = candidates.merge(name, 1, Integer::sum);
+        hot = count >= threshold && !isFull();
+        if (hot) {
+            candidates.remove(name);
+            hotKeys.put(name, Boolean.TRUE);
+            promotions++;
+        }
+    }
+
+    protected boolean isFull() {
+        if (rowBytes.get() < maxBytes) {
+            return false;
+        }
+        requestFlush();
+        return true;
+    }
+
+    /**
+     * returns row held by this tier
+     *
+     * @param key row key
+     * @return value, TOMBSTONE if deleted, null if not held
+     */
+    public byte[] get(final byte[] key) {
+        final Row row = rows.get(key);
+        if (row == null) {
+            return null;
+        }
+        return row.value == TOMBSTONE ? TOMBSTONE : row.value.clone();
+    }
+
+    /**
+     * write a row if it belongs to this tier
+     *
+     * @param key   row key
+     * @param value value, TOMBSTONE to delete
+     * @return false if the row should be written to RocksDB by caller
+     */
+    public boolean put(final byte[] key, final byte[] value) {
+        if (pendingRows != null) {
+            if (!hot && !pendingRows.containsKey(key) && !rows.containsKey(key)) {
+                return false;
+            }
+            pendingRows.put(key, value == TOMBSTONE ? value : value.clone());
+            return true;
+        }
+        if (!hot && !rows.containsKey(key)) {
+            return false;
+        }
+        synchronized (logLock) {
+            applyRow(key, value == TOMBSTONE ? value : value.clone());
+            flushLog();
+        }
+        return true;
+    }
+
+    /**
+     * add operand to a counter row if it belongs to this tier, same as the UInt64AddOperator merge operator
+     *
+     * @param key     row key
+     * @param operand 8 bytes little-endian counter
+     * @return false if the operand should be merged in RocksDB by caller
+     */
+    public boolean merge(final byte[] key, final byte[] operand) {
+        if (!hot && (pendingRows == null || !pendingRows.containsKey(key)) && !rows.containsKey(key)) {
+            return false;
+        }
+        byte[] base = pendingRows == null ? null : pendingRows.get(key);
+        if (base == null) {
+            final Row row = rows.get(key);
+            base = row == null ? null : row.value;
+        }
+        if (base == null) {
+            try {
+                base = db.get(key);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException("failed to read counter: " + e.getMessage(), e);
+            }
+        }
+        final long value = base == null || base == TOMBSTONE ? 0 : Encoding.counterFromBytes(base);
+        return put(key, Encoding.counterToBytes(value + Encoding.counterFromBytes(operand)));
+    }
+
+    /**
+     * delete rows of this tier in range, caller should delete the range in RocksDB as well
+     *
+     * @param begin first key
+     * @param end   end key, exclusive
+     */
+    public void deleteRange(final byte[] begin, final byte[] end) {
+        // tombstones instead of removal, an older version of a row may be written to RocksDB by a flush
+        // which started before the range deletion
+        final List<byte[]> keys = new ArrayList<>(rows.subMap(begin, end).keySet());
+        if (pendingRows != null) {
+            pendingRows.subMap(begin, end).clear();
+            keys.forEach(key -> pendingRows.put(key, TOMBSTONE));
+            return;
+        }
+        synchronized (logLock) {
+            keys.forEach(key -> applyRow(key, TOMBSTONE));
+            flushLog();
+        }
+    }
+
+    /**
+     * run writeBatch with rows of this tier collected, they are applied after writeBatch returns,
+     * must be called while holding the database lock
+     *
+     * @param writeBatch writes the RocksDB part of the batch
+     */
+    public void runBatch(final Runnable writeBatch) {
+        if (pendingRows != null) {
+            writeBatch.run();
+            return;
+        }
+        final TreeMap<byte[], byte[]> batch = new TreeMap<>(Encoding::compareKeyBytes);
+        pendingRows = batch;
+        try {
+            writeBatch.run();
+        } finally {
+            pendingRows = null;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (logLock) {
+            batch.forEach(this::applyRow);
+            flushLog();
+        }
+    }
+
+    protected void applyRow(final byte[] key, final byte[] value) {
+        if (log != null) {
+            try {
+                log.writeInt(key.length);
+                log.write(key);
+                if (value == TOMBSTONE) {
+                    log.writeInt(-1);
+                } else {
+                    log.writeInt(value.length);
+                    log.write(value);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to write hot key log: " + e.getMessage(), e);
+            }
+        }
+        final Row old = rows.put(key, new Row(value, logGeneration));
+        rowBytes.addAndGet(value.length - (old == null ? -key.length - ROW_OVERHEAD : old.value.length));
+    }
+
+    protected void flushLog() {
+        if (log != null) {
+            try {
+                log.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to write hot key log: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * iterator over RocksDB with rows of this tier merged over it
+     *
+     * @param base       RocksDB iterator
+     * @param upperBound exclusive upper bound of base, null means none
+     * @return StoreIterator
+     */
+    public StoreIterator iterator(final StoreIterator base, final byte[] upperBound) {
+        openIterators.incrementAndGet();
+        return new MergingIterator(base, upperBound == null ? rows : rows.headMap(upperBound, false));
+    }
+
+    /**
+     * write all rows held to RocksDB, rows are dropped from memory unless an iterator is open
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final long generation;
+            synchronized (logLock) {
+                rotateLog();
+                generation = logGeneration++;
+            }
+            final List<Map.Entry<byte[], Row>> flushed = new ArrayList<>();
+            if (!rows.isEmpty()) {
+                try (final WriteBatch batch = new WriteBatch(); final WriteOptions writeOptions = new WriteOptions()) {
+                    for (final Map.Entry<byte[], Row> entry : rows.entrySet()) {
+                        if (entry.getValue().value == TOMBSTONE) {
+                            batch.delete(entry.getKey());
+                        } else {
+                            batch.put(entry.getKey(), entry.getValue().value);
+                        }
+                        flushed.add(entry);
+                    }
+                    db.write(writeOptions, batch);
+                } catch (RocksDBException e) {
+                    throw new IllegalStateException("failed to flush hot keys: " + e.getMessage(), e);
+                }
+            }
+            deleteOldLog();
+            flushes.incrementAndGet();
+            flushedRows.addAndGet(flushed.size());
+            if (openIterators.get() > 0) {
+                return;
+            }
+            // rows changed since they were read, or written to the log still in use, stay for the next flush
+            for (final Map.Entry<byte[], Row> entry : flushed) {
+                final Row row = entry.getValue();
+                if (row.generation <= generation && rows.remove(entry.getKey(), row)) {
+                    rowBytes.addAndGet(-entry.getKey().length - row.value.length - ROW_OVERHEAD);
+                }
+            }
+        }
+    }
+
+    protected void flushQuietly() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RuntimeException e) {
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * stop the background flusher, flush all rows and delete the log
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (logLock) {
+            if (log != null) {
+                try {
+                    log.close();
+                    Files.deleteIfExists(logPath);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                log = null;
+            }
+        }
+    }
+
+    protected DataOutputStream openLog() {
+        try {
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logPath.toFile(), true)));
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to open hot key log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * start a new log, rows in the old log are all held in memory and are deleted by the running flush
+     */
+    protected void rotateLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+            Files.move(logPath, oldLogPath);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to rotate hot key log: " + e.getMessage(), e);
+        } finally {
+            log = openLog();
+        }
+    }
+
+    protected void deleteOldLog() {
+        if (oldLogPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(oldLogPath);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to delete hot key log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * write rows of logs left by a process which did not close the database to RocksDB,
+     * then delete the logs; a truncated last record is ignored
+     *
+     * @param db   RocksDB instance
+     * @param path database path
+     */
+    public static void replayLog(final RocksDB db, final String path) {
+        final Path logPath = Paths.get(path, LOG_FILE);
+        final Path oldLogPath = Paths.get(path, OLD_LOG_FILE);
+        if (!Files.exists(logPath) && !Files.exists(oldLogPath)) {
+            return;
+        }
+        try (final WriteBatch batch = new WriteBatch(); final WriteOptions writeOptions = new WriteOptions()) {
+            for (final Path file : new Path[]{oldLogPath, logPath}) {
+                if (!Files.exists(file)) {
+                    continue;
+                }
+                try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+                    while (true) {
+                        final byte[] key = new byte[in.readInt()];
+                        in.readFully(key);
+                        final int length = in.readInt();
+                        if (length < 0) {
+                            batch.delete(key);
+                        } else {
+                            final byte[] value = new byte[length];
+                            in.readFully(value);
+                            batch.put(key, value);
+                        }
+                    }
+                } catch (EOFException ignored) {
+                }
+            }
+            if (batch.count() > 0) {
+                db.write(writeOptions, batch);
+            }
+            Files.deleteIfExists(oldLogPath);
+            Files.deleteIfExists(logPath);
+        } catch (IOException | RocksDBException e) {
+            throw new IllegalStateException("failed to replay hot key log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * returns number of hot keys
+     *
+     * @return count
+     */
+    public int hotKeyCount() {
+        return hotKeys.size();
+    }
+
+    /**
+     * returns number of rows held in memory
+     *
+     * @return count
+     */
+    public int rowCount() {
+        return rows.size();
+    }
+
+    /**
+     * returns estimated memory used by rows held
+     *
+     * @return bytes
+     */
+    public long rowBytes() {
+        return rowBytes.get();
+    }
+
+    public long flushCount() {
+        return flushes.get();
+    }
+
+    public long flushedRowCount() {
+        return flushedRows.get();
+    }
+
+    public long promotionCount() {
+        return promotions;
+    }
+
+    public long demotionCount() {
+        return demotions;
+    }
+
+    protected static class Row {
+        protected final byte[] value;
+        protected final long generation;
+
+        protected Row(final byte[] value, final long generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * StoreIterator over RocksDB rows shadowed by rows of the tier, tombstones are skipped
+     */
+    protected class MergingIterator implements StoreIterator {
+        protected final StoreIterator base;
+        protected final NavigableMap<byte[], Row> overlay;
+        protected Map.Entry<byte[], Row> entry;
+        protected boolean forward = true;
+        protected boolean fromBase;
+        protected byte[] key;
+        protected boolean closed = false;
+
+        protected MergingIterator(final StoreIterator base, final NavigableMap<byte[], Row> overlay) {
+            this.base = base;
+            this.overlay = overlay;
+        }
+
+        @Override
+        public void seek(final byte[] target) {
+            forward = true;
+            base.seek(target);
+            entry = overlay.ceilingEntry(target);
+            settle();
+        }
+
+        @Override
+        public void seekForPrev(final byte[] target) {
+            forward = false;
+            base.seekForPrev(target);
+            entry = overlay.floorEntry(target);
+            settle();
+        }
+
+        @Override
+        public void next() {
+            final byte[] current = key;
+            if (!forward) {
+                seek(current);
+                if (key == null || Encoding.compareKeyBytes(key, current) > 0) {
+                    return;
+                }
+            }
+            if (fromBase) {
+                base.next();
+            } else {
+                if (base.isValid() && Encoding.compareKeyBytes(base.key(), key) == 0) {
+                    base.next();
+                }
+                entry = overlay.higherEntry(key);
+            }
+            settle();
+        }
+
+        @Override
+        public void prev() {
+            final byte[] current = key;
+            if (forward) {
+                seekForPrev(current);
+                if (key == null || Encoding.compareKeyBytes(key, current) < 0) {
+                    return;
+                }
+            }
+            if (fromBase) {
+                base.prev();
+            } else {
+                if (base.isValid() && Encoding.compareKeyBytes(base.key(), key) == 0) {
+                    base.prev();
+                }
+                entry = overlay.lowerEntry(key);
+            }
+            settle();
+        }
+
+        /**
+         * position on the nearer of base and overlay in current direction, skipping tombstones
+         */
+        protected void settle() {
+            while (true) {
+                final byte[] baseKey = base.isValid() ? base.key() : null;
+                if (entry == null) {
+                    fromBase = baseKey != null;
+                    key = baseKey;
+                    return;
+                }
+                final int cmp = baseKey == null ? (forward ? 1 : -1) : Encoding.compareKeyBytes(baseKey, entry.getKey());
+                if (forward ? cmp < 0 : cmp > 0) {
+                    fromBase = true;
+                    key = baseKey;
+                    return;
+                }
+                if (entry.getValue().value != TOMBSTONE) {
+                    fromBase = false;
+                    key = entry.getKey();
+                    return;
+                }
+                if (cmp == 0) {
+                    if (forward) {
+                        base.next();
+                    } else {
+                        base.prev();
+                    }
+                }
+                entry = forward ? overlay.higherEntry(entry.getKey()) : overlay.lowerEntry(entry.getKey());
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            return key != null;
+        }
+
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        @Override
+        public byte[] value() {
+            return fromBase ? base.value() : entry.getValue().value.clone();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                base.close();
+                openIterators.decrementAndGet();
+            }
+        }
+    }
+}
@@ -3,8 +3,11 @@ package com.leizm.cedar.core;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 public interface IDatabase {
     Optional<byte[]> mapGet(byte[] key, byte[] field);
@@ -13,6 +16,24 @@ public interface IDatabase {
 
     Optional<byte[]> mapRemove(byte[] key, byte[] field);
 
+    long mapIncrBy(byte[] key, CounterItem... items);
+
+    default long mapIncrBy(byte[] key, byte[] field, long delta) {
+        return mapIncrBy(key, CounterItem.of(field, delta));
+    }
+
+    double mapIncrByFloat(byte[] key, byte[] field, double delta);
+
+    byte[] mapCompute(byte[] key, byte[] field, UnaryOperator<byte[]> fn);
+
+    default Optional<Long> mapGetLong(byte[] key, byte[] field) {
+        return mapGet(key, field).map(Encoding::counterFromBytes);
+    }
+
+    default Optional<Double> mapGetDouble(byte[] key, byte[] field) {
+        return mapGet(key, field).map(Encoding::doubleFromBytes);
+    }
+
     long mapForEach(byte[] key, Consumer<MapItem> onItem);
 
     default List<MapItem> mapItems(byte[] key) {
@@ -33,6 +54,17 @@ public interface IDatabase {
 
     Optional<byte[]> listRightPop(byte[] key);
 
+    List<byte[]> listMove(byte[] src, byte[] dst, ListSide from, ListSide to, int count);
+
+    default Optional<byte[]> listMove(byte[] src, byte[] dst, ListSide from, ListSide to) {
+        final List<byte[]> values = listMove(src, dst, from, to, 1);
+        return values.isEmpty() ? Optional.empty() : Optional.of(values.get(0));
+    }
+
+    long listTrim(byte[] key, long start, long stop);
+
+    long listSetCap(byte[] key, long cap);
+
     long listForEach(byte[] key, Consumer<ListItem> onItem);
 
     default List<ListItem> listItems(byte[] key) {
@@ -41,6 +73,8 @@ public interface IDatabase {
         return list;
     }
 
+    List<ListItem> listRange(byte[] key, long start, long stop);
+
     long setAdd(byte[] key, byte[]... values);
 
     boolean setIsMember(byte[] key, byte[]... values);
@@ -57,14 +91,42 @@ public interface IDatabase {
         return list;
     }
 
+    long setIntersect(Consumer<byte[]> onItem, byte[]... keys);
+
+    long setUnion(Consumer<byte[]> onItem, byte[]... keys);
+
+    long setDiff(Consumer<byte[]> onItem, byte[]... keys);
+
+    long setIntersectStore(byte[] dst, byte[]... keys);
+
+    long setUnionStore(byte[] dst, byte[]... keys);
+
+    long setDiffStore(byte[] dst, byte[]... keys);
+
     long sortedListAdd(byte[] key, SortedListItem... items);
 
     long sortedListCount(byte[] key);
 
     Optional<SortedListItem> sortedListLeftPop(byte[] key, byte[] maxScore);
 
+    default Optional<SortedListItem> sortedListLeftPop(byte[] key, long maxScore) {
+        return sortedListLeftPop(key, Encoding.sortableLongToBytes(maxScore));
+    }
+
+    default Optional<SortedListItem> sortedListLeftPop(byte[] key, double maxScore) {
+        return sortedListLeftPop(key, Encoding.sortableDoubleToBytes(maxScore));
+    }
+
     Optional<SortedListItem> sortedListRightPop(byte[] key, byte[] minScore);
 
+    default Optional<SortedListItem> sortedListRightPop(byte[] key, long minScore) {
+        return sortedListRightPop(key, Encoding.sortableLongToBytes(minScore));
+    }
+
+    default Optional<SortedListItem> sortedListRightPop(byte[] key, double minScore) {
+        return sortedListRightPop(key, Encoding.sortableDoubleToBytes(minScore));
+    }
+
     long sortedListForEach(byte[] key, Consumer<SortedListItem> onItem);
 
     default List<SortedListItem> sortedListItems(byte[] key) {
@@ -79,6 +141,41 @@ public interface IDatabase {
 
     Optional<SortedListItem> ascSortedListPop(byte[] key, byte[] maxScore);
 
+    default Optional<SortedListItem> ascSortedListPop(byte[] key, long maxScore) {
+        return ascSortedListPop(key, Encoding.sortableLongToBytes(maxScore));
+    }
+
+    default Optional<SortedListItem> ascSortedListPop(byte[] key, double maxScore) {
+        return ascSortedListPop(key, Encoding.sortableDoubleToBytes(maxScore));
+    }
+
+    List<SortedListItem> ascSortedListPopTo(byte[] src, byte[] dstMap, byte[] maxScore, int count);
+
+    default List<SortedListItem> ascSortedListPopTo(byte[] src, byte[] dstMap, long maxScore, int count) {
+        return ascSortedListPopTo(src, dstMap, Encoding.sortableLongToBytes(maxScore), count);
+    }
+
+    default List<SortedListItem> ascSortedListPopTo(byte[] src, byte[] dstMap, double maxScore, int count) {
+        return ascSortedListPopTo(src, dstMap, Encoding.sortableDoubleToBytes(maxScore), count);
+    }
+
+    default Optional<SortedListItem> ascSortedListPopTo(byte[] src, byte[] dstMap, byte[] maxScore) {
+        final List<SortedListItem> items = ascSortedListPopTo(src, dstMap, maxScore, 1);
+        return items.isEmpty() ? Optional.empty() : Optional.of(items.get(0));
+    }
+
+    List<LeasedItem> ascSortedListLease(byte[] key, byte[] maxScore, int count, long leaseMillis);
+
+    default List<LeasedItem> ascSortedListLease(byte[] key, long maxScore, int count, long leaseMillis) {
+        return ascSortedListLease(key, Encoding.sortableLongToBytes(maxScore), count, leaseMillis);
+    }
+
+    default List<LeasedItem> ascSortedListLease(byte[] key, double maxScore, int count, long leaseMillis) {
+        return ascSortedListLease(key, Encoding.sortableDoubleToBytes(maxScore), count, leaseMillis);
+    }
+
+    long ascSortedListAck(byte[] key, byte[]... leaseIds);
+
     long ascSortedListForEach(byte[] key, Consumer<SortedListItem> onItem);
 
     default List<SortedListItem> ascSortedListItems(byte[] key) {
@@ -89,6 +186,30 @@ public interface IDatabase {
 
     void ascSortedListPrune(byte[] key);
 
+    long sortedSetAdd(byte[] key, SortedSetItem... items);
+
+    OptionalDouble sortedSetScore(byte[] key, byte[] member);
+
+    long sortedSetRemove(byte[] key, byte[]... members);
+
+    double sortedSetIncrBy(byte[] key, byte[] member, double delta);
+
+    OptionalLong sortedSetRank(byte[] key, byte[] member);
+
+    List<SortedSetItem> sortedSetPopMin(byte[] key, int count);
+
+    long sortedSetCount(byte[] key);
+
+    long sortedSetForEach(byte[] key, Consumer<SortedSetItem> onItem);
+
+    default List<SortedSetItem> sortedSetItems(byte[] key) {
+        final List<SortedSetItem> list = new ArrayList<>();
+        sortedSetForEach(key, list::add);
+        return list;
+    }
+
+    List<SortedSetItem> sortedSetRange(byte[] key, long start, long stop);
+
     long forEachKeys(byte[] prefix, BiConsumer<byte[], MetaInfo> onItem);
 
     default long forEachKeys(BiConsumer<byte[], MetaInfo> onItem) {
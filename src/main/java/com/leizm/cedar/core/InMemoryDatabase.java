@@ -0,0 +1,218 @@
+package com.leizm.cedar.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Database keeping every key in a concurrent skip list instead of RocksDB,
+ * it stores the same rows in the same order so all operations behave exactly as Database,
+ * nothing survives close() and transactions are not supported
+ */
+public class InMemoryDatabase extends Database {
+    /**
+     * all rows, ordered as RocksDB orders them
+     */
+    protected final ConcurrentSkipListMap<byte[], byte[]> store;
+
+    /**
+     * writes collected by dbWriteBatch() on the calling thread, null if no batch is pending
+     */
+    protected final ThreadLocal<List<Runnable>> pendingWrites = new ThreadLocal<>();
+
+    /**
+     * create an empty database
+     *
+     * @param options options, RocksDB options are ignored
+     */
+    public InMemoryDatabase(final Options options) {
+        this(new ConcurrentSkipListMap<>(Encoding::compareKeyBytes), options);
+    }
+
+    /**
+     * create an empty database
+     */
+    public InMemoryDatabase() {
+        this(null);
+    }
+
+    /**
+     * create a database on existing rows, as if a RocksDB database holding them was reopened
+     *
+     * @param store   rows, must be ordered by Encoding.compareKeyBytes
+     * @param options options
+     */
+    protected InMemoryDatabase(final ConcurrentSkipListMap<byte[], byte[]> store, final Options options) {
+        super(options);
+        this.store = store;
+        initAfterOpen();
+    }
+
+    /**
+     * returns number of rows, including meta info and counter rows
+     *
+     * @return size
+     */
+    public int storeSize() {
+        return store.size();
+    }
+
+    @Override
+    public <T> T transaction(final Function<DatabaseTransaction, T> fn) {
+        throw new IllegalStateException("transactions are not supported by InMemoryDatabase");
+    }
+
+    /**
+     * drop all rows
+     */
+    @Override
+    public void close() {
+        super.close();
+        store.clear();
+    }
+
+    /**
+     * iterator over live rows, rows written after it is created may or may not be seen,
+     * the value of the current row is kept even if the row is deleted meanwhile
+     */
+    @Override
+    protected StoreIterator dbIterator(final byte[] upperBound) {
+        return new MemoryStoreIterator(upperBound == null ? store : store.headMap(upperBound, false));
+    }
+
+    @Override
+    protected byte[] dbGet(final byte[] key) {
+        final byte[] value = store.get(key);
+        return value == null ? null : value.clone();
+    }
+
+    @Override
+    protected void dbPut(final byte[] key, final byte[] value) {
+        final byte[] copy = value.clone();
+        final List<Runnable> batch = pendingWrites.get();
+        if (batch != null) {
+            batch.add(() -> store.put(key, copy));
+        } else {
+            store.put(key, copy);
+        }
+    }
+
+    @Override
+    protected void dbDelete(final byte[] key) {
+        final List<Runnable> batch = pendingWrites.get();
+        if (batch != null) {
+            batch.add(() -> store.remove(key));
+        } else {
+            store.remove(key);
+        }
+    }
+
+    /**
+     * same as the UInt64AddOperator merge operator of RocksDB
+     */
+    @Override
+    protected void dbMerge(final byte[] key, final byte[] value) {
+        final long delta = Encoding.counterFromBytes(value);
+        final Runnable merge = () -> store.merge(key, value.clone(),
+                (a, b) -> Encoding.counterToBytes(Encoding.counterFromBytes(a) + delta));
+        final List<Runnable> batch = pendingWrites.get();
+        if (batch != null) {
+            batch.add(merge);
+        } else {
+            merge.run();
+        }
+    }
+
+    @Override
+    protected boolean inWriteBatch() {
+        return pendingWrites.get() != null;
+    }
+
+    @Override
+    protected void dbWriteBatch(final Runnable fn) {
+        if (inWriteBatch()) {
+            fn.run();
+            return;
+        }
+        final List<Runnable> batch = new ArrayList<>();
+        pendingWrites.set(batch);
+        try {
+            fn.run();
+        } catch (RuntimeException e) {
+            // meta info in cache may have been changed by fn
+            metaInfoCache.clear();
+            throw e;
+        } finally {
+            pendingWrites.remove();
+        }
+        batch.forEach(Runnable::run);
+    }
+
+    @Override
+    protected void dbDeleteRange(final long keyId, final byte[] begin, final byte[] end) {
+        final List<Runnable> batch = pendingWrites.get();
+        if (batch != null) {
+            batch.add(() -> store.subMap(begin, end).clear());
+        } else {
+            store.subMap(begin, end).clear();
+        }
+    }
+
+    /**
+     * there are no tombstones to compact
+     */
+    @Override
+    protected void dbCompactRange(final long keyId, final String reason) {
+    }
+
+    protected static class MemoryStoreIterator implements StoreIterator {
+        protected final NavigableMap<byte[], byte[]> map;
+        protected Map.Entry<byte[], byte[]> entry;
+
+        protected MemoryStoreIterator(final NavigableMap<byte[], byte[]> map) {
+            this.map = map;
+        }
+
+        @Override
+        public void seek(final byte[] target) {
+            entry = map.ceilingEntry(target);
+        }
+
+        @Override
+        public void seekForPrev(final byte[] target) {
+            entry = map.floorEntry(target);
+        }
+
+        @Override
+        public void next() {
+            entry = map.higherEntry(entry.getKey());
+        }
+
+        @Override
+        public void prev() {
+            entry = map.lowerEntry(entry.getKey());
+        }
+
+        @Override
+        public boolean isValid() {
+            return entry != null;
+        }
+
+        @Override
+        public byte[] key() {
+            return entry.getKey();
+        }
+
+        @Override
+        public byte[] value() {
+            return entry.getValue().clone();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.leizm.cedar.core;
+
+/**
+ * notification of a committed operation which may have changed a key, see Database.subscribe()
+ */
+public class KeyChange {
+    public final OperationType type;
+    public final byte[] key;
+
+    public KeyChange(final OperationType type, final byte[] key) {
+        this.type = type;
+        this.key = key;
+    }
+
+    public static KeyChange of(final OperationType type, final byte[] key) {
+        return new KeyChange(type, key);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KeyChange(%s, %s)", type.methodName, new String(key));
+    }
+}
@@ -5,7 +5,8 @@ public enum KeyType {
     Set,
     List,
     SortedList,
-    AscSortedList;
+    AscSortedList,
+    SortedSet;
 
     /**
      * get KeyType from code
@@ -25,6 +26,8 @@ public enum KeyType {
                 return SortedList;
             case 5:
                 return AscSortedList;
+            case 6:
+                return SortedSet;
             default:
                 throw new IllegalArgumentException(String.format("invalid code '%d'", code));
         }
@@ -42,6 +45,8 @@ public enum KeyType {
                 return 4;
             case AscSortedList:
                 return 5;
+            case SortedSet:
+                return 6;
             default:
                 throw new IllegalArgumentException(String.format("invalid type '%s'", this.name()));
         }
@@ -0,0 +1,159 @@
+package com.leizm.cedar.core;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock-free log-linear histogram (HDR-style), each power of two is split into
+ * {@link #SUB_BUCKET_COUNT} linear buckets, so the relative error is about 3%
+ */
+public class LatencyHistogram {
+    protected static final int SUB_BUCKET_BITS = 5;
+    protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    protected static final int MAX_EXPONENT = 40;
+    protected static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    protected static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    protected final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    protected final AtomicLong count = new AtomicLong();
+    protected final AtomicLong sum = new AtomicLong();
+    protected final AtomicLong max = new AtomicLong();
+
+    /**
+     * record a value, negative values are ignored and values larger than 2^41 are clamped
+     *
+     * @param value value, usually nanoseconds
+     */
+    public void record(final long value) {
+        if (value < 0) {
+            return;
+        }
+        final long v = Math.min(value, MAX_VALUE);
+        buckets.incrementAndGet(bucketIndex(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * returns the value at the given percentile
+     *
+     * @param percentile 0 ~ 100
+     * @return upper bound of the bucket containing the percentile, 0 when empty
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long total = 0;
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final double p = Math.max(0, Math.min(100, percentile));
+        final long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * print the percentile distribution in HdrHistogram's text format (.hgrm), so its plotting tools can read it;
+     * ticks get denser towards 100% as HdrHistogram does, 5 per halving of the distance
+     *
+     * @param out   stream
+     * @param scale values are divided by it, e.g. 1000.0 to print nanoseconds as microseconds
+     */
+    public void outputPercentileDistribution(final PrintStream out, final double scale) {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        final long maxValue = max.get();
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        double sumSquares = 0;
+        double mean = 0;
+        if (total > 0) {
+            mean = getMean();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (counts[i] > 0) {
+                    final double d = Math.min(bucketUpperBound(i), maxValue) - mean;
+                    sumSquares += d * d * counts[i];
+                }
+            }
+            double percentile = 0;
+            int bucket = 0;
+            long seen = counts[0];
+            while (true) {
+                final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+                while (seen < rank) {
+                    seen += counts[++bucket];
+                }
+                final double value = Math.min(bucketUpperBound(bucket), maxValue) / scale;
+                if (seen >= total) {
+                    out.printf("%12.3f %14.12f %10d%n", maxValue / scale, 1.0, total);
+                    break;
+                }
+                out.printf("%12.3f %14.12f %10d %14.2f%n", value, percentile / 100, seen, 100 / (100 - percentile));
+                final double halfDistance = Math.pow(2, Math.floor(Math.log(100 / (100 - percentile)) / Math.log(2)) + 1);
+                percentile += 100 / (halfDistance * 5);
+            }
+        }
+        out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean / scale, total == 0 ? 0 : Math.sqrt(sumSquares / total) / scale);
+        out.printf("#[Max     = %12.3f, Total count    = %12d]%n", maxValue / scale, total);
+        out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", BUCKET_COUNT / SUB_BUCKET_COUNT, SUB_BUCKET_COUNT);
+    }
+
+    protected static int bucketIndex(final long v) {
+        if (v < SUB_BUCKET_COUNT) {
+            return (int) v;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(v);
+        final int sub = (int) (v >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    protected static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final long sub = index % SUB_BUCKET_COUNT;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((SUB_BUCKET_COUNT + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.leizm.cedar.core;
+
+import java.nio.ByteBuffer;
+
+public class LeasedItem {
+    /**
+     * opaque lease id used by ascSortedListAck, it changes every time the item is redelivered
+     */
+    public final byte[] leaseId;
+
+    /**
+     * lease expiry time in milliseconds, the item is redelivered by ascSortedListLease after it
+     */
+    public final long deadline;
+
+    /**
+     * times the item has been leased, starts at 1
+     */
+    public final int deliveries;
+
+    public final byte[] score;
+    public final byte[] value;
+
+    public LeasedItem(final byte[] leaseId, final long deadline, final int deliveries, final byte[] score, final byte[] value) {
+        this.leaseId = leaseId;
+        this.deadline = deadline;
+        this.deliveries = deliveries;
+        this.score = score;
+        this.value = value;
+    }
+
+    public static LeasedItem of(final byte[] leaseId, final long deadline, final int deliveries, final byte[] score, final byte[] value) {
+        return new LeasedItem(leaseId, deadline, deliveries, score, value);
+    }
+
+    public long scoreAsLong() {
+        return Encoding.sortableLongFromBytes(score, 0);
+    }
+
+    public double scoreAsDouble() {
+        return Encoding.sortableDoubleFromBytes(score, 0);
+    }
+
+    /**
+     * encode the value stored in lease index: deliveries(4) + score length(4) + score + value
+     *
+     * @return bytes
+     */
+    public byte[] toValueBytes() {
+        return Encoding.combineMultipleBytes(
+                Encoding.intToBytes(deliveries),
+                Encoding.intToBytes(score.length),
+                score,
+                value
+        );
+    }
+
+    public static LeasedItem fromBytes(final byte[] leaseId, final byte[] valueBytes) {
+        final ByteBuffer b = ByteBuffer.wrap(valueBytes);
+        final int deliveries = b.getInt();
+        final byte[] score = new byte[b.getInt()];
+        b.get(score);
+        final byte[] value = new byte[b.remaining()];
+        b.get(value);
+        return new LeasedItem(leaseId, Encoding.longFromBytes(leaseId), deliveries, score, value);
+    }
+}
@@ -0,0 +1,6 @@
+package com.leizm.cedar.core;
+
+public enum ListSide {
+    Left,
+    Right
+}
@@ -0,0 +1,253 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.Cache;
+import org.rocksdb.MemoryUsageType;
+import org.rocksdb.MemoryUtil;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBufferManager;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * memory limit shared by every database opened with it through Options.memoryBudget:
+ * one block cache with strict capacity holds data, index and filter blocks of all of them,
+ * memtables are charged to the same cache through a WriteBufferManager, and part of the budget
+ * is reserved for the meta info caches on heap;
+ * close it only after all databases using it are closed
+ */
+public class MemoryBudget implements AutoCloseable {
+    /**
+     * estimated heap bytes of one meta info cache entry, including the key string and map nodes
+     */
+    public static final long META_INFO_ENTRY_BYTES = 256;
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    protected final long capacity;
+    protected final int databases;
+    protected final long memTableBytes;
+    protected final long metaCacheBytes;
+    protected final Cache blockCache;
+    protected final WriteBufferManager writeBufferManager;
+    protected final List<Database> attached = new CopyOnWriteArrayList<>();
+
+    /**
+     * create budget
+     *
+     * @param capacity       total bytes of block cache, memtables and meta info caches
+     * @param databases      number of databases expected to share it, used to size meta info caches
+     * @param memTableRatio  share of the block cache memtables may take before they are flushed
+     * @param metaCacheBytes bytes reserved for meta info caches, not available to the block cache
+     */
+    public MemoryBudget(final long capacity, final int databases, final double memTableRatio, final long metaCacheBytes) {
+        if (databases < 1) {
+            throw new IllegalArgumentException("databases must be positive");
+        }
+        if (memTableRatio <= 0 || memTableRatio >= 1) {
+            throw new IllegalArgumentException("memTableRatio must be between 0 and 1");
+        }
+        if (metaCacheBytes < 0 || metaCacheBytes >= capacity) {
+            throw new IllegalArgumentException("metaCacheBytes must leave room for the block cache");
+        }
+        this.capacity = capacity;
+        this.databases = databases;
+        this.metaCacheBytes = metaCacheBytes;
+        final long cacheBytes = capacity - metaCacheBytes;
+        this.memTableBytes = (long) (cacheBytes * memTableRatio);
+        this.blockCache = new org.rocksdb.LRUCache(cacheBytes, -1, true);
+        this.writeBufferManager = new WriteBufferManager(memTableBytes, blockCache);
+    }
+
+    /**
+     * create budget giving a quarter of the block cache to memtables and 1/32 of capacity to meta info caches
+     *
+     * @param capacity  total bytes
+     * @param databases number of databases expected to share it
+     * @return MemoryBudget
+     */
+    public static MemoryBudget of(final long capacity, final int databases) {
+        return new MemoryBudget(capacity, databases, 0.25, capacity / 32);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getBlockCacheCapacity() {
+        return capacity - metaCacheBytes;
+    }
+
+    public long getMemTableBytes() {
+        return memTableBytes;
+    }
+
+    public long getMetaCacheBytes() {
+        return metaCacheBytes;
+    }
+
+    /**
+     * returns meta info cache entries of each database, its share of the reserved bytes
+     *
+     * @return count
+     */
+    public int metaInfoCacheCount() {
+        return (int) Math.max(1, metaCacheBytes / META_INFO_ENTRY_BYTES / databases);
+    }
+
+    /**
+     * use the shared block cache and write buffer manager in RocksDB options,
+     * the per-instance row cache is not used since it would not be bounded by the budget
+     *
+     * @param options RocksDB options
+     */
+    public void configure(final org.rocksdb.Options options) {
+        final BlockBasedTableConfig table = new BlockBasedTableConfig();
+        table.setBlockCache(blockCache);
+        // otherwise table readers keep them outside of the budget
+        table.setCacheIndexAndFilterBlocks(true);
+        table.setPinL0FilterAndIndexBlocksInCache(true);
+        options.setTableFormatConfig(table);
+        options.setWriteBufferManager(writeBufferManager);
+    }
+
+    protected void attach(final Database db) {
+        attached.add(db);
+    }
+
+    protected void detach(final Database db) {
+        attached.remove(db);
+    }
+
+    /**
+     * returns memory used under this budget, native usage is read from RocksDB and heap usage is estimated
+     *
+     * @return Report
+     */
+    public Report report() {
+        final List<RocksDB> dbs = new ArrayList<>();
+        final List<Usage> usages = new ArrayList<>();
+        for (final Database db : attached) {
+            if (db.getDb() != null) {
+                dbs.add(db.getDb());
+            }
+            usages.add(db.getMemoryUsage());
+        }
+        final Map<MemoryUsageType, Long> total = MemoryUtil.getApproximateMemoryUsageByType(dbs, Collections.singleton(blockCache));
+        return new Report(capacity, getBlockCacheCapacity(), total.getOrDefault(MemoryUsageType.kCacheTotal, 0L), usages);
+    }
+
+    /**
+     * release the block cache and write buffer manager
+     *
+     * @throws IllegalStateException if a database still uses them
+     */
+    @Override
+    public void close() {
+        if (!attached.isEmpty()) {
+            throw new IllegalStateException(attached.size() + " databases still use the memory budget");
+        }
+        writeBufferManager.close();
+        blockCache.close();
+    }
+
+    protected static long getLongProperty(final RocksDB db, final String name) {
+        try {
+            return db.getLongProperty(name);
+        } catch (RocksDBException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * memory used by one database
+     */
+    public static class Usage {
+        public final String path;
+        /**
+         * native bytes of active and unflushed memtables, also charged to the block cache under a budget
+         */
+        public final long memTableBytes;
+        /**
+         * native bytes of table readers outside of the block cache
+         */
+        public final long tableReaderBytes;
+        /**
+         * estimated heap bytes of the meta info cache
+         */
+        public final long metaCacheBytes;
+        /**
+         * estimated heap bytes of rows held by the hot key tier
+         */
+        public final long hotKeyTierBytes;
+
+        public Usage(final String path, final long memTableBytes, final long tableReaderBytes,
+                     final long metaCacheBytes, final long hotKeyTierBytes) {
+            this.path = path;
+            this.memTableBytes = memTableBytes;
+            this.tableReaderBytes = tableReaderBytes;
+            this.metaCacheBytes = metaCacheBytes;
+            this.hotKeyTierBytes = hotKeyTierBytes;
+        }
+
+        public static Usage of(final Database db) {
+            final RocksDB rocks = db.getDb();
+            final HotKeyTier tier = db.getHotKeyTier();
+            return new Usage(db.getPath(),
+                    rocks == null ? 0 : getLongProperty(rocks, "rocksdb.cur-size-all-mem-tables"),
+                    rocks == null ? 0 : getLongProperty(rocks, "rocksdb.estimate-table-readers-mem"),
+                    db.metaInfoCache.size() * META_INFO_ENTRY_BYTES,
+                    tier == null ? 0 : tier.rowBytes());
+        }
+
+        public long nativeBytes() {
+            return memTableBytes + tableReaderBytes;
+        }
+
+        public long heapBytes() {
+            return metaCacheBytes + hotKeyTierBytes;
+        }
+    }
+
+    public static class Report {
+        public final long capacity;
+        public final long blockCacheCapacity;
+        /**
+         * native bytes in the shared block cache, including memtable reservations
+         */
+        public final long blockCacheUsage;
+        public final List<Usage> databases;
+
+        public Report(final long capacity, final long blockCacheCapacity, final long blockCacheUsage, final List<Usage> databases) {
+            this.capacity = capacity;
+            this.blockCacheCapacity = blockCacheCapacity;
+            this.blockCacheUsage = blockCacheUsage;
+            this.databases = Collections.unmodifiableList(databases);
+        }
+
+        /**
+         * returns native bytes, memtables are counted once as part of the block cache
+         *
+         * @return bytes
+         */
+        public long nativeBytes() {
+            long bytes = blockCacheUsage;
+            for (final Usage usage : databases) {
+                bytes += usage.tableReaderBytes;
+            }
+            return bytes;
+        }
+
+        public long heapBytes() {
+            long bytes = 0;
+            for (final Usage usage : databases) {
+                bytes += usage.heapBytes();
+            }
+            return bytes;
+        }
+    }
+}
@@ -1,49 +1,189 @@
 package com.leizm.cedar.core;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+/**
+ * id, type, count and type specific extra of a key; an instance is a snapshot decoded from the meta row,
+ * changing it has no effect on the database
+ */
 public class MetaInfo {
+    /**
+     * bytes of id, type and count before the extra
+     */
+    public static final int HEADER_SIZE = 17;
+
     public final long id;
     public final KeyType type;
     public long count;
-    public byte[] extra;
+
+    /**
+     * undecoded extra starts at extraOffset of it, dropped once the extra is decoded
+     */
+    protected byte[] extraBytes;
+    protected int extraOffset;
+
+    /**
+     * decoded extra, changed in place by operations and serialized only by toBytes()
+     */
+    protected Extra extra;
+
+    /**
+     * count increments charged without reading the rows in approximate count mode since the last reconcile,
+     * kept in memory only
+     */
+    protected long uncheckedCount;
 
     public MetaInfo(long id, KeyType type, long count, byte[] extra) {
+        this(id, type, count, extra, 0);
+    }
+
+    protected MetaInfo(final long id, final KeyType type, final long count, final byte[] extraBytes, final int extraOffset) {
         this.id = id;
         this.type = type;
         this.count = count;
-        this.extra = extra;
+        this.extraBytes = extraBytes;
+        this.extraOffset = extraOffset;
     }
 
+    /**
+     * decode meta info, the extra is kept in bytes and decoded on first use
+     *
+     * @param bytes bytes, must not be changed afterwards
+     * @return meta info, null if bytes is null
+     */
     public static MetaInfo fromBytes(final byte[] bytes) {
         if (bytes == null) {
             return null;
         }
-        final ByteBuffer b = ByteBuffer.allocate(bytes.length);
-        b.put(bytes);
-        b.flip();
-        final long id = b.getLong();
-        final KeyType type = KeyType.fromByte(b.get());
-        final long count = b.getLong(b.position());
-        byte[] extra = null;
-        if (b.position(17).remaining() > 0) {
-            extra = new byte[b.remaining()];
-            b.get(extra);
-        }
-        return new MetaInfo(id, type, count, extra);
+        final long id = Encoding.readLong(bytes, 0);
+        final KeyType type = KeyType.fromByte(bytes[8]);
+        final long count = Encoding.readLong(bytes, 9);
+        return new MetaInfo(id, type, count, bytes.length > HEADER_SIZE ? bytes : null, HEADER_SIZE);
     }
 
+    /**
+     * encode into one array sized up front
+     *
+     * @return bytes
+     */
     public byte[] toBytes() {
-        return Encoding.combineMultipleBytes(
-                Encoding.longToBytes(id),
-                new byte[]{type.toByte()},
-                Encoding.longToBytes(count),
-                extra
-        );
+        final int extraSize = extra != null ? extra.size() : extraLength();
+        final byte[] bytes = new byte[HEADER_SIZE + extraSize];
+        Encoding.writeLong(bytes, 0, id);
+        bytes[8] = type.toByte();
+        Encoding.writeLong(bytes, 9, count);
+        if (extra != null) {
+            extra.writeTo(bytes, HEADER_SIZE);
+        } else if (extraSize > 0) {
+            System.arraycopy(extraBytes, extraOffset, bytes, HEADER_SIZE, extraSize);
+        }
+        return bytes;
+    }
+
+    /**
+     * returns encoded extra
+     *
+     * @return bytes, null if there is no extra
+     */
+    public byte[] getExtraBytes() {
+        if (extra != null) {
+            return extra.toBytes();
+        }
+        final int length = extraLength();
+        return length > 0 ? Arrays.copyOfRange(extraBytes, extraOffset, extraOffset + length) : null;
+    }
+
+    /**
+     * returns encoded extra, for callers of the public byte[] extra field this class had before
+     * the extra was decoded in place
+     *
+     * @return bytes, null if there is no extra
+     * @deprecated use getExtraBytes(), or listExtra(), sortedListExtra() and ascSortedListExtra()
+     */
+    @Deprecated
+    public byte[] getExtra() {
+        return getExtraBytes();
+    }
+
+    /**
+     * returns extra of List, decoded once and then shared by every user of this meta info
+     *
+     * @return extra
+     */
+    public ListExtra listExtra() {
+        checkExtraType(KeyType.List);
+        if (extra == null) {
+            extra = ListExtra.fromBytes(extraBytes, extraOffset, extraLength());
+            extraBytes = null;
+        }
+        return (ListExtra) extra;
+    }
+
+    /**
+     * returns extra of SortedList, decoded once and then shared by every user of this meta info
+     *
+     * @return extra
+     */
+    public SortedListExtra sortedListExtra() {
+        checkExtraType(KeyType.SortedList);
+        if (extra == null) {
+            extra = SortedListExtra.fromBytes(extraBytes, extraOffset, extraLength());
+            extraBytes = null;
+        }
+        return (SortedListExtra) extra;
+    }
+
+    /**
+     * returns extra of AscSortedList, decoded once and then shared by every user of this meta info
+     *
+     * @return extra
+     */
+    public AscSortedListExtra ascSortedListExtra() {
+        checkExtraType(KeyType.AscSortedList);
+        if (extra == null) {
+            extra = AscSortedListExtra.fromBytes(extraBytes, extraOffset, extraLength());
+            extraBytes = null;
+        }
+        return (AscSortedListExtra) extra;
+    }
+
+    protected int extraLength() {
+        return extraBytes == null ? 0 : extraBytes.length - extraOffset;
+    }
+
+    protected void checkExtraType(final KeyType expected) {
+        if (type != expected) {
+            throw new IllegalArgumentException(String.format("expected type %s but actually %s", expected.name(), type.name()));
+        }
+    }
+
+    /**
+     * typed extra of a key type, written straight into the array of the whole meta info
+     */
+    public abstract static class Extra {
+        /**
+         * returns number of bytes written by writeTo()
+         *
+         * @return size
+         */
+        public abstract int size();
+
+        /**
+         * write size() bytes at offset
+         *
+         * @param bytes  target
+         * @param offset offset
+         */
+        public abstract void writeTo(byte[] bytes, int offset);
+
+        public byte[] toBytes() {
+            final byte[] bytes = new byte[size()];
+            writeTo(bytes, 0);
+            return bytes;
+        }
     }
 
-    public static class ListExtra {
+    public static class ListExtra extends Extra {
         /**
          * position of next left item
          */
@@ -54,32 +194,51 @@ public class MetaInfo {
          */
         public long right;
 
+        /**
+         * max items, pushes evict items from the other side beyond it, 0 means no limit
+         */
+        public long cap;
+
         public ListExtra(final long left, final long right) {
+            this(left, right, 0);
+        }
+
+        public ListExtra(final long left, final long right, final long cap) {
             this.left = left;
             this.right = right;
+            this.cap = cap;
         }
 
         public static ListExtra fromBytes(final byte[] bytes) {
-            if (bytes == null) {
+            return fromBytes(bytes, 0, bytes == null ? 0 : bytes.length);
+        }
+
+        public static ListExtra fromBytes(final byte[] bytes, final int offset, final int length) {
+            if (bytes == null || length == 0) {
                 return new ListExtra(0, 1);
             }
-            final ByteBuffer b = ByteBuffer.allocate(bytes.length);
-            b.put(bytes);
-            b.flip();
-            final long left = b.getLong(0);
-            final long right = b.getLong(8);
-            return new ListExtra(left, right);
+            final long left = Encoding.readLong(bytes, offset);
+            final long right = Encoding.readLong(bytes, offset + 8);
+            final long cap = length >= 24 ? Encoding.readLong(bytes, offset + 16) : 0;
+            return new ListExtra(left, right, cap);
         }
 
-        public byte[] toBytes() {
-            return Encoding.combineMultipleBytes(
-                    Encoding.longToBytes(left),
-                    Encoding.longToBytes(right)
-            );
+        @Override
+        public int size() {
+            return cap > 0 ? 24 : 16;
+        }
+
+        @Override
+        public void writeTo(final byte[] bytes, final int offset) {
+            Encoding.writeLong(bytes, offset, left);
+            Encoding.writeLong(bytes, offset + 8, right);
+            if (cap > 0) {
+                Encoding.writeLong(bytes, offset + 16, cap);
+            }
         }
     }
 
-    public static class SortedListExtra {
+    public static class SortedListExtra extends Extra {
         public long sequence;
         public int leftDeletesCount;
         public int rightDeletesCount;
@@ -91,28 +250,33 @@ public class MetaInfo {
         }
 
         public static SortedListExtra fromBytes(final byte[] bytes) {
-            if (bytes == null || bytes.length == 0) {
+            return fromBytes(bytes, 0, bytes == null ? 0 : bytes.length);
+        }
+
+        public static SortedListExtra fromBytes(final byte[] bytes, final int offset, final int length) {
+            if (bytes == null || length == 0) {
                 return new SortedListExtra(0, 0, 0);
             }
-            final ByteBuffer b = ByteBuffer.allocate(bytes.length);
-            b.put(bytes);
-            b.flip();
-            final long sequence = b.getLong(0);
-            final int leftDeletesCount = b.getInt(8);
-            final int rightDeletesCount = b.getInt(12);
+            final long sequence = Encoding.readLong(bytes, offset);
+            final int leftDeletesCount = Encoding.readInt(bytes, offset + 8);
+            final int rightDeletesCount = Encoding.readInt(bytes, offset + 12);
             return new SortedListExtra(sequence, leftDeletesCount, rightDeletesCount);
         }
 
-        public byte[] toBytes() {
-            return Encoding.combineMultipleBytes(
-                    Encoding.longToBytes(sequence),
-                    Encoding.intToBytes(leftDeletesCount),
-                    Encoding.intToBytes(rightDeletesCount)
-            );
+        @Override
+        public int size() {
+            return 16;
+        }
+
+        @Override
+        public void writeTo(final byte[] bytes, final int offset) {
+            Encoding.writeLong(bytes, offset, sequence);
+            Encoding.writeInt(bytes, offset + 8, leftDeletesCount);
+            Encoding.writeInt(bytes, offset + 12, rightDeletesCount);
         }
     }
 
-    public static class AscSortedListExtra {
+    public static class AscSortedListExtra extends Extra {
         public long sequence;
         public int deletesCount;
         public byte[] minKey;
@@ -124,24 +288,31 @@ public class MetaInfo {
         }
 
         public static AscSortedListExtra fromBytes(final byte[] bytes) {
-            if (bytes == null || bytes.length == 0) {
+            return fromBytes(bytes, 0, bytes == null ? 0 : bytes.length);
+        }
+
+        public static AscSortedListExtra fromBytes(final byte[] bytes, final int offset, final int length) {
+            if (bytes == null || length == 0) {
                 return new AscSortedListExtra(0, 0, null);
             }
-            final ByteBuffer b = ByteBuffer.allocate(bytes.length);
-            b.put(bytes);
-            b.flip();
-            final long sequence = b.getLong(0);
-            final int deletesCount = b.getInt(8);
-            final byte[] minKey = Arrays.copyOfRange(bytes, 12, bytes.length);
+            final long sequence = Encoding.readLong(bytes, offset);
+            final int deletesCount = Encoding.readInt(bytes, offset + 8);
+            final byte[] minKey = length > 12 ? Arrays.copyOfRange(bytes, offset + 12, offset + length) : null;
             return new AscSortedListExtra(sequence, deletesCount, minKey);
         }
 
-        public byte[] toBytes() {
-            return Encoding.combineMultipleBytes(
-                    Encoding.longToBytes(sequence),
-                    Encoding.intToBytes(deletesCount),
-                    minKey
-            );
+        @Override
+        public int size() {
+            return 12 + (minKey == null ? 0 : minKey.length);
+        }
+
+        @Override
+        public void writeTo(final byte[] bytes, final int offset) {
+            Encoding.writeLong(bytes, offset, sequence);
+            Encoding.writeInt(bytes, offset + 8, deletesCount);
+            if (minKey != null) {
+                System.arraycopy(minKey, 0, bytes, offset + 12, minKey.length);
+            }
         }
     }
 }
@@ -0,0 +1,19 @@
+package com.leizm.cedar.core;
+
+public interface OperationMXBean {
+    long getCount();
+
+    long getErrors();
+
+    double getMeanNanos();
+
+    long getMaxNanos();
+
+    long getP50Nanos();
+
+    long getP90Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+}
@@ -0,0 +1,67 @@
+package com.leizm.cedar.core;
+
+public enum OperationType {
+    MapGet("mapGet"),
+    MapPut("mapPut"),
+    MapRemove("mapRemove"),
+    MapIncrBy("mapIncrBy"),
+    MapIncrByFloat("mapIncrByFloat"),
+    MapCompute("mapCompute"),
+    MapForEach("mapForEach"),
+    MapCount("mapCount"),
+    ListLeftPush("listLeftPush"),
+    ListRightPush("listRightPush"),
+    ListCount("listCount"),
+    ListLeftPop("listLeftPop"),
+    ListRightPop("listRightPop"),
+    ListMove("listMove"),
+    ListTrim("listTrim"),
+    ListSetCap("listSetCap"),
+    ListForEach("listForEach"),
+    ListRange("listRange"),
+    SetAdd("setAdd"),
+    SetIsMember("setIsMember"),
+    SetRemove("setRemove"),
+    SetCount("setCount"),
+    SetForEach("setForEach"),
+    SetIntersect("setIntersect"),
+    SetUnion("setUnion"),
+    SetDiff("setDiff"),
+    SetIntersectStore("setIntersectStore"),
+    SetUnionStore("setUnionStore"),
+    SetDiffStore("setDiffStore"),
+    SortedListAdd("sortedListAdd"),
+    SortedListCount("sortedListCount"),
+    SortedListLeftPop("sortedListLeftPop"),
+    SortedListRightPop("sortedListRightPop"),
+    SortedListForEach("sortedListForEach"),
+    AscSortedListAdd("ascSortedListAdd"),
+    AscSortedListCount("ascSortedListCount"),
+    AscSortedListPop("ascSortedListPop"),
+    AscSortedListPopTo("ascSortedListPopTo"),
+    AscSortedListLease("ascSortedListLease"),
+    AscSortedListAck("ascSortedListAck"),
+    AscSortedListForEach("ascSortedListForEach"),
+    AscSortedListPrune("ascSortedListPrune"),
+    SortedSetAdd("sortedSetAdd"),
+    SortedSetScore("sortedSetScore"),
+    SortedSetRemove("sortedSetRemove"),
+    SortedSetIncrBy("sortedSetIncrBy"),
+    SortedSetRank("sortedSetRank"),
+    SortedSetPopMin("sortedSetPopMin"),
+    SortedSetCount("sortedSetCount"),
+    SortedSetForEach("sortedSetForEach"),
+    SortedSetRange("sortedSetRange"),
+    ForEachKeys("forEachKeys"),
+    ReconcileCount("reconcileCount"),
+    BulkLoad("bulkLoad");
+
+    /**
+     * name of the IDatabase method
+     */
+    public final String methodName;
+
+    OperationType(final String methodName) {
+        this.methodName = methodName;
+    }
+}
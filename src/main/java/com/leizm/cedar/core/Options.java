@@ -2,18 +2,154 @@ package com.leizm.cedar.core;
 
 import org.rocksdb.CompressionType;
 import org.rocksdb.LRUCache;
+import org.rocksdb.Statistics;
+import org.rocksdb.UInt64AddOperator;
 
 public class Options {
     public org.rocksdb.Options rocksDBOptions;
     public final int metaInfoCacheCount = 1000;
 
+    /**
+     * collect per-operation counters and latency histograms
+     */
+    public boolean enableMetrics = true;
+
+    /**
+     * enable RocksDB statistics, it has a small overhead on every RocksDB call
+     */
+    public boolean enableStatistics = false;
+
+    /**
+     * register metrics as JMX MBeans, requires enableMetrics
+     */
+    public boolean registerMBeans = false;
+
+    /**
+     * operations slower than this are recorded in the slow log, 0 records everything, negative disables
+     */
+    public long slowLogThresholdMicros = 10000;
+
+    /**
+     * max entries kept in the slow log
+     */
+    public int slowLogMaxLen = 128;
+
+    /**
+     * maintain map and set count exactly, which costs one read per field in mapPut, setAdd and mapIncrBy
+     * and a MetaInfo rewrite per mutation;
+     * when false, mapPut, setAdd and mapIncrBy are blind writes, count changes are written as merge operands
+     * and count is an estimate until reconcileCount() or until the database is reopened with exactCount;
+     * the estimate only over-counts, by overwritten fields and members, and a key is recounted once these
+     * exceed its count at the last recount (at least 1024), so it stays within about twice the real count.
+     * a removal which leaves the estimate within the tally checks the key for remaining rows, so an emptied key
+     * is dropped; the tally is kept with the cached meta info, a key evicted from the cache or a reopened database
+     * starts a new one, and an emptied key over-counted before that stays until reconcileCount()
+     */
+    public boolean exactCount = true;
+
+    /**
+     * open database as OptimisticTransactionDB so Database.transaction() can be used
+     */
+    public boolean enableTransactions = false;
+
+    /**
+     * max times a conflicting transaction is retried
+     */
+    public int transactionMaxRetries = 10;
+
+    /**
+     * initial backoff before retrying a conflicting transaction, doubled on every retry
+     */
+    public long transactionRetryBackoffMicros = 100;
+
+    /**
+     * keep rows written by operations on frequently mutated keys in memory and write them to RocksDB
+     * in batches from a background thread, see HotKeyTier; transactions can not be used with it
+     */
+    public boolean hotKeyTier = false;
+
+    /**
+     * mutations of a key in one flush interval which make it hot
+     */
+    public int hotKeyThreshold = 8;
+
+    /**
+     * max hot keys, the least recently mutated one is demoted when exceeded
+     */
+    public int hotKeyMaxKeys = 1024;
+
+    /**
+     * max estimated memory of rows held by the hot key tier, new hot writes go straight to RocksDB when exceeded
+     */
+    public long hotKeyMaxBytes = 64 * 1024 * 1024;
+
+    /**
+     * interval between background flushes of the hot key tier
+     */
+    public long hotKeyFlushIntervalMillis = 100;
+
+    /**
+     * append rows written to the hot key tier to a log file in the database directory,
+     * rows not flushed before a crash are recovered from it when the database is opened again
+     */
+    public boolean hotKeyLog = true;
+
+    /**
+     * memory limit shared with other databases, it replaces the row cache and sizes the meta info cache,
+     * null gives every database its own row cache
+     */
+    public MemoryBudget memoryBudget;
+
+    /**
+     * max bytes per second written by Database.backup(), 0 means no limit
+     */
+    public long backupRateLimitBytesPerSec = 32 * 1024 * 1024;
+
+    /**
+     * max bytes per second written by Database.restoreBackup(), 0 means no limit
+     */
+    public long restoreRateLimitBytesPerSec = 0;
+
+    /**
+     * interval between background catch-ups of a SecondaryDatabase with its primary, 0 disables them
+     */
+    public long secondaryCatchUpIntervalMillis = 1000;
+
+    /**
+     * keep WAL files for this many seconds after they are no longer needed, so a ChangeFeed can resume
+     * from older sequence numbers, 0 deletes them as soon as their memtables are flushed
+     */
+    public long walTtlSeconds = 0;
+
+    /**
+     * changes buffered for each Database.subscribe() listener before its overflow policy applies
+     */
+    public int changeBufferSize = 1024;
+
+    /**
+     * threads delivering changes to Database.subscribe() listeners, started by the first subscription
+     */
+    public int changeDispatcherThreads = 1;
+
     public org.rocksdb.Options getRocksDBOptions() {
         if (rocksDBOptions == null) {
             org.rocksdb.Options options = new org.rocksdb.Options();
             options.setCreateIfMissing(true);
             options.setCompressionType(CompressionType.LZ4_COMPRESSION);
             options.setWriteBufferSize(1024 * 1024 * 4);
-            options.setRowCache(new LRUCache(1024 * 1024 * 20));
+            if (memoryBudget != null) {
+                memoryBudget.configure(options);
+            } else {
+                options.setRowCache(new LRUCache(1024 * 1024 * 20));
+            }
+            // used by mapIncrBy, counters are stored as 8 bytes little-endian
+            options.setMergeOperator(new UInt64AddOperator());
+            if (walTtlSeconds > 0) {
+                options.setWalTtlSeconds(walTtlSeconds);
+            }
+            if (enableStatistics) {
+                options.setStatistics(new Statistics());
+            }
             rocksDBOptions = options;
         }
         return rocksDBOptions;
@@ -0,0 +1,88 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+
+import java.util.function.Function;
+
+/**
+ * StoreIterator over a RocksIterator, owns the read options and upper bound slice it was created with
+ */
+public class RocksStoreIterator implements StoreIterator {
+    protected final RocksIterator iterator;
+    protected final ReadOptions readOptions;
+    protected final Slice upperBoundSlice;
+
+    /**
+     * upper bound checked on every key, null when RocksDB enforces it
+     */
+    protected final byte[] checkedUpperBound;
+
+    /**
+     * create an iterator
+     *
+     * @param newIterator     creates the RocksIterator from read options
+     * @param upperBound      exclusive upper bound, null means none
+     * @param checkUpperBound check upper bound in isValid(), for iterators which do not honor
+     *                        ReadOptions.setIterateUpperBound such as those of a transaction
+     */
+    public RocksStoreIterator(final Function<ReadOptions, RocksIterator> newIterator, final byte[] upperBound, final boolean checkUpperBound) {
+        readOptions = new ReadOptions();
+        if (upperBound != null) {
+            upperBoundSlice = new Slice(upperBound);
+            readOptions.setIterateUpperBound(upperBoundSlice);
+        } else {
+            upperBoundSlice = null;
+        }
+        checkedUpperBound = checkUpperBound ? upperBound : null;
+        iterator = newIterator.apply(readOptions);
+    }
+
+    @Override
+    public void seek(final byte[] target) {
+        iterator.seek(target);
+    }
+
+    @Override
+    public void seekForPrev(final byte[] target) {
+        iterator.seekForPrev(target);
+    }
+
+    @Override
+    public void next() {
+        iterator.next();
+    }
+
+    @Override
+    public void prev() {
+        iterator.prev();
+    }
+
+    @Override
+    public boolean isValid() {
+        if (!iterator.isValid()) {
+            return false;
+        }
+        return checkedUpperBound == null || Encoding.compareKeyBytes(iterator.key(), checkedUpperBound) < 0;
+    }
+
+    @Override
+    public byte[] key() {
+        return iterator.key();
+    }
+
+    @Override
+    public byte[] value() {
+        return iterator.value();
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+        readOptions.close();
+        if (upperBoundSlice != null) {
+            upperBoundSlice.close();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * read-only instance following a database opened by another process, see Database.openSecondary();
+ * it opens the primary path read-only and catches up by opening it again, replacing the handle
+ * when the primary has written since, which also clears the meta info cache;
+ * a catch-up first compares the names and sizes of CURRENT, the MANIFEST and the WAL files of the primary,
+ * every write appends to one of them, and does not reopen while they are unchanged;
+ * reads never take the database lock, mutations throw IllegalStateException;
+ * rows held by the hot key tier of the primary are seen once they are flushed
+ */
+public class SecondaryDatabase extends Database {
+    protected final String secondaryPath;
+
+    /**
+     * RocksDB options of the read-only handles, the info log is written to secondaryPath
+     */
+    protected final org.rocksdb.Options rocksDBOptions;
+
+    /**
+     * held by reads while they use the handle, and exclusively while it is replaced
+     */
+    protected final ReadWriteLock handleLock = new ReentrantReadWriteLock();
+
+    protected final ScheduledExecutorService catchUp;
+
+    /**
+     * state of the primary's files when the current handle was opened, see primaryFilesState()
+     */
+    protected volatile String primaryState;
+
+    protected final AtomicLong catchUpFailures = new AtomicLong();
+    protected volatile RuntimeException lastCatchUpError;
+
+    /**
+     * open secondary instance
+     *
+     * @param primaryPath   path of the primary database
+     * @param secondaryPath directory for files of this instance, created if missing
+     * @param options       options, Options.hotKeyTier and Options.memoryBudget are not used
+     * @throws RocksDBException
+     */
+    public SecondaryDatabase(final String primaryPath, final String secondaryPath, final Options options) throws RocksDBException {
+        super(options);
+        this.path = primaryPath;
+        this.secondaryPath = secondaryPath;
+        try {
+            Files.createDirectories(Paths.get(secondaryPath));
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to create secondary path: " + e.getMessage(), e);
+        }
+        // a read-only instance writing its info log into the primary path would rotate the LOG of the primary
+        this.rocksDBOptions = new org.rocksdb.Options(this.options.getRocksDBOptions())
+                .setCreateIfMissing(false)
+                .setDbLogDir(secondaryPath);
+        this.primaryState = primaryFilesState();
+        this.db = RocksDB.openReadOnly(rocksDBOptions, primaryPath);
+        final long intervalMillis = this.options.secondaryCatchUpIntervalMillis;
+        if (intervalMillis > 0) {
+            catchUp = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "cedar-secondary-catch-up");
+                thread.setDaemon(true);
+                return thread;
+            });
+            catchUp.scheduleWithFixedDelay(() -> {
+                try {
+                    tryCatchUpWithPrimary();
+                } catch (RuntimeException e) {
+                    // the handle is kept and the next interval retries
+                    catchUpFailures.incrementAndGet();
+                    lastCatchUpError = e;
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            catchUp = null;
+        }
+    }
+
+    public String getSecondaryPath() {
+        return secondaryPath;
+    }
+
+    /**
+     * number of background catch-ups which failed, reads keep using the last handle meanwhile
+     */
+    public long getCatchUpFailureCount() {
+        return catchUpFailures.get();
+    }
+
+    /**
+     * error of the latest failed background catch-up
+     *
+     * @return exception, null if none failed
+     */
+    public RuntimeException getLastCatchUpError() {
+        return lastCatchUpError;
+    }
+
+    /**
+     * names and sizes of CURRENT, MANIFEST and WAL files of the primary, a write appends to the WAL,
+     * a flush or compaction to the MANIFEST and a new MANIFEST changes CURRENT
+     *
+     * @return state to compare
+     */
+    protected String primaryFilesState() {
+        final File[] files = new File(path).listFiles((dir, name) ->
+                name.equals("CURRENT") || name.startsWith("MANIFEST-") || name.endsWith(".log"));
+        if (files == null) {
+            throw new IllegalStateException("failed to list primary path: " + path);
+        }
+        Arrays.sort(files);
+        final StringBuilder state = new StringBuilder();
+        for (final File file : files) {
+            state.append(file.getName()).append(':').append(file.length()).append(':').append(file.lastModified()).append('\n');
+        }
+        return state.toString();
+    }
+
+    /**
+     * make writes of the primary visible, the new handle is opened before the lock is taken,
+     * so reads only wait while the handles are swapped; nothing is opened while the primary's files are unchanged
+     *
+     * @return true if the primary had written since the last catch-up
+     */
+    public boolean tryCatchUpWithPrimary() {
+        // taken before opening, so a write racing with the open is picked up by the next catch-up
+        final String state = primaryFilesState();
+        if (state.equals(primaryState)) {
+            return false;
+        }
+        final RocksDB fresh;
+        try {
+            fresh = RocksDB.openReadOnly(rocksDBOptions, path);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("failed to catch up with primary: " + e.getMessage(), e);
+        }
+        final RocksDB old;
+        handleLock.writeLock().lock();
+        try {
+            primaryState = state;
+            if (db == null || fresh.getLatestSequenceNumber() == db.getLatestSequenceNumber()) {
+                old = fresh;
+            } else {
+                old = db;
+                db = fresh;
+                metaInfoCache.clear();
+            }
+        } finally {
+            handleLock.writeLock().unlock();
+        }
+        old.close();
+        return old != fresh;
+    }
+
+    @Override
+    protected long executeLong(final OperationType type, final byte[] key, final boolean exclusive, final LongSupplier fn) {
+        checkReadOnly(type, exclusive);
+        handleLock.readLock().lock();
+        try {
+            return super.executeLong(type, key, false, fn);
+        } finally {
+            handleLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected <T> T execute(final OperationType type, final byte[] key, final boolean exclusive, final Supplier<T> fn) {
+        checkReadOnly(type, exclusive);
+        handleLock.readLock().lock();
+        try {
+            return super.execute(type, key, false, fn);
+        } finally {
+            handleLock.readLock().unlock();
+        }
+    }
+
+    protected void checkReadOnly(final OperationType type, final boolean exclusive) {
+        if (exclusive) {
+            throw new IllegalStateException(type.methodName + " is not allowed on a secondary database");
+        }
+    }
+
+    /**
+     * a missing key reads as empty without writing its meta info
+     */
+    @Override
+    protected MetaInfo getOrCreateKeyMeta(final byte[] key, final KeyType type) {
+        return getKeyMetaForRead(key, type);
+    }
+
+    @Override
+    protected void dbPut(final byte[] key, final byte[] value) {
+        throw new IllegalStateException("secondary database is read-only");
+    }
+
+    @Override
+    protected void dbDelete(final byte[] key) {
+        throw new IllegalStateException("secondary database is read-only");
+    }
+
+    @Override
+    protected void dbMerge(final byte[] key, final byte[] value) {
+        throw new IllegalStateException("secondary database is read-only");
+    }
+
+    @Override
+    protected void dbDeleteRange(final long keyId, final byte[] begin, final byte[] end) {
+        throw new IllegalStateException("secondary database is read-only");
+    }
+
+    @Override
+    public void close() {
+        if (catchUp != null) {
+            catchUp.shutdown();
+            try {
+                catchUp.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        handleLock.writeLock().lock();
+        try {
+            super.close();
+            db = null;
+        } finally {
+            handleLock.writeLock().unlock();
+        }
+        rocksDBOptions.close();
+    }
+}
@@ -0,0 +1,584 @@
+package com.leizm.cedar.core;
+
+import org.rocksdb.RocksDBException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * hash-partition keys across multiple Database instances, every shard has its own WAL, memtables and write lock
+ */
+public class ShardedDatabase implements IDatabase {
+    /**
+     * file in database path which records the number of shards
+     */
+    public static final String SHARDS_FILE = "SHARDS";
+
+    /**
+     * keys copied per call by copyKeys
+     */
+    protected static final int COPY_BATCH_SIZE = 1000;
+
+    protected final String path;
+    protected final Options options;
+    protected final Database[] shards;
+    protected final ExecutorService executor;
+
+    /**
+     * open sharded database, shards are stored in sub-directories shard-0 to shard-(n-1) of path
+     *
+     * @param path    store path
+     * @param shards  number of shards, must match the number the database was created with
+     * @param options options shared by all shards
+     * @throws RocksDBException
+     */
+    public ShardedDatabase(final String path, final int shards, Options options) throws RocksDBException {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive");
+        }
+        options = options == null ? new Options() : options;
+        this.path = path;
+        this.options = options;
+        checkShardsFile(path, shards);
+        this.shards = new Database[shards];
+        try {
+            for (int i = 0; i < shards; i++) {
+                this.shards[i] = new Database(Paths.get(path, "shard-" + i).toString(), options);
+            }
+        } catch (RocksDBException | RuntimeException e) {
+            for (final Database db : this.shards) {
+                if (db != null) {
+                    db.close();
+                }
+            }
+            throw e;
+        }
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "cedar-shard-" + path);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * open sharded database with the number of shards recorded in path
+     *
+     * @param path    store path
+     * @param options options shared by all shards
+     * @throws RocksDBException
+     */
+    public ShardedDatabase(final String path, final Options options) throws RocksDBException {
+        this(path, readShardsFile(path), options);
+    }
+
+    protected static void checkShardsFile(final String path, final int shards) {
+        final Path file = Paths.get(path, SHARDS_FILE);
+        try {
+            if (Files.exists(file)) {
+                final int existing = readShardsFile(path);
+                if (existing != shards) {
+                    throw new IllegalStateException(String.format("database has %d shards but opened with %d, use ShardedDatabase.reshard() to change it", existing, shards));
+                }
+            } else {
+                Files.createDirectories(file.getParent());
+                Files.write(file, Integer.toString(shards).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to write " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    protected static int readShardsFile(final String path) {
+        final Path file = Paths.get(path, SHARDS_FILE);
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("failed to read " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Database[] getShards() {
+        return shards;
+    }
+
+    /**
+     * returns the shard a key is routed to
+     *
+     * @param key key
+     * @return Database
+     */
+    public Database getShard(final byte[] key) {
+        return shards[shardOf(key, shards.length)];
+    }
+
+    /**
+     * CRC32 of the key modulo shards, if the key contains a non-empty {hash tag} only the tag is hashed
+     * so related keys can be placed on the same shard
+     *
+     * @param key    key
+     * @param shards number of shards
+     * @return shard index
+     */
+    public static int shardOf(final byte[] key, final int shards) {
+        int begin = 0;
+        int end = key.length;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == '{') {
+                for (int j = i + 1; j < key.length; j++) {
+                    if (key[j] == '}') {
+                        if (j > i + 1) {
+                            begin = i + 1;
+                            end = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(key, begin, end - begin);
+        return (int) (crc.getValue() % shards);
+    }
+
+    /**
+     * returns the shard all keys are routed to
+     *
+     * @param keys keys
+     * @return Database
+     * @throws IllegalArgumentException if keys are on different shards
+     */
+    protected Database getShard(final byte[]... keys) {
+        if (keys.length < 1) {
+            return shards[0];
+        }
+        final int index = shardOf(keys[0], shards.length);
+        for (int i = 1; i < keys.length; i++) {
+            if (shardOf(keys[i], shards.length) != index) {
+                throw new IllegalArgumentException("keys are on different shards, use a {hash tag} to keep them together");
+            }
+        }
+        return shards[index];
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        for (final Database db : shards) {
+            db.close();
+        }
+    }
+
+    @Override
+    public Optional<byte[]> mapGet(final byte[] key, final byte[] field) {
+        return getShard(key).mapGet(key, field);
+    }
+
+    @Override
+    public long mapPut(final byte[] key, final MapItem... items) {
+        return getShard(key).mapPut(key, items);
+    }
+
+    @Override
+    public Optional<byte[]> mapRemove(final byte[] key, final byte[] field) {
+        return getShard(key).mapRemove(key, field);
+    }
+
+    @Override
+    public long mapIncrBy(final byte[] key, final CounterItem... items) {
+        return getShard(key).mapIncrBy(key, items);
+    }
+
+    @Override
+    public double mapIncrByFloat(final byte[] key, final byte[] field, final double delta) {
+        return getShard(key).mapIncrByFloat(key, field, delta);
+    }
+
+    @Override
+    public byte[] mapCompute(final byte[] key, final byte[] field, final UnaryOperator<byte[]> fn) {
+        return getShard(key).mapCompute(key, field, fn);
+    }
+
+    @Override
+    public long mapForEach(final byte[] key, final Consumer<MapItem> onItem) {
+        return getShard(key).mapForEach(key, onItem);
+    }
+
+    @Override
+    public long mapCount(final byte[] key) {
+        return getShard(key).mapCount(key);
+    }
+
+    @Override
+    public long listLeftPush(final byte[] key, final byte[]... values) {
+        return getShard(key).listLeftPush(key, values);
+    }
+
+    @Override
+    public long listRightPush(final byte[] key, final byte[]... values) {
+        return getShard(key).listRightPush(key, values);
+    }
+
+    @Override
+    public long listCount(final byte[] key) {
+        return getShard(key).listCount(key);
+    }
+
+    @Override
+    public Optional<byte[]> listLeftPop(final byte[] key) {
+        return getShard(key).listLeftPop(key);
+    }
+
+    @Override
+    public Optional<byte[]> listRightPop(final byte[] key) {
+        return getShard(key).listRightPop(key);
+    }
+
+    @Override
+    public List<byte[]> listMove(final byte[] src, final byte[] dst, final ListSide from, final ListSide to, final int count) {
+        return getShard(src, dst).listMove(src, dst, from, to, count);
+    }
+
+    @Override
+    public long listTrim(final byte[] key, final long start, final long stop) {
+        return getShard(key).listTrim(key, start, stop);
+    }
+
+    @Override
+    public long listSetCap(final byte[] key, final long cap) {
+        return getShard(key).listSetCap(key, cap);
+    }
+
+    @Override
+    public long listForEach(final byte[] key, final Consumer<ListItem> onItem) {
+        return getShard(key).listForEach(key, onItem);
+    }
+
+    @Override
+    public List<ListItem> listRange(final byte[] key, final long start, final long stop) {
+        return getShard(key).listRange(key, start, stop);
+    }
+
+    @Override
+    public long setAdd(final byte[] key, final byte[]... values) {
+        return getShard(key).setAdd(key, values);
+    }
+
+    @Override
+    public boolean setIsMember(final byte[] key, final byte[]... values) {
+        return getShard(key).setIsMember(key, values);
+    }
+
+    @Override
+    public long setRemove(final byte[] key, final byte[]... values) {
+        return getShard(key).setRemove(key, values);
+    }
+
+    @Override
+    public long setCount(final byte[] key) {
+        return getShard(key).setCount(key);
+    }
+
+    @Override
+    public long setForEach(final byte[] key, final Consumer<byte[]> onItem) {
+        return getShard(key).setForEach(key, onItem);
+    }
+
+    @Override
+    public long setIntersect(final Consumer<byte[]> onItem, final byte[]... keys) {
+        return getShard(keys).setIntersect(onItem, keys);
+    }
+
+    @Override
+    public long setUnion(final Consumer<byte[]> onItem, final byte[]... keys) {
+        return getShard(keys).setUnion(onItem, keys);
+    }
+
+    @Override
+    public long setDiff(final Consumer<byte[]> onItem, final byte[]... keys) {
+        return getShard(keys).setDiff(onItem, keys);
+    }
+
+    @Override
+    public long setIntersectStore(final byte[] dst, final byte[]... keys) {
+        return getShard(withKey(dst, keys)).setIntersectStore(dst, keys);
+    }
+
+    @Override
+    public long setUnionStore(final byte[] dst, final byte[]... keys) {
+        return getShard(withKey(dst, keys)).setUnionStore(dst, keys);
+    }
+
+    @Override
+    public long setDiffStore(final byte[] dst, final byte[]... keys) {
+        return getShard(withKey(dst, keys)).setDiffStore(dst, keys);
+    }
+
+    protected static byte[][] withKey(final byte[] key, final byte[][] keys) {
+        final byte[][] all = new byte[keys.length + 1][];
+        all[0] = key;
+        System.arraycopy(keys, 0, all, 1, keys.length);
+        return all;
+    }
+
+    @Override
+    public long sortedListAdd(final byte[] key, final SortedListItem... items) {
+        return getShard(key).sortedListAdd(key, items);
+    }
+
+    @Override
+    public long sortedListCount(final byte[] key) {
+        return getShard(key).sortedListCount(key);
+    }
+
+    @Override
+    public Optional<SortedListItem> sortedListLeftPop(final byte[] key, final byte[] maxScore) {
+        return getShard(key).sortedListLeftPop(key, maxScore);
+    }
+
+    @Override
+    public Optional<SortedListItem> sortedListRightPop(final byte[] key, final byte[] minScore) {
+        return getShard(key).sortedListRightPop(key, minScore);
+    }
+
+    @Override
+    public long sortedListForEach(final byte[] key, final Consumer<SortedListItem> onItem) {
+        return getShard(key).sortedListForEach(key, onItem);
+    }
+
+    @Override
+    public long ascSortedListAdd(final byte[] key, final SortedListItem... items) {
+        return getShard(key).ascSortedListAdd(key, items);
+    }
+
+    @Override
+    public long ascSortedListCount(final byte[] key) {
+        return getShard(key).ascSortedListCount(key);
+    }
+
+    @Override
+    public Optional<SortedListItem> ascSortedListPop(final byte[] key, final byte[] maxScore) {
+        return getShard(key).ascSortedListPop(key, maxScore);
+    }
+
+    @Override
+    public List<SortedListItem> ascSortedListPopTo(final byte[] src, final byte[] dstMap, final byte[] maxScore, final int count) {
+        return getShard(src, dstMap).ascSortedListPopTo(src, dstMap, maxScore, count);
+    }
+
+    @Override
+    public List<LeasedItem> ascSortedListLease(final byte[] key, final byte[] maxScore, final int count, final long leaseMillis) {
+        return getShard(key).ascSortedListLease(key, maxScore, count, leaseMillis);
+    }
+
+    @Override
+    public long ascSortedListAck(final byte[] key, final byte[]... leaseIds) {
+        return getShard(key).ascSortedListAck(key, leaseIds);
+    }
+
+    @Override
+    public long ascSortedListForEach(final byte[] key, final Consumer<SortedListItem> onItem) {
+        return getShard(key).ascSortedListForEach(key, onItem);
+    }
+
+    @Override
+    public void ascSortedListPrune(final byte[] key) {
+        getShard(key).ascSortedListPrune(key);
+    }
+
+    @Override
+    public long sortedSetAdd(final byte[] key, final SortedSetItem... items) {
+        return getShard(key).sortedSetAdd(key, items);
+    }
+
+    @Override
+    public OptionalDouble sortedSetScore(final byte[] key, final byte[] member) {
+        return getShard(key).sortedSetScore(key, member);
+    }
+
+    @Override
+    public long sortedSetRemove(final byte[] key, final byte[]... members) {
+        return getShard(key).sortedSetRemove(key, members);
+    }
+
+    @Override
+    public double sortedSetIncrBy(final byte[] key, final byte[] member, final double delta) {
+        return getShard(key).sortedSetIncrBy(key, member, delta);
+    }
+
+    @Override
+    public OptionalLong sortedSetRank(final byte[] key, final byte[] member) {
+        return getShard(key).sortedSetRank(key, member);
+    }
+
+    @Override
+    public List<SortedSetItem> sortedSetPopMin(final byte[] key, final int count) {
+        return getShard(key).sortedSetPopMin(key, count);
+    }
+
+    @Override
+    public long sortedSetCount(final byte[] key) {
+        return getShard(key).sortedSetCount(key);
+    }
+
+    @Override
+    public long sortedSetForEach(final byte[] key, final Consumer<SortedSetItem> onItem) {
+        return getShard(key).sortedSetForEach(key, onItem);
+    }
+
+    @Override
+    public List<SortedSetItem> sortedSetRange(final byte[] key, final long start, final long stop) {
+        return getShard(key).sortedSetRange(key, start, stop);
+    }
+
+    /**
+     * scan all shards in parallel, onItem is called by one thread at a time and keys are not ordered across shards
+     *
+     * @param prefix key prefix
+     * @param onItem on key
+     * @return keys count
+     */
+    @Override
+    public long forEachKeys(final byte[] prefix, final BiConsumer<byte[], MetaInfo> onItem) {
+        final Object lock = new Object();
+        final List<Future<Long>> futures = new ArrayList<>(shards.length);
+        for (final Database db : shards) {
+            futures.add(executor.submit(() -> db.forEachKeys(prefix, (key, meta) -> {
+                synchronized (lock) {
+                    onItem.accept(key, meta);
+                }
+            })));
+        }
+        long count = 0;
+        RuntimeException error = null;
+        for (final Future<Long> future : futures) {
+            try {
+                count += future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = error == null ? new IllegalStateException("interrupted", e) : error;
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return count;
+    }
+
+    /**
+     * offline reshard, copy every key of a sharded database into a new sharded database with a different shard count,
+     * neither database should be open elsewhere
+     *
+     * @param srcPath source store path
+     * @param dstPath destination store path
+     * @param shards  number of shards of destination
+     * @param options options
+     * @return keys copied
+     * @throws RocksDBException
+     */
+    public static long reshard(final String srcPath, final String dstPath, final int shards, final Options options) throws RocksDBException {
+        final ShardedDatabase src = new ShardedDatabase(srcPath, options);
+        try {
+            final ShardedDatabase dst = new ShardedDatabase(dstPath, shards, options);
+            try {
+                return copyKeys(src, dst);
+            } finally {
+                dst.close();
+            }
+        } finally {
+            src.close();
+        }
+    }
+
+    /**
+     * copy every key from src to dst through the public API, items are written in batches,
+     * outstanding leases of AscSortedList are not copied
+     *
+     * @param src source database
+     * @param dst destination database
+     * @return keys copied
+     */
+    public static long copyKeys(final IDatabase src, final IDatabase dst) {
+        return src.forEachKeys((key, meta) -> {
+            switch (meta.type) {
+                case Map: {
+                    final List<MapItem> items = new ArrayList<>();
+                    src.mapForEach(key, item -> flush(items, item, batch -> dst.mapPut(key, batch.toArray(new MapItem[0]))));
+                    flush(items, null, batch -> dst.mapPut(key, batch.toArray(new MapItem[0])));
+                    break;
+                }
+                case Set: {
+                    final List<byte[]> items = new ArrayList<>();
+                    src.setForEach(key, item -> flush(items, item, batch -> dst.setAdd(key, batch.toArray(new byte[0][]))));
+                    flush(items, null, batch -> dst.setAdd(key, batch.toArray(new byte[0][])));
+                    break;
+                }
+                case List: {
+                    final long cap = meta.listExtra().cap;
+                    if (cap > 0) {
+                        dst.listSetCap(key, cap);
+                    }
+                    final List<byte[]> items = new ArrayList<>();
+                    src.listForEach(key, item -> flush(items, item.value, batch -> dst.listRightPush(key, batch.toArray(new byte[0][]))));
+                    flush(items, null, batch -> dst.listRightPush(key, batch.toArray(new byte[0][])));
+                    break;
+                }
+                case SortedList: {
+                    final List<SortedListItem> items = new ArrayList<>();
+                    src.sortedListForEach(key, item -> flush(items, item, batch -> dst.sortedListAdd(key, batch.toArray(new SortedListItem[0]))));
+                    flush(items, null, batch -> dst.sortedListAdd(key, batch.toArray(new SortedListItem[0])));
+                    break;
+                }
+                case AscSortedList: {
+                    final List<SortedListItem> items = new ArrayList<>();
+                    src.ascSortedListForEach(key, item -> flush(items, item, batch -> dst.ascSortedListAdd(key, batch.toArray(new SortedListItem[0]))));
+                    flush(items, null, batch -> dst.ascSortedListAdd(key, batch.toArray(new SortedListItem[0])));
+                    break;
+                }
+                case SortedSet: {
+                    final List<SortedSetItem> items = new ArrayList<>();
+                    src.sortedSetForEach(key, item -> flush(items, item, batch -> dst.sortedSetAdd(key, batch.toArray(new SortedSetItem[0]))));
+                    flush(items, null, batch -> dst.sortedSetAdd(key, batch.toArray(new SortedSetItem[0])));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException(String.format("invalid type '%s'", meta.type.name()));
+            }
+        });
+    }
+
+    /**
+     * buffer item and write the buffer once it is full, a null item writes what is left
+     */
+    protected static <T> void flush(final List<T> buffer, final T item, final Consumer<List<T>> write) {
+        if (item != null) {
+            buffer.add(item);
+            if (buffer.size() < COPY_BATCH_SIZE) {
+                return;
+            }
+        }
+        if (!buffer.isEmpty()) {
+            write.accept(buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.leizm.cedar.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded ring buffer of slow operations, similar to Redis SLOWLOG
+ */
+public class SlowLog {
+    /**
+     * max bytes of key kept in an entry
+     */
+    public static final int MAX_KEY_PREFIX_LENGTH = 32;
+
+    protected final int capacity;
+    protected final long thresholdNanos;
+    protected final AtomicLong sequence = new AtomicLong();
+    protected final AtomicReferenceArray<Entry> entries;
+
+    /**
+     * create slow log
+     *
+     * @param capacity        max entries kept
+     * @param thresholdMicros operations slower than this are recorded, 0 records everything, negative disables
+     */
+    public SlowLog(final int capacity, final long thresholdMicros) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("invalid capacity '%d'", capacity));
+        }
+        this.capacity = capacity;
+        this.thresholdNanos = thresholdMicros < 0 ? Long.MAX_VALUE : thresholdMicros * 1000;
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * record an operation if it is slower than the threshold, nothing is allocated otherwise
+     *
+     * @param type          operation type
+     * @param key           key or key prefix of the operation
+     * @param count         number of elements returned or touched
+     * @param durationNanos duration
+     */
+    public void record(final OperationType type, final byte[] key, final long count, final long durationNanos) {
+        if (durationNanos < thresholdNanos) {
+            return;
+        }
+        final long id = sequence.getAndIncrement();
+        final Entry entry = new Entry(id, System.currentTimeMillis(), durationNanos, type,
+                copyKeyPrefix(key), key == null ? 0 : key.length, count, Thread.currentThread().getName());
+        entries.set((int) (id % capacity), entry);
+    }
+
+    /**
+     * returns the newest entries, newest first
+     *
+     * @param n max entries
+     * @return List
+     */
+    public List<Entry> get(final int n) {
+        final List<Entry> list = new ArrayList<>(Math.max(0, Math.min(n, capacity)));
+        final long last = sequence.get() - 1;
+        for (long id = last; id >= 0 && id > last - capacity && list.size() < n; id--) {
+            final Entry entry = entries.get((int) (id % capacity));
+            if (entry != null && entry.id == id) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * returns the number of entries currently kept
+     *
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (entries.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * remove all entries, ids keep increasing
+     */
+    public void reset() {
+        for (int i = 0; i < capacity; i++) {
+            entries.set(i, null);
+        }
+    }
+
+    protected static byte[] copyKeyPrefix(final byte[] key) {
+        if (key == null) {
+            return new byte[]{};
+        }
+        final byte[] prefix = new byte[Math.min(key.length, MAX_KEY_PREFIX_LENGTH)];
+        System.arraycopy(key, 0, prefix, 0, prefix.length);
+        return prefix;
+    }
+
+    public static class Entry {
+        /**
+         * unique increasing id
+         */
+        public final long id;
+
+        /**
+         * unix time in milliseconds when the operation finished
+         */
+        public final long timestamp;
+
+        public final long durationNanos;
+        public final OperationType type;
+
+        /**
+         * first MAX_KEY_PREFIX_LENGTH bytes of the key
+         */
+        public final byte[] keyPrefix;
+
+        /**
+         * full length of the key
+         */
+        public final int keyLength;
+
+        /**
+         * number of elements returned or touched
+         */
+        public final long count;
+
+        public final String threadName;
+
+        public Entry(final long id, final long timestamp, final long durationNanos, final OperationType type,
+                     final byte[] keyPrefix, final int keyLength, final long count, final String threadName) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.durationNanos = durationNanos;
+            this.type = type;
+            this.keyPrefix = keyPrefix;
+            this.keyLength = keyLength;
+            this.count = count;
+            this.threadName = threadName;
+        }
+    }
+}
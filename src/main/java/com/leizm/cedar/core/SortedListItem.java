@@ -12,4 +12,47 @@ public class SortedListItem {
     public static SortedListItem of(final byte[] score, final byte[] value) {
         return new SortedListItem(score, value);
     }
+
+    /**
+     * create item with long score, encoded by Encoding.sortableLongToBytes so negative scores sort first
+     *
+     * @param score score
+     * @param value value
+     * @return SortedListItem
+     */
+    public static SortedListItem ofLong(final long score, final byte[] value) {
+        return new SortedListItem(Encoding.sortableLongToBytes(score), value);
+    }
+
+    /**
+     * create item with double score, encoded by Encoding.sortableDoubleToBytes
+     *
+     * @param score score, must not be NaN
+     * @param value value
+     * @return SortedListItem
+     */
+    public static SortedListItem ofDouble(final double score, final byte[] value) {
+        if (Double.isNaN(score)) {
+            throw new IllegalArgumentException("score is NaN");
+        }
+        return new SortedListItem(Encoding.sortableDoubleToBytes(score), value);
+    }
+
+    /**
+     * decode score written by ofLong or a long overload
+     *
+     * @return long
+     */
+    public long scoreAsLong() {
+        return Encoding.sortableLongFromBytes(score, 0);
+    }
+
+    /**
+     * decode score written by ofDouble or a double overload
+     *
+     * @return double
+     */
+    public double scoreAsDouble() {
+        return Encoding.sortableDoubleFromBytes(score, 0);
+    }
 }
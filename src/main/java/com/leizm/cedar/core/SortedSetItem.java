@@ -0,0 +1,15 @@
+package com.leizm.cedar.core;
+
+public class SortedSetItem {
+    public final byte[] member;
+    public final double score;
+
+    public SortedSetItem(final byte[] member, final double score) {
+        this.member = member;
+        this.score = score;
+    }
+
+    public static SortedSetItem of(final byte[] member, final double score) {
+        return new SortedSetItem(member, score);
+    }
+}
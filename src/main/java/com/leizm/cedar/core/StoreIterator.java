@@ -0,0 +1,38 @@
+package com.leizm.cedar.core;
+
+/**
+ * ordered iterator over raw keys of a storage engine, keys are compared as unsigned bytes
+ */
+public interface StoreIterator extends AutoCloseable {
+    /**
+     * move to the first key not less than target
+     *
+     * @param target key
+     */
+    void seek(byte[] target);
+
+    /**
+     * move to the last key not greater than target
+     *
+     * @param target key
+     */
+    void seekForPrev(byte[] target);
+
+    void next();
+
+    void prev();
+
+    boolean isValid();
+
+    /**
+     * returns current key, must not be modified
+     *
+     * @return key
+     */
+    byte[] key();
+
+    byte[] value();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,9 @@
+package com.leizm.cedar.core;
+
+public class TransactionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public TransactionConflictException(final String message) {
+        super(message);
+    }
+}
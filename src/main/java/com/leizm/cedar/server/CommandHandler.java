@@ -0,0 +1,494 @@
+package com.leizm.cedar.server;
+
+import com.leizm.cedar.core.*;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * map Redis commands onto IDatabase, one handler per connection since the protocol version is per connection
+ */
+public class CommandHandler {
+    protected final IDatabase db;
+    protected boolean closeRequested;
+
+    public CommandHandler(final IDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * whether QUIT has been handled, the connection should be closed after the reply is sent
+     */
+    public boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    /**
+     * execute one command and write its reply, errors are written as error replies
+     */
+    public void handle(final List<byte[]> args, final RespWriter out) {
+        if (args.isEmpty()) {
+            return;
+        }
+        final String name = new String(args.get(0), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+        try {
+            execute(name, args, out);
+        } catch (IllegalArgumentException e) {
+            final String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            if (message.startsWith("expected type")) {
+                out.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+            } else {
+                out.error("ERR " + message);
+            }
+        } catch (RuntimeException e) {
+            out.error("ERR " + e);
+        }
+    }
+
+    protected void execute(final String name, final List<byte[]> args, final RespWriter out) {
+        switch (name) {
+            case "PING":
+                if (args.size() > 1) {
+                    out.bulk(args.get(1));
+                } else {
+                    out.simple("PONG");
+                }
+                return;
+            case "ECHO":
+                arity(args, 2);
+                out.bulk(args.get(1));
+                return;
+            case "HELLO":
+                hello(args, out);
+                return;
+            case "QUIT":
+                closeRequested = true;
+                out.simple("OK");
+                return;
+            case "SELECT":
+                arity(args, 2);
+                if (parseLong(args.get(1)) != 0) {
+                    throw new IllegalArgumentException("DB index is out of range");
+                }
+                out.simple("OK");
+                return;
+            case "COMMAND":
+                out.arrayHeader(0);
+                return;
+            case "CLIENT":
+                out.simple("OK");
+                return;
+
+            case "HGET": {
+                arity(args, 3);
+                out.bulk(db.mapGet(args.get(1), args.get(2)).orElse(null));
+                return;
+            }
+            case "HSET":
+            case "HMSET": {
+                if (args.size() < 4 || args.size() % 2 != 0) {
+                    throw wrongArguments(name);
+                }
+                final MapItem[] items = new MapItem[(args.size() - 2) / 2];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = MapItem.of(args.get(2 + i * 2), args.get(3 + i * 2));
+                }
+                if (name.equals("HMSET")) {
+                    db.mapPut(args.get(1), items);
+                    out.simple("OK");
+                    return;
+                }
+                // mapPut returns the number of items, HSET replies with the fields which did not exist,
+                // like HDEL this is not atomic with concurrent writers of the same fields
+                final Set<ByteBuffer> added = new HashSet<>();
+                for (final MapItem item : items) {
+                    if (!db.mapGet(args.get(1), item.field).isPresent()) {
+                        added.add(ByteBuffer.wrap(item.field));
+                    }
+                }
+                db.mapPut(args.get(1), items);
+                out.integer(added.size());
+                return;
+            }
+            case "HMGET": {
+                minArity(args, 3);
+                out.arrayHeader(args.size() - 2);
+                for (int i = 2; i < args.size(); i++) {
+                    out.bulk(db.mapGet(args.get(1), args.get(i)).orElse(null));
+                }
+                return;
+            }
+            case "HDEL": {
+                minArity(args, 3);
+                long removed = 0;
+                for (int i = 2; i < args.size(); i++) {
+                    if (db.mapRemove(args.get(1), args.get(i)).isPresent()) {
+                        removed++;
+                    }
+                }
+                out.integer(removed);
+                return;
+            }
+            case "HEXISTS":
+                arity(args, 3);
+                out.integer(db.mapGet(args.get(1), args.get(2)).isPresent() ? 1 : 0);
+                return;
+            case "HLEN":
+                arity(args, 2);
+                out.integer(db.mapCount(args.get(1)));
+                return;
+            case "HGETALL": {
+                arity(args, 2);
+                final List<MapItem> items = db.mapItems(args.get(1));
+                out.mapHeader(items.size());
+                for (final MapItem item : items) {
+                    out.bulk(item.field).bulk(item.value);
+                }
+                return;
+            }
+            case "HINCRBY": {
+                arity(args, 4);
+                final long delta = parseLong(args.get(3));
+                final byte[] value = db.mapCompute(args.get(1), args.get(2), old -> {
+                    final long current = old == null ? 0 : parseStoredLong(old);
+                    final long next = current + delta;
+                    // overflow if both operands have the same sign and the result has a different one
+                    if (((current ^ next) & (delta ^ next)) < 0) {
+                        throw new IllegalArgumentException("increment or decrement would overflow");
+                    }
+                    return Long.toString(next).getBytes(StandardCharsets.UTF_8);
+                });
+                out.integer(Long.parseLong(new String(value, StandardCharsets.UTF_8)));
+                return;
+            }
+            case "HINCRBYFLOAT": {
+                arity(args, 4);
+                final double delta = parseDouble(args.get(3));
+                out.bulk(db.mapCompute(args.get(1), args.get(2), old -> {
+                    final double next = (old == null ? 0 : parseStoredDouble(old)) + delta;
+                    if (Double.isNaN(next) || Double.isInfinite(next)) {
+                        throw new IllegalArgumentException("increment would produce NaN or Infinity");
+                    }
+                    return formatStoredDouble(next).getBytes(StandardCharsets.UTF_8);
+                }));
+                return;
+            }
+
+            case "SADD":
+                minArity(args, 3);
+                out.integer(db.setAdd(args.get(1), rest(args, 2)));
+                return;
+            case "SREM":
+                minArity(args, 3);
+                out.integer(db.setRemove(args.get(1), rest(args, 2)));
+                return;
+            case "SISMEMBER":
+                arity(args, 3);
+                out.integer(db.setIsMember(args.get(1), args.get(2)) ? 1 : 0);
+                return;
+            case "SMISMEMBER":
+                minArity(args, 3);
+                out.arrayHeader(args.size() - 2);
+                for (int i = 2; i < args.size(); i++) {
+                    out.integer(db.setIsMember(args.get(1), args.get(i)) ? 1 : 0);
+                }
+                return;
+            case "SCARD":
+                arity(args, 2);
+                out.integer(db.setCount(args.get(1)));
+                return;
+            case "SMEMBERS":
+                arity(args, 2);
+                writeBulkArray(db.setMembers(args.get(1)), out);
+                return;
+            case "SINTER":
+            case "SUNION":
+            case "SDIFF": {
+                minArity(args, 2);
+                final List<byte[]> members = new ArrayList<>();
+                final byte[][] keys = rest(args, 1);
+                if (name.equals("SINTER")) {
+                    db.setIntersect(members::add, keys);
+                } else if (name.equals("SUNION")) {
+                    db.setUnion(members::add, keys);
+                } else {
+                    db.setDiff(members::add, keys);
+                }
+                writeBulkArray(members, out);
+                return;
+            }
+
+            case "LPUSH":
+                minArity(args, 3);
+                db.listLeftPush(args.get(1), rest(args, 2));
+                out.integer(db.listCount(args.get(1)));
+                return;
+            case "RPUSH":
+                minArity(args, 3);
+                db.listRightPush(args.get(1), rest(args, 2));
+                out.integer(db.listCount(args.get(1)));
+                return;
+            case "LPOP":
+            case "RPOP": {
+                if (args.size() != 2 && args.size() != 3) {
+                    throw wrongArguments(name);
+                }
+                final boolean left = name.equals("LPOP");
+                if (args.size() == 2) {
+                    final Optional<byte[]> value = left ? db.listLeftPop(args.get(1)) : db.listRightPop(args.get(1));
+                    out.bulk(value.orElse(null));
+                    return;
+                }
+                final long count = parseLong(args.get(2));
+                if (count < 0) {
+                    throw new IllegalArgumentException("value is out of range, must be positive");
+                }
+                final List<byte[]> values = new ArrayList<>();
+                for (long i = 0; i < count; i++) {
+                    final Optional<byte[]> value = left ? db.listLeftPop(args.get(1)) : db.listRightPop(args.get(1));
+                    if (!value.isPresent()) {
+                        break;
+                    }
+                    values.add(value.get());
+                }
+                if (values.isEmpty()) {
+                    out.nilArray();
+                } else {
+                    writeBulkArray(values, out);
+                }
+                return;
+            }
+            case "LLEN":
+                arity(args, 2);
+                out.integer(db.listCount(args.get(1)));
+                return;
+            case "LRANGE": {
+                arity(args, 4);
+                final List<ListItem> items = db.listRange(args.get(1), parseLong(args.get(2)), parseLong(args.get(3)));
+                out.arrayHeader(items.size());
+                for (final ListItem item : items) {
+                    out.bulk(item.value);
+                }
+                return;
+            }
+            case "LMOVE": {
+                arity(args, 5);
+                final List<byte[]> moved = db.listMove(args.get(1), args.get(2), parseSide(args.get(3)), parseSide(args.get(4)), 1);
+                out.bulk(moved.isEmpty() ? null : moved.get(0));
+                return;
+            }
+
+            case "ZADD": {
+                if (args.size() < 4 || args.size() % 2 != 0) {
+                    throw wrongArguments(name);
+                }
+                final SortedSetItem[] items = new SortedSetItem[(args.size() - 2) / 2];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = SortedSetItem.of(args.get(3 + i * 2), parseDouble(args.get(2 + i * 2)));
+                }
+                out.integer(db.sortedSetAdd(args.get(1), items));
+                return;
+            }
+            case "ZSCORE": {
+                arity(args, 3);
+                final OptionalDouble score = db.sortedSetScore(args.get(1), args.get(2));
+                if (score.isPresent()) {
+                    out.doubleValue(score.getAsDouble());
+                } else {
+                    out.nil();
+                }
+                return;
+            }
+            case "ZREM":
+                minArity(args, 3);
+                out.integer(db.sortedSetRemove(args.get(1), rest(args, 2)));
+                return;
+            case "ZCARD":
+                arity(args, 2);
+                out.integer(db.sortedSetCount(args.get(1)));
+                return;
+            case "ZINCRBY":
+                arity(args, 4);
+                out.doubleValue(db.sortedSetIncrBy(args.get(1), args.get(3), parseDouble(args.get(2))));
+                return;
+            case "ZRANK": {
+                arity(args, 3);
+                final OptionalLong rank = db.sortedSetRank(args.get(1), args.get(2));
+                if (rank.isPresent()) {
+                    out.integer(rank.getAsLong());
+                } else {
+                    out.nil();
+                }
+                return;
+            }
+            case "ZPOPMIN": {
+                if (args.size() != 2 && args.size() != 3) {
+                    throw wrongArguments(name);
+                }
+                final long count = args.size() == 3 ? parseLong(args.get(2)) : 1;
+                if (count < 0) {
+                    throw new IllegalArgumentException("value is out of range, must be positive");
+                }
+                final List<SortedSetItem> items = db.sortedSetPopMin(args.get(1), (int) Math.min(count, Integer.MAX_VALUE));
+                writeScoredArray(items, true, args.size() == 3, out);
+                return;
+            }
+            case "ZRANGE": {
+                if (args.size() != 4 && args.size() != 5) {
+                    throw wrongArguments(name);
+                }
+                final boolean withScores = args.size() == 5;
+                if (withScores && !new String(args.get(4), StandardCharsets.UTF_8).equalsIgnoreCase("WITHSCORES")) {
+                    throw new IllegalArgumentException("syntax error");
+                }
+                final List<SortedSetItem> items = db.sortedSetRange(args.get(1), parseLong(args.get(2)), parseLong(args.get(3)));
+                writeScoredArray(items, withScores, true, out);
+                return;
+            }
+            default:
+                throw new IllegalArgumentException(String.format("unknown command '%s'", name.toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    protected void hello(final List<byte[]> args, final RespWriter out) {
+        if (args.size() > 1) {
+            final long version = parseLong(args.get(1));
+            if (version != 2 && version != 3) {
+                out.error("NOPROTO unsupported protocol version");
+                return;
+            }
+            out.setProtocol((int) version);
+        }
+        out.mapHeader(3);
+        out.bulk("server").bulk("cedar");
+        out.bulk("proto").integer(out.getProtocol());
+        out.bulk("mode").bulk("standalone");
+    }
+
+    /**
+     * pairs of member and score, nested as [member, score] pairs in RESP3 and flat in RESP2 as Redis does,
+     * a single popped item without count is always flat
+     */
+    protected static void writeScoredArray(final List<SortedSetItem> items, final boolean withScores, final boolean nested, final RespWriter out) {
+        if (!withScores) {
+            out.arrayHeader(items.size());
+            for (final SortedSetItem item : items) {
+                out.bulk(item.member);
+            }
+            return;
+        }
+        final boolean pairs = nested && out.getProtocol() >= 3;
+        out.arrayHeader(pairs ? items.size() : items.size() * 2L);
+        for (final SortedSetItem item : items) {
+            if (pairs) {
+                out.arrayHeader(2);
+            }
+            out.bulk(item.member).doubleValue(item.score);
+        }
+    }
+
+    protected static void writeBulkArray(final List<byte[]> values, final RespWriter out) {
+        out.arrayHeader(values.size());
+        for (final byte[] v : values) {
+            out.bulk(v);
+        }
+    }
+
+    protected static byte[][] rest(final List<byte[]> args, final int from) {
+        return args.subList(from, args.size()).toArray(new byte[0][]);
+    }
+
+    /**
+     * hash fields written by this server hold numbers as decimal text, as Redis stores them
+     */
+    protected static long parseStoredLong(final byte[] value) {
+        try {
+            return Long.parseLong(new String(value, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("hash value is not an integer");
+        }
+    }
+
+    protected static double parseStoredDouble(final byte[] value) {
+        try {
+            final double v = Double.parseDouble(new String(value, StandardCharsets.UTF_8).trim());
+            if (Double.isNaN(v)) {
+                throw new NumberFormatException();
+            }
+            return v;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("hash value is not a float");
+        }
+    }
+
+    /**
+     * shortest decimal text without exponent or trailing zeros, e.g. 10.5 and 3
+     */
+    protected static String formatStoredDouble(final double v) {
+        return BigDecimal.valueOf(v).stripTrailingZeros().toPlainString();
+    }
+
+    protected static ListSide parseSide(final byte[] arg) {
+        final String s = new String(arg, StandardCharsets.UTF_8);
+        if (s.equalsIgnoreCase("LEFT")) {
+            return ListSide.Left;
+        }
+        if (s.equalsIgnoreCase("RIGHT")) {
+            return ListSide.Right;
+        }
+        throw new IllegalArgumentException("syntax error");
+    }
+
+    protected static long parseLong(final byte[] arg) {
+        try {
+            return Long.parseLong(new String(arg, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("value is not an integer or out of range");
+        }
+    }
+
+    protected static double parseDouble(final byte[] arg) {
+        final String s = new String(arg, StandardCharsets.UTF_8);
+        switch (s.toLowerCase(Locale.ROOT)) {
+            case "inf":
+            case "+inf":
+                return Double.POSITIVE_INFINITY;
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+        }
+        try {
+            final double v = Double.parseDouble(s);
+            if (Double.isNaN(v)) {
+                throw new NumberFormatException();
+            }
+            return v;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("value is not a valid float");
+        }
+    }
+
+    protected static void arity(final List<byte[]> args, final int n) {
+        if (args.size() != n) {
+            throw wrongArguments(new String(args.get(0), StandardCharsets.UTF_8));
+        }
+    }
+
+    protected static void minArity(final List<byte[]> args, final int n) {
+        if (args.size() < n) {
+            throw wrongArguments(new String(args.get(0), StandardCharsets.UTF_8));
+        }
+    }
+
+    protected static IllegalArgumentException wrongArguments(final String name) {
+        return new IllegalArgumentException(String.format("wrong number of arguments for '%s' command", name.toLowerCase(Locale.ROOT)));
+    }
+}
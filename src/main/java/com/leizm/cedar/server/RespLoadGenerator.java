@@ -0,0 +1,241 @@
+package com.leizm.cedar.server;
+
+import com.leizm.cedar.core.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * closed-loop load generator for RespServer (or any Redis-compatible server),
+ * each connection sends pipeline commands at a time and waits for all replies before sending more
+ */
+public class RespLoadGenerator {
+    public String host = "127.0.0.1";
+    public int port = 6379;
+    public int connections = 4;
+    /**
+     * commands sent per round trip
+     */
+    public int pipeline = 16;
+    public long durationMillis = 10_000;
+    public int keySpace = 10_000;
+    /**
+     * members per key for HSET, SADD and ZADD
+     */
+    public int fieldSpace = 100;
+    public int valueSize = 32;
+    /**
+     * weight of each command, supported are HGET HSET SADD SISMEMBER LPUSH LPOP ZADD ZPOPMIN
+     */
+    public final Map<String, Integer> mix = new LinkedHashMap<>();
+
+    public RespLoadGenerator() {
+        mix.put("HGET", 40);
+        mix.put("HSET", 10);
+        mix.put("SADD", 10);
+        mix.put("SISMEMBER", 10);
+        mix.put("LPUSH", 10);
+        mix.put("LPOP", 10);
+        mix.put("ZADD", 5);
+        mix.put("ZPOPMIN", 5);
+    }
+
+    public static class Result {
+        public final long commands;
+        public final long errors;
+        public final long elapsedNanos;
+        /**
+         * round trip time of each command in nanoseconds, the whole pipeline's time is recorded for each command in it
+         */
+        public final LatencyHistogram latency;
+
+        public Result(final long commands, final long errors, final long elapsedNanos, final LatencyHistogram latency) {
+            this.commands = commands;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        public double getOpsPerSecond() {
+            return elapsedNanos == 0 ? 0 : commands * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("commands=%d errors=%d ops/s=%.0f p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                    commands, errors, getOpsPerSecond(),
+                    latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                    latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3);
+        }
+    }
+
+    public Result run() throws InterruptedException {
+        final String[] names = mix.keySet().toArray(new String[0]);
+        final int[] cumulative = new int[names.length];
+        int total = 0;
+        for (int i = 0; i < names.length; i++) {
+            total += mix.get(names[i]);
+            cumulative[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("command mix is empty");
+        }
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong commands = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final List<Throwable> failures = new ArrayList<>();
+        final long start = System.nanoTime();
+        final long deadline = start + durationMillis * 1_000_000;
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    runConnection(names, cumulative, deadline, latency, commands, errors);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }, "cedar-resp-load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("failed to run load: " + failures.get(0).getMessage(), failures.get(0));
+        }
+        return new Result(commands.get(), errors.get(), System.nanoTime() - start, latency);
+    }
+
+    protected void runConnection(final String[] names, final int[] cumulative, final long deadline,
+                                 final LatencyHistogram latency, final AtomicLong commands, final AtomicLong errors) throws IOException {
+        final int total = cumulative[cumulative.length - 1];
+        final byte[] value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        try (final SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final RespWriter out = new RespWriter(64 * 1024);
+            while (System.nanoTime() < deadline) {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                out.getBuffer().clear();
+                for (int i = 0; i < pipeline; i++) {
+                    final int r = random.nextInt(total);
+                    int c = 0;
+                    while (cumulative[c] <= r) {
+                        c++;
+                    }
+                    writeCommand(names[c], random, value, out);
+                }
+                final long sent = System.nanoTime();
+                final ByteBuffer request = out.getBuffer();
+                request.flip();
+                while (request.hasRemaining()) {
+                    channel.write(request);
+                }
+                int replies = 0;
+                while (replies < pipeline) {
+                    if (!in.hasRemaining()) {
+                        final ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+                        in.flip();
+                        grown.put(in);
+                        in = grown;
+                    }
+                    if (channel.read(in) < 0) {
+                        throw new IOException("connection closed by server");
+                    }
+                    in.flip();
+                    while (replies < pipeline && in.hasRemaining()) {
+                        final byte type = in.get(in.position());
+                        if (!RespReader.skipReply(in)) {
+                            break;
+                        }
+                        if (type == '-') {
+                            errors.incrementAndGet();
+                        }
+                        replies++;
+                    }
+                    in.compact();
+                }
+                final long elapsed = System.nanoTime() - sent;
+                for (int i = 0; i < pipeline; i++) {
+                    latency.record(elapsed);
+                }
+                commands.addAndGet(pipeline);
+            }
+        }
+    }
+
+    protected void writeCommand(final String name, final ThreadLocalRandom random, final byte[] value, final RespWriter out) {
+        final String key = "key:" + random.nextInt(keySpace);
+        final String field = "f" + random.nextInt(fieldSpace);
+        switch (name) {
+            case "HGET":
+                command(out, name, key, field);
+                break;
+            case "HSET":
+                out.arrayHeader(4).bulk(name).bulk("h" + key).bulk(field).bulk(value);
+                break;
+            case "SADD":
+            case "SISMEMBER":
+                command(out, name, "s" + key, field);
+                break;
+            case "LPUSH":
+                out.arrayHeader(3).bulk(name).bulk("l" + key).bulk(value);
+                break;
+            case "LPOP":
+                command(out, name, "l" + key);
+                break;
+            case "ZADD":
+                command(out, name, "z" + key, Integer.toString(random.nextInt(1_000_000)), field);
+                break;
+            case "ZPOPMIN":
+                command(out, name, "z" + key);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported command " + name);
+        }
+    }
+
+    protected static void command(final RespWriter out, final String... args) {
+        out.arrayHeader(args.length);
+        for (final String arg : args) {
+            out.bulk(arg.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * usage: RespLoadGenerator [host] [port] [connections] [pipeline] [seconds]
+     */
+    public static void main(final String[] args) throws Exception {
+        final RespLoadGenerator generator = new RespLoadGenerator();
+        if (args.length > 0) {
+            generator.host = args[0];
+        }
+        if (args.length > 1) {
+            generator.port = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            generator.connections = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            generator.pipeline = Integer.parseInt(args[3]);
+        }
+        if (args.length > 4) {
+            generator.durationMillis = Long.parseLong(args[4]) * 1000;
+        }
+        System.out.println(generator.run());
+    }
+}
@@ -0,0 +1,208 @@
+package com.leizm.cedar.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * parse RESP from a buffer which may end in the middle of a message,
+ * on an incomplete message the position is left where it was so parsing can resume after more bytes are read
+ */
+public class RespReader {
+    /**
+     * max length of a bulk string or an inline command
+     */
+    public static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    /**
+     * max number of arguments of one command
+     */
+    public static final int MAX_ARGUMENTS = 1024 * 1024;
+
+    protected static final long INCOMPLETE = Long.MIN_VALUE;
+
+    /**
+     * parse one command, sent as an array of bulk strings or inline as words separated by spaces
+     *
+     * @param in buffer in read mode
+     * @return arguments, null if the buffer does not hold a whole command yet
+     * @throws IllegalArgumentException on protocol errors
+     */
+    public static List<byte[]> readCommand(final ByteBuffer in) {
+        final int mark = in.position();
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        if (in.get(mark) != '*') {
+            return readInline(in);
+        }
+        in.get();
+        final long count = readLong(in);
+        if (count == INCOMPLETE) {
+            in.position(mark);
+            return null;
+        }
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            throw new IllegalArgumentException("invalid multibulk length");
+        }
+        final List<byte[]> args = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            if (!in.hasRemaining()) {
+                in.position(mark);
+                return null;
+            }
+            if (in.get() != '$') {
+                throw new IllegalArgumentException("expected '$'");
+            }
+            final long length = readLong(in);
+            if (length == INCOMPLETE) {
+                in.position(mark);
+                return null;
+            }
+            if (length < 0 || length > MAX_BULK_LENGTH) {
+                throw new IllegalArgumentException("invalid bulk length");
+            }
+            if (in.remaining() < length + 2) {
+                in.position(mark);
+                return null;
+            }
+            final byte[] arg = new byte[(int) length];
+            in.get(arg);
+            in.position(in.position() + 2);
+            args.add(arg);
+        }
+        return args;
+    }
+
+    protected static List<byte[]> readInline(final ByteBuffer in) {
+        final int mark = in.position();
+        final int end = findLineEnd(in, mark);
+        if (end < 0) {
+            if (in.remaining() > MAX_BULK_LENGTH) {
+                throw new IllegalArgumentException("too big inline request");
+            }
+            return null;
+        }
+        final List<byte[]> args = new ArrayList<>();
+        int wordStart = -1;
+        for (int i = mark; i <= end; i++) {
+            final boolean space = i == end || in.get(i) == ' ' || in.get(i) == '\t';
+            if (space && wordStart >= 0) {
+                final byte[] arg = new byte[i - wordStart];
+                for (int j = 0; j < arg.length; j++) {
+                    arg[j] = in.get(wordStart + j);
+                }
+                args.add(arg);
+                wordStart = -1;
+            } else if (!space && wordStart < 0) {
+                wordStart = i;
+            }
+        }
+        in.position(end + 2);
+        return args;
+    }
+
+    /**
+     * skip one reply of any type, used by clients which only need to count replies
+     *
+     * @param in buffer in read mode
+     * @return false if the buffer does not hold a whole reply yet, the position is unchanged then
+     */
+    public static boolean skipReply(final ByteBuffer in) {
+        final int mark = in.position();
+        if (!skipValue(in)) {
+            in.position(mark);
+            return false;
+        }
+        return true;
+    }
+
+    protected static boolean skipValue(final ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return false;
+        }
+        final byte type = in.get();
+        switch (type) {
+            case '+':
+            case '-':
+            case ':':
+            case '_':
+            case ',':
+            case '#':
+            case '(': {
+                final int end = findLineEnd(in, in.position());
+                if (end < 0) {
+                    return false;
+                }
+                in.position(end + 2);
+                return true;
+            }
+            case '$':
+            case '=':
+            case '!': {
+                final long length = readLong(in);
+                if (length == INCOMPLETE) {
+                    return false;
+                }
+                if (length < 0) {
+                    return true;
+                }
+                if (in.remaining() < length + 2) {
+                    return false;
+                }
+                in.position((int) (in.position() + length + 2));
+                return true;
+            }
+            case '*':
+            case '~':
+            case '>':
+            case '%': {
+                final long count = readLong(in);
+                if (count == INCOMPLETE) {
+                    return false;
+                }
+                final long values = type == '%' ? count * 2 : count;
+                for (long i = 0; i < values; i++) {
+                    if (!skipValue(in)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            default:
+                throw new IllegalArgumentException("unknown reply type '" + (char) type + "'");
+        }
+    }
+
+    /**
+     * read a number ending with CRLF
+     *
+     * @return number, INCOMPLETE if the line is not whole yet
+     */
+    protected static long readLong(final ByteBuffer in) {
+        final int end = findLineEnd(in, in.position());
+        if (end < 0) {
+            return INCOMPLETE;
+        }
+        final byte[] digits = new byte[end - in.position()];
+        in.get(digits);
+        in.position(end + 2);
+        try {
+            return Long.parseLong(new String(digits));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number " + new String(digits));
+        }
+    }
+
+    /**
+     * returns index of the CR of the next CRLF at or after from, -1 if there is none
+     */
+    protected static int findLineEnd(final ByteBuffer in, final int from) {
+        for (int i = from; i < in.limit() - 1; i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
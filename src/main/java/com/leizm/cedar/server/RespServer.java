@@ -0,0 +1,301 @@
+package com.leizm.cedar.server;
+
+import com.leizm.cedar.core.Database;
+import com.leizm.cedar.core.IDatabase;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * serve an IDatabase over the Redis protocol (RESP2, RESP3 after HELLO 3).
+ * one acceptor thread hands connections to a fixed number of selector loops;
+ * all complete commands in a read are executed back to back and their replies are sent with one write,
+ * so pipelined commands cost one syscall each way rather than one per command.
+ * pipelined commands are not grouped into one write batch: each commits its own, so they are neither atomic
+ * nor cheaper to write than the same commands sent one by one
+ */
+public class RespServer implements AutoCloseable {
+    protected static final int READ_BUFFER_SIZE = 16 * 1024;
+    protected static final int WRITE_BUFFER_SIZE = 16 * 1024;
+    /**
+     * write buffers grown beyond this by a large reply are dropped once drained
+     */
+    protected static final int MAX_IDLE_BUFFER_SIZE = 1024 * 1024;
+
+    protected final IDatabase db;
+    protected final ServerSocketChannel serverChannel;
+    protected final EventLoop[] loops;
+    protected final Thread acceptor;
+    protected final AtomicLong connections = new AtomicLong();
+    protected final AtomicLong commands = new AtomicLong();
+    protected volatile boolean running = true;
+
+    public RespServer(final IDatabase db, final InetSocketAddress address, final int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.db = db;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, 1024);
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop("cedar-resp-loop-" + i, Selector.open());
+            loops[i].start();
+        }
+        acceptor = new Thread(this::acceptLoop, "cedar-resp-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public RespServer(final IDatabase db, final int port) throws IOException {
+        this(db, new InetSocketAddress(port), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * bound port, useful when started on port 0
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public long getConnectionCount() {
+        return connections.get();
+    }
+
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    protected void acceptLoop() {
+        int next = 0;
+        while (running) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                // closed by close()
+                break;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                continue;
+            }
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (final EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        try {
+            acceptor.join();
+            for (final EventLoop loop : loops) {
+                loop.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected static void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    protected class Connection {
+        protected final SocketChannel channel;
+        protected final CommandHandler handler;
+        protected final RespWriter writer = new RespWriter(WRITE_BUFFER_SIZE);
+        protected ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        protected boolean closeAfterWrite;
+
+        protected Connection(final SocketChannel channel) {
+            this.channel = channel;
+            this.handler = new CommandHandler(db);
+        }
+
+        /**
+         * read what is available, execute every complete command and write the replies
+         *
+         * @return false if the connection should be closed now
+         */
+        protected boolean onReadable(final SelectionKey key) throws IOException {
+            if (!in.hasRemaining()) {
+                if (in.capacity() > RespReader.MAX_BULK_LENGTH) {
+                    return false;
+                }
+                final ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                grown.put(in);
+                in = grown;
+            }
+            if (channel.read(in) < 0) {
+                return false;
+            }
+            in.flip();
+            try {
+                List<byte[]> args;
+                while (!closeAfterWrite && (args = RespReader.readCommand(in)) != null) {
+                    handler.handle(args, writer);
+                    commands.incrementAndGet();
+                    closeAfterWrite = handler.isCloseRequested();
+                }
+            } catch (IllegalArgumentException e) {
+                writer.error("ERR Protocol error: " + e.getMessage());
+                closeAfterWrite = true;
+            }
+            in.compact();
+            return flush(key);
+        }
+
+        /**
+         * write pending replies, stop reading while the socket is not drained so a slow client pushes back
+         *
+         * @return false if the connection should be closed now
+         */
+        protected boolean flush(final SelectionKey key) throws IOException {
+            final ByteBuffer out = writer.getBuffer();
+            if (out.position() == 0) {
+                return !closeAfterWrite;
+            }
+            out.flip();
+            channel.write(out);
+            if (out.hasRemaining()) {
+                out.compact();
+                key.interestOps(SelectionKey.OP_WRITE);
+                return true;
+            }
+            out.clear();
+            if (out.capacity() > MAX_IDLE_BUFFER_SIZE) {
+                writer.buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            }
+            if (closeAfterWrite) {
+                return false;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            return true;
+        }
+    }
+
+    protected class EventLoop extends Thread {
+        protected final Selector selector;
+        protected final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        protected EventLoop(final String name, final Selector selector) {
+            super(name);
+            this.selector = selector;
+            setDaemon(true);
+        }
+
+        protected void register(final SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        try {
+                            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                            connections.incrementAndGet();
+                        } catch (ClosedChannelException e) {
+                            // client went away
+                        }
+                    }
+                    for (final SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to select: " + e.getMessage(), e);
+            } finally {
+                for (final SelectionKey key : selector.keys()) {
+                    closeQuietly((SocketChannel) key.channel());
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                for (final SocketChannel channel : pending) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        protected void handle(final SelectionKey key) {
+            final Connection connection = (Connection) key.attachment();
+            boolean open;
+            try {
+                if (!key.isValid()) {
+                    open = false;
+                } else if (key.isWritable()) {
+                    open = connection.flush(key);
+                } else if (key.isReadable()) {
+                    open = connection.onReadable(key);
+                } else {
+                    open = true;
+                }
+            } catch (IOException e) {
+                open = false;
+            }
+            if (!open) {
+                key.cancel();
+                closeQuietly(connection.channel);
+                connections.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * usage: RespServer path [port] [threads]
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: RespServer <path> [port] [threads]");
+            System.exit(1);
+        }
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final Database db = new Database(args[0]);
+        final RespServer server = new RespServer(db, new InetSocketAddress(port), threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            db.close();
+        }));
+        System.out.printf("cedar listening on port %d with %d threads%n", server.getPort(), threads);
+        server.acceptor.join();
+    }
+}
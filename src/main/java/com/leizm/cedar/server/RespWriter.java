@@ -0,0 +1,135 @@
+package com.leizm.cedar.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * build replies into a growable buffer, types which only exist in RESP3 are downgraded when protocol is 2
+ */
+public class RespWriter {
+    protected static final byte[] CRLF = "\r\n".getBytes();
+
+    protected ByteBuffer buffer;
+    protected int protocol = 2;
+
+    public RespWriter(final int initialCapacity) {
+        buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(final int protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * buffer in write mode, flip it before draining
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public RespWriter simple(final String s) {
+        return line('+', s);
+    }
+
+    public RespWriter error(final String message) {
+        return line('-', message.replace('\r', ' ').replace('\n', ' '));
+    }
+
+    public RespWriter integer(final long v) {
+        return line(':', Long.toString(v));
+    }
+
+    public RespWriter bulk(final byte[] v) {
+        if (v == null) {
+            return nil();
+        }
+        line('$', Integer.toString(v.length));
+        put(v);
+        put(CRLF);
+        return this;
+    }
+
+    public RespWriter bulk(final String s) {
+        return bulk(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public RespWriter nil() {
+        if (protocol >= 3) {
+            return line('_', "");
+        }
+        return line('$', "-1");
+    }
+
+    public RespWriter nilArray() {
+        if (protocol >= 3) {
+            return line('_', "");
+        }
+        return line('*', "-1");
+    }
+
+    public RespWriter arrayHeader(final long count) {
+        return line('*', Long.toString(count));
+    }
+
+    /**
+     * a map of count pairs, sent as a flat array of 2 * count elements in RESP2
+     */
+    public RespWriter mapHeader(final long count) {
+        if (protocol >= 3) {
+            return line('%', Long.toString(count));
+        }
+        return arrayHeader(count * 2);
+    }
+
+    public RespWriter doubleValue(final double v) {
+        final String s = formatDouble(v);
+        if (protocol >= 3) {
+            return line(',', s);
+        }
+        return bulk(s);
+    }
+
+    public RespWriter bool(final boolean v) {
+        if (protocol >= 3) {
+            return line('#', v ? "t" : "f");
+        }
+        return integer(v ? 1 : 0);
+    }
+
+    public static String formatDouble(final double v) {
+        if (Double.isInfinite(v)) {
+            return v > 0 ? "inf" : "-inf";
+        }
+        if (v == Math.rint(v) && Math.abs(v) < 1e17) {
+            return Long.toString((long) v);
+        }
+        return Double.toString(v);
+    }
+
+    protected RespWriter line(final char type, final String s) {
+        ensure(s.length() * 3 + 3);
+        buffer.put((byte) type);
+        buffer.put(s.getBytes(StandardCharsets.UTF_8));
+        buffer.put(CRLF);
+        return this;
+    }
+
+    protected void put(final byte[] b) {
+        ensure(b.length);
+        buffer.put(b);
+    }
+
+    protected void ensure(final int extra) {
+        if (buffer.remaining() >= extra) {
+            return;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,47 @@
+package com.leizm.cedar.workload;
+
+import java.util.Random;
+
+/**
+ * choose the index of the next key to access, in [0, items)
+ */
+public interface KeyChooser {
+    long next(Random random);
+
+    static KeyChooser uniform(final long items) {
+        return random -> nextLong(random, items);
+    }
+
+    /**
+     * hotFraction of the keys get hotOpFraction of the accesses, both uniformly
+     */
+    static KeyChooser hotspot(final long items, final double hotFraction, final double hotOpFraction) {
+        final long hotItems = Math.max(1, Math.min(items, (long) (items * hotFraction)));
+        return random -> {
+            if (random.nextDouble() < hotOpFraction || hotItems == items) {
+                return nextLong(random, hotItems);
+            }
+            return hotItems + nextLong(random, items - hotItems);
+        };
+    }
+
+    static KeyChooser of(final WorkloadProfile profile, final long items) {
+        switch (profile.keyDistribution) {
+            case "uniform":
+                return uniform(items);
+            case "zipfian":
+                return new ZipfianGenerator(items, profile.zipfianConstant, true);
+            case "hotspot":
+                return hotspot(items, profile.hotspotDataFraction, profile.hotspotOpFraction);
+            default:
+                throw new IllegalArgumentException("unknown key distribution " + profile.keyDistribution);
+        }
+    }
+
+    static long nextLong(final Random random, final long bound) {
+        if (bound <= Integer.MAX_VALUE) {
+            return random.nextInt((int) bound);
+        }
+        return (long) (random.nextDouble() * bound);
+    }
+}
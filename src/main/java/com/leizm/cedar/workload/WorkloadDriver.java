@@ -0,0 +1,326 @@
+package com.leizm.cedar.workload;
+
+import com.leizm.cedar.core.Database;
+import com.leizm.cedar.core.IDatabase;
+import com.leizm.cedar.core.LatencyHistogram;
+import com.leizm.cedar.core.MapItem;
+import com.leizm.cedar.core.SortedSetItem;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+/**
+ * run a WorkloadProfile against any IDatabase.
+ * with a target rate the load is open-loop: operation n of the run is scheduled at start + n / rate regardless of
+ * how long earlier operations took, and latency is measured from that scheduled time; a closed-loop driver would
+ * wait out a stall and never issue the requests that should have queued behind it (coordinated omission)
+ */
+public class WorkloadDriver {
+    protected final IDatabase db;
+    protected final WorkloadProfile profile;
+    protected final KeyChooser keys;
+    protected final WorkloadOperation[] operations;
+    protected final int[] cumulativeWeights;
+    protected final byte[] value;
+
+    public WorkloadDriver(final IDatabase db, final WorkloadProfile profile) {
+        profile.validate();
+        this.db = db;
+        this.profile = profile;
+        this.keys = KeyChooser.of(profile, profile.keyCount);
+        final List<WorkloadOperation> list = new ArrayList<>();
+        for (final Map.Entry<WorkloadOperation, Integer> e : profile.mix.entrySet()) {
+            if (e.getValue() > 0) {
+                list.add(e.getKey());
+            }
+        }
+        operations = list.toArray(new WorkloadOperation[0]);
+        cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += profile.mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        value = new byte[profile.valueSize];
+        new Random(0).nextBytes(value);
+    }
+
+    public static class Result {
+        public final WorkloadProfile profile;
+        /**
+         * time from the scheduled start to the end of each operation, in nanoseconds
+         */
+        public final Map<WorkloadOperation, LatencyHistogram> latency = new EnumMap<>(WorkloadOperation.class);
+        /**
+         * time from the actual start to the end of each operation, in nanoseconds
+         */
+        public final Map<WorkloadOperation, LatencyHistogram> serviceTime = new EnumMap<>(WorkloadOperation.class);
+        public final AtomicLong errors = new AtomicLong();
+        /**
+         * operations scheduled before the end of the run which had not started when it ended
+         */
+        public final AtomicLong missed = new AtomicLong();
+        /**
+         * length of the recorded part of the run, in nanoseconds
+         */
+        public long measuredNanos;
+        public volatile Throwable firstError;
+
+        public Result(final WorkloadProfile profile) {
+            this.profile = profile;
+            for (final WorkloadOperation operation : WorkloadOperation.values()) {
+                latency.put(operation, new LatencyHistogram());
+                serviceTime.put(operation, new LatencyHistogram());
+            }
+        }
+
+        public long getCount() {
+            return latency.values().stream().mapToLong(LatencyHistogram::getCount).sum();
+        }
+
+        public double getOpsPerSecond() {
+            return measuredNanos == 0 ? 0 : getCount() * 1e9 / measuredNanos;
+        }
+
+        /**
+         * print a summary line per operation, times in microseconds
+         */
+        public void print(final PrintStream out) {
+            out.printf("%s: %d ops, %.0f ops/s, %d errors, %d missed%n", profile.name, getCount(), getOpsPerSecond(), errors.get(), missed.get());
+            out.printf("%-18s %10s %10s %10s %10s %10s %12s%n", "operation", "count", "p50", "p99", "p99.9", "max", "service p99");
+            for (final WorkloadOperation operation : WorkloadOperation.values()) {
+                final LatencyHistogram h = latency.get(operation);
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                out.printf("%-18s %10d %10.1f %10.1f %10.1f %10.1f %12.1f%n", operation, h.getCount(),
+                        h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(99) / 1e3,
+                        h.getValueAtPercentile(99.9) / 1e3, h.getMax() / 1e3,
+                        serviceTime.get(operation).getValueAtPercentile(99) / 1e3);
+            }
+        }
+
+        /**
+         * write the latency of each executed operation as an HdrHistogram .hgrm file in microseconds
+         */
+        public void writeHistograms(final Path dir) throws IOException {
+            Files.createDirectories(dir);
+            for (final WorkloadOperation operation : WorkloadOperation.values()) {
+                final LatencyHistogram h = latency.get(operation);
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                try (final PrintStream out = new PrintStream(Files.newOutputStream(dir.resolve(profile.name + "-" + operation + ".hgrm")), false, "UTF-8")) {
+                    h.outputPercentileDistribution(out, 1e3);
+                }
+            }
+        }
+    }
+
+    /**
+     * write the keys the operation mix reads
+     *
+     * @return number of keys written
+     */
+    public long preload() {
+        final boolean maps = has(WorkloadOperation.MapRead) || has(WorkloadOperation.MapUpdate);
+        final boolean sets = has(WorkloadOperation.SetAdd) || has(WorkloadOperation.SetIsMember);
+        final boolean boards = has(WorkloadOperation.LeaderboardUpdate) || has(WorkloadOperation.LeaderboardRange);
+        final AtomicLong written = new AtomicLong();
+        LongStream.range(0, maps || sets ? profile.preloadKeys : 0).parallel().forEach(k -> {
+            if (maps) {
+                final MapItem[] items = new MapItem[profile.fieldsPerKey];
+                for (int f = 0; f < items.length; f++) {
+                    items[f] = MapItem.of(field(f), value);
+                }
+                db.mapPut(mapKey(k), items);
+                written.incrementAndGet();
+            }
+            if (sets) {
+                final byte[][] members = new byte[profile.fieldsPerKey][];
+                for (int f = 0; f < members.length; f++) {
+                    members[f] = field(f);
+                }
+                db.setAdd(setKey(k), members);
+                written.incrementAndGet();
+            }
+        });
+        if (boards) {
+            final Random random = new Random(0);
+            for (int b = 0; b < profile.leaderboardCount; b++) {
+                final SortedSetItem[] items = new SortedSetItem[profile.leaderboardSize];
+                for (int m = 0; m < items.length; m++) {
+                    items[m] = SortedSetItem.of(member(m), random.nextInt(1_000_000));
+                }
+                db.sortedSetAdd(boardKey(b), items);
+                written.incrementAndGet();
+            }
+        }
+        return written.get();
+    }
+
+    public Result run() throws InterruptedException {
+        final Result result = new Result(profile);
+        final long start = System.nanoTime();
+        final long warmupEnd = start + profile.warmupSeconds * 1_000_000_000L;
+        final long deadline = warmupEnd + profile.durationSeconds * 1_000_000_000L;
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < profile.threads; i++) {
+            final int index = i;
+            final Thread thread = new Thread(() -> runThread(index, start, warmupEnd, deadline, result), "cedar-workload-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        result.measuredNanos = Math.max(0, Math.min(System.nanoTime(), deadline) - warmupEnd);
+        return result;
+    }
+
+    protected void runThread(final int index, final long start, final long warmupEnd, final long deadline, final Result result) {
+        final Random random = ThreadLocalRandom.current();
+        final boolean openLoop = profile.targetOpsPerSecond > 0;
+        final double nanosPerOperation = openLoop ? 1e9 / profile.targetOpsPerSecond : 0;
+        for (long n = 0; ; n++) {
+            // operations of all threads are interleaved on one global schedule
+            final long scheduled = openLoop ? start + (long) ((index + (double) n * profile.threads) * nanosPerOperation) : System.nanoTime();
+            if (scheduled >= deadline) {
+                return;
+            }
+            long now = System.nanoTime();
+            while (now < scheduled) {
+                LockSupport.parkNanos(scheduled - now);
+                now = System.nanoTime();
+            }
+            if (now >= deadline) {
+                if (openLoop) {
+                    // count what this thread should still have issued
+                    result.missed.addAndGet((long) Math.ceil((deadline - scheduled) / (nanosPerOperation * profile.threads)));
+                }
+                return;
+            }
+            final WorkloadOperation operation = nextOperation(random);
+            try {
+                execute(operation, random);
+            } catch (RuntimeException e) {
+                if (result.errors.getAndIncrement() == 0) {
+                    result.firstError = e;
+                }
+            }
+            final long end = System.nanoTime();
+            if (scheduled >= warmupEnd) {
+                result.latency.get(operation).record(end - scheduled);
+                result.serviceTime.get(operation).record(end - now);
+            }
+        }
+    }
+
+    protected WorkloadOperation nextOperation(final Random random) {
+        final int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= r) {
+            i++;
+        }
+        return operations[i];
+    }
+
+    protected void execute(final WorkloadOperation operation, final Random random) {
+        switch (operation) {
+            case MapRead:
+                db.mapGet(mapKey(keys.next(random)), field(random.nextInt(profile.fieldsPerKey)));
+                break;
+            case MapUpdate:
+                db.mapPut(mapKey(keys.next(random)), MapItem.of(field(random.nextInt(profile.fieldsPerKey)), value));
+                break;
+            case QueuePush:
+                db.listRightPush(queueKey(random.nextInt(profile.queueCount)), value);
+                break;
+            case QueuePop:
+                db.listLeftPop(queueKey(random.nextInt(profile.queueCount)));
+                break;
+            case LeaderboardUpdate:
+                db.sortedSetIncrBy(boardKey(random.nextInt(profile.leaderboardCount)), member(random.nextInt(profile.leaderboardSize)), 1 + random.nextInt(100));
+                break;
+            case LeaderboardRange:
+                db.sortedSetForEach(boardKey(random.nextInt(profile.leaderboardCount)), item -> {
+                });
+                break;
+            case SetAdd:
+                db.setAdd(setKey(keys.next(random)), field(random.nextInt(profile.fieldsPerKey * 2)));
+                break;
+            case SetIsMember:
+                db.setIsMember(setKey(keys.next(random)), field(random.nextInt(profile.fieldsPerKey * 2)));
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operation " + operation);
+        }
+    }
+
+    protected boolean has(final WorkloadOperation operation) {
+        return profile.mix.getOrDefault(operation, 0) > 0;
+    }
+
+    protected static byte[] mapKey(final long k) {
+        return ("user:" + k).getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static byte[] setKey(final long k) {
+        return ("tags:" + k).getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static byte[] queueKey(final int q) {
+        return ("queue:" + q).getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static byte[] boardKey(final int b) {
+        return ("board:" + b).getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static byte[] field(final int f) {
+        return ("f" + f).getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static byte[] member(final int m) {
+        return ("player:" + m).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * usage: WorkloadDriver path profile [hgrm output dir], profile is a built-in name or a properties file
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: WorkloadDriver <path> <" + String.join("|", WorkloadProfile.BUILTIN_NAMES) + "|file.properties> [hgrm dir]");
+            System.exit(1);
+        }
+        final WorkloadProfile profile = WorkloadProfile.load(args[1]);
+        final Database db = new Database(args[0]);
+        try {
+            final WorkloadDriver driver = new WorkloadDriver(db, profile);
+            System.out.println(profile);
+            final long t = System.currentTimeMillis();
+            final long keys = driver.preload();
+            System.out.printf("preloaded %d keys in %dms%n", keys, System.currentTimeMillis() - t);
+            final Result result = driver.run();
+            result.print(System.out);
+            if (args.length > 2) {
+                result.writeHistograms(Paths.get(args[2]));
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
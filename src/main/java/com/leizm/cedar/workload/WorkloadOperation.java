@@ -0,0 +1,36 @@
+package com.leizm.cedar.workload;
+
+public enum WorkloadOperation {
+    /**
+     * mapGet of one field of a map key
+     */
+    MapRead,
+    /**
+     * mapPut of one field of a map key
+     */
+    MapUpdate,
+    /**
+     * listRightPush onto one of the queues
+     */
+    QueuePush,
+    /**
+     * listLeftPop from one of the queues
+     */
+    QueuePop,
+    /**
+     * sortedSetIncrBy of one member of a leaderboard
+     */
+    LeaderboardUpdate,
+    /**
+     * sortedSetForEach over a whole leaderboard, which holds up to leaderboardSize members
+     */
+    LeaderboardRange,
+    /**
+     * setAdd of one member to a set key
+     */
+    SetAdd,
+    /**
+     * setIsMember of one member of a set key
+     */
+    SetIsMember
+}
@@ -0,0 +1,229 @@
+package com.leizm.cedar.workload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * declarative description of a workload, built in by name or loaded from a properties file such as:
+ * <pre>
+ * name=map-95-5
+ * threads=8
+ * targetOpsPerSecond=20000
+ * durationSeconds=60
+ * keyDistribution=zipfian
+ * mix.MapRead=95
+ * mix.MapUpdate=5
+ * </pre>
+ */
+public class WorkloadProfile {
+    public static final List<String> BUILTIN_NAMES = Arrays.asList("map-read-heavy", "queue", "leaderboard", "cold-tail", "mixed");
+
+    public String name = "custom";
+
+    /**
+     * weight of each operation
+     */
+    public final Map<WorkloadOperation, Integer> mix = new EnumMap<>(WorkloadOperation.class);
+
+    public int threads = 4;
+
+    /**
+     * operations per second over all threads, each operation is scheduled at a fixed interval and its latency is
+     * measured from the scheduled time, so a stall is charged to every operation queued behind it;
+     * 0 or negative runs closed-loop as fast as possible and measures service time only
+     */
+    public long targetOpsPerSecond = 10_000;
+
+    public long durationSeconds = 30;
+
+    /**
+     * operations in the first seconds are executed but not recorded
+     */
+    public long warmupSeconds = 5;
+
+    /**
+     * number of map and set keys
+     */
+    public long keyCount = 100_000;
+
+    /**
+     * map and set keys written before the run, so reads do not hit missing keys
+     */
+    public long preloadKeys = 100_000;
+
+    /**
+     * one of uniform, zipfian and hotspot
+     */
+    public String keyDistribution = "zipfian";
+
+    public double zipfianConstant = 0.99;
+
+    public double hotspotDataFraction = 0.2;
+
+    public double hotspotOpFraction = 0.8;
+
+    public int fieldsPerKey = 10;
+
+    public int valueSize = 100;
+
+    public int queueCount = 16;
+
+    public int leaderboardCount = 10;
+
+    public int leaderboardSize = 1000;
+
+    public static WorkloadProfile builtin(final String name) {
+        final WorkloadProfile profile = new WorkloadProfile();
+        profile.name = name;
+        switch (name) {
+            case "map-read-heavy":
+                profile.mix.put(WorkloadOperation.MapRead, 95);
+                profile.mix.put(WorkloadOperation.MapUpdate, 5);
+                break;
+            case "queue":
+                profile.mix.put(WorkloadOperation.QueuePush, 50);
+                profile.mix.put(WorkloadOperation.QueuePop, 50);
+                profile.preloadKeys = 0;
+                break;
+            case "leaderboard":
+                profile.mix.put(WorkloadOperation.LeaderboardUpdate, 90);
+                profile.mix.put(WorkloadOperation.LeaderboardRange, 10);
+                profile.targetOpsPerSecond = 2_000;
+                break;
+            case "cold-tail":
+                // most reads go to few keys, the rest are spread over a key space much larger than the caches
+                profile.mix.put(WorkloadOperation.MapRead, 90);
+                profile.mix.put(WorkloadOperation.MapUpdate, 10);
+                profile.keyCount = 5_000_000;
+                profile.preloadKeys = 5_000_000;
+                profile.fieldsPerKey = 2;
+                break;
+            case "mixed":
+                profile.mix.put(WorkloadOperation.MapRead, 50);
+                profile.mix.put(WorkloadOperation.MapUpdate, 10);
+                profile.mix.put(WorkloadOperation.SetIsMember, 15);
+                profile.mix.put(WorkloadOperation.SetAdd, 5);
+                profile.mix.put(WorkloadOperation.QueuePush, 8);
+                profile.mix.put(WorkloadOperation.QueuePop, 8);
+                profile.mix.put(WorkloadOperation.LeaderboardUpdate, 3);
+                profile.mix.put(WorkloadOperation.LeaderboardRange, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown workload " + name + ", built in are " + BUILTIN_NAMES);
+        }
+        return profile;
+    }
+
+    /**
+     * load a profile, missing properties keep their defaults, or those of the built-in profile named by extends
+     */
+    public static WorkloadProfile fromProperties(final Properties properties) {
+        final String base = properties.getProperty("extends");
+        final WorkloadProfile profile = base == null ? new WorkloadProfile() : builtin(base);
+        boolean hasMix = false;
+        for (final String property : properties.stringPropertyNames()) {
+            if (property.startsWith("mix.")) {
+                if (!hasMix) {
+                    profile.mix.clear();
+                    hasMix = true;
+                }
+                final String operation = property.substring(4);
+                try {
+                    profile.mix.put(WorkloadOperation.valueOf(operation), Integer.parseInt(properties.getProperty(property).trim()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("invalid " + property + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        final String v = properties.getProperty("name");
+        if (v != null) {
+            profile.name = v;
+        }
+        profile.threads = (int) getLong(properties, "threads", profile.threads);
+        profile.targetOpsPerSecond = getLong(properties, "targetOpsPerSecond", profile.targetOpsPerSecond);
+        profile.durationSeconds = getLong(properties, "durationSeconds", profile.durationSeconds);
+        profile.warmupSeconds = getLong(properties, "warmupSeconds", profile.warmupSeconds);
+        profile.keyCount = getLong(properties, "keyCount", profile.keyCount);
+        profile.preloadKeys = getLong(properties, "preloadKeys", profile.preloadKeys);
+        profile.keyDistribution = properties.getProperty("keyDistribution", profile.keyDistribution).trim();
+        profile.zipfianConstant = getDouble(properties, "zipfianConstant", profile.zipfianConstant);
+        profile.hotspotDataFraction = getDouble(properties, "hotspotDataFraction", profile.hotspotDataFraction);
+        profile.hotspotOpFraction = getDouble(properties, "hotspotOpFraction", profile.hotspotOpFraction);
+        profile.fieldsPerKey = (int) getLong(properties, "fieldsPerKey", profile.fieldsPerKey);
+        profile.valueSize = (int) getLong(properties, "valueSize", profile.valueSize);
+        profile.queueCount = (int) getLong(properties, "queueCount", profile.queueCount);
+        profile.leaderboardCount = (int) getLong(properties, "leaderboardCount", profile.leaderboardCount);
+        profile.leaderboardSize = (int) getLong(properties, "leaderboardSize", profile.leaderboardSize);
+        profile.validate();
+        return profile;
+    }
+
+    /**
+     * a built-in profile by name, otherwise a properties file
+     */
+    public static WorkloadProfile load(final String nameOrPath) throws IOException {
+        if (BUILTIN_NAMES.contains(nameOrPath)) {
+            return builtin(nameOrPath);
+        }
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(Paths.get(nameOrPath))) {
+            properties.load(in);
+        }
+        return fromProperties(properties);
+    }
+
+    public void validate() {
+        if (mix.isEmpty() || mix.values().stream().mapToLong(Integer::longValue).sum() <= 0) {
+            throw new IllegalArgumentException("operation mix is empty");
+        }
+        if (mix.values().stream().anyMatch(w -> w < 0)) {
+            throw new IllegalArgumentException("operation weight must not be negative");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (keyCount < 1 || queueCount < 1 || leaderboardCount < 1 || leaderboardSize < 1 || fieldsPerKey < 1) {
+            throw new IllegalArgumentException("key, queue, leaderboard and field counts must be positive");
+        }
+        if (preloadKeys > keyCount) {
+            throw new IllegalArgumentException("preloadKeys must not exceed keyCount");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WorkloadProfile(%s, mix=%s, threads=%d, targetOpsPerSecond=%d, keys=%d %s)",
+                name, mix, threads, targetOpsPerSecond, keyCount, keyDistribution);
+    }
+
+    protected static long getLong(final Properties properties, final String name, final long defaultValue) {
+        final String v = properties.getProperty(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(v.trim().replace("_", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + v, e);
+        }
+    }
+
+    protected static double getDouble(final Properties properties, final String name, final double defaultValue) {
+        final String v = properties.getProperty(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(v.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + name + ": " + v, e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.leizm.cedar.workload;
+
+import java.util.Random;
+
+/**
+ * zipfian distributed key indexes, using the rejection-free method of Gray et al. "Quickly Generating
+ * Billion-Record Synthetic Databases" as YCSB does; index 0 is the most popular unless scrambled,
+ * in which case popular indexes are spread over the key space by hashing so they do not share data blocks
+ */
+public class ZipfianGenerator implements KeyChooser {
+    protected final long items;
+    protected final double theta;
+    protected final boolean scrambled;
+    protected final double zetan;
+    protected final double alpha;
+    protected final double eta;
+    protected final double half;
+
+    /**
+     * @param items     number of keys, computing the normalization constant takes O(items)
+     * @param theta     skew, 0 < theta < 1, YCSB uses 0.99
+     * @param scrambled whether to hash ranks to indexes
+     */
+    public ZipfianGenerator(final long items, final double theta, final boolean scrambled) {
+        if (items < 1) {
+            throw new IllegalArgumentException("items must be positive");
+        }
+        if (theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("theta must be between 0 and 1");
+        }
+        this.items = items;
+        this.theta = theta;
+        this.scrambled = scrambled;
+        this.zetan = zeta(items, theta);
+        final double zeta2 = zeta(Math.min(items, 2), theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = items < 2 ? 0 : (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+        this.half = 1 + Math.pow(0.5, theta);
+    }
+
+    @Override
+    public long next(final Random random) {
+        final double u = random.nextDouble();
+        final double uz = u * zetan;
+        long rank;
+        if (uz < 1) {
+            rank = 0;
+        } else if (uz < half) {
+            rank = 1;
+        } else {
+            rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        }
+        rank = Math.min(rank, items - 1);
+        return scrambled ? Math.floorMod(fnv64(rank), items) : rank;
+    }
+
+    protected static double zeta(final long n, final double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    protected static long fnv64(final long v) {
+        long hash = 0xCBF29CE484222325L;
+        long x = v;
+        for (int i = 0; i < 8; i++) {
+            hash ^= x & 0xff;
+            hash *= 0x100000001B3L;
+            x >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,79 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkLoaderTest {
+    @Test
+    void testLoadMap() {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final List<MapItem> items = new ArrayList<>();
+        final Random random = new Random(1);
+        final Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            final String field = "f" + random.nextInt(2000);
+            final String value = "v" + i;
+            items.add(MapItem.of(field.getBytes(), value.getBytes()));
+            expected.put(field, value);
+        }
+        // small buffer and files so rows are spilled into many runs and written into many files
+        final long count = new BulkLoader(db, 4096, 4096).loadMap(key, items.iterator());
+        assertEquals(expected.size(), count);
+        assertEquals(expected.size(), db.mapCount(key));
+        final Map<String, String> actual = new TreeMap<>();
+        db.mapForEach(key, item -> actual.put(new String(item.field), new String(item.value)));
+        assertEquals(expected, actual);
+        assertArrayEquals(expected.get("f7").getBytes(), db.mapGet(key, "f7".getBytes()).get());
+
+        // the loaded key behaves like any other
+        db.mapPut(key, MapItem.of("new".getBytes(), "x".getBytes()));
+        assertEquals(expected.size() + 1, db.mapCount(key));
+        assertEquals(0, new File(db.getPath()).list((dir, name) -> name.startsWith("bulk-load-")).length);
+    }
+
+    @Test
+    void testLoadSet() {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final List<byte[]> members = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            members.add(("m" + (i % 300)).getBytes());
+        }
+        assertEquals(300, BulkLoader.of(db).loadSet(key, members.iterator()));
+        assertEquals(300, db.setCount(key));
+        assertTrue(db.setIsMember(key, "m0".getBytes(), "m299".getBytes()));
+        assertFalse(db.setIsMember(key, "m300".getBytes()));
+
+        TestUtil.dbList.remove(db);
+        db.close();
+        final Database db2 = TestUtil.createTempDatabase(db.getPath());
+        assertEquals(300, db2.setCount(key));
+    }
+
+    @Test
+    void testTarget() {
+        final Database db = TestUtil.createTempDatabase();
+        final BulkLoader loader = BulkLoader.of(db);
+        final byte[] key = TestUtil.generateRandomKey();
+        db.mapPut(key, MapItem.of("a".getBytes(), "b".getBytes()));
+        assertThrows(IllegalStateException.class, () -> loader.loadMap(key, Collections.singletonList(MapItem.of("c".getBytes(), "d".getBytes())).iterator()));
+        assertThrows(IllegalArgumentException.class, () -> loader.loadSet(key, Collections.singletonList("c".getBytes()).iterator()));
+
+        // an empty key left behind by a read can be loaded
+        final byte[] emptyKey = TestUtil.generateRandomKey();
+        db.mapGet(emptyKey, "a".getBytes());
+        assertEquals(1, loader.loadMap(emptyKey, Collections.singletonList(MapItem.of("c".getBytes(), "d".getBytes())).iterator()));
+        assertEquals(1, db.mapCount(emptyKey));
+
+        assertEquals(0, loader.loadMap(TestUtil.generateRandomKey(), Collections.emptyIterator()));
+
+        final Options options = new Options();
+        options.hotKeyTier = true;
+        assertThrows(IllegalStateException.class, () -> BulkLoader.of(TestUtil.createTempDatabase(options)));
+    }
+}
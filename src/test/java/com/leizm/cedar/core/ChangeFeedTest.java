@@ -0,0 +1,101 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTest {
+    static List<ChangeEvent> pollAll(final ChangeFeed feed) {
+        final List<ChangeEvent> events = new ArrayList<>();
+        while (true) {
+            final List<ChangeEvent> batch = feed.poll(100);
+            if (batch.isEmpty()) {
+                return events;
+            }
+            events.addAll(batch);
+        }
+    }
+
+    static List<ChangeEvent.Type> types(final List<ChangeEvent> events) {
+        return events.stream().map(event -> event.type).collect(Collectors.toList());
+    }
+
+    @Test
+    void testDecode() {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] map = "map".getBytes();
+        final byte[] list = "list".getBytes();
+        final byte[] sortedList = "sortedList".getBytes();
+        final byte[] sortedSet = "sortedSet".getBytes();
+        final ChangeFeed feed = db.changeFeed(db.getLatestSequenceNumber() + 1);
+
+        db.mapPut(map, MapItem.of("a".getBytes(), "1".getBytes()));
+        db.mapIncrBy(map, "n".getBytes(), 5);
+        db.mapRemove(map, "a".getBytes());
+        List<ChangeEvent> events = pollAll(feed);
+        assertEquals(3, events.size());
+        assertEquals(ChangeEvent.Type.MapPut, events.get(0).type);
+        assertArrayEquals(map, events.get(0).key);
+        assertEquals(KeyType.Map, events.get(0).keyType);
+        assertArrayEquals("a".getBytes(), events.get(0).field);
+        assertArrayEquals("1".getBytes(), events.get(0).value);
+        assertEquals(ChangeEvent.Type.MapIncrBy, events.get(1).type);
+        assertEquals(5, Encoding.counterFromBytes(events.get(1).value));
+        assertEquals(ChangeEvent.Type.MapRemove, events.get(2).type);
+        assertTrue(events.get(1).sequence < events.get(2).sequence);
+
+        db.listRightPush(list, "x".getBytes(), "y".getBytes());
+        db.listLeftPop(list);
+        db.sortedListAdd(sortedList, SortedListItem.ofLong(7, "v".getBytes()));
+        db.sortedListLeftPop(sortedList, 100L);
+        db.sortedSetAdd(sortedSet, SortedSetItem.of("m".getBytes(), 2.5));
+        events = pollAll(feed);
+        assertEquals(7, events.size(), events.toString());
+        assertEquals(ChangeEvent.Type.ListPut, events.get(0).type);
+        assertEquals(events.get(0).position + 1, events.get(1).position);
+        assertEquals(ChangeEvent.Type.ListRemove, events.get(2).type);
+        assertEquals(events.get(0).position, events.get(2).position);
+        assertEquals(ChangeEvent.Type.SortedListAdd, events.get(3).type);
+        assertEquals(7, Encoding.sortableLongFromBytes(events.get(3).field, 0));
+        assertArrayEquals("v".getBytes(), events.get(3).value);
+        // the last item of the sorted list was popped, its meta info is removed with it
+        assertEquals(ChangeEvent.Type.SortedListRemove, events.get(4).type);
+        assertEquals(ChangeEvent.Type.KeyDelete, events.get(5).type);
+        assertArrayEquals(sortedList, events.get(5).key);
+        assertEquals(ChangeEvent.Type.SortedSetPut, events.get(6).type);
+        assertArrayEquals("m".getBytes(), events.get(6).field);
+        assertEquals(2.5, events.get(6).score);
+        feed.close();
+    }
+
+    @Test
+    void testResume() {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final long start = db.getLatestSequenceNumber() + 1;
+        for (int i = 0; i < 10; i++) {
+            db.setAdd(key, ("m" + i).getBytes());
+        }
+        final long resumeAt;
+        try (final ChangeFeed feed = db.changeFeed(start)) {
+            // a batch is never split
+            final List<ChangeEvent> first = feed.poll(3);
+            assertEquals(3, first.size());
+            resumeAt = feed.getSequence();
+        }
+        try (final ChangeFeed feed = db.changeFeed(resumeAt)) {
+            final List<ChangeEvent> rest = pollAll(feed);
+            assertEquals(7, rest.size());
+            assertEquals(ChangeEvent.Type.SetAdd, rest.get(0).type);
+            assertArrayEquals("m3".getBytes(), rest.get(0).field);
+            assertTrue(feed.poll(10).isEmpty());
+            db.setRemove(key, "m0".getBytes());
+            assertEquals(Collections.singletonList(ChangeEvent.Type.SetRemove), types(feed.poll(10)));
+        }
+    }
+}
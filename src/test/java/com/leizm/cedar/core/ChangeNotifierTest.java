@@ -0,0 +1,144 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeNotifierTest {
+    static Database createDatabase(final int bufferSize) {
+        final Options options = new Options();
+        options.changeBufferSize = bufferSize;
+        options.enableTransactions = true;
+        return TestUtil.createTempDatabase(options);
+    }
+
+    static void await(final ChangeNotifier.Subscription subscription, final long delivered) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (subscription.getDelivered() < delivered && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(delivered, subscription.getDelivered());
+    }
+
+    @Test
+    void testSubscribe() throws InterruptedException {
+        final Database db = createDatabase(16);
+        final BlockingQueue<KeyChange> changes = new LinkedBlockingQueue<>();
+        final ChangeNotifier.Subscription subscription = db.subscribe("user:".getBytes(), changes::add);
+        db.mapPut("user:1".getBytes(), MapItem.of("a".getBytes(), "1".getBytes()));
+        db.mapPut("order:1".getBytes(), MapItem.of("a".getBytes(), "1".getBytes()));
+        db.listMove("order:0".getBytes(), "user:2".getBytes(), ListSide.Left, ListSide.Right, 1);
+        db.listRightPush("order:2".getBytes(), "x".getBytes());
+        db.listMove("order:2".getBytes(), "user:2".getBytes(), ListSide.Left, ListSide.Right, 1);
+        db.transaction(tx -> tx.setAdd("user:3".getBytes(), "m".getBytes()));
+
+        KeyChange change = changes.poll(5, TimeUnit.SECONDS);
+        assertEquals(OperationType.MapPut, change.type);
+        assertArrayEquals("user:1".getBytes(), change.key);
+        // destination of a move which moved something
+        change = changes.poll(5, TimeUnit.SECONDS);
+        assertEquals(OperationType.ListMove, change.type);
+        assertArrayEquals("user:2".getBytes(), change.key);
+        // after the transaction is committed
+        change = changes.poll(5, TimeUnit.SECONDS);
+        assertEquals(OperationType.SetAdd, change.type);
+        assertArrayEquals("user:3".getBytes(), change.key);
+
+        subscription.close();
+        db.mapPut("user:4".getBytes(), MapItem.of("a".getBytes(), "1".getBytes()));
+        assertNull(changes.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testOverflowPolicies() throws InterruptedException {
+        final Database db = createDatabase(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> coalesceKeys = Collections.synchronizedList(new ArrayList<>());
+        final List<String> blockKeys = Collections.synchronizedList(new ArrayList<>());
+        final ChangeNotifier.Subscription drop = db.subscribe(new byte[0], ChangeNotifier.OverflowPolicy.Drop, change -> {
+            awaitQuietly(release);
+        });
+        final ChangeNotifier.Subscription coalesce = db.subscribe(new byte[0], ChangeNotifier.OverflowPolicy.Coalesce, change -> {
+            awaitQuietly(release);
+            coalesceKeys.add(new String(change.key));
+        });
+        for (int i = 0; i < 40; i++) {
+            db.setAdd(("k" + (i % 4)).getBytes(), ("m" + i).getBytes());
+        }
+        // the listeners hold one change each and their rings are full
+        assertTrue(drop.getDropped() >= 40 - 5);
+        release.countDown();
+        await(drop, 40 - drop.getDropped());
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (coalesceKeys.size() < 9 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // at most one change per key beyond the ring, coalesced changes come after the ring
+        assertTrue(coalesceKeys.size() <= 5 + 4, coalesceKeys.toString());
+        final List<String> coalesced = new ArrayList<>(coalesceKeys.subList(coalesceKeys.size() - 4, coalesceKeys.size()));
+        Collections.sort(coalesced);
+        assertEquals(Arrays.asList("k0", "k1", "k2", "k3"), coalesced);
+
+        final ChangeNotifier.Subscription block = db.subscribe(new byte[0], ChangeNotifier.OverflowPolicy.Block, change -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blockKeys.add(new String(change.key));
+        });
+        for (int i = 0; i < 40; i++) {
+            db.setAdd(("b" + i).getBytes(), "m".getBytes());
+        }
+        await(block, 40);
+        for (int i = 0; i < 40; i++) {
+            assertEquals("b" + i, blockKeys.get(i));
+        }
+    }
+
+    @Test
+    void testCoalesceKeepsLatest() throws InterruptedException {
+        final ChangeNotifier notifier = new ChangeNotifier(1, 1);
+        final byte[] key = "user:1".getBytes();
+        final AtomicReference<OperationType> last = new AtomicReference<>();
+        final ChangeNotifier.Subscription subscription = notifier.subscribe(new byte[0], ChangeNotifier.OverflowPolicy.Coalesce, change -> last.set(change.type));
+        for (int round = 0; round < 1000; round++) {
+            // the producer keeps replacing the coalesced change while the dispatcher drains it
+            OperationType type = null;
+            for (int i = 0; i < 100 + round % 7; i++) {
+                type = i % 2 == 0 ? OperationType.MapPut : OperationType.MapRemove;
+                notifier.publish(type, key);
+            }
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (last.get() != type && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            assertEquals(type, last.get(), "round " + round);
+            // nothing older arrives after the latest change
+            while (subscription.hasPending()) {
+                Thread.yield();
+            }
+            Thread.sleep(0, 100_000);
+            assertEquals(type, last.get(), "round " + round);
+        }
+        notifier.close();
+    }
+
+    static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+import org.rocksdb.BackupInfo;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseBackupTest {
+    static String tempPath(final String name) throws IOException {
+        return Files.createTempDirectory("cedar-" + name).resolve("db").toString();
+    }
+
+    @Test
+    void testCheckpoint() throws IOException {
+        final Options options = new Options();
+        options.hotKeyTier = true;
+        options.hotKeyThreshold = 1;
+        options.hotKeyFlushIntervalMillis = 60_000;
+        final Database db = TestUtil.createTempDatabase(options);
+        final byte[] key = TestUtil.generateRandomKey();
+        db.mapIncrBy(key, "n".getBytes(), 1);
+        db.mapIncrBy(key, "n".getBytes(), 2);
+        assertTrue(db.getHotKeyTier().rowCount() > 0);
+
+        final String dir = tempPath("checkpoint");
+        db.checkpoint(dir);
+        db.mapIncrBy(key, "n".getBytes(), 4);
+
+        final Database copy = TestUtil.createTempDatabase(dir);
+        assertEquals(Optional.of(3L), copy.mapGetLong(key, "n".getBytes()));
+        assertEquals(Optional.of(7L), db.mapGetLong(key, "n".getBytes()));
+    }
+
+    @Test
+    void testBackupAndRestore() throws IOException {
+        final Database db = TestUtil.createTempDatabase();
+        final String backupDir = tempPath("backup");
+        final byte[] key = TestUtil.generateRandomKey();
+        for (int i = 0; i < 100; i++) {
+            db.listRightPush(key, ("v" + i).getBytes());
+        }
+        // checkpoints left by interrupted backups
+        final Path stale = Paths.get(backupDir + ".checkpoint-1");
+        final Path legacy = Paths.get(db.getPath(), "backup-checkpoint-1");
+        Files.createDirectories(stale);
+        Files.write(stale.resolve("CURRENT"), new byte[]{1});
+        Files.createDirectories(legacy);
+        final BackupInfo first = db.backup(backupDir, 2);
+        assertFalse(Files.exists(stale));
+        assertFalse(Files.exists(legacy));
+        assertEquals(1, countFiles(Paths.get(backupDir).getParent()));
+        final long sharedFiles = countFiles(Paths.get(backupDir, "shared_checksum"));
+        assertTrue(sharedFiles > 0);
+        // nothing changed, so no new table file is copied
+        db.backup(backupDir, 2);
+        assertEquals(sharedFiles, countFiles(Paths.get(backupDir, "shared_checksum")));
+
+        db.listRightPush(key, "last".getBytes());
+        final BackupInfo third = db.backup(backupDir, 2);
+        final List<BackupInfo> backups = Database.listBackups(backupDir);
+        assertEquals(2, backups.size());
+        assertEquals(third.backupId(), backups.get(1).backupId());
+        assertNotEquals(first.backupId(), backups.get(0).backupId());
+
+        final String path = tempPath("restore");
+        Files.createDirectories(Paths.get(path));
+        // a log left by another database must not be replayed over the backup
+        Files.write(Paths.get(path, HotKeyTier.LOG_FILE), new byte[]{1, 2, 3});
+        Database.restoreBackup(backupDir, 0, path, null);
+        assertFalse(new File(path, HotKeyTier.LOG_FILE).exists());
+        final Database restored = TestUtil.createTempDatabase(path);
+        assertEquals(101, restored.listCount(key));
+        assertArrayEquals("last".getBytes(), restored.listRightPop(key).get());
+        assertArrayEquals("v0".getBytes(), restored.listLeftPop(key).get());
+    }
+
+    @Test
+    void testKeyIdAfterReopen() throws RocksDBException {
+        final Database db = TestUtil.createTempDatabase();
+        db.mapPut(TestUtil.generateRandomKey(), MapItem.of("a".getBytes(), "b".getBytes()));
+        // a row of a key whose meta info is gone
+        db.getDb().put(Encoding.encodeDataMapFieldKey(100, "a".getBytes()), "b".getBytes());
+        TestUtil.dbList.remove(db);
+        db.close();
+        final Database db2 = TestUtil.createTempDatabase(db.getPath());
+        final byte[] key = TestUtil.generateRandomKey();
+        db2.mapPut(key, MapItem.of("a".getBytes(), "b".getBytes()));
+        assertEquals(101, db2.getKeyMeta(key).id);
+    }
+
+    static long countFiles(final Path dir) throws IOException {
+        return Files.list(dir).count();
+    }
+}
@@ -1,5 +1,14 @@
 package com.leizm.cedar.core;
 
+import org.rocksdb.RocksDBException;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class DatabaseBenchmark {
     private static final int COUNT = 10_0000;
 
@@ -9,13 +18,21 @@ public class DatabaseBenchmark {
         testList();
         testSortedList();
         testAscSortedList();
+        testSortedSet();
+        testSharded();
+        testInMemory();
+        testHotKeyTier();
+        testMetricsOverhead();
+        testMetaInfoAllocations();
+        testBulkLoad();
     }
 
-    private static void runTestCase(final String title, final int count, final TestCaseFunction fn) {
+    private static long runTestCase(final String title, final int count, final TestCaseFunction fn) {
         long start = System.currentTimeMillis();
         fn.apply(count);
         long spent = System.currentTimeMillis() - start;
         System.out.printf("%20s %d times,\tspent %8d ms,\t%8.0f op/s\n", title, count, spent, (double) count / (double) spent * 1000F);
+        return spent;
     }
 
     public static void testMap() {
@@ -44,6 +61,12 @@ public class DatabaseBenchmark {
                 db.mapRemove(key, v);
             }
         });
+        runTestCase("db.mapIncrBy", COUNT, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i % 100).getBytes();
+                db.mapIncrBy(key, v, 1);
+            }
+        });
         System.out.println();
     }
 
@@ -73,6 +96,40 @@ public class DatabaseBenchmark {
                 db.setRemove(key, v);
             }
         });
+
+        final Options options = new Options();
+        options.exactCount = false;
+        final Database db2 = TestUtil.createTempDatabase(options);
+        runTestCase("db.setAdd(approx)", COUNT, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i).getBytes();
+                db2.setAdd(key, v);
+            }
+        });
+        final byte[] key2 = TestUtil.generateRandomKey();
+        for (int i = 0; i < COUNT; i += 3) {
+            db2.setAdd(key2, Integer.toString(i).getBytes());
+        }
+        runTestCase("db.setIntersect", 10, count -> {
+            for (int i = 0; i < count; i++) {
+                db2.setIntersect(v -> {
+                }, key, key2);
+            }
+        });
+        runTestCase("setMembers+retainAll", 10, count -> {
+            for (int i = 0; i < count; i++) {
+                final Set<ByteBuffer> set = new HashSet<>();
+                db2.setForEach(key, v -> set.add(ByteBuffer.wrap(v)));
+                final Set<ByteBuffer> set2 = new HashSet<>();
+                db2.setForEach(key2, v -> set2.add(ByteBuffer.wrap(v)));
+                set.retainAll(set2);
+            }
+        });
+        runTestCase("db.setUnionStore", 10, count -> {
+            for (int i = 0; i < count; i++) {
+                db2.setUnionStore(TestUtil.generateRandomKey(), key, key2);
+            }
+        });
         System.out.println();
     }
 
@@ -106,6 +163,23 @@ public class DatabaseBenchmark {
                 db.listRightPop(key);
             }
         });
+        final byte[] capped = TestUtil.generateRandomKey();
+        db.listSetCap(capped, 1000);
+        runTestCase("db.listRightPush(cap)", COUNT, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i).getBytes();
+                db.listRightPush(capped, v);
+            }
+        });
+        runTestCase("db.listTrim", COUNT / 100, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i).getBytes();
+                for (int j = 0; j < 100; j++) {
+                    db.listRightPush(key, v);
+                }
+                db.listTrim(key, -10, -1);
+            }
+        });
         System.out.println();
     }
 
@@ -158,6 +232,264 @@ public class DatabaseBenchmark {
                 db.ascSortedListPop(key, v);
             }
         });
+        final byte[] queue = TestUtil.generateRandomKey();
+        for (int i = 0; i < COUNT; i += 100) {
+            final SortedListItem[] items = new SortedListItem[100];
+            for (int j = 0; j < items.length; j++) {
+                items[j] = SortedListItem.of(Encoding.longToBytes(i + j), Integer.toString(i + j).getBytes());
+            }
+            db.ascSortedListAdd(queue, items);
+        }
+        runTestCase("db.ascSortedListLease+Ack", COUNT, count -> {
+            for (int i = 0; i < count; i += 100) {
+                final List<LeasedItem> items = db.ascSortedListLease(queue, null, 100, 30000);
+                final byte[][] leaseIds = new byte[items.size()][];
+                for (int j = 0; j < leaseIds.length; j++) {
+                    leaseIds[j] = items.get(j).leaseId;
+                }
+                db.ascSortedListAck(queue, leaseIds);
+            }
+        });
+        System.out.println();
+    }
+
+    public static void testSortedSet() {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        runTestCase("db.sortedSetAdd", COUNT, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i).getBytes();
+                db.sortedSetAdd(key, SortedSetItem.of(v, i));
+            }
+        });
+        runTestCase("db.sortedSetIncrBy", COUNT, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i % 1000).getBytes();
+                db.sortedSetIncrBy(key, v, 1);
+            }
+        });
+        runTestCase("db.sortedSetScore", COUNT, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i).getBytes();
+                db.sortedSetScore(key, v);
+            }
+        });
+        runTestCase("db.sortedSetRank", COUNT / 100, count -> {
+            for (int i = 0; i < count; i++) {
+                final byte[] v = Integer.toString(i * 100).getBytes();
+                db.sortedSetRank(key, v);
+            }
+        });
+        System.out.println();
+    }
+
+    public static void testSharded() {
+        final int threads = 8;
+        for (int shards = 1; shards <= 8; shards *= 2) {
+            final ShardedDatabase db;
+            try {
+                db = new ShardedDatabase(ShardedDatabaseTest.createTempPath("bench"), shards, null);
+            } catch (RocksDBException e) {
+                throw new IllegalStateException(e);
+            }
+            runTestCase(String.format("sharded(%d).mapPut", shards), COUNT * 2, count -> {
+                final Thread[] list = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    final int offset = t;
+                    list[t] = new Thread(() -> {
+                        for (int i = offset; i < count; i += threads) {
+                            final byte[] v = Integer.toString(i).getBytes();
+                            db.mapPut(("key-" + i % 1000).getBytes(), MapItem.of(v, v));
+                        }
+                    });
+                    list[t].start();
+                }
+                for (final Thread thread : list) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            db.close();
+        }
+        System.out.println();
+    }
+
+    public static void testInMemory() {
+        final long[] spent = new long[2];
+        for (int i = 0; i < 2; i++) {
+            final Database db = i == 0 ? TestUtil.createTempDatabase() : new InMemoryDatabase();
+            final String name = i == 0 ? "db" : "memory";
+            // warm up with the same workload on other keys
+            runMixedWorkload(db, name + ".warmup", COUNT / 10);
+            spent[i] = runMixedWorkload(db, name, COUNT);
+            db.close();
+        }
+        System.out.printf("%20s %.1fx\n", "memory speedup", (double) spent[0] / spent[1]);
+        System.out.println();
+    }
+
+    private static long runMixedWorkload(final Database db, final String name, final int n) {
+        final byte[] mapKey = TestUtil.generateRandomKey();
+        final byte[] listKey = TestUtil.generateRandomKey();
+        final byte[] queueKey = TestUtil.generateRandomKey();
+        final byte[] setKey = TestUtil.generateRandomKey();
+        long spent = runTestCase(name + ".mapPut+Get", n, count -> {
+            for (int j = 0; j < count; j++) {
+                final byte[] v = Integer.toString(j).getBytes();
+                db.mapPut(mapKey, MapItem.of(v, v));
+                db.mapGet(mapKey, v);
+            }
+        });
+        spent += runTestCase(name + ".listPush+Pop", n, count -> {
+            for (int j = 0; j < count; j++) {
+                db.listRightPush(listKey, Integer.toString(j).getBytes());
+            }
+            for (int j = 0; j < count; j++) {
+                db.listLeftPop(listKey);
+            }
+        });
+        spent += runTestCase(name + ".ascSortedList", n / 10, count -> {
+            for (int j = 0; j < count; j++) {
+                db.ascSortedListAdd(queueKey, SortedListItem.ofLong(j % 1000, Integer.toString(j).getBytes()));
+            }
+            for (int j = 0; j < count; j++) {
+                db.ascSortedListPop(queueKey, Long.MAX_VALUE);
+            }
+        });
+        spent += runTestCase(name + ".sortedSetAdd+Rank", n / 10, count -> {
+            for (int j = 0; j < count; j++) {
+                final byte[] v = Integer.toString(j % 1000).getBytes();
+                db.sortedSetAdd(setKey, SortedSetItem.of(v, j));
+                db.sortedSetRank(setKey, v);
+            }
+        });
+        return spent;
+    }
+
+    public static void testHotKeyTier() {
+        for (int i = 0; i < 2; i++) {
+            final Options options = new Options();
+            options.hotKeyTier = i == 1;
+            final Database db = TestUtil.createTempDatabase(options);
+            final String name = options.hotKeyTier ? "hot" : "db";
+            final byte[] queueKey = TestUtil.generateRandomKey();
+            final byte[] counterKey = TestUtil.generateRandomKey();
+            runTestCase(name + ".listPush+Pop", COUNT, count -> {
+                for (int j = 0; j < count; j++) {
+                    db.listRightPush(queueKey, Integer.toString(j).getBytes());
+                    if (j % 2 == 1) {
+                        db.listLeftPop(queueKey);
+                        db.listLeftPop(queueKey);
+                    }
+                }
+            });
+            runTestCase(name + ".mapIncrBy", COUNT, count -> {
+                for (int j = 0; j < count; j++) {
+                    db.mapIncrBy(counterKey, Integer.toString(j % 10).getBytes(), 1);
+                }
+            });
+            db.close();
+        }
+        System.out.println();
+    }
+
+    /**
+     * time and heap bytes per operation with metrics on and off, no JFR recording runs so events are not allocated
+     */
+    public static void testMetricsOverhead() {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long[] spent = new long[2];
+        final long[] allocated = new long[2];
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 2; i++) {
+                final Options options = new Options();
+                options.enableMetrics = i == 1;
+                final Database db = TestUtil.createTempDatabase(options);
+                final byte[] key = TestUtil.generateRandomKey();
+                final String title = options.enableMetrics ? "metrics on" : "metrics off";
+                final long before = threads.getThreadAllocatedBytes(thread);
+                final long t = runTestCase(title, COUNT, count -> {
+                    for (int j = 0; j < count; j++) {
+                        final byte[] v = Integer.toString(j).getBytes();
+                        db.mapPut(key, MapItem.of(v, v));
+                        db.mapGet(key, v);
+                    }
+                });
+                if (round > 0) {
+                    spent[i] += t;
+                    allocated[i] += threads.getThreadAllocatedBytes(thread) - before;
+                }
+            }
+        }
+        System.out.printf("%20s %.2f%%\n", "metrics overhead", (double) (spent[1] - spent[0]) / spent[0] * 100);
+        // each iteration is two operations
+        System.out.printf("%20s %.1f bytes/op\n", "metrics allocations", (double) (allocated[1] - allocated[0]) / (4L * COUNT * 2));
+        System.out.println();
+    }
+
+    /**
+     * heap bytes allocated per operation by the calling thread, RocksDB allocates outside of the heap
+     */
+    public static void testMetaInfoAllocations() {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] listKey = TestUtil.generateRandomKey();
+        final byte[] queueKey = TestUtil.generateRandomKey();
+        final byte[] value = "value".getBytes();
+        final byte[] score = Encoding.sortableLongToBytes(1);
+        for (int round = 0; round < 2; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int j = 0; j < COUNT; j++) {
+                db.listRightPush(listKey, value);
+            }
+            final double push = (double) (threads.getThreadAllocatedBytes(thread) - before) / COUNT;
+            for (int j = 0; j < COUNT; j++) {
+                db.ascSortedListAdd(queueKey, SortedListItem.of(score, value));
+            }
+            before = threads.getThreadAllocatedBytes(thread);
+            for (int j = 0; j < COUNT; j++) {
+                db.ascSortedListPop(queueKey, null);
+            }
+            final double pop = (double) (threads.getThreadAllocatedBytes(thread) - before) / COUNT;
+            if (round > 0) {
+                System.out.printf("%20s %8.0f bytes/op\n", "listRightPush", push);
+                System.out.printf("%20s %8.0f bytes/op\n", "ascSortedListPop", pop);
+            }
+        }
+        db.close();
+        System.out.println();
+    }
+
+    public static void testBulkLoad() {
+        final int n = COUNT * 10;
+        final Database db = TestUtil.createTempDatabase();
+        final long put = runTestCase("mapPut x100", n, count -> {
+            final byte[] key = TestUtil.generateRandomKey();
+            final MapItem[] batch = new MapItem[100];
+            for (int j = 0; j < count; j += batch.length) {
+                for (int k = 0; k < batch.length; k++) {
+                    final byte[] field = Integer.toString(j + k).getBytes();
+                    batch[k] = MapItem.of(field, field);
+                }
+                db.mapPut(key, batch);
+            }
+        });
+        final long load = runTestCase("BulkLoader.loadMap", n, count -> {
+            final byte[] key = TestUtil.generateRandomKey();
+            final List<MapItem> items = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                final byte[] field = Integer.toString(j).getBytes();
+                items.add(MapItem.of(field, field));
+            }
+            BulkLoader.of(db).loadMap(key, items.iterator());
+        });
+        System.out.printf("%20s %.1fx\n", "bulk load speedup", (double) put / load);
+        db.close();
         System.out.println();
     }
 
@@ -0,0 +1,113 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseDumpTest {
+    static String tempDir() throws IOException {
+        return Files.createTempDirectory("cedar-dump").toString();
+    }
+
+    static List<Path> parts(final String dir) throws IOException {
+        try (final Stream<Path> list = Files.list(Paths.get(dir))) {
+            return list.sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testExportAndImport() throws IOException {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] map = "map".getBytes();
+        final byte[] bigMap = "bigMap".getBytes();
+        final byte[] set = "set".getBytes();
+        final byte[] list = "list".getBytes();
+        final byte[] sortedList = "sortedList".getBytes();
+        final byte[] ascSortedList = "ascSortedList".getBytes();
+        final byte[] sortedSet = "sortedSet".getBytes();
+        db.mapPut(map, MapItem.of("a".getBytes(), "1".getBytes()), MapItem.of("b".getBytes(), new byte[0]));
+        for (int i = 0; i < 3000; i++) {
+            db.mapPut(bigMap, MapItem.of(("f" + i).getBytes(), ("v" + i).getBytes()));
+        }
+        db.setAdd(set, "x".getBytes(), "y".getBytes());
+        db.listSetCap(list, 10);
+        for (int i = 0; i < 15; i++) {
+            db.listRightPush(list, ("v" + i).getBytes());
+        }
+        db.sortedListAdd(sortedList, SortedListItem.ofLong(2, "b".getBytes()), SortedListItem.ofLong(1, "a".getBytes()));
+        db.ascSortedListAdd(ascSortedList, SortedListItem.ofLong(5, "e".getBytes()), SortedListItem.ofLong(3, "c".getBytes()));
+        db.sortedSetAdd(sortedSet, SortedSetItem.of("m".getBytes(), 1.5), SortedSetItem.of("n".getBytes(), -2));
+        for (int i = 0; i < 20; i++) {
+            db.setAdd(("k" + i).getBytes(), "m".getBytes());
+        }
+
+        final String dir = tempDir();
+        assertEquals(27, DatabaseDump.exportTo(db, dir, 4));
+        assertEquals(4, parts(dir).size());
+
+        final Database target = TestUtil.createTempDatabase();
+        assertEquals(27, DatabaseDump.importFrom(dir, target, 4, 1000));
+        assertEquals(db.mapItems(map).size(), target.mapCount(map));
+        assertArrayEquals("1".getBytes(), target.mapGet(map, "a".getBytes()).get());
+        assertArrayEquals(new byte[0], target.mapGet(map, "b".getBytes()).get());
+        assertEquals(3000, target.mapCount(bigMap));
+        assertArrayEquals("v2999".getBytes(), target.mapGet(bigMap, "f2999".getBytes()).get());
+        assertTrue(target.setIsMember(set, "x".getBytes(), "y".getBytes()));
+        assertEquals(10, target.listCount(list));
+        assertArrayEquals("v5".getBytes(), target.listLeftPop(list).get());
+        target.listRightPush(list, "v15".getBytes(), "v16".getBytes());
+        // cap is kept
+        assertEquals(10, target.listCount(list));
+        assertEquals(1, target.sortedListItems(sortedList).get(0).scoreAsLong());
+        assertEquals(3, target.ascSortedListItems(ascSortedList).get(0).scoreAsLong());
+        assertEquals(1.5, target.sortedSetScore(sortedSet, "m".getBytes()).getAsDouble());
+        assertEquals(-2, target.sortedSetScore(sortedSet, "n".getBytes()).getAsDouble());
+        assertTrue(target.setIsMember("k19".getBytes(), "m".getBytes()));
+
+        // into a database not backed by RocksDB, fewer keys than parts
+        final String dir2 = tempDir();
+        final Database small = TestUtil.createTempDatabase();
+        small.mapPut(map, MapItem.of("a".getBytes(), "1".getBytes()));
+        assertEquals(1, DatabaseDump.exportTo(small, dir2, 4));
+        final InMemoryDatabase memory = new InMemoryDatabase();
+        assertEquals(1, DatabaseDump.importFrom(dir2, memory, 2, 1000));
+        assertArrayEquals("1".getBytes(), memory.mapGet(map, "a".getBytes()).get());
+    }
+
+    @Test
+    void testCorruption() throws IOException {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        db.mapPut(key, MapItem.of("a".getBytes(), "1".getBytes()));
+        final String dir = tempDir();
+        DatabaseDump.exportTo(db, dir, 1);
+        final Path file = parts(dir).get(0);
+        final byte[] bytes = Files.readAllBytes(file);
+
+        // flip a bit of the compressed chunk after the header and chunk lengths
+        final byte[] corrupted = bytes.clone();
+        corrupted[DatabaseDump.MAGIC.length + 4 + 12 + 2] ^= 1;
+        Files.write(file, corrupted);
+        assertThrows(IllegalStateException.class, () -> DatabaseDump.importFrom(dir, new InMemoryDatabase(), 1, 0));
+
+        // missing end chunk
+        Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 12));
+        assertThrows(IllegalStateException.class, () -> DatabaseDump.importFrom(dir, new InMemoryDatabase(), 1, 0));
+
+        // newer version
+        try (final DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.write(DatabaseDump.MAGIC);
+            out.writeInt(DatabaseDump.FORMAT_VERSION + 1);
+        }
+        assertThrows(IllegalStateException.class, () -> DatabaseDump.importFrom(dir, new InMemoryDatabase(), 1, 0));
+    }
+}
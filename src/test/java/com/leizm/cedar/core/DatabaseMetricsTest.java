@@ -0,0 +1,70 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseMetricsTest {
+
+    @Test
+    void testOperations() {
+        final Options options = new Options();
+        options.enableStatistics = true;
+        final Database db = TestUtil.createTempDatabase(options);
+        final byte[] key = TestUtil.generateRandomKey();
+
+        for (int i = 0; i < 100; i++) {
+            db.mapPut(key, MapItem.of(Integer.toString(i).getBytes(), "v".getBytes()));
+        }
+        db.mapGet(key, "1".getBytes());
+        assertThrows(NullPointerException.class, () -> db.listRightPush(TestUtil.generateRandomKey(), (byte[]) null));
+
+        final DatabaseMetrics.Snapshot snapshot = db.getMetrics().snapshot();
+        final DatabaseMetrics.OperationSnapshot mapPut = snapshot.operations.get(OperationType.MapPut);
+        assertEquals(100, mapPut.count);
+        assertEquals(0, mapPut.errors);
+        assertEquals(100, mapPut.latency.count);
+        assertTrue(mapPut.latency.p50 > 0);
+        assertTrue(mapPut.latency.p99 <= mapPut.latency.max);
+        assertEquals(1, snapshot.operations.get(OperationType.MapGet).count);
+        assertEquals(1, snapshot.operations.get(OperationType.ListRightPush).errors);
+        assertEquals(101, snapshot.lockWait.count);
+        assertTrue(snapshot.metaCacheHits >= 100);
+        assertTrue(snapshot.metaCacheHitRate() > 0.9);
+        assertTrue(snapshot.rocksDBProperties.containsKey("rocksdb.cur-size-all-mem-tables"));
+        assertTrue(snapshot.rocksDBTickers.containsKey("BYTES_WRITTEN"));
+
+        db.getMetrics().reset();
+        assertEquals(0, db.getMetrics().getOperation(OperationType.MapPut).getCount());
+    }
+
+    @Test
+    void testDisabled() {
+        final Options options = new Options();
+        options.enableMetrics = false;
+        final Database db = TestUtil.createTempDatabase(options);
+        assertNull(db.getMetrics());
+        assertEquals(1, db.setAdd(TestUtil.generateRandomKey(), "a".getBytes()));
+    }
+
+    @Test
+    void testMBeans() throws Exception {
+        final Options options = new Options();
+        options.registerMBeans = true;
+        final Database db = TestUtil.createTempDatabase(options);
+        final byte[] key = TestUtil.generateRandomKey();
+        db.setAdd(key, "a".getBytes(), "b".getBytes());
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(String.format("com.leizm.cedar:type=Operation,database=%s,name=setAdd", ObjectName.quote(db.getPath())));
+        assertEquals(1L, server.getAttribute(name, "Count"));
+        assertTrue((Long) server.getAttribute(name, "P99Nanos") > 0);
+
+        db.getMetrics().unregisterMBeans();
+        assertFalse(server.isRegistered(name));
+    }
+}
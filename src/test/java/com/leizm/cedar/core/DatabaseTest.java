@@ -4,6 +4,7 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -15,11 +16,39 @@ class DatabaseTest {
             TestUtil.dumpDatabase(db);
             db.close();
         });
+        TestUtil.dbList.clear();
+    }
+
+    /**
+     * create an empty database of the engine under test
+     *
+     * @param options options, null for default
+     * @return Database
+     */
+    protected Database createDatabase(final Options options) {
+        return TestUtil.createTempDatabase(options);
+    }
+
+    protected Database createDatabase() {
+        return createDatabase(null);
+    }
+
+    /**
+     * close db and open its data again with default options
+     *
+     * @param db database
+     * @return reopened database
+     */
+    protected Database reopenDatabase(final Database db) {
+        final String path = db.getPath();
+        TestUtil.dbList.remove(db);
+        db.close();
+        return TestUtil.createTempDatabase(path);
     }
 
     @Test
     void testMap() {
-        final Database db = TestUtil.createTempDatabase();
+        final Database db = createDatabase();
         final List<byte[]> list = TestUtil.generateRandomKeyList(10);
         list.forEach(key -> testMapForKey(db, key));
 
@@ -59,9 +88,169 @@ class DatabaseTest {
         assertEquals(3, db.mapCount(key));
     }
 
+    @Test
+    void testMapPutOverwrite() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertEquals(2, db.mapPut(key, MapItem.of("a".getBytes(), "1".getBytes()), MapItem.of("b".getBytes(), "2".getBytes())));
+        // overwritten and repeated fields are returned as items but counted once
+        assertEquals(3, db.mapPut(key,
+                MapItem.of("a".getBytes(), "3".getBytes()),
+                MapItem.of("c".getBytes(), "4".getBytes()),
+                MapItem.of("c".getBytes(), "5".getBytes())
+        ));
+        assertArrayEquals("3".getBytes(), db.mapGet(key, "a".getBytes()).get());
+        assertArrayEquals("5".getBytes(), db.mapGet(key, "c".getBytes()).get());
+        assertEquals(3, db.mapCount(key));
+    }
+
+    @Test
+    void testMapCounter() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+
+        assertEquals(Optional.empty(), db.mapGetLong(key, "a".getBytes()));
+        assertEquals(1, db.mapIncrBy(key, "a".getBytes(), 5));
+        assertEquals(1, db.mapIncrBy(key, "a".getBytes(), -7));
+        assertEquals(-2L, db.mapGetLong(key, "a".getBytes()).get());
+        assertEquals(1, db.mapCount(key));
+
+        assertEquals(3, db.mapIncrBy(key,
+                CounterItem.of("a".getBytes(), 2),
+                CounterItem.of("b".getBytes(), 10),
+                CounterItem.of("b".getBytes(), 1)
+        ));
+        assertEquals(0L, db.mapGetLong(key, "a".getBytes()).get());
+        assertEquals(11L, db.mapGetLong(key, "b".getBytes()).get());
+        assertEquals(2, db.mapCount(key));
+
+        assertEquals(1.5, db.mapIncrByFloat(key, "c".getBytes(), 1.5));
+        assertEquals(-1.0, db.mapIncrByFloat(key, "c".getBytes(), -2.5));
+        assertEquals(-1.0, db.mapGetDouble(key, "c".getBytes()).get());
+        assertEquals(3, db.mapCount(key));
+
+        assertTrue(db.mapRemove(key, "b".getBytes()).isPresent());
+        assertEquals(1, db.mapIncrBy(key, "b".getBytes(), 1));
+        assertEquals(1L, db.mapGetLong(key, "b".getBytes()).get());
+        assertEquals(3, db.mapCount(key));
+    }
+
+    @Test
+    void testMapCompute() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+
+        assertArrayEquals("1".getBytes(), db.mapCompute(key, "a".getBytes(), old -> {
+            assertNull(old);
+            return "1".getBytes();
+        }));
+        assertArrayEquals("12".getBytes(), db.mapCompute(key, "a".getBytes(), old -> (new String(old) + "2").getBytes()));
+        assertEquals(1, db.mapCount(key));
+
+        // a failed function leaves the field and the count as they were
+        assertThrows(IllegalStateException.class, () -> db.mapCompute(key, "b".getBytes(), old -> {
+            throw new IllegalStateException("nope");
+        }));
+        assertThrows(IllegalArgumentException.class, () -> db.mapCompute(key, "b".getBytes(), old -> null));
+        assertEquals(Optional.empty(), db.mapGet(key, "b".getBytes()));
+        assertEquals(1, db.mapCount(key));
+        assertArrayEquals("12".getBytes(), db.mapGet(key, "a".getBytes()).get());
+
+        final byte[] listKey = TestUtil.generateRandomKey();
+        db.listRightPush(listKey, "a".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> db.mapCompute(listKey, "a".getBytes(), old -> old));
+    }
+
+    @Test
+    void testApproximateCount() {
+        final Options options = new Options();
+        options.exactCount = false;
+        final Database db = createDatabase(options);
+        final byte[] mapKey = TestUtil.generateRandomKey();
+        final byte[] setKey = TestUtil.generateRandomKey();
+
+        assertEquals(2, db.mapPut(mapKey, MapItem.of("a".getBytes(), "1".getBytes()), MapItem.of("b".getBytes(), "2".getBytes())));
+        assertEquals(1, db.mapPut(mapKey, MapItem.of("a".getBytes(), "3".getBytes())));
+        assertArrayEquals("3".getBytes(), db.mapGet(mapKey, "a".getBytes()).get());
+        assertEquals(3, db.mapCount(mapKey));
+        assertArrayEquals("2".getBytes(), db.mapRemove(mapKey, "b".getBytes()).get());
+        assertEquals(2, db.mapCount(mapKey));
+        assertEquals(1, db.reconcileCount(mapKey));
+        assertEquals(1, db.mapCount(mapKey));
+        // counters are charged like mapPut
+        assertEquals(1, db.mapIncrBy(mapKey, "c".getBytes(), 1));
+        assertEquals(2, db.mapCount(mapKey));
+
+        assertEquals(2, db.setAdd(setKey, "a".getBytes(), "b".getBytes()));
+        assertEquals(2, db.setAdd(setKey, "a".getBytes(), "c".getBytes()));
+        assertEquals(4, db.setCount(setKey));
+        db.forEachKeys((key, meta) -> {
+            if (meta.type == KeyType.Set) {
+                assertEquals(4, meta.count);
+            }
+        });
+        assertEquals(1, db.setRemove(setKey, "b".getBytes(), "x".getBytes()));
+        assertEquals(3, db.setCount(setKey));
+        assertEquals(Arrays.asList("a", "c"), db.setMembers(setKey).stream().map(String::new).collect(Collectors.toList()));
+
+        // reopen in exact count mode reconciles the estimates
+        final Database db2 = reopenDatabase(db);
+        assertEquals(2, db2.setCount(setKey));
+        assertEquals(2, db2.mapCount(mapKey));
+        assertEquals(1, db2.setAdd(setKey, "c".getBytes(), "d".getBytes()));
+        assertEquals(3, db2.setCount(setKey));
+    }
+
+    @Test
+    void testApproximateCountEmptied() {
+        final Options options = new Options();
+        options.exactCount = false;
+        final Database db = createDatabase(options);
+        final byte[] mapKey = TestUtil.generateRandomKey();
+        final byte[] setKey = TestUtil.generateRandomKey();
+        final byte[] sortedSetKey = TestUtil.generateRandomKey();
+
+        // the estimates stay above zero after the last rows are removed, the keys are still dropped
+        db.mapPut(mapKey, MapItem.of("a".getBytes(), "1".getBytes()));
+        db.mapPut(mapKey, MapItem.of("a".getBytes(), "2".getBytes()));
+        assertArrayEquals("2".getBytes(), db.mapRemove(mapKey, "a".getBytes()).get());
+        assertEquals(0, db.mapCount(mapKey));
+        db.setAdd(setKey, "a".getBytes(), "a".getBytes());
+        assertEquals(1, db.setRemove(setKey, "a".getBytes()));
+        assertEquals(0, db.setCount(setKey));
+        assertEquals(0, db.forEachKeys((key, meta) -> {
+        }));
+        assertEquals(0, db.reconcileCount(mapKey));
+
+        db.sortedSetAdd(sortedSetKey, SortedSetItem.of("a".getBytes(), 1));
+        assertThrows(IllegalArgumentException.class, () -> db.reconcileCount(sortedSetKey));
+        assertEquals(1, db.sortedSetCount(sortedSetKey));
+    }
+
+    @Test
+    void testApproximateCountDrift() {
+        final Options options = new Options();
+        options.exactCount = false;
+        final Database db = createDatabase(options);
+        final byte[] mapKey = TestUtil.generateRandomKey();
+        final byte[] setKey = TestUtil.generateRandomKey();
+
+        // overwrites are over-counted until the key is recounted, which bounds the estimate
+        for (int i = 0; i < 5000; i++) {
+            db.mapPut(mapKey, MapItem.of("a".getBytes(), Integer.toString(i).getBytes()));
+            db.mapIncrBy(mapKey, "b".getBytes(), 1);
+            db.setAdd(setKey, "a".getBytes(), Integer.toString(i % 10).getBytes());
+            assertTrue(db.mapCount(mapKey) <= 2 + Database.APPROXIMATE_COUNT_RECONCILE_MIN + 2);
+            assertTrue(db.setCount(setKey) <= 11 + Database.APPROXIMATE_COUNT_RECONCILE_MIN + 2);
+        }
+        assertEquals(5000L, db.mapGetLong(mapKey, "b".getBytes()).get());
+        assertEquals(2, db.reconcileCount(mapKey));
+        assertEquals(11, db.reconcileCount(setKey));
+    }
+
     @Test
     void testSet() {
-        final Database db = TestUtil.createTempDatabase();
+        final Database db = createDatabase();
         final List<byte[]> list = TestUtil.generateRandomKeyList(10);
         list.forEach(key -> testSetForKey(db, key));
 
@@ -74,6 +263,16 @@ class DatabaseTest {
         assertEquals(new HashSet<>().addAll(list), new HashSet<>().addAll(list2));
     }
 
+    @Test
+    void testSetRemoveRepeated() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertEquals(3, db.setAdd(key, "a".getBytes(), "b".getBytes(), "c".getBytes()));
+        assertEquals(1, db.setRemove(key, "b".getBytes(), "b".getBytes()));
+        assertEquals(2, db.setCount(key));
+        assertEquals(Arrays.asList("a", "c"), db.setMembers(key).stream().map(String::new).collect(Collectors.toList()));
+    }
+
     void testSetForKey(final Database db, final byte[] key) {
         System.out.println("testSetForKey: " + new String(key));
 
@@ -96,9 +295,65 @@ class DatabaseTest {
         assertArrayEquals(new String[]{"a", "b"}, list);
     }
 
+    @Test
+    void testSetAlgebra() {
+        final Database db = createDatabase();
+        final Random random = new Random(7);
+        final byte[][] keys = new byte[3][];
+        final List<Set<String>> sets = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = TestUtil.generateRandomKey();
+            final Set<String> set = new TreeSet<>();
+            for (int j = 0; j < 300 * (i + 1); j++) {
+                set.add("v" + random.nextInt(1000));
+            }
+            set.forEach(v -> db.setAdd(keys[sets.size()], v.getBytes()));
+            sets.add(set);
+        }
+        final byte[] missing = TestUtil.generateRandomKey();
+
+        final Set<String> intersect = new TreeSet<>(sets.get(0));
+        sets.forEach(intersect::retainAll);
+        final Set<String> union = new TreeSet<>();
+        sets.forEach(union::addAll);
+        final Set<String> diff = new TreeSet<>(sets.get(0));
+        diff.removeAll(sets.get(1));
+        diff.removeAll(sets.get(2));
+
+        final List<String> result = new ArrayList<>();
+        assertEquals(intersect.size(), db.setIntersect(v -> result.add(new String(v)), keys));
+        assertEquals(new ArrayList<>(intersect), result);
+        result.clear();
+        assertEquals(union.size(), db.setUnion(v -> result.add(new String(v)), keys[0], keys[1], missing, keys[2]));
+        assertEquals(new ArrayList<>(union), result);
+        result.clear();
+        assertEquals(diff.size(), db.setDiff(v -> result.add(new String(v)), keys[0], missing, keys[1], keys[2]));
+        assertEquals(new ArrayList<>(diff), result);
+        assertEquals(0, db.setIntersect(v -> fail(), keys[0], missing));
+        assertEquals(0, db.setDiff(v -> fail(), missing, keys[0]));
+
+        final byte[] dst = TestUtil.generateRandomKey();
+        db.setAdd(dst, "old".getBytes());
+        assertEquals(union.size(), db.setUnionStore(dst, keys));
+        assertEquals(union.size(), db.setCount(dst));
+        assertFalse(db.setIsMember(dst, "old".getBytes()));
+        // dst can be one of the sources
+        assertEquals(diff.size(), db.setDiffStore(dst, keys[0], keys[1], keys[2]));
+        assertEquals(diff.size(), db.setIntersectStore(keys[0], keys[0], dst));
+        assertEquals(new ArrayList<>(diff), db.setMembers(keys[0]).stream().map(String::new).collect(Collectors.toList()));
+        assertEquals(0, db.setIntersectStore(dst, dst, missing));
+        assertNull(db.getKeyMeta(dst));
+
+        final byte[] mapKey = TestUtil.generateRandomKey();
+        db.mapPut(mapKey, MapItem.of("a".getBytes(), "b".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> db.setUnion(v -> {
+        }, keys[0], mapKey));
+        assertThrows(IllegalArgumentException.class, () -> db.setUnionStore(mapKey, keys[0]));
+    }
+
     @Test
     void testSortedList() {
-        final Database db = TestUtil.createTempDatabase();
+        final Database db = createDatabase();
         final List<byte[]> list = TestUtil.generateRandomKeyList(10);
         list.forEach(key -> testSortedListForKey(db, key));
 
@@ -170,7 +425,7 @@ class DatabaseTest {
 
     @Test
     void testList() {
-        final Database db = TestUtil.createTempDatabase();
+        final Database db = createDatabase();
         final List<byte[]> list = TestUtil.generateRandomKeyList(10);
         list.forEach(key -> testListForKey(db, key));
 
@@ -213,9 +468,417 @@ class DatabaseTest {
                 db.listItems(key).stream().map(item -> String.format("%d=%s", item.index, new String(item.value))).collect(Collectors.toList()));
     }
 
+    @Test
+    void testListMove() {
+        final Database db = createDatabase();
+        final byte[] pending = TestUtil.generateRandomKey();
+        final byte[] inFlight = TestUtil.generateRandomKey();
+
+        assertEquals(Optional.empty(), db.listMove(pending, inFlight, ListSide.Right, ListSide.Left));
+        db.listRightPush(pending, "a".getBytes(), "b".getBytes(), "c".getBytes(), "d".getBytes());
+
+        assertEquals("d", new String(db.listMove(pending, inFlight, ListSide.Right, ListSide.Left).get()));
+        assertEquals(3, db.listCount(pending));
+        assertEquals(1, db.listCount(inFlight));
+
+        final List<byte[]> moved = db.listMove(pending, inFlight, ListSide.Left, ListSide.Right, 2);
+        assertEquals(Arrays.asList("a", "b"), moved.stream().map(String::new).collect(Collectors.toList()));
+        assertEquals(1, db.listCount(pending));
+        assertEquals(Arrays.asList("d", "a", "b"), db.listItems(inFlight).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+
+        // rotate
+        assertEquals(2, db.listMove(inFlight, inFlight, ListSide.Left, ListSide.Right, 2).size());
+        assertEquals(Arrays.asList("b", "d", "a"), db.listItems(inFlight).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        assertEquals(3, db.listCount(inFlight));
+
+        // the same key and side is a no-op which moves at most one element
+        assertEquals(Arrays.asList("b"), db.listMove(inFlight, inFlight, ListSide.Left, ListSide.Left, 5).stream().map(String::new).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("a"), db.listMove(inFlight, inFlight, ListSide.Right, ListSide.Right, 5).stream().map(String::new).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("b", "d", "a"), db.listItems(inFlight).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        assertEquals(3, db.listCount(inFlight));
+
+        assertEquals(1, db.listMove(pending, inFlight, ListSide.Left, ListSide.Left, 10).size());
+        assertEquals(0, db.listCount(pending));
+        assertEquals(4, db.listCount(inFlight));
+        assertEquals(Optional.empty(), db.listLeftPop(pending));
+        assertEquals("c", new String(db.listLeftPop(inFlight).get()));
+
+        final byte[] mapKey = TestUtil.generateRandomKey();
+        db.mapPut(mapKey, MapItem.of("a".getBytes(), "b".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> db.listMove(inFlight, mapKey, ListSide.Left, ListSide.Left));
+        assertEquals(3, db.listCount(inFlight));
+    }
+
+    @Test
+    void testListTrim() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        for (int i = 0; i < 100; i++) {
+            db.listRightPush(key, Integer.toString(i).getBytes());
+        }
+
+        assertEquals(0, db.listTrim(key, 0, -1));
+        assertEquals(50, db.listTrim(key, 40, -11));
+        assertEquals(50, db.listCount(key));
+        assertEquals("40", new String(db.listLeftPop(key).get()));
+        assertEquals("89", new String(db.listRightPop(key).get()));
+        assertEquals(46, db.listTrim(key, -2, 100));
+        assertEquals(Arrays.asList("87", "88"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        db.listLeftPush(key, "x".getBytes());
+        assertEquals(Arrays.asList("x", "87", "88"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+
+        assertEquals(3, db.listTrim(key, 5, 1));
+        assertEquals(0, db.listCount(key));
+        assertNull(db.getKeyMeta(key));
+    }
+
+    @Test
+    void testListRange() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertEquals(0, db.listRange(key, 0, -1).size());
+        for (int i = 0; i < 10; i++) {
+            db.listRightPush(key, Integer.toString(i).getBytes());
+        }
+        db.listLeftPop(key);
+        db.listLeftPush(key, "x".getBytes());
+
+        assertEquals(Arrays.asList("0=x", "1=1", "2=2"),
+                db.listRange(key, 0, 2).stream().map(item -> String.format("%d=%s", item.index, new String(item.value))).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("8=8", "9=9"),
+                db.listRange(key, -2, -1).stream().map(item -> String.format("%d=%s", item.index, new String(item.value))).collect(Collectors.toList()));
+        assertEquals(10, db.listRange(key, -100, 100).size());
+        assertEquals(0, db.listRange(key, 5, 4).size());
+        assertEquals(0, db.listRange(key, 10, 20).size());
+        assertEquals(1, db.listRange(key, 9, 9).size());
+    }
+
+    @Test
+    void testListCap() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertEquals(0, db.listSetCap(key, 3));
+        assertNotNull(db.getKeyMeta(key));
+        db.listRightPush(key, "a".getBytes(), "b".getBytes());
+        db.listRightPush(key, "c".getBytes(), "d".getBytes());
+        assertEquals(Arrays.asList("b", "c", "d"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        db.listLeftPush(key, "e".getBytes());
+        assertEquals(Arrays.asList("e", "b", "c"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        assertEquals(3, db.listCount(key));
+
+        // capped key survives being drained
+        db.listLeftPop(key);
+        db.listLeftPop(key);
+        db.listLeftPop(key);
+        assertEquals(0, db.listCount(key));
+        for (int i = 0; i < 100; i++) {
+            db.listRightPush(key, Integer.toString(i).getBytes());
+        }
+        assertEquals(Arrays.asList("97", "98", "99"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+
+        final byte[] src = TestUtil.generateRandomKey();
+        db.listRightPush(src, "x".getBytes(), "y".getBytes());
+        db.listMove(src, key, ListSide.Left, ListSide.Right, 2);
+        assertEquals(Arrays.asList("99", "x", "y"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+
+        assertEquals(2, db.listSetCap(key, 1));
+        assertEquals(Arrays.asList("y"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        assertEquals(0, db.listSetCap(key, 0));
+        db.listRightPush(key, "z".getBytes());
+        assertEquals(2, db.listCount(key));
+        db.listLeftPop(key);
+        db.listLeftPop(key);
+        assertNull(db.getKeyMeta(key));
+    }
+
+    @Test
+    void testAscSortedListPopTo() {
+        final Database db = createDatabase();
+        final byte[] queue = TestUtil.generateRandomKey();
+        final byte[] processing = TestUtil.generateRandomKey();
+        db.ascSortedListAdd(queue,
+                SortedListItem.of(Encoding.longToBytes(3), "c".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(1), "a".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(2), "b".getBytes()));
+
+        assertEquals(Optional.empty(), db.ascSortedListPopTo(queue, processing, Encoding.longToBytes(0)));
+        assertEquals("a", new String(db.ascSortedListPopTo(queue, processing, null).get().value));
+        final List<SortedListItem> items = db.ascSortedListPopTo(queue, processing, Encoding.longToBytes(2), 10);
+        assertEquals(1, items.size());
+        assertEquals("b", new String(items.get(0).value));
+        assertEquals(1, db.ascSortedListCount(queue));
+        assertEquals(2, db.mapCount(processing));
+        assertEquals(2, Encoding.longFromBytes(db.mapGet(processing, "b".getBytes()).get()));
+
+        assertEquals(1, db.ascSortedListPopTo(queue, processing, null, 10).size());
+        assertEquals(0, db.ascSortedListCount(queue));
+        assertEquals(3, db.mapCount(processing));
+        assertEquals(Optional.empty(), db.ascSortedListPop(queue, null));
+
+        // items sharing a value become one field, counted once
+        final byte[] jobs = TestUtil.generateRandomKey();
+        final byte[] running = TestUtil.generateRandomKey();
+        db.ascSortedListAdd(jobs,
+                SortedListItem.of(Encoding.longToBytes(1), "job".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(2), "job".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(3), "other".getBytes()));
+        assertEquals(3, db.ascSortedListPopTo(jobs, running, Encoding.longToBytes(10), 10).size());
+        assertEquals(2, db.mapCount(running));
+        assertEquals(2, db.mapItems(running).size());
+        assertEquals(2, Encoding.longFromBytes(db.mapGet(running, "job".getBytes()).get()));
+    }
+
+    @Test
+    void testAscSortedListLease() throws InterruptedException {
+        final Database db = createDatabase();
+        final byte[] queue = TestUtil.generateRandomKey();
+        db.ascSortedListAdd(queue,
+                SortedListItem.of(Encoding.longToBytes(1), "a".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(2), "b".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(3), "c".getBytes()));
+
+        final List<LeasedItem> first = db.ascSortedListLease(queue, null, 2, 50);
+        assertEquals(2, first.size());
+        assertEquals("a", new String(first.get(0).value));
+        assertEquals("b", new String(first.get(1).value));
+        assertEquals(1, first.get(0).deliveries);
+        assertEquals(1, db.ascSortedListCount(queue));
+        assertEquals(1, db.ascSortedListAck(queue, first.get(0).leaseId, first.get(0).leaseId));
+        assertEquals(0, db.ascSortedListAck(queue, first.get(0).leaseId));
+
+        // b is redelivered before c once its lease expired
+        Thread.sleep(100);
+        final List<LeasedItem> second = db.ascSortedListLease(queue, null, 10, 60000);
+        assertEquals(2, second.size());
+        assertEquals("b", new String(second.get(0).value));
+        assertEquals(2, second.get(0).deliveries);
+        assertEquals(2, Encoding.longFromBytes(second.get(0).score));
+        assertEquals("c", new String(second.get(1).value));
+        assertEquals(1, second.get(1).deliveries);
+        assertEquals(0, db.ascSortedListAck(queue, first.get(1).leaseId));
+        assertEquals(0, db.ascSortedListLease(queue, null, 10, 60000).size());
+
+        // key is kept until all leases are acked
+        assertEquals(0, db.ascSortedListCount(queue));
+        assertNotNull(db.getKeyMeta(queue));
+        assertEquals(2, db.ascSortedListAck(queue, second.get(0).leaseId, second.get(1).leaseId));
+        assertNull(db.getKeyMeta(queue));
+    }
+
+    @Test
+    void testSortedSet() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertEquals(3, db.sortedSetAdd(key,
+                SortedSetItem.of("a".getBytes(), 3),
+                SortedSetItem.of("b".getBytes(), -1.5),
+                SortedSetItem.of("c".getBytes(), 10),
+                SortedSetItem.of("b".getBytes(), 1)));
+        assertEquals(0, db.sortedSetAdd(key, SortedSetItem.of("c".getBytes(), 2)));
+        assertEquals(3, db.sortedSetCount(key));
+        assertEquals(1, db.sortedSetScore(key, "b".getBytes()).getAsDouble());
+        assertEquals(2, db.sortedSetScore(key, "c".getBytes()).getAsDouble());
+        assertFalse(db.sortedSetScore(key, "x".getBytes()).isPresent());
+        assertEquals(Arrays.asList("b", "c", "a"), db.sortedSetItems(key).stream().map(item -> new String(item.member)).collect(Collectors.toList()));
+
+        assertEquals(-4, db.sortedSetIncrBy(key, "a".getBytes(), -7));
+        assertEquals(5, db.sortedSetIncrBy(key, "d".getBytes(), 5));
+        assertEquals(4, db.sortedSetCount(key));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), db.sortedSetItems(key).stream().map(item -> new String(item.member)).collect(Collectors.toList()));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, db.sortedSetRank(key, new byte[]{(byte) ('a' + i)}).getAsLong());
+        }
+        assertFalse(db.sortedSetRank(key, "x".getBytes()).isPresent());
+        assertThrows(IllegalArgumentException.class, () -> db.sortedSetAdd(key, SortedSetItem.of("e".getBytes(), Double.NaN)));
+
+        assertEquals(2, db.sortedSetRemove(key, "b".getBytes(), "b".getBytes(), "d".getBytes(), "x".getBytes()));
+        assertEquals(Arrays.asList("a", "c"), db.sortedSetItems(key).stream().map(item -> new String(item.member)).collect(Collectors.toList()));
+        assertEquals(1, db.sortedSetRank(key, "c".getBytes()).getAsLong());
+        assertEquals(2, db.sortedSetRemove(key, "a".getBytes(), "c".getBytes()));
+        assertNull(db.getKeyMeta(key));
+    }
+
+    @Test
+    void testSortedSetRange() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertEquals(0, db.sortedSetRange(key, 0, -1).size());
+        for (int i = 0; i < 10; i++) {
+            db.sortedSetAdd(key, SortedSetItem.of(("m" + i).getBytes(), 10 - i));
+        }
+
+        assertEquals(Arrays.asList("m9=1.0", "m8=2.0"),
+                db.sortedSetRange(key, 0, 1).stream().map(item -> new String(item.member) + "=" + item.score).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("m1=9.0", "m0=10.0"),
+                db.sortedSetRange(key, -2, -1).stream().map(item -> new String(item.member) + "=" + item.score).collect(Collectors.toList()));
+        assertEquals(10, db.sortedSetRange(key, 0, -1).size());
+        assertEquals(0, db.sortedSetRange(key, 3, 2).size());
+        assertEquals(0, db.sortedSetRange(key, 10, 20).size());
+    }
+
+    @Test
+    void testSortedSetPopMin() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        assertTrue(db.sortedSetPopMin(key, 1).isEmpty());
+        db.sortedSetAdd(key, SortedSetItem.of("a".getBytes(), 3), SortedSetItem.of("b".getBytes(), -1),
+                SortedSetItem.of("c".getBytes(), 2), SortedSetItem.of("d".getBytes(), 10));
+        final List<SortedSetItem> items = db.sortedSetPopMin(key, 2);
+        assertEquals(Arrays.asList("b", "c"), items.stream().map(item -> new String(item.member)).collect(Collectors.toList()));
+        assertEquals(-1, items.get(0).score);
+        assertEquals(2, db.sortedSetCount(key));
+        assertFalse(db.sortedSetScore(key, "b".getBytes()).isPresent());
+        assertEquals(0, db.sortedSetRank(key, "a".getBytes()).getAsLong());
+        assertEquals(2, db.sortedSetPopMin(key, 10).size());
+        assertNull(db.getKeyMeta(key));
+    }
+
+    @Test
+    void testSortedSetRank() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final Random random = new Random(42);
+        final Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            final String member = "m" + i;
+            final double score = i % 3 == 0 ? random.nextInt(50) : (random.nextDouble() - 0.5) * 1e7;
+            scores.put(member, score);
+            db.sortedSetAdd(key, SortedSetItem.of(member.getBytes(), score));
+        }
+        for (int i = 0; i < 2000; i += 7) {
+            final String member = "m" + i;
+            if (i % 2 == 0) {
+                scores.remove(member);
+                db.sortedSetRemove(key, member.getBytes());
+            } else {
+                scores.put(member, db.sortedSetIncrBy(key, member.getBytes(), 1000));
+            }
+        }
+        final List<String> sorted = scores.keySet().stream()
+                .sorted(Comparator.comparing((String m) -> scores.get(m)).thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+        assertEquals(sorted, db.sortedSetItems(key).stream().map(item -> new String(item.member)).collect(Collectors.toList()));
+        for (int i = 0; i < sorted.size(); i += 13) {
+            assertEquals(i, db.sortedSetRank(key, sorted.get(i).getBytes()).getAsLong());
+        }
+        assertEquals(sorted.size() - 1, db.sortedSetRank(key, sorted.get(sorted.size() - 1).getBytes()).getAsLong());
+    }
+
+    @Test
+    void testSortedSetBucketCounters() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        db.sortedSetAdd(key, SortedSetItem.of("a".getBytes(), 1), SortedSetItem.of("b".getBytes(), 1e9));
+        final long id = db.getKeyMeta(key).id;
+        final Supplier<Long> bucketRows = () -> {
+            long rows = 0;
+            for (int level = 1; level <= Database.SORTED_SET_BUCKET_LEVELS; level++) {
+                rows += db.prefixForEach(Encoding.encodeDataSortedSetBucketKey(id, level, new byte[0]), it -> {
+                });
+            }
+            return rows;
+        };
+        assertEquals(6, bucketRows.get());
+
+        // emptied buckets are deleted rather than left at zero
+        assertEquals(1, db.sortedSetRemove(key, "a".getBytes()));
+        assertEquals(3, bucketRows.get());
+        assertEquals(2e9, db.sortedSetIncrBy(key, "b".getBytes(), 1e9));
+        assertEquals(3, bucketRows.get());
+
+        // a member moving out of a bucket in the same batch as one moving in keeps the bucket
+        assertEquals(1, db.sortedSetAdd(key, SortedSetItem.of("c".getBytes(), 2e9), SortedSetItem.of("b".getBytes(), 1)));
+        assertEquals(6, bucketRows.get());
+        assertEquals(0, db.sortedSetRank(key, "b".getBytes()).getAsLong());
+        assertEquals(1, db.sortedSetRank(key, "c".getBytes()).getAsLong());
+        assertEquals(2, db.sortedSetPopMin(key, 5).size());
+        assertEquals(0, bucketRows.get());
+    }
+
+    @Test
+    void testConcurrentReadsAndWrites() throws InterruptedException {
+        final Database db = createDatabase();
+        final String prefix = new String(TestUtil.generateRandomKey());
+        final byte[] map = (prefix + ":map").getBytes();
+        final byte[] list = (prefix + ":list").getBytes();
+        final int writers = 4;
+        final int writes = 500;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            final int writer = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < writes; i++) {
+                        db.mapPut(map, MapItem.of((writer + ":" + i).getBytes(), "v".getBytes()));
+                        db.listRightPush(list, "v".getBytes());
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+            // readers of missing keys used to write their meta info without the lock
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < writes; i++) {
+                        assertFalse(db.mapGet((prefix + ":missing:" + writer + ":" + i).getBytes(), "f".getBytes()).isPresent());
+                        db.mapGet(map, "0:0".getBytes());
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        db.flush();
+        assertEquals(writers * writes, db.mapCount(map));
+        assertEquals(writers * writes, db.mapItems(map).size());
+        assertEquals(writers * writes, db.listCount(list));
+        assertEquals(writers * writes, db.listItems(list).size());
+        final List<String> keys = new ArrayList<>();
+        db.forEachKeys(prefix.getBytes(), (key, meta) -> keys.add(new String(key)));
+        assertEquals(Arrays.asList(prefix + ":list", prefix + ":map"), keys);
+    }
+
+    @Test
+    void testTypedScores() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        db.sortedListAdd(key,
+                SortedListItem.ofLong(5, "a".getBytes()),
+                SortedListItem.ofLong(-3, "b".getBytes()),
+                SortedListItem.ofLong(Long.MIN_VALUE, "c".getBytes()),
+                SortedListItem.ofLong(0, "d".getBytes()));
+        assertEquals(Arrays.asList(Long.MIN_VALUE, -3L, 0L, 5L), db.sortedListItems(key).stream().map(SortedListItem::scoreAsLong).collect(Collectors.toList()));
+        assertEquals("c", new String(db.sortedListLeftPop(key, -10L).get().value));
+        assertEquals(Optional.empty(), db.sortedListLeftPop(key, -10L));
+        assertEquals(-3, db.sortedListLeftPop(key, -3L).get().scoreAsLong());
+        assertEquals(Optional.empty(), db.sortedListRightPop(key, 6L));
+        assertEquals(5, db.sortedListRightPop(key, 5L).get().scoreAsLong());
+
+        final byte[] queue = TestUtil.generateRandomKey();
+        db.ascSortedListAdd(queue,
+                SortedListItem.ofDouble(1.5, "a".getBytes()),
+                SortedListItem.ofDouble(-0.25, "b".getBytes()),
+                SortedListItem.ofDouble(Double.NEGATIVE_INFINITY, "c".getBytes()),
+                SortedListItem.ofDouble(100, "d".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> SortedListItem.ofDouble(Double.NaN, "e".getBytes()));
+        final List<SortedListItem> items = db.ascSortedListPopTo(queue, TestUtil.generateRandomKey(), 0.0, 10);
+        assertEquals(2, items.size());
+        assertEquals(Double.NEGATIVE_INFINITY, items.get(0).scoreAsDouble());
+        assertEquals(-0.25, items.get(1).scoreAsDouble());
+        assertEquals(Optional.empty(), db.ascSortedListPop(queue, 1.0));
+        assertEquals(1.5, db.ascSortedListLease(queue, 2.0, 10, 1000).get(0).scoreAsDouble());
+        assertEquals("d", new String(db.ascSortedListPop(queue, Double.POSITIVE_INFINITY).get().value));
+    }
+
     @Test
     void testAscSortedList() {
-        final Database db = TestUtil.createTempDatabase();
+        final Database db = createDatabase();
         final List<byte[]> list = TestUtil.generateRandomKeyList(1);
         list.forEach(key -> testAscSortedListForKey(db, key));
 
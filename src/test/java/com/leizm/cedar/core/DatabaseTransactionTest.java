@@ -0,0 +1,117 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseTransactionTest {
+
+    static Database createDatabase() {
+        final Options options = new Options();
+        options.enableTransactions = true;
+        options.transactionMaxRetries = 1000;
+        return TestUtil.createTempDatabase(options);
+    }
+
+    @Test
+    void testCommit() {
+        final Database db = createDatabase();
+        final byte[] queue = TestUtil.generateRandomKey();
+        final byte[] processing = TestUtil.generateRandomKey();
+        db.ascSortedListAdd(queue,
+                SortedListItem.of(Encoding.longToBytes(1), "job1".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(2), "job2".getBytes()));
+        db.mapPut(processing, MapItem.of("job0".getBytes(), "x".getBytes()));
+
+        final String moved = db.transaction(tx -> {
+            final SortedListItem item = tx.ascSortedListPop(queue, null).get();
+            tx.mapPut(processing, MapItem.of(item.value, item.score));
+            // read your own writes
+            assertEquals(1, tx.ascSortedListCount(queue));
+            assertEquals(2, tx.mapCount(processing));
+            assertArrayEquals(item.score, tx.mapGet(processing, item.value).get());
+            // not visible outside before commit
+            assertEquals(2, db.ascSortedListCount(queue));
+            assertEquals(1, db.mapCount(processing));
+            return new String(item.value);
+        });
+        assertEquals("job1", moved);
+        assertEquals(1, db.ascSortedListCount(queue));
+        assertEquals(2, db.mapCount(processing));
+
+        // meta info cached by db before the transaction must be invalidated
+        db.mapPut(processing, MapItem.of("job3".getBytes(), "x".getBytes()));
+        assertEquals(3, db.mapCount(processing));
+    }
+
+    @Test
+    void testRollback() {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        db.listRightPush(key, "a".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> db.transaction(tx -> {
+            tx.listRightPush(key, "b".getBytes());
+            tx.setAdd(TestUtil.generateRandomKey(), "c".getBytes());
+            throw new IllegalArgumentException("abort");
+        }));
+        assertEquals(1, db.listCount(key));
+        assertEquals(Optional.of("a"), db.listRightPop(key).map(String::new));
+        assertEquals(Optional.empty(), db.listRightPop(key));
+    }
+
+    @Test
+    void testConflictRetry() throws InterruptedException {
+        final Database db = createDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final byte[] field = "counter".getBytes();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 50; j++) {
+                    db.transaction(tx -> {
+                        final long v = tx.mapGet(key, field).map(Encoding::longFromBytes).orElse(0L);
+                        return tx.mapPut(key, MapItem.of(field, Encoding.longToBytes(v + 1)));
+                    });
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread t : threads) {
+            t.join();
+        }
+        assertEquals(200, Encoding.longFromBytes(db.mapGet(key, field).get()));
+        assertEquals(1, db.mapCount(key));
+    }
+
+    @Test
+    void testLeaseToEmpty() {
+        final Database db = createDatabase();
+        final byte[] queue = TestUtil.generateRandomKey();
+        db.ascSortedListAdd(queue,
+                SortedListItem.of(Encoding.longToBytes(1), "job1".getBytes()),
+                SortedListItem.of(Encoding.longToBytes(2), "job2".getBytes()));
+        // warm the meta info cache of the parent
+        assertEquals(2, db.ascSortedListCount(queue));
+
+        final List<LeasedItem> leased = db.transaction(tx -> tx.ascSortedListLease(queue, null, 10, 60_000));
+        assertEquals(2, leased.size());
+        assertEquals(0, db.ascSortedListCount(queue));
+
+        // the parent must not keep meta info cached before the commit
+        db.ascSortedListAdd(queue, SortedListItem.of(Encoding.longToBytes(3), "job3".getBytes()));
+        assertEquals(1, db.ascSortedListCount(queue));
+        assertEquals(2L, (long) db.transaction(tx -> tx.ascSortedListAck(queue, leased.get(0).leaseId, leased.get(1).leaseId)));
+        assertEquals(1, db.ascSortedListCount(queue));
+        assertEquals("job3", new String(db.ascSortedListPop(queue, null).get().value));
+    }
+
+    @Test
+    void testNotEnabled() {
+        final Database db = TestUtil.createTempDatabase();
+        assertThrows(IllegalStateException.class, () -> db.transaction(tx -> null));
+    }
+}
@@ -23,6 +23,51 @@ public class EncodingTest {
         assertEquals(123, Encoding.longFromBytes(new byte[]{0, 0, 0, 0, 0, 0, 0, 123}));
     }
 
+    @Test
+    public void testCounterBytes() {
+        assertArrayEquals(new byte[]{123, 0, 0, 0, 0, 0, 0, 0}, Encoding.counterToBytes(123));
+        assertEquals(-5, Encoding.counterFromBytes(Encoding.counterToBytes(-5)));
+        assertEquals(1.25, Encoding.doubleFromBytes(Encoding.doubleToBytes(1.25)));
+    }
+
+    @Test
+    public void testSortableLongBytes() {
+        final long[] values = new long[]{Long.MIN_VALUE, -1000, -1, 0, 1, 255, 256, Long.MAX_VALUE};
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], Encoding.sortableLongFromBytes(Encoding.sortableLongToBytes(values[i]), 0));
+            if (i > 0) {
+                assertTrue(Encoding.compareScoreBytes(Encoding.sortableLongToBytes(values[i - 1]), Encoding.sortableLongToBytes(values[i])) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void testCompareScoreBytes() {
+        assertTrue(Encoding.compareScoreBytes(new byte[]{1}, new byte[]{(byte) 0x80}) < 0);
+        assertTrue(Encoding.compareScoreBytes("ab".getBytes(), "abc".getBytes()) < 0);
+        assertTrue(Encoding.compareScoreBytes("b".getBytes(), "abc".getBytes()) > 0);
+        assertEquals(0, Encoding.compareScoreBytes("abc".getBytes(), "abc".getBytes()));
+        assertEquals(0, Encoding.compareScoreBytes(null, "abc".getBytes()));
+    }
+
+    @Test
+    public void testDecodeDataSortedListKey() {
+        assertArrayEquals("score".getBytes(), Encoding.decodeDataSortedListKey(Encoding.encodeDataSortedListKey(1, 2, "score".getBytes())));
+        assertArrayEquals(new byte[]{}, Encoding.decodeDataSortedListKey(Encoding.encodeDataSortedListKey(1, 2, new byte[]{})));
+    }
+
+    @Test
+    public void testSortableDoubleBytes() {
+        final double[] values = new double[]{Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5, -Double.MIN_VALUE, 0, Double.MIN_VALUE, 1, 1.5, Double.MAX_VALUE, Double.POSITIVE_INFINITY};
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], Encoding.sortableDoubleFromBytes(Encoding.sortableDoubleToBytes(values[i]), 0));
+            if (i > 0) {
+                assertTrue(Encoding.compareKeyBytes(Encoding.sortableDoubleToBytes(values[i - 1]), Encoding.sortableDoubleToBytes(values[i])) < 0);
+            }
+        }
+        assertArrayEquals(Encoding.sortableDoubleToBytes(0.0), Encoding.sortableDoubleToBytes(-0.0));
+    }
+
     @Test
     public void testCombineMultipleBytes() {
         assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, Encoding.combineMultipleBytes(new byte[]{}, new byte[]{1, 2}, new byte[]{3}, new byte[]{4, 5}));
@@ -0,0 +1,63 @@
+package com.leizm.cedar.core;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightRecorderEventsTest {
+
+    @Test
+    void testKeyToString() {
+        assertNull(FlightRecorderEvents.keyToString(null));
+        assertEquals("abc\\x00\\xFF", FlightRecorderEvents.keyToString(new byte[]{'a', 'b', 'c', 0, -1}));
+        final byte[] longKey = new byte[100];
+        Arrays.fill(longKey, (byte) 'x');
+        assertEquals(FlightRecorderEvents.MAX_KEY_LENGTH + 3, FlightRecorderEvents.keyToString(longKey).length());
+    }
+
+    @Test
+    void testRecording() throws Exception {
+        final Database db = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final Path file = Files.createTempFile("cedar-jfr", ".jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable("com.leizm.cedar.Operation").withThreshold(Duration.ZERO);
+            recording.enable("com.leizm.cedar.Iterator").withThreshold(Duration.ZERO);
+            recording.enable("com.leizm.cedar.DeleteRange");
+            recording.start();
+            db.ascSortedListAdd(key, SortedListItem.of(Encoding.longToBytes(1), "a".getBytes()));
+            db.ascSortedListPop(key, null);
+            db.mapItems(TestUtil.generateRandomKey());
+            db.forEachKeys((k, meta) -> {
+            });
+            recording.stop();
+            recording.dump(file);
+        }
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        final List<RecordedEvent> operations = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.leizm.cedar.Operation"))
+                .collect(Collectors.toList());
+        assertEquals(4, operations.size());
+        final RecordedEvent add = operations.stream().filter(e -> e.getString("operation").equals("ascSortedListAdd")).findFirst().get();
+        assertEquals(new String(key), add.getString("key"));
+        assertEquals("AscSortedList", add.getString("keyType"));
+        assertTrue(add.getLong("keyId") > 0);
+        assertEquals(1, add.getLong("count"));
+        assertFalse(add.getBoolean("error"));
+
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("com.leizm.cedar.Iterator")));
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("com.leizm.cedar.DeleteRange")));
+    }
+}
@@ -0,0 +1,120 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+import org.rocksdb.RocksDBException;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * runs every DatabaseTest case with all keys hot, plus tests of the tier itself
+ */
+class HotKeyTierTest extends DatabaseTest {
+    static Options hotOptions(final Options options) {
+        final Options o = options == null ? new Options() : options;
+        o.hotKeyTier = true;
+        o.hotKeyThreshold = 1;
+        o.hotKeyFlushIntervalMillis = 5;
+        return o;
+    }
+
+    @Override
+    protected Database createDatabase(final Options options) {
+        return TestUtil.createTempDatabase(hotOptions(options));
+    }
+
+    @Test
+    void testFlush() throws RocksDBException {
+        final Options options = hotOptions(null);
+        options.hotKeyThreshold = 3;
+        options.hotKeyFlushIntervalMillis = 60_000;
+        final Database db = TestUtil.createTempDatabase(options);
+        final HotKeyTier tier = db.getHotKeyTier();
+        final byte[] key = TestUtil.generateRandomKey();
+
+        db.listRightPush(key, "a".getBytes());
+        db.listRightPush(key, "b".getBytes());
+        assertEquals(0, tier.rowCount());
+        db.listRightPush(key, "c".getBytes());
+        assertEquals(1, tier.hotKeyCount());
+        // meta info and the new item
+        assertEquals(2, tier.rowCount());
+        assertNull(db.getDb().get(Encoding.encodeDataListKey(db.getKeyMeta(key).id, 3)));
+
+        assertArrayEquals("a".getBytes(), db.listLeftPop(key).get());
+        db.listRightPush(key, "d".getBytes());
+        assertArrayEquals("d".getBytes(), db.listRightPop(key).get());
+        assertEquals(Arrays.asList("b", "c"), db.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+
+        db.flush();
+        assertEquals(0, tier.rowCount());
+        assertEquals(0, tier.rowBytes());
+        assertArrayEquals("c".getBytes(), db.getDb().get(Encoding.encodeDataListKey(db.getKeyMeta(key).id, 3)));
+        assertEquals(2, db.listCount(key));
+    }
+
+    @Test
+    void testDemotion() {
+        final Options options = hotOptions(null);
+        options.hotKeyMaxKeys = 2;
+        final Database db = TestUtil.createTempDatabase(options);
+        final HotKeyTier tier = db.getHotKeyTier();
+        for (int i = 0; i < 3; i++) {
+            db.mapIncrBy(("counter-" + i).getBytes(), "n".getBytes(), 1);
+        }
+        assertEquals(3, tier.promotionCount());
+        assertEquals(1, tier.demotionCount());
+        assertEquals(2, tier.hotKeyCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Optional.of(1L), db.mapGetLong(("counter-" + i).getBytes(), "n".getBytes()));
+        }
+    }
+
+    @Test
+    void testMaxBytes() {
+        final Options options = hotOptions(null);
+        options.hotKeyMaxBytes = 1024;
+        options.hotKeyFlushIntervalMillis = 60_000;
+        final Database db = TestUtil.createTempDatabase(options);
+        final byte[] key = TestUtil.generateRandomKey();
+        for (int i = 0; i < 100; i++) {
+            db.listRightPush(key, new byte[100]);
+        }
+        assertTrue(db.getHotKeyTier().rowBytes() < 2048);
+        assertEquals(100, db.listCount(key));
+    }
+
+    @Test
+    void testLogReplay() throws RocksDBException {
+        final Options options = hotOptions(null);
+        options.hotKeyFlushIntervalMillis = 60_000;
+        final Database db = TestUtil.createTempDatabase(options);
+        final byte[] key = TestUtil.generateRandomKey();
+        final byte[] counterKey = TestUtil.generateRandomKey();
+        db.listRightPush(key, "a".getBytes(), "b".getBytes());
+        db.mapIncrBy(counterKey, "x".getBytes(), 1);
+        db.mapIncrBy(counterKey, "x".getBytes(), 2);
+        db.listLeftPop(key);
+
+        // crash: RocksDB is closed without flushing the tier
+        TestUtil.dbList.remove(db);
+        db.getHotKeyTier().flusher.shutdownNow();
+        final String path = db.getPath();
+        db.getDb().close();
+
+        final Database db2 = TestUtil.createTempDatabase(path);
+        assertEquals(Arrays.asList("b"), db2.listItems(key).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        assertEquals(Optional.of(3L), db2.mapGetLong(counterKey, "x".getBytes()));
+    }
+
+    @Test
+    void testTransactionUnsupported() {
+        final Options options = hotOptions(null);
+        options.enableTransactions = true;
+        final Database db = TestUtil.createTempDatabase(options);
+        assertThrows(IllegalStateException.class, () -> db.transaction(tx -> 0));
+    }
+}
@@ -0,0 +1,108 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * runs every DatabaseTest case against InMemoryDatabase
+ */
+class InMemoryDatabaseTest extends DatabaseTest {
+    @Override
+    protected Database createDatabase(final Options options) {
+        final Database db = new InMemoryDatabase(options);
+        TestUtil.dbList.add(db);
+        return db;
+    }
+
+    /**
+     * rows survive in memory only, so reopening keeps the store and rebuilds everything else
+     */
+    @Override
+    protected Database reopenDatabase(final Database db) {
+        TestUtil.dbList.remove(db);
+        final Database db2 = new InMemoryDatabase(((InMemoryDatabase) db).store, null);
+        TestUtil.dbList.add(db2);
+        return db2;
+    }
+
+    @Test
+    void testTransactionUnsupported() {
+        final Database db = createDatabase();
+        assertThrows(IllegalStateException.class, () -> db.transaction(tx -> 0));
+    }
+
+    @Test
+    void testSameRowsAsDatabase() {
+        final Database rocks = TestUtil.createTempDatabase();
+        final Database memory = createDatabase();
+        final Random random = new Random(42);
+        for (int i = 0; i < 3000; i++) {
+            final byte[] key = ("key-" + random.nextInt(8)).getBytes();
+            final byte[] value = ("v" + random.nextInt(50)).getBytes();
+            final byte[] score = Encoding.sortableLongToBytes(random.nextInt(100));
+            final int smallScore = random.nextInt(3);
+            final int op = random.nextInt(12);
+            for (final Database db : new Database[]{rocks, memory}) {
+                final byte[] typed = (op + "-" + new String(key)).getBytes();
+                switch (op) {
+                    case 0:
+                        db.mapPut(typed, MapItem.of(value, value));
+                        break;
+                    case 1:
+                        db.mapRemove(("0-" + new String(key)).getBytes(), value);
+                        break;
+                    case 2:
+                        db.listLeftPush(typed, value);
+                        db.listRightPush(typed, value, value);
+                        break;
+                    case 3:
+                        db.listLeftPop(("2-" + new String(key)).getBytes());
+                        db.listTrim(("2-" + new String(key)).getBytes(), 1, -2);
+                        break;
+                    case 4:
+                        db.setAdd(typed, value);
+                        break;
+                    case 5:
+                        db.setRemove(("4-" + new String(key)).getBytes(), value);
+                        break;
+                    case 6:
+                        db.sortedListAdd(typed, SortedListItem.of(score, value));
+                        db.sortedListRightPop(typed, score);
+                        break;
+                    case 7:
+                        db.ascSortedListAdd(typed, SortedListItem.of(score, value));
+                        break;
+                    case 8:
+                        db.ascSortedListPop(("7-" + new String(key)).getBytes(), score);
+                        break;
+                    case 9:
+                        db.sortedSetAdd(typed, SortedSetItem.of(value, smallScore));
+                        db.sortedSetRank(typed, value);
+                        break;
+                    case 10:
+                        db.sortedSetRemove(("9-" + new String(key)).getBytes(), value);
+                        break;
+                    default:
+                        db.mapIncrBy(typed, value, 3);
+                        break;
+                }
+            }
+        }
+        assertEquals(dumpRows(rocks), dumpRows(memory));
+    }
+
+    static List<String> dumpRows(final Database db) {
+        final List<String> rows = new ArrayList<>();
+        try (final StoreIterator it = db.dbIterator(null)) {
+            for (it.seek(new byte[0]); it.isValid(); it.next()) {
+                rows.add(TestUtil.bytesToHex(it.key()) + "=" + TestUtil.bytesToHex(it.value()));
+            }
+        }
+        return rows;
+    }
+}
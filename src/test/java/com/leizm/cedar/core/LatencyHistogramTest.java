@@ -0,0 +1,78 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void test() {
+        final LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(99));
+
+        for (long i = 1; i <= 1000; i++) {
+            h.record(i * 1000);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1_000_000, h.getMax());
+        assertEquals(500_500, h.getMean(), 0.001);
+        assertEquals(500_000, h.getValueAtPercentile(50), 500_000 * 0.04);
+        assertEquals(990_000, h.getValueAtPercentile(99), 990_000 * 0.04);
+        assertEquals(1_000_000, h.getValueAtPercentile(100));
+
+        for (long v = 0; v < 100_000; v++) {
+            final int index = LatencyHistogram.bucketIndex(v);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= v);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < v);
+            }
+        }
+
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+        assertEquals(1001, h.getCount());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getMax());
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+
+    @Test
+    void testOutputPercentileDistribution() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            h.record(i * 1000);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        h.outputPercentileDistribution(new PrintStream(bytes), 1000.0);
+        final String[] lines = bytes.toString().split("\n");
+        assertTrue(lines[0].contains("Percentile"));
+        // values are bucket upper bounds
+        assertTrue(lines[2].trim().matches("1\\.0\\d\\d 0\\.000000000000 +1 +1\\.00"), lines[2]);
+        double lastPercentile = -1;
+        long lastCount = 0;
+        int rows = 0;
+        for (final String line : lines) {
+            final String[] columns = line.trim().split("\\s+");
+            if (line.isEmpty() || line.startsWith("#") || columns[0].equals("Value")) {
+                continue;
+            }
+            final double percentile = Double.parseDouble(columns[1]);
+            final long count = Long.parseLong(columns[2]);
+            assertTrue(percentile > lastPercentile && count >= lastCount);
+            lastPercentile = percentile;
+            lastCount = count;
+            rows++;
+        }
+        assertEquals(1.0, lastPercentile);
+        assertEquals(1000, lastCount);
+        assertTrue(rows > 20);
+        assertTrue(bytes.toString().contains("#[Max     =     1000.000, Total count    =         1000]"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+    @Test
+    void testSharedBudget() {
+        final MemoryBudget budget = MemoryBudget.of(64 * 1024 * 1024, 2);
+        assertEquals(62 * 1024 * 1024, budget.getBlockCacheCapacity());
+        assertEquals(62 * 1024 * 1024 / 4, budget.getMemTableBytes());
+        assertEquals(2 * 1024 * 1024 / MemoryBudget.META_INFO_ENTRY_BYTES / 2, budget.metaInfoCacheCount());
+
+        final Options options = new Options();
+        options.memoryBudget = budget;
+        final Database db1 = TestUtil.createTempDatabase(options);
+        final Database db2 = TestUtil.createTempDatabase(options);
+        assertEquals(budget.metaInfoCacheCount(), db1.metaInfoCache.capacity());
+        assertNull(options.getRocksDBOptions().rowCache());
+
+        for (int i = 0; i < 1000; i++) {
+            db1.mapPut(("key-" + i).getBytes(), MapItem.of("a".getBytes(), new byte[100]));
+            db2.listRightPush("list".getBytes(), new byte[100]);
+        }
+        final MemoryBudget.Report report = budget.report();
+        assertEquals(2, report.databases.size());
+        assertEquals(db1.getPath(), report.databases.get(0).path);
+        assertTrue(report.databases.get(0).memTableBytes > 100 * 1000);
+        assertTrue(report.databases.get(0).metaCacheBytes > 0);
+        // memtables are charged to the shared cache
+        assertTrue(report.blockCacheUsage >= report.databases.get(0).memTableBytes);
+        assertTrue(report.blockCacheUsage <= report.blockCacheCapacity);
+        assertTrue(report.nativeBytes() >= report.blockCacheUsage);
+        assertTrue(report.heapBytes() > 0);
+
+        assertThrows(IllegalStateException.class, budget::close);
+        TestUtil.dbList.remove(db1);
+        TestUtil.dbList.remove(db2);
+        db1.close();
+        db2.close();
+        assertEquals(0, budget.report().databases.size());
+        budget.close();
+    }
+
+    @Test
+    void testInvalidBudget() {
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(1024, 0, 0.25, 0));
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(1024, 1, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(1024, 1, 0.25, 1024));
+    }
+}
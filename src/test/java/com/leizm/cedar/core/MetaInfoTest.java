@@ -14,7 +14,7 @@ class MetaInfoTest {
         assertEquals(123, m2.id);
         assertEquals(456, m2.count);
         assertEquals(KeyType.Map, m2.type);
-        assertNull(m2.extra);
+        assertNull(m2.getExtraBytes());
 
         final MetaInfo m3 = new MetaInfo(456, KeyType.Set, 789, new byte[]{6, 7, 8});
         assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 1, -56, 2, 0, 0, 0, 0, 0, 0, 3, 21, 6, 7, 8}, m3.toBytes());
@@ -22,6 +22,42 @@ class MetaInfoTest {
         assertEquals(456, m4.id);
         assertEquals(789, m4.count);
         assertEquals(KeyType.Set, m4.type);
-        assertArrayEquals(new byte[]{6, 7, 8}, m4.extra);
+        assertArrayEquals(new byte[]{6, 7, 8}, m4.getExtraBytes());
+        assertArrayEquals(m4.getExtraBytes(), m4.getExtra());
+    }
+
+    @Test
+    void testTypedExtra() {
+        final MetaInfo m = MetaInfo.fromBytes(new MetaInfo(1, KeyType.List, 0, null).toBytes());
+        final MetaInfo.ListExtra extra = m.listExtra();
+        assertEquals(0, extra.left);
+        assertEquals(1, extra.right);
+        assertSame(extra, m.listExtra());
+        assertThrows(IllegalArgumentException.class, m::sortedListExtra);
+
+        extra.right = 3;
+        m.count = 2;
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 1, 3, 0, 0, 0, 0, 0, 0, 0, 2,
+                0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3}, m.toBytes());
+        extra.cap = 5;
+        final MetaInfo m2 = MetaInfo.fromBytes(m.toBytes());
+        assertEquals(41, m.toBytes().length);
+        assertEquals(3, m2.listExtra().right);
+        assertEquals(5, m2.listExtra().cap);
+
+        final MetaInfo m3 = new MetaInfo(2, KeyType.AscSortedList, 1, null);
+        m3.ascSortedListExtra().sequence = 7;
+        m3.ascSortedListExtra().minKey = new byte[]{9, 9};
+        final MetaInfo.AscSortedListExtra extra3 = MetaInfo.fromBytes(m3.toBytes()).ascSortedListExtra();
+        assertEquals(7, extra3.sequence);
+        assertArrayEquals(new byte[]{9, 9}, extra3.minKey);
+        assertArrayEquals(Encoding.combineMultipleBytes(Encoding.longToBytes(7), Encoding.intToBytes(0), new byte[]{9, 9}),
+                extra3.toBytes());
+
+        final MetaInfo m4 = new MetaInfo(3, KeyType.SortedList, 1, new MetaInfo.SortedListExtra(8, 2, 3).toBytes());
+        final MetaInfo.SortedListExtra extra4 = MetaInfo.fromBytes(m4.toBytes()).sortedListExtra();
+        assertEquals(8, extra4.sequence);
+        assertEquals(2, extra4.leftDeletesCount);
+        assertEquals(3, extra4.rightDeletesCount);
     }
 }
\ No newline at end of file
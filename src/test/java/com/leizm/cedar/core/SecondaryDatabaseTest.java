@@ -0,0 +1,129 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SecondaryDatabaseTest {
+    static SecondaryDatabase openSecondary(final Database primary, final long intervalMillis) throws RocksDBException, IOException {
+        final Options options = new Options();
+        options.secondaryCatchUpIntervalMillis = intervalMillis;
+        return Database.openSecondary(primary.getPath(), Files.createTempDirectory("cedar-secondary").toString(), options);
+    }
+
+    @Test
+    void testReadAndCatchUp() throws RocksDBException, IOException {
+        final Database primary = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        primary.mapPut(key, MapItem.of("a".getBytes(), "1".getBytes()));
+        final String[] logs = new File(primary.getPath()).list((dir, name) -> name.startsWith("LOG"));
+
+        final SecondaryDatabase secondary = openSecondary(primary, 0);
+        try {
+            assertArrayEquals("1".getBytes(), secondary.mapGet(key, "a".getBytes()).get());
+            assertEquals(1, secondary.mapCount(key));
+            // the info log of the primary is not rotated
+            assertArrayEquals(logs, new File(primary.getPath()).list((dir, name) -> name.startsWith("LOG")));
+
+            primary.mapPut(key, MapItem.of("b".getBytes(), "2".getBytes()));
+            final byte[] newKey = TestUtil.generateRandomKey();
+            primary.listRightPush(newKey, "x".getBytes());
+            assertFalse(secondary.mapGet(key, "b".getBytes()).isPresent());
+            // missing key is read without writing
+            assertEquals(0, secondary.listCount(newKey));
+
+            assertTrue(secondary.tryCatchUpWithPrimary());
+            assertFalse(secondary.tryCatchUpWithPrimary());
+            assertArrayEquals("2".getBytes(), secondary.mapGet(key, "b".getBytes()).get());
+            // meta info cached before the catch-up is dropped
+            assertEquals(2, secondary.mapCount(key));
+            assertEquals(1, secondary.listCount(newKey));
+        } finally {
+            secondary.close();
+        }
+    }
+
+    @Test
+    void testReadOnly() throws RocksDBException, IOException {
+        final Database primary = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        primary.listRightPush(key, "x".getBytes());
+        final SecondaryDatabase secondary = openSecondary(primary, 0);
+        try {
+            assertThrows(IllegalStateException.class, () -> secondary.mapPut(key, MapItem.of("a".getBytes(), "1".getBytes())));
+            assertThrows(IllegalStateException.class, () -> secondary.listLeftPop(key));
+            assertThrows(IllegalStateException.class, () -> secondary.setAdd(TestUtil.generateRandomKey(), "m".getBytes()));
+            assertEquals(1, secondary.listCount(key));
+            assertEquals(1, primary.listCount(key));
+        } finally {
+            secondary.close();
+        }
+    }
+
+    @Test
+    void testCatchUpSkipsUnchangedPrimary() throws RocksDBException, IOException {
+        final Database primary = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        primary.setAdd(key, "a".getBytes());
+        final SecondaryDatabase secondary = openSecondary(primary, 0);
+        try {
+            final String state = secondary.primaryFilesState();
+            assertEquals(state, secondary.primaryState);
+            assertFalse(secondary.tryCatchUpWithPrimary());
+
+            // a write appends to the WAL of the primary
+            primary.setAdd(key, "b".getBytes());
+            assertNotEquals(state, secondary.primaryFilesState());
+            assertTrue(secondary.tryCatchUpWithPrimary());
+            assertTrue(secondary.setIsMember(key, "b".getBytes()));
+            assertFalse(secondary.tryCatchUpWithPrimary());
+        } finally {
+            secondary.close();
+        }
+    }
+
+    @Test
+    void testBackgroundCatchUpError() throws RocksDBException, IOException, InterruptedException {
+        final Database primary = TestUtil.createTempDatabase();
+        final Options options = new Options();
+        options.secondaryCatchUpIntervalMillis = 10;
+        final SecondaryDatabase secondary = new SecondaryDatabase(primary.getPath(), Files.createTempDirectory("cedar-secondary").toString(), options) {
+            @Override
+            public boolean tryCatchUpWithPrimary() {
+                throw new IllegalStateException("failed to catch up with primary: test");
+            }
+        };
+        try {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (secondary.getCatchUpFailureCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(secondary.getCatchUpFailureCount() >= 2);
+            assertEquals("failed to catch up with primary: test", secondary.getLastCatchUpError().getMessage());
+        } finally {
+            secondary.close();
+        }
+    }
+
+    @Test
+    void testBackgroundCatchUp() throws RocksDBException, IOException, InterruptedException {
+        final Database primary = TestUtil.createTempDatabase();
+        final byte[] key = TestUtil.generateRandomKey();
+        final SecondaryDatabase secondary = openSecondary(primary, 10);
+        try {
+            primary.setAdd(key, "m".getBytes());
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (!secondary.setIsMember(key, "m".getBytes()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(secondary.setIsMember(key, "m".getBytes()));
+        } finally {
+            secondary.close();
+        }
+    }
+}
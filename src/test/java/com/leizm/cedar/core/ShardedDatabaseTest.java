@@ -0,0 +1,118 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+import org.rocksdb.RocksDBException;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedDatabaseTest {
+    static String createTempPath(final String name) {
+        return Paths.get(
+                System.getProperty("java.io.tmpdir"),
+                String.format("cedar-test-%s-%d-%d", name, System.nanoTime(), TestUtil.dbList.size())
+        ).toAbsolutePath().toString();
+    }
+
+    @Test
+    void testShardOf() {
+        assertEquals(ShardedDatabase.shardOf("{user:1}.name".getBytes(), 16), ShardedDatabase.shardOf("{user:1}.tags".getBytes(), 16));
+        assertEquals(ShardedDatabase.shardOf("user:1".getBytes(), 16), ShardedDatabase.shardOf("{user:1}.tags".getBytes(), 16));
+        assertEquals(ShardedDatabase.shardOf("a{}b".getBytes(), 16), ShardedDatabase.shardOf("a{}b".getBytes(), 16));
+        final int[] counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            counts[ShardedDatabase.shardOf(("key-" + i).getBytes(), 4)]++;
+        }
+        for (final int count : counts) {
+            assertTrue(count > 800, Arrays.toString(counts));
+        }
+    }
+
+    @Test
+    void testRouting() throws RocksDBException {
+        final String path = createTempPath("sharded");
+        final ShardedDatabase db = new ShardedDatabase(path, 4, null);
+        try {
+            final Set<String> keys = new HashSet<>();
+            for (int i = 0; i < 100; i++) {
+                final String key = "key-" + i;
+                keys.add(key);
+                db.mapPut(key.getBytes(), MapItem.of("f".getBytes(), key.getBytes()));
+            }
+            for (final String key : keys) {
+                assertEquals(key, new String(db.mapGet(key.getBytes(), "f".getBytes()).get()));
+                assertEquals(1, db.getShard(key.getBytes()).mapCount(key.getBytes()));
+            }
+            final Set<String> found = new HashSet<>();
+            assertEquals(100, db.forEachKeys((key, meta) -> found.add(new String(key))));
+            assertEquals(keys, found);
+            for (final Database shard : db.getShards()) {
+                assertTrue(shard.forEachKeys((key, meta) -> {
+                }) > 0);
+            }
+
+            db.listRightPush("{q}.pending".getBytes(), "a".getBytes());
+            assertEquals(1, db.listMove("{q}.pending".getBytes(), "{q}.running".getBytes(), ListSide.Left, ListSide.Right, 1).size());
+            byte[] other = "other-0".getBytes();
+            for (int i = 1; ShardedDatabase.shardOf(other, 4) == ShardedDatabase.shardOf("{q}.pending".getBytes(), 4); i++) {
+                other = ("other-" + i).getBytes();
+            }
+            final byte[] otherKey = other;
+            assertThrows(IllegalArgumentException.class, () -> db.listMove("{q}.running".getBytes(), otherKey, ListSide.Left, ListSide.Right, 1));
+            assertThrows(IllegalArgumentException.class, () -> db.setUnionStore(otherKey, "{q}.a".getBytes()));
+        } finally {
+            db.close();
+        }
+        assertThrows(IllegalStateException.class, () -> new ShardedDatabase(path, 2, null));
+        new ShardedDatabase(path, null).close();
+    }
+
+    @Test
+    void testReshard() throws RocksDBException {
+        final String path = createTempPath("reshard-src");
+        final ShardedDatabase db = new ShardedDatabase(path, 3, null);
+        try {
+            for (int i = 0; i < 20; i++) {
+                final byte[] key = ("k" + i).getBytes();
+                db.mapPut(("map-" + i).getBytes(), MapItem.of(key, key));
+                db.setAdd(("set-" + i).getBytes(), key, "x".getBytes());
+                db.listRightPush(("list-" + i).getBytes(), key, "y".getBytes(), "z".getBytes());
+                db.sortedListAdd(("sl-" + i).getBytes(), SortedListItem.ofLong(2, key), SortedListItem.ofLong(1, key));
+                db.ascSortedListAdd(("asl-" + i).getBytes(), SortedListItem.ofLong(-i, key));
+                db.sortedSetAdd(("ss-" + i).getBytes(), SortedSetItem.of(key, i), SortedSetItem.of("m".getBytes(), -i - 1));
+            }
+            for (int i = 0; i < 2500; i++) {
+                db.setAdd("big".getBytes(), ("m" + i).getBytes());
+            }
+            db.listSetCap("capped".getBytes(), 2);
+            db.listRightPush("capped".getBytes(), "1".getBytes(), "2".getBytes(), "3".getBytes());
+        } finally {
+            db.close();
+        }
+
+        final String dstPath = createTempPath("reshard-dst");
+        assertEquals(20 * 6 + 2, ShardedDatabase.reshard(path, dstPath, 5, null));
+        final ShardedDatabase dst = new ShardedDatabase(dstPath, null);
+        try {
+            assertEquals(5, dst.getShards().length);
+            for (int i = 0; i < 20; i++) {
+                final String key = "k" + i;
+                assertEquals(key, new String(dst.mapGet(("map-" + i).getBytes(), key.getBytes()).get()));
+                assertEquals(2, dst.setCount(("set-" + i).getBytes()));
+                assertEquals(Arrays.asList(key, "y", "z"), dst.listItems(("list-" + i).getBytes()).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+                assertEquals(Arrays.asList(1L, 2L), dst.sortedListItems(("sl-" + i).getBytes()).stream().map(SortedListItem::scoreAsLong).collect(Collectors.toList()));
+                assertEquals(-i, dst.ascSortedListPop(("asl-" + i).getBytes(), (byte[]) null).get().scoreAsLong());
+                assertEquals(i, dst.sortedSetScore(("ss-" + i).getBytes(), key.getBytes()).getAsDouble());
+                assertEquals(1, dst.sortedSetRank(("ss-" + i).getBytes(), key.getBytes()).getAsLong());
+            }
+            assertEquals(2500, dst.setCount("big".getBytes()));
+            dst.listRightPush("capped".getBytes(), "4".getBytes());
+            assertEquals(Arrays.asList("3", "4"), dst.listItems("capped".getBytes()).stream().map(item -> new String(item.value)).collect(Collectors.toList()));
+        } finally {
+            dst.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.leizm.cedar.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowLogTest {
+
+    @Test
+    void test() {
+        final SlowLog log = new SlowLog(3, 10);
+        assertEquals(3, log.capacity());
+        assertEquals(0, log.size());
+
+        log.record(OperationType.MapGet, "a".getBytes(), 1, 9_999);
+        assertEquals(0, log.size());
+
+        for (int i = 0; i < 5; i++) {
+            log.record(OperationType.MapPut, ("key-" + i).getBytes(), i, 10_000 + i);
+        }
+        assertEquals(3, log.size());
+        final List<SlowLog.Entry> entries = log.get(10);
+        assertEquals(3, entries.size());
+        assertEquals(4, entries.get(0).id);
+        assertEquals("key-4", new String(entries.get(0).keyPrefix));
+        assertEquals(4, entries.get(0).count);
+        assertEquals(10_004, entries.get(0).durationNanos);
+        assertEquals(OperationType.MapPut, entries.get(0).type);
+        assertEquals(Thread.currentThread().getName(), entries.get(0).threadName);
+        assertEquals(2, entries.get(2).id);
+        assertEquals(1, log.get(1).size());
+
+        final byte[] longKey = new byte[100];
+        log.record(OperationType.SetAdd, longKey, 0, 20_000);
+        assertEquals(SlowLog.MAX_KEY_PREFIX_LENGTH, log.get(1).get(0).keyPrefix.length);
+        assertEquals(100, log.get(1).get(0).keyLength);
+
+        log.reset();
+        assertEquals(0, log.size());
+        assertTrue(log.get(10).isEmpty());
+        log.record(OperationType.SetAdd, null, 0, 20_000);
+        assertEquals(6, log.get(10).get(0).id);
+    }
+
+    @Test
+    void testDatabase() {
+        final Options options = new Options();
+        options.slowLogThresholdMicros = 0;
+        options.slowLogMaxLen = 2;
+        final Database db = TestUtil.createTempDatabase(options);
+        final byte[] key = TestUtil.generateRandomKey();
+        db.setAdd(key, "a".getBytes(), "b".getBytes());
+        db.setCount(key);
+        assertEquals(2, db.slowLogLength());
+        final List<SlowLog.Entry> entries = db.slowLog(10);
+        assertEquals(OperationType.SetCount, entries.get(0).type);
+        assertEquals(OperationType.SetAdd, entries.get(1).type);
+        assertEquals(2, entries.get(1).count);
+        assertArrayEquals(key, entries.get(1).keyPrefix);
+        // results are counted by their size
+        db.setMembers(key);
+        db.mapGet(TestUtil.generateRandomKey(), "a".getBytes());
+        assertEquals(2, db.slowLog(2).get(1).count);
+        assertEquals(0, db.slowLog(2).get(0).count);
+        db.slowLogReset();
+        assertEquals(0, db.slowLogLength());
+
+        final Options disabled = new Options();
+        disabled.slowLogThresholdMicros = -1;
+        final Database db2 = TestUtil.createTempDatabase(disabled);
+        db2.setAdd(key, "a".getBytes());
+        assertEquals(0, db2.slowLogLength());
+        assertTrue(db2.slowLog(10).isEmpty());
+    }
+}
@@ -1,7 +1,6 @@
 package com.leizm.cedar.core;
 
 import org.rocksdb.RocksDBException;
-import org.rocksdb.RocksIterator;
 
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -20,10 +19,22 @@ public class TestUtil {
         return createTempDatabase(path);
     }
 
+    public static Database createTempDatabase(Options options) {
+        String path = Paths.get(
+                System.getProperty("java.io.tmpdir"),
+                String.format("cedar-test-%d-%d", dbList.size(), System.currentTimeMillis())
+        ).toAbsolutePath().toString();
+        return createTempDatabase(path, options);
+    }
+
     public static Database createTempDatabase(String path) {
+        return createTempDatabase(path, null);
+    }
+
+    public static Database createTempDatabase(String path, Options options) {
         try {
             System.out.printf("create database on path: %s\n", path);
-            Database db = new Database(path);
+            Database db = new Database(path, options);
             dbList.add(db);
             return db;
         } catch (RocksDBException e) {
@@ -48,8 +59,8 @@ public class TestUtil {
     public static void dumpDatabase(Database db) {
         System.out.println("==================== dumpDatabase ====================");
         System.out.println("path: " + db.getPath());
-        RocksIterator iter = db.getDb().newIterator();
-        iter.seekToFirst();
+        StoreIterator iter = db.dbIterator(null);
+        iter.seek(new byte[0]);
         while (iter.isValid()) {
             System.out.printf("%s (%s) = %s (%s) \n",
                     bytesToHex(iter.key()), new String(iter.key()),
@@ -0,0 +1,163 @@
+package com.leizm.cedar.server;
+
+import com.leizm.cedar.core.Database;
+import com.leizm.cedar.core.Options;
+import com.leizm.cedar.core.TestUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RespServerTest {
+    static String command(final String... args) {
+        final StringBuilder s = new StringBuilder("*" + args.length + "\r\n");
+        for (final String arg : args) {
+            s.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(arg).append("\r\n");
+        }
+        return s.toString();
+    }
+
+    /**
+     * send the request and read until the response has the expected length
+     */
+    static String roundTrip(final Socket socket, final String request, final String expected) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        final InputStream in = socket.getInputStream();
+        final byte[] buf = new byte[expected.length()];
+        int n = 0;
+        while (n < buf.length) {
+            final int r = in.read(buf, n, buf.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return new String(buf, 0, n, StandardCharsets.UTF_8);
+    }
+
+    static void assertRoundTrip(final Socket socket, final String request, final String expected) throws IOException {
+        assertEquals(expected, roundTrip(socket, request, expected));
+    }
+
+    @Test
+    void testCommands() throws IOException {
+        final Database db = TestUtil.createTempDatabase();
+        try (final RespServer server = new RespServer(db, new InetSocketAddress("127.0.0.1", 0), 2);
+             final Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            assertRoundTrip(socket, "PING\r\n", "+PONG\r\n");
+            assertRoundTrip(socket, command("HSET", "h", "a", "1", "b", "2"), ":2\r\n");
+            assertRoundTrip(socket, command("HGET", "h", "a"), "$1\r\n1\r\n");
+            assertRoundTrip(socket, command("HGET", "h", "c"), "$-1\r\n");
+            assertRoundTrip(socket, command("SADD", "s", "x", "y"), ":2\r\n");
+            assertRoundTrip(socket, command("SADD", "s", "z"), ":1\r\n");
+            assertRoundTrip(socket, command("SREM", "s", "z", "z"), ":1\r\n");
+            assertRoundTrip(socket, command("SCARD", "s"), ":2\r\n");
+            assertRoundTrip(socket, command("SISMEMBER", "s", "y"), ":1\r\n");
+            assertRoundTrip(socket, command("LPUSH", "l", "a", "b"), ":2\r\n");
+            assertRoundTrip(socket, command("LPOP", "l"), "$1\r\nb\r\n");
+            assertRoundTrip(socket, command("ZADD", "z", "2", "b", "1", "a", "3", "c"), ":3\r\n");
+            assertRoundTrip(socket, command("ZPOPMIN", "z", "2"), "*4\r\n$1\r\na\r\n$1\r\n1\r\n$1\r\nb\r\n$1\r\n2\r\n");
+            assertRoundTrip(socket, command("ZCARD", "z"), ":1\r\n");
+            assertRoundTrip(socket, command("SADD", "h", "x"), "-WRONGTYPE Operation against a key holding the wrong kind of value\r\n");
+            assertRoundTrip(socket, command("NOPE"), "-ERR unknown command 'nope'\r\n");
+
+            // HSET counts new fields only, HINCRBY and HINCRBYFLOAT work on the decimal text it stores
+            assertRoundTrip(socket, command("HSET", "h", "a", "5", "t", "x"), ":1\r\n");
+            assertRoundTrip(socket, command("HINCRBY", "h", "a", "2"), ":7\r\n");
+            assertRoundTrip(socket, command("HINCRBY", "h", "n", "-3"), ":-3\r\n");
+            assertRoundTrip(socket, command("HGET", "h", "a"), "$1\r\n7\r\n");
+            assertRoundTrip(socket, command("HINCRBY", "h", "t", "1"), "-ERR hash value is not an integer\r\n");
+            assertRoundTrip(socket, command("HINCRBY", "h", "a", String.valueOf(Long.MAX_VALUE)), "-ERR increment or decrement would overflow\r\n");
+            assertRoundTrip(socket, command("HINCRBYFLOAT", "h", "a", "0.5"), "$3\r\n7.5\r\n");
+            assertRoundTrip(socket, command("HINCRBYFLOAT", "h", "t", "1"), "-ERR hash value is not a float\r\n");
+            assertRoundTrip(socket, command("HGET", "h", "a"), "$3\r\n7.5\r\n");
+            assertRoundTrip(socket, command("HLEN", "h"), ":4\r\n");
+
+            assertRoundTrip(socket, command("RPUSH", "l", "b", "c", "d"), ":4\r\n");
+            assertRoundTrip(socket, command("LRANGE", "l", "1", "-2"), "*2\r\n$1\r\nb\r\n$1\r\nc\r\n");
+            assertRoundTrip(socket, command("LRANGE", "l", "5", "10"), "*0\r\n");
+            assertRoundTrip(socket, command("ZADD", "z", "1", "a", "2", "b"), ":2\r\n");
+            assertRoundTrip(socket, command("ZRANGE", "z", "-2", "-1"), "*2\r\n$1\r\nb\r\n$1\r\nc\r\n");
+
+            // RESP3 after HELLO
+            final String hello = "%3\r\n$6\r\nserver\r\n$5\r\ncedar\r\n$5\r\nproto\r\n:3\r\n$4\r\nmode\r\n$10\r\nstandalone\r\n";
+            assertRoundTrip(socket, command("HELLO", "3"), hello);
+            assertRoundTrip(socket, command("HGET", "h", "c"), "_\r\n");
+            assertRoundTrip(socket, command("ZSCORE", "z", "c"), ",3\r\n");
+            assertRoundTrip(socket, command("SISMEMBER", "s", "x"), ":1\r\n");
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    void testHsetApproximateCount() throws IOException {
+        final Options options = new Options();
+        options.exactCount = false;
+        final Database db = TestUtil.createTempDatabase(options);
+        try (final RespServer server = new RespServer(db, new InetSocketAddress("127.0.0.1", 0), 2);
+             final Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            // the reply counts new fields even when mapPut does not read them
+            assertRoundTrip(socket, command("HSET", "h", "a", "1", "b", "2"), ":2\r\n");
+            assertRoundTrip(socket, command("HSET", "h", "a", "3", "c", "4", "c", "5"), ":1\r\n");
+            assertRoundTrip(socket, command("HGET", "h", "c"), "$1\r\n5\r\n");
+            assertRoundTrip(socket, command("HMSET", "h", "d", "6"), "+OK\r\n");
+        }
+    }
+
+    @Test
+    void testPipeline() throws IOException {
+        final Database db = TestUtil.createTempDatabase();
+        try (final RespServer server = new RespServer(db, new InetSocketAddress("127.0.0.1", 0), 1);
+             final Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            final StringBuilder request = new StringBuilder();
+            final StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                request.append(command("RPUSH", "queue", "v" + i));
+                expected.append(':').append(i + 1).append("\r\n");
+            }
+            // the last command is split in the middle
+            request.append(command("LLEN", "queue"));
+            expected.append(":1000\r\n");
+            final String s = request.toString();
+            final OutputStream out = socket.getOutputStream();
+            out.write(s.substring(0, s.length() - 5).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertRoundTrip(socket, s.substring(s.length() - 5), expected.toString());
+            assertEquals(1000, db.listCount("queue".getBytes()));
+            assertEquals(1001, server.getCommandCount());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    void testLoadGenerator() throws Exception {
+        final Database db = TestUtil.createTempDatabase();
+        try (final RespServer server = new RespServer(db, new InetSocketAddress("127.0.0.1", 0), 2)) {
+            final RespLoadGenerator generator = new RespLoadGenerator();
+            generator.port = server.getPort();
+            generator.connections = 2;
+            generator.pipeline = 8;
+            generator.durationMillis = 300;
+            generator.keySpace = 100;
+            final RespLoadGenerator.Result result = generator.run();
+            assertTrue(result.commands > 0);
+            assertEquals(0, result.errors);
+            assertEquals(result.commands, result.latency.getCount());
+        } finally {
+            db.close();
+        }
+    }
+}
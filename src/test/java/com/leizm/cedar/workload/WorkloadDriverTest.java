@@ -0,0 +1,84 @@
+package com.leizm.cedar.workload;
+
+import com.leizm.cedar.core.InMemoryDatabase;
+import com.leizm.cedar.core.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkloadDriverTest {
+    @Test
+    void testZipfian() {
+        final Random random = new Random(1);
+        final ZipfianGenerator zipfian = new ZipfianGenerator(1000, 0.99, false);
+        final long[] counts = new long[1000];
+        for (int i = 0; i < 100_000; i++) {
+            counts[(int) zipfian.next(random)]++;
+        }
+        // the most popular key is accessed far more often than under a uniform distribution
+        assertTrue(counts[0] > 10 * 100, String.valueOf(counts[0]));
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10] && counts[10] > counts[500]);
+
+        final ZipfianGenerator scrambled = new ZipfianGenerator(1000, 0.99, true);
+        for (int i = 0; i < 10_000; i++) {
+            final long k = scrambled.next(random);
+            assertTrue(k >= 0 && k < 1000);
+        }
+    }
+
+    @Test
+    void testProfile() {
+        for (final String name : WorkloadProfile.BUILTIN_NAMES) {
+            WorkloadProfile.builtin(name).validate();
+        }
+        final Properties properties = new Properties();
+        properties.setProperty("extends", "map-read-heavy");
+        properties.setProperty("name", "small");
+        properties.setProperty("keyCount", "1_000");
+        properties.setProperty("preloadKeys", "1000");
+        properties.setProperty("mix.MapRead", "80");
+        properties.setProperty("mix.QueuePush", "20");
+        final WorkloadProfile profile = WorkloadProfile.fromProperties(properties);
+        assertEquals("small", profile.name);
+        assertEquals(1000, profile.keyCount);
+        assertEquals(2, profile.mix.size());
+        assertEquals(80, (int) profile.mix.get(WorkloadOperation.MapRead));
+        assertEquals("zipfian", profile.keyDistribution);
+
+        properties.setProperty("mix.Nope", "1");
+        assertThrows(IllegalArgumentException.class, () -> WorkloadProfile.fromProperties(properties));
+    }
+
+    @Test
+    void testRun() throws InterruptedException {
+        final WorkloadProfile profile = WorkloadProfile.builtin("mixed");
+        profile.threads = 2;
+        profile.targetOpsPerSecond = 2000;
+        profile.warmupSeconds = 0;
+        profile.durationSeconds = 1;
+        profile.keyCount = 1000;
+        profile.preloadKeys = 1000;
+        profile.leaderboardSize = 100;
+        final InMemoryDatabase db = new InMemoryDatabase();
+        final WorkloadDriver driver = new WorkloadDriver(db, profile);
+        assertEquals(2000 + profile.leaderboardCount, driver.preload());
+        assertEquals(profile.fieldsPerKey, db.mapCount("user:999".getBytes()));
+
+        final WorkloadDriver.Result result = driver.run();
+        assertEquals(0, result.errors.get());
+        // the schedule issues about targetOpsPerSecond * durationSeconds operations
+        assertTrue(result.getCount() + result.missed.get() >= 1900, result.getCount() + " " + result.missed.get());
+        assertTrue(result.getCount() <= 2000);
+        assertTrue(result.latency.get(WorkloadOperation.MapRead).getCount() > 0);
+        for (final WorkloadOperation operation : WorkloadOperation.values()) {
+            final LatencyHistogram latency = result.latency.get(operation);
+            final LatencyHistogram service = result.serviceTime.get(operation);
+            assertEquals(latency.getCount(), service.getCount());
+            // latency measured from the scheduled time includes the service time
+            assertTrue(latency.getMax() >= service.getMax() || latency.getCount() == 0);
+        }
+    }
+}